@@ -0,0 +1,270 @@
+package net.casper.bench;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.casper.data.model.CBuilder;
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+
+/**
+ * Generated rows for benchmarks. Every column mix has an Integer primary key
+ * {@code id}, a {@code group} column with {@value #GROUPS} distinct values, a
+ * {@code code} column with {@value #CODES} distinct values, and Double
+ * {@code value} and {@code weight} columns, followed by columns of the mix:
+ * <ul>
+ * <li>{@link #NUMERIC}: group and code are Integers, followed by 3 Double
+ * columns.</li>
+ * <li>{@link #MIXED}: group and code are Strings, followed by a String
+ * {@code name} and an Integer {@code count}.</li>
+ * </ul>
+ * Rows are generated from a fixed seed, so every run has the same values.
+ *
+ * @author agent
+ */
+public final class CBenchRows {
+
+	/**
+	 * Numeric column mix.
+	 */
+	public static final String NUMERIC = "numeric";
+
+	/**
+	 * String and numeric column mix.
+	 */
+	public static final String MIXED = "mixed";
+
+	/**
+	 * Number of distinct values in the {@code group} column.
+	 */
+	public static final int GROUPS = 100;
+
+	/**
+	 * Number of distinct values in the {@code code} column.
+	 */
+	public static final int CODES = 1000;
+
+	/**
+	 * Name of generated datasets.
+	 */
+	public static final String NAME = "bench";
+
+	/**
+	 * Primary key column.
+	 */
+	public static final String[] PRIMARY_KEY = { "id" };
+
+	private static final long SEED = 42;
+
+	private final String mix;
+
+	private final String[] columnNames;
+
+	private final Class[] columnTypes;
+
+	private final Object[][] rows;
+
+	/**
+	 * Generate rows.
+	 *
+	 * @param mix
+	 *            {@link #NUMERIC} or {@link #MIXED}
+	 * @param rowCount
+	 *            number of rows
+	 */
+	public CBenchRows(String mix, int rowCount) {
+		this.mix = mix;
+
+		if (NUMERIC.equals(mix)) {
+			columnNames = new String[] { "id", "group", "code", "value",
+					"weight", "x1", "x2", "x3" };
+			columnTypes = new Class[] { Integer.class, Integer.class,
+					Integer.class, Double.class, Double.class, Double.class,
+					Double.class, Double.class };
+		} else if (MIXED.equals(mix)) {
+			columnNames = new String[] { "id", "group", "code", "value",
+					"weight", "name", "count" };
+			columnTypes = new Class[] { Integer.class, String.class,
+					String.class, Double.class, Double.class, String.class,
+					Integer.class };
+		} else {
+			throw new IllegalArgumentException("Unknown column mix " + mix);
+		}
+
+		Random random = new Random(SEED);
+		rows = new Object[rowCount][];
+		for (int i = 0; i < rowCount; i++) {
+			rows[i] = newRow(i, random);
+		}
+	}
+
+	/**
+	 * Generate a row.
+	 *
+	 * @param id
+	 *            primary key
+	 * @param random
+	 *            random values
+	 * @return row
+	 */
+	private Object[] newRow(int id, Random random) {
+		Object[] row = new Object[columnNames.length];
+		row[0] = id;
+		row[1] = group(random.nextInt(GROUPS));
+		row[2] = code(random.nextInt(CODES));
+		row[3] = random.nextDouble() * 1000;
+		row[4] = random.nextDouble();
+
+		if (NUMERIC.equals(mix)) {
+			row[5] = random.nextGaussian();
+			row[6] = random.nextGaussian();
+			row[7] = random.nextGaussian();
+		} else {
+			row[5] = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+			row[6] = random.nextInt(100);
+		}
+		return row;
+	}
+
+	/**
+	 * Get a value of the {@code group} column.
+	 *
+	 * @param n
+	 *            group number, 0 to {@link #GROUPS} - 1
+	 * @return group value
+	 */
+	public Object group(int n) {
+		return NUMERIC.equals(mix) ? (Object) n : "g" + n;
+	}
+
+	/**
+	 * Get a value of the {@code code} column.
+	 *
+	 * @param n
+	 *            code number, 0 to {@link #CODES} - 1
+	 * @return code value
+	 */
+	public Object code(int n) {
+		return NUMERIC.equals(mix) ? (Object) n : "c" + n;
+	}
+
+	/**
+	 * Get the column names.
+	 *
+	 * @return column names
+	 */
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	/**
+	 * Get the column types.
+	 *
+	 * @return column types
+	 */
+	public Class[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	/**
+	 * Get the number of rows.
+	 *
+	 * @return number of rows
+	 */
+	public int size() {
+		return rows.length;
+	}
+
+	/**
+	 * Get rows, which share their values with the generated rows so must not
+	 * be changed, eg: by a merge.
+	 *
+	 * @param from
+	 *            first row
+	 * @param to
+	 *            last row, exclusive
+	 * @return rows
+	 * @throws CDataGridException
+	 *             if problem creating rows
+	 */
+	public CDataRow[] toRows(int from, int to) throws CDataGridException {
+		CDataRow[] result = new CDataRow[to - from];
+		for (int i = from; i < to; i++) {
+			result[i - from] = new CDataRow(rows[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Get a builder of the generated rows.
+	 *
+	 * @return builder
+	 */
+	public CBuilder newBuilder() {
+		return new CBuilder() {
+			private int next;
+
+			@Override
+			public String getName() {
+				return NAME;
+			}
+
+			@Override
+			public String[] getColumnNames() {
+				return columnNames;
+			}
+
+			@Override
+			public Class[] getColumnTypes() {
+				return columnTypes;
+			}
+
+			@Override
+			public String[] getPrimaryKeyColumns() {
+				return PRIMARY_KEY;
+			}
+
+			@Override
+			public Map getConcreteMap() {
+				return new HashMap();
+			}
+
+			@Override
+			public void open() throws IOException {
+				next = 0;
+			}
+
+			@Override
+			public Object[] readRow() throws IOException {
+				return (next < rows.length) ? rows[next++].clone() : null;
+			}
+
+			@Override
+			public void close() {
+				// do nothing
+			}
+		};
+	}
+
+	/**
+	 * Build a container of the generated rows.
+	 *
+	 * @param indexGroup
+	 *            if true add a non-unique index on the {@code group} column
+	 * @return container
+	 * @throws CDataGridException
+	 *             if problem building container
+	 */
+	public CDataCacheContainer newContainer(boolean indexGroup)
+			throws CDataGridException {
+		CDataCacheContainer container = new CDataCacheContainer(newBuilder());
+		if (indexGroup) {
+			container.addNonUniqueIndex("group");
+		}
+		return container;
+	}
+
+}
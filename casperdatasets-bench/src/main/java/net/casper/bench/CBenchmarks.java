@@ -0,0 +1,69 @@
+package net.casper.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, writing results as JSON to {@value #RESULT_FILE} so
+ * runs can be compared to find regressions. Takes the same options as the JMH
+ * command line, eg: {@code -p rowCount=100000 -p mix=mixed} to run one row
+ * count and column mix, {@code -rff file} to write results to another file,
+ * or {@code -rf csv} for another format.
+ *
+ * @author agent
+ */
+public final class CBenchmarks {
+
+	/**
+	 * Default results file.
+	 */
+	public static final String RESULT_FILE = "casper-bench.json";
+
+	private CBenchmarks() {
+		// no instances
+	}
+
+	/**
+	 * Run benchmarks.
+	 *
+	 * @param args
+	 *            JMH command line options
+	 * @throws CommandLineOptionException
+	 *             if options are invalid
+	 * @throws RunnerException
+	 *             if a benchmark fails
+	 * @throws IOException
+	 *             if problem listing benchmarks
+	 */
+	public static void main(String[] args) throws CommandLineOptionException,
+			RunnerException, IOException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+
+		// help and listings are not runs, so leave them to JMH
+		if (cmd.shouldHelp() || cmd.shouldList()
+				|| cmd.shouldListWithParams() || cmd.shouldListProfilers()
+				|| cmd.shouldListResultFormats()) {
+			Main.main(args);
+			return;
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+		if (!cmd.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmd.getResult().hasValue()) {
+			options.result(RESULT_FILE);
+		}
+
+		new Runner(options.build()).run();
+	}
+
+}
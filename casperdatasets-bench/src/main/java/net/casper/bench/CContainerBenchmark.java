@@ -0,0 +1,173 @@
+package net.casper.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CRowMetaData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of building and changing a container: construction from a
+ * {@link net.casper.data.model.CBuilder}, adding and removing rows with an
+ * index, and merging. Containers changed by a benchmark are built before each
+ * invocation, outside the measured time (see {@link Target}).
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CContainerBenchmark {
+
+	/**
+	 * Fraction of rows removed or merged.
+	 */
+	private static final int CHANGED_FRACTION = 10;
+
+	/**
+	 * Number of rows.
+	 */
+	@Param({ "10000", "100000", "1000000" })
+	private int rowCount;
+
+	/**
+	 * Column mix, see {@link CBenchRows}.
+	 */
+	@Param({ CBenchRows.NUMERIC, CBenchRows.MIXED })
+	private String mix;
+
+	private CBenchRows rows;
+
+	private CDataRow[] allRows;
+
+	private CDataRow[] changedRows;
+
+	private CDataRowSet changes;
+
+	/**
+	 * Generate rows, and changes to them.
+	 *
+	 * @throws CDataGridException
+	 *             if problem creating changes
+	 */
+	@Setup(Level.Trial)
+	public void generate() throws CDataGridException {
+		rows = new CBenchRows(mix, rowCount);
+		allRows = rows.toRows(0, rowCount);
+
+		int changedCount = rowCount / CHANGED_FRACTION;
+		changedRows = new CDataRow[changedCount];
+		for (int i = 0; i < changedCount; i++) {
+			changedRows[i] = allRows[i * CHANGED_FRACTION];
+		}
+
+		changes =
+				new CDataRowSet(new CRowMetaData(new String[] { "id", "value" },
+						new Class[] { Integer.class, Double.class },
+						CBenchRows.PRIMARY_KEY));
+		CDataRow[] changeRows = new CDataRow[changedCount];
+		for (int i = 0; i < changedCount; i++) {
+			changeRows[i] =
+					new CDataRow(new Object[] { i * CHANGED_FRACTION,
+							(double) -i });
+		}
+		changes.addData(changeRows);
+	}
+
+	/**
+	 * Build a container from a builder.
+	 *
+	 * @return container
+	 * @throws CDataGridException
+	 *             if problem building container
+	 */
+	@Benchmark
+	public CDataCacheContainer build() throws CDataGridException {
+		return rows.newContainer(false);
+	}
+
+	/**
+	 * Add all rows to an empty container with an index on {@code group}.
+	 *
+	 * @return container
+	 * @throws CDataGridException
+	 *             if problem adding rows
+	 */
+	@Benchmark
+	public CDataCacheContainer addData() throws CDataGridException {
+		CDataCacheContainer empty =
+				new CDataCacheContainer(CBenchRows.NAME, new CRowMetaData(rows
+						.getColumnNames(), rows.getColumnTypes(),
+						CBenchRows.PRIMARY_KEY));
+		empty.addNonUniqueIndex("group");
+		empty.addData(allRows, true);
+		return empty;
+	}
+
+	/**
+	 * Remove every tenth row, updating the index on {@code group}.
+	 *
+	 * @return number of rows removed
+	 * @throws CDataGridException
+	 *             if problem removing rows
+	 */
+	@Benchmark
+	public int removeData(Target target) throws CDataGridException {
+		return target.container.removeData(changedRows, true);
+	}
+
+	/**
+	 * Merge a new {@code value} into every tenth row, joined on the primary
+	 * key.
+	 *
+	 * @return number of rows merged
+	 * @throws CDataGridException
+	 *             if problem merging rows
+	 */
+	@Benchmark
+	public int merge(Target target) throws CDataGridException {
+		return target.container.merge(changes, CBenchRows.PRIMARY_KEY);
+	}
+
+	/**
+	 * A container with an index on {@code group}, built before each
+	 * invocation of a benchmark that changes it.
+	 */
+	@State(Scope.Thread)
+	public static class Target {
+
+		private CDataCacheContainer container;
+
+		/**
+		 * Build the container.
+		 *
+		 * @param bench
+		 *            benchmark state
+		 * @throws CDataGridException
+		 *             if problem building container
+		 */
+		@Setup(Level.Invocation)
+		public void build(CContainerBenchmark bench) throws CDataGridException {
+			container = bench.rows.newContainer(true);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package net.casper.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.io.file.in.CBuildFromFile;
+import net.casper.io.file.out.CExportCSV;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of loading a container from a CSV file with
+ * {@link CBuildFromFile}, and exporting a container to a CSV file with
+ * {@link CExportCSV}. Files are written to the temporary directory.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CFileBenchmark {
+
+	/**
+	 * Number of rows read to infer column types by {@link #ingestInferred()}.
+	 */
+	private static final int INFER_ROWS = 1000;
+
+	/**
+	 * Number of rows.
+	 */
+	@Param({ "10000", "100000", "1000000" })
+	private int rowCount;
+
+	/**
+	 * Column mix, see {@link CBenchRows}.
+	 */
+	@Param({ CBenchRows.NUMERIC, CBenchRows.MIXED })
+	private String mix;
+
+	private CDataCacheContainer container;
+
+	private File csv;
+
+	private File exported;
+
+	/**
+	 * Build a container, and write it to the CSV file that is loaded.
+	 *
+	 * @throws CDataGridException
+	 *             if problem building or exporting container
+	 * @throws IOException
+	 *             if problem creating files
+	 */
+	@Setup(Level.Trial)
+	public void write() throws CDataGridException, IOException {
+		container = new CBenchRows(mix, rowCount).newContainer(false);
+		csv = File.createTempFile("casper-bench", ".csv");
+		exported = File.createTempFile("casper-bench-export", ".csv");
+		container.export(new CExportCSV(csv));
+	}
+
+	/**
+	 * Delete the files.
+	 */
+	@TearDown(Level.Trial)
+	public void delete() {
+		csv.delete();
+		exported.delete();
+	}
+
+	/**
+	 * Load the CSV file, with columns of the type read, ie: String.
+	 *
+	 * @return container
+	 * @throws CDataGridException
+	 *             if problem building container
+	 * @throws IOException
+	 *             if problem reading file
+	 */
+	@Benchmark
+	public CDataCacheContainer ingest() throws CDataGridException,
+			IOException {
+		return new CDataCacheContainer(new CBuildFromFile(csv, "id"));
+	}
+
+	/**
+	 * Load the CSV file parsed directly from memory mapped regions of the
+	 * file, with columns of type String.
+	 *
+	 * @return container
+	 * @throws CDataGridException
+	 *             if problem building container
+	 * @throws IOException
+	 *             if problem reading file
+	 */
+	@Benchmark
+	public CDataCacheContainer ingestMapped() throws CDataGridException,
+			IOException {
+		return new CDataCacheContainer(new CBuildFromFile(csv, null, null,
+				null, CBenchRows.PRIMARY_KEY, true));
+	}
+
+	/**
+	 * Load the CSV file, inferring the type of each column while loading.
+	 *
+	 * @return container
+	 * @throws CDataGridException
+	 *             if problem building container
+	 * @throws IOException
+	 *             if problem reading file
+	 */
+	@Benchmark
+	public CDataCacheContainer ingestInferred() throws CDataGridException,
+			IOException {
+		return new CDataCacheContainer(new CBuildFromFile(csv, "id")
+				.setInferTypes(INFER_ROWS, false));
+	}
+
+	/**
+	 * Export the container, sorted by primary key, to a CSV file.
+	 *
+	 * @return exporter result
+	 * @throws CDataGridException
+	 *             if problem exporting container
+	 * @throws IOException
+	 *             if problem opening file
+	 */
+	@Benchmark
+	public Object export() throws CDataGridException, IOException {
+		return container.export(new CExportCSV(exported));
+	}
+
+}
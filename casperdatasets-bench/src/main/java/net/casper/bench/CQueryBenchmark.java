@@ -0,0 +1,180 @@
+package net.casper.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CDataRowSetAggregator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of reading a container: {@code get} by primary key, by an indexed
+ * column and by a full scan of an unindexed column, sorting a rowset, and
+ * aggregating a rowset with {@link CDataRowSetAggregator}.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CQueryBenchmark {
+
+	/**
+	 * Number of primary keys looked up by {@link #getByPrimaryKey()}.
+	 */
+	private static final int KEYS = 16;
+
+	/**
+	 * Number of rows.
+	 */
+	@Param({ "10000", "100000", "1000000" })
+	private int rowCount;
+
+	/**
+	 * Column mix, see {@link CBenchRows}.
+	 */
+	@Param({ CBenchRows.NUMERIC, CBenchRows.MIXED })
+	private String mix;
+
+	private CDataCacheContainer container;
+
+	private CDataRowSet all;
+
+	private Object[] keys;
+
+	private Object[] group;
+
+	private Object[] code;
+
+	/**
+	 * Build a container with an index on {@code group}, and the values to
+	 * query.
+	 *
+	 * @throws CDataGridException
+	 *             if problem building container
+	 */
+	@Setup(Level.Trial)
+	public void build() throws CDataGridException {
+		CBenchRows rows = new CBenchRows(mix, rowCount);
+		container = rows.newContainer(true);
+		all = container.getAll(null, true);
+
+		keys = new Object[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = (int) ((long) i * rowCount / KEYS);
+		}
+		group = new Object[] { rows.group(CBenchRows.GROUPS / 2) };
+		code = new Object[] { rows.code(CBenchRows.CODES / 2) };
+	}
+
+	/**
+	 * Get rows by primary key.
+	 *
+	 * @return rows
+	 * @throws CDataGridException
+	 *             if problem querying
+	 */
+	@Benchmark
+	public CDataRowSet getByPrimaryKey() throws CDataGridException {
+		return container.get("id", keys);
+	}
+
+	/**
+	 * Get the rows of a group, through the index on {@code group}.
+	 *
+	 * @return rows
+	 * @throws CDataGridException
+	 *             if problem querying
+	 */
+	@Benchmark
+	public CDataRowSet getByIndex() throws CDataGridException {
+		return container.get("group", group);
+	}
+
+	/**
+	 * Get the rows of a code, by scanning all rows.
+	 *
+	 * @return rows
+	 * @throws CDataGridException
+	 *             if problem querying
+	 */
+	@Benchmark
+	public CDataRowSet getByScan() throws CDataGridException {
+		return container.get("code", code);
+	}
+
+	/**
+	 * Sort all rows by {@code group} then {@code value}.
+	 *
+	 * @param unsorted
+	 *            rows, in the container's order
+	 * @return sorted rows
+	 * @throws CDataGridException
+	 *             if problem sorting
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public CDataRowSet sortByColumn(Unsorted unsorted)
+			throws CDataGridException {
+		unsorted.rowset.sortByColumn(new String[] { "group", "value" }, true);
+		return unsorted.rowset;
+	}
+
+	/**
+	 * Sum, average and weighted average of the {@code value} column.
+	 *
+	 * @param bh
+	 *            consumes results
+	 * @throws CDataGridException
+	 *             if problem aggregating
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void aggregate(Blackhole bh) throws CDataGridException {
+		bh.consume(CDataRowSetAggregator.sum(all, "value"));
+		bh.consume(CDataRowSetAggregator.average(all, "value"));
+		bh.consume(CDataRowSetAggregator.weightedAverage(all, "value",
+				"weight"));
+	}
+
+	/**
+	 * All rows in the container's order, copied before each invocation of a
+	 * benchmark that sorts them.
+	 */
+	@State(Scope.Thread)
+	public static class Unsorted {
+
+		private CDataRowSet rowset;
+
+		/**
+		 * Copy the rows.
+		 *
+		 * @param bench
+		 *            benchmark state
+		 * @throws CDataGridException
+		 *             if problem copying rows
+		 */
+		@Setup(Level.Invocation)
+		public void copy(CQueryBenchmark bench) throws CDataGridException {
+			rowset = bench.container.getAll(null, true);
+		}
+	}
+
+}
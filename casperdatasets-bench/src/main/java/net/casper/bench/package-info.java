@@ -0,0 +1,8 @@
+/**
+ * JMH benchmarks of Casper dataset container operations and file I/O, run by
+ * {@link net.casper.bench.CBenchmarks}.
+ *
+ * @author agent
+ *
+ */
+package net.casper.bench;
\ No newline at end of file
@@ -0,0 +1,21 @@
+package net.casper.ext;
+
+/**
+ * A function of a double, applied to each value of a numeric column by
+ * {@link CasperUtil#transformColumns(net.casper.data.model.CDataCacheContainer, String[], CDoubleFunction)}.
+ * Called concurrently for large columns, so must be thread-safe.
+ * 
+ * @author agent
+ */
+public interface CDoubleFunction {
+
+	/**
+	 * Apply the function.
+	 * 
+	 * @param value
+	 *            value, not missing
+	 * @return result
+	 */
+	double apply(double value);
+
+}
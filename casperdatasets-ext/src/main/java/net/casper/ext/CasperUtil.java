@@ -3,18 +3,32 @@ package net.casper.ext;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import net.casper.data.model.CBuilder;
 import net.casper.data.model.CDataCacheContainer;
 import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
 import net.casper.data.model.CDataRowSet;
 import net.casper.data.model.CExporter;
 import net.casper.data.model.CMarkedUpRow;
 import net.casper.data.model.CMarkedUpRowBean;
 import net.casper.data.model.CRowMetaData;
+import net.casper.data.model.CTypeConverter;
+import net.casper.data.model.CTypes;
+import net.casper.ext.map.CIntDoubleMap;
+import net.casper.ext.map.CLongLongMap;
+import net.casper.ext.map.CObjectIntMap;
 import net.casper.io.file.out.CExportCSV;
 
 import org.omancode.rmt.cellreader.narrow.TypeCheckedValue;
@@ -27,6 +41,31 @@ import org.omancode.rmt.cellreader.narrow.TypeCheckedValue;
  */
 public final class CasperUtil {
 
+	/**
+	 * Columns with at least this many rows are read into arrays in parallel.
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	/**
+	 * Initial size of arrays read from builders.
+	 */
+	private static final int ARRAY_INITIAL_SIZE = 1024;
+
+	/**
+	 * Pool used to read large columns. Created when first needed.
+	 */
+	private static ExecutorService rangeExecutor;
+
+	/**
+	 * Function that returns its argument.
+	 */
+	private static final CDoubleFunction IDENTITY = new CDoubleFunction() {
+		@Override
+		public double apply(double value) {
+			return value;
+		}
+	};
+
 	private CasperUtil() {
 		// static utility class
 	}
@@ -51,19 +90,22 @@ public final class CasperUtil {
 	public static <M extends Map<Object, Object>> M convertColumnsToMap(
 			CDataCacheContainer source, M map, String keyColumn,
 			String valueColumn) throws CDataGridException {
+		CRowMetaData meta = source.getMetaDefinition();
+		int keyCol = meta.getColumnIndex(keyColumn);
+		int valueCol = meta.getColumnIndex(valueColumn);
+		CDataRow[] rows = source.getAllRows(meta.getPrimaryKeyColumns(),
+				true);
 
-		CDataRowSet rowset = source.getAll();
-
-		while (rowset.next()) {
-			map.put(rowset.getObject(keyColumn),
-					rowset.getObject(valueColumn));
+		for (int i = 0; i < rows.length; i++) {
+			map.put(rows[i].getValue(keyCol), rows[i].getValue(valueCol));
 		}
 
 		return map;
 	}
 
 	/**
-	 * Return a column of a Casper dataset as a double array.
+	 * Return a column of a Casper dataset as a double array, in primary key
+	 * order.
 	 * 
 	 * @param source
 	 *            container
@@ -75,43 +117,627 @@ public final class CasperUtil {
 	 */
 	public static double[] loadDoubleArray(CDataCacheContainer source,
 			String column) throws CDataGridException {
-		double[] array = new double[source.size()];
-
-		CDataRowSet rowset = source.getAll();
+		return loadDoubleArray(source, column, source.getMetaDefinition()
+				.getPrimaryKeyColumns());
+	}
 
-		int i = 0;
+	/**
+	 * Return a column of a Casper dataset as a double array. Values are read
+	 * directly from the container's rows, without a rowset, and converted
+	 * without boxing. Large columns are read in parallel.
+	 * 
+	 * @param source
+	 *            container
+	 * @param column
+	 *            column name
+	 * @param sortColumnNames
+	 *            columns that order the array, or {@code null} for the order
+	 *            rows are stored in, which is faster
+	 * @return double array
+	 * @throws CDataGridException
+	 *             if value in {@code column} is not double, or is null
+	 */
+	public static double[] loadDoubleArray(CDataCacheContainer source,
+			final String column, String[] sortColumnNames)
+			throws CDataGridException {
+		final CDataRow[] rows = source.getAllRows(sortColumnNames, true);
+		CRowMetaData meta = source.getMetaDefinition();
+		final int col = meta.getColumnIndex(column);
+		final CTypeConverter converter = meta.getConverter(col, CTypes.DOUBLE);
+		final double[] array = new double[rows.length];
 
-		while (rowset.next()) {
-			array[i++] = rowset.getDouble(column);
-		}
+		forRange(rows.length, new RangeTask() {
+			@Override
+			public void run(int from, int to) throws CDataGridException {
+				for (int i = from; i < to; i++) {
+					array[i] = converter.getDoubleValue(nonNull(rows[i]
+							.getValue(col), column, i));
+				}
+			}
+		});
 
 		return array;
 	}
 
 	/**
-	 * Return a column of a Casper dataset as a int array.
+	 * Return a column of a Casper dataset as a int array, in primary key
+	 * order.
 	 * 
 	 * @param source
 	 *            container
 	 * @param column
 	 *            column name
-	 * @return double array
+	 * @return int array
 	 * @throws CDataGridException
-	 *             if value in {@code column} is not double
+	 *             if value in {@code column} is not int
 	 */
 	public static int[] loadIntArray(CDataCacheContainer source, String column)
 			throws CDataGridException {
-		int[] array = new int[source.size()];
+		return loadIntArray(source, column, source.getMetaDefinition()
+				.getPrimaryKeyColumns());
+	}
 
-		CDataRowSet rowset = source.getAll();
+	/**
+	 * Return a column of a Casper dataset as a int array. Values are read
+	 * directly from the container's rows, without a rowset, and converted
+	 * without boxing. Large columns are read in parallel.
+	 * 
+	 * @param source
+	 *            container
+	 * @param column
+	 *            column name
+	 * @param sortColumnNames
+	 *            columns that order the array, or {@code null} for the order
+	 *            rows are stored in, which is faster
+	 * @return int array
+	 * @throws CDataGridException
+	 *             if value in {@code column} is not int, or is null
+	 */
+	public static int[] loadIntArray(CDataCacheContainer source,
+			final String column, String[] sortColumnNames)
+			throws CDataGridException {
+		final CDataRow[] rows = source.getAllRows(sortColumnNames, true);
+		CRowMetaData meta = source.getMetaDefinition();
+		final int col = meta.getColumnIndex(column);
+		final CTypeConverter converter = meta.getConverter(col, CTypes.INTEGER);
+		final int[] array = new int[rows.length];
 
-		int i = 0;
+		forRange(rows.length, new RangeTask() {
+			@Override
+			public void run(int from, int to) throws CDataGridException {
+				for (int i = from; i < to; i++) {
+					array[i] = converter.getIntValue(nonNull(rows[i]
+							.getValue(col), column, i));
+				}
+			}
+		});
 
-		while (rowset.next()) {
-			array[i++] = rowset.getInt(column);
+		return array;
+	}
+
+	/**
+	 * Read a column of a builder, eg: a file, into a double array without
+	 * building a container. Rows are in the order read.
+	 * 
+	 * @param builder
+	 *            unopened builder. Closed when read.
+	 * @param column
+	 *            column name
+	 * @return double array
+	 * @throws IOException
+	 *             if problem reading {@code builder}, or a value in
+	 *             {@code column} is not double or is null
+	 */
+	public static double[] loadDoubleArray(CBuilder builder, String column)
+			throws IOException {
+		try {
+			builder.open();
+			int col = findColumn(builder, column);
+			CTypeConverter converter = CTypeConverter.getConverter(builder
+					.getColumnTypes()[col], CTypes.DOUBLE);
+
+			double[] array = new double[ARRAY_INITIAL_SIZE];
+			int size = 0;
+			Object[] row;
+			while ((row = builder.readRow()) != null) {
+				if (size == array.length) {
+					array = Arrays.copyOf(array, size * 2);
+				}
+				array[size] = converter.getDoubleValue(nonNull(row[col],
+						column, size));
+				size++;
+			}
+			return Arrays.copyOf(array, size);
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		} finally {
+			builder.close();
 		}
+	}
 
-		return array;
+	/**
+	 * Read a column of a builder, eg: a file, into a int array without
+	 * building a container. Rows are in the order read.
+	 * 
+	 * @param builder
+	 *            unopened builder. Closed when read.
+	 * @param column
+	 *            column name
+	 * @return int array
+	 * @throws IOException
+	 *             if problem reading {@code builder}, or a value in
+	 *             {@code column} is not int or is null
+	 */
+	public static int[] loadIntArray(CBuilder builder, String column)
+			throws IOException {
+		try {
+			builder.open();
+			int col = findColumn(builder, column);
+			CTypeConverter converter = CTypeConverter.getConverter(builder
+					.getColumnTypes()[col], CTypes.INTEGER);
+
+			int[] array = new int[ARRAY_INITIAL_SIZE];
+			int size = 0;
+			Object[] row;
+			while ((row = builder.readRow()) != null) {
+				if (size == array.length) {
+					array = Arrays.copyOf(array, size * 2);
+				}
+				array[size] = converter.getIntValue(nonNull(row[col], column,
+						size));
+				size++;
+			}
+			return Arrays.copyOf(array, size);
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		} finally {
+			builder.close();
+		}
+	}
+
+	/**
+	 * Load a key and value column of a Casper dataset into an int to double
+	 * map, presized to the container's size. Values are read directly from
+	 * the container's rows and converted without boxing.
+	 * 
+	 * @param source
+	 *            container
+	 * @param keyColumn
+	 *            column that forms the keys of the map
+	 * @param valueColumn
+	 *            column that forms the values of the map
+	 * @return map
+	 * @throws CDataGridException
+	 *             if a key is not int or a value is not double, or either is
+	 *             null
+	 */
+	public static CIntDoubleMap loadIntDoubleMap(CDataCacheContainer source,
+			String keyColumn, String valueColumn) throws CDataGridException {
+		IntDoubleSink sink = new IntDoubleSink(source.size());
+		loadPairs(source, keyColumn, valueColumn, sink);
+		return sink.map;
+	}
+
+	/**
+	 * Read a key and value column of a builder, eg: a file, into an int to
+	 * double map without building a container.
+	 * 
+	 * @param builder
+	 *            unopened builder. Closed when read.
+	 * @param keyColumn
+	 *            column that forms the keys of the map
+	 * @param valueColumn
+	 *            column that forms the values of the map
+	 * @return map
+	 * @throws IOException
+	 *             if problem reading {@code builder}, or a key is not int or
+	 *             a value is not double, or either is null
+	 */
+	public static CIntDoubleMap loadIntDoubleMap(CBuilder builder,
+			String keyColumn, String valueColumn) throws IOException {
+		IntDoubleSink sink = new IntDoubleSink(0);
+		loadPairs(builder, keyColumn, valueColumn, sink);
+		return sink.map;
+	}
+
+	/**
+	 * Load a key and value column of a Casper dataset into a long to long
+	 * map, presized to the container's size. Values are read directly from
+	 * the container's rows and converted without boxing.
+	 * 
+	 * @param source
+	 *            container
+	 * @param keyColumn
+	 *            column that forms the keys of the map
+	 * @param valueColumn
+	 *            column that forms the values of the map
+	 * @return map
+	 * @throws CDataGridException
+	 *             if a key or value is not long, or is null
+	 */
+	public static CLongLongMap loadLongLongMap(CDataCacheContainer source,
+			String keyColumn, String valueColumn) throws CDataGridException {
+		LongLongSink sink = new LongLongSink(source.size());
+		loadPairs(source, keyColumn, valueColumn, sink);
+		return sink.map;
+	}
+
+	/**
+	 * Read a key and value column of a builder, eg: a file, into a long to
+	 * long map without building a container.
+	 * 
+	 * @param builder
+	 *            unopened builder. Closed when read.
+	 * @param keyColumn
+	 *            column that forms the keys of the map
+	 * @param valueColumn
+	 *            column that forms the values of the map
+	 * @return map
+	 * @throws IOException
+	 *             if problem reading {@code builder}, or a key or value is
+	 *             not long, or is null
+	 */
+	public static CLongLongMap loadLongLongMap(CBuilder builder,
+			String keyColumn, String valueColumn) throws IOException {
+		LongLongSink sink = new LongLongSink(0);
+		loadPairs(builder, keyColumn, valueColumn, sink);
+		return sink.map;
+	}
+
+	/**
+	 * Load a key and value column of a Casper dataset into a String to int
+	 * map, presized to the container's size. Values are read directly from
+	 * the container's rows and converted without boxing.
+	 * 
+	 * @param source
+	 *            container
+	 * @param keyColumn
+	 *            column that forms the keys of the map
+	 * @param valueColumn
+	 *            column that forms the values of the map
+	 * @return map
+	 * @throws CDataGridException
+	 *             if a value is not int, or a key or value is null
+	 */
+	public static CObjectIntMap<String> loadStringIntMap(
+			CDataCacheContainer source, String keyColumn, String valueColumn)
+			throws CDataGridException {
+		StringIntSink sink = new StringIntSink(source.size());
+		loadPairs(source, keyColumn, valueColumn, sink);
+		return sink.map;
+	}
+
+	/**
+	 * Read a key and value column of a builder, eg: a file, into a String to
+	 * int map without building a container.
+	 * 
+	 * @param builder
+	 *            unopened builder. Closed when read.
+	 * @param keyColumn
+	 *            column that forms the keys of the map
+	 * @param valueColumn
+	 *            column that forms the values of the map
+	 * @return map
+	 * @throws IOException
+	 *             if problem reading {@code builder}, or a value is not int,
+	 *             or a key or value is null
+	 */
+	public static CObjectIntMap<String> loadStringIntMap(CBuilder builder,
+			String keyColumn, String valueColumn) throws IOException {
+		StringIntSink sink = new StringIntSink(0);
+		loadPairs(builder, keyColumn, valueColumn, sink);
+		return sink.map;
+	}
+
+	/**
+	 * Add the key and value of each row of a container to a sink, in the
+	 * order rows are stored.
+	 * 
+	 * @param source
+	 *            container
+	 * @param keyColumn
+	 *            key column name
+	 * @param valueColumn
+	 *            value column name
+	 * @param sink
+	 *            receives each key and value
+	 * @throws CDataGridException
+	 *             if a key or value cannot be converted, or is null
+	 */
+	private static void loadPairs(CDataCacheContainer source,
+			String keyColumn, String valueColumn, PairSink sink)
+			throws CDataGridException {
+		CRowMetaData meta = source.getMetaDefinition();
+		int keyCol = meta.getColumnIndex(keyColumn);
+		int valueCol = meta.getColumnIndex(valueColumn);
+		sink.bind(meta.getColumnTypeCls(keyCol), meta
+				.getColumnTypeCls(valueCol));
+
+		CDataRow[] rows = source.getAllRows(null, true);
+		for (int i = 0; i < rows.length; i++) {
+			sink.add(nonNull(rows[i].getValue(keyCol), keyColumn, i),
+					nonNull(rows[i].getValue(valueCol), valueColumn, i));
+		}
+	}
+
+	/**
+	 * Add the key and value of each row read from a builder to a sink.
+	 * 
+	 * @param builder
+	 *            unopened builder. Closed when read.
+	 * @param keyColumn
+	 *            key column name
+	 * @param valueColumn
+	 *            value column name
+	 * @param sink
+	 *            receives each key and value
+	 * @throws IOException
+	 *             if problem reading {@code builder}, or a key or value
+	 *             cannot be converted, or is null
+	 */
+	private static void loadPairs(CBuilder builder, String keyColumn,
+			String valueColumn, PairSink sink) throws IOException {
+		try {
+			builder.open();
+			int keyCol = findColumn(builder, keyColumn);
+			int valueCol = findColumn(builder, valueColumn);
+			Class[] columnTypes = builder.getColumnTypes();
+			sink.bind(columnTypes[keyCol], columnTypes[valueCol]);
+
+			int i = 0;
+			Object[] row;
+			while ((row = builder.readRow()) != null) {
+				sink.add(nonNull(row[keyCol], keyColumn, i), nonNull(
+						row[valueCol], valueColumn, i));
+				i++;
+			}
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		} finally {
+			builder.close();
+		}
+	}
+
+	/**
+	 * Receives keys and values, and converts them to the types of a map.
+	 */
+	private abstract static class PairSink {
+
+		private final int keyType;
+
+		private final int valueType;
+
+		protected CTypeConverter keyConverter;
+
+		protected CTypeConverter valueConverter;
+
+		/**
+		 * @param keyType
+		 *            {@link CTypes} of the map's keys
+		 * @param valueType
+		 *            {@link CTypes} of the map's values
+		 */
+		PairSink(int keyType, int valueType) {
+			this.keyType = keyType;
+			this.valueType = valueType;
+		}
+
+		/**
+		 * Choose converters for the source columns.
+		 * 
+		 * @param keyColumnType
+		 *            key column type
+		 * @param valueColumnType
+		 *            value column type
+		 */
+		void bind(Class<?> keyColumnType, Class<?> valueColumnType) {
+			keyConverter = CTypeConverter.getConverter(keyColumnType, keyType);
+			valueConverter = CTypeConverter.getConverter(valueColumnType,
+					valueType);
+		}
+
+		/**
+		 * Add a key and value to the map.
+		 * 
+		 * @param key
+		 *            key, not null
+		 * @param value
+		 *            value, not null
+		 * @throws CDataGridException
+		 *             if key or value cannot be converted
+		 */
+		abstract void add(Object key, Object value) throws CDataGridException;
+	}
+
+	/**
+	 * Fills a {@link CIntDoubleMap}.
+	 */
+	private static final class IntDoubleSink extends PairSink {
+
+		private final CIntDoubleMap map;
+
+		IntDoubleSink(int expectedSize) {
+			super(CTypes.INTEGER, CTypes.DOUBLE);
+			map = new CIntDoubleMap(expectedSize);
+		}
+
+		@Override
+		void add(Object key, Object value) throws CDataGridException {
+			map.put(keyConverter.getIntValue(key), valueConverter
+					.getDoubleValue(value));
+		}
+	}
+
+	/**
+	 * Fills a {@link CLongLongMap}.
+	 */
+	private static final class LongLongSink extends PairSink {
+
+		private final CLongLongMap map;
+
+		LongLongSink(int expectedSize) {
+			super(CTypes.LONG, CTypes.LONG);
+			map = new CLongLongMap(expectedSize);
+		}
+
+		@Override
+		void add(Object key, Object value) throws CDataGridException {
+			map.put(keyConverter.getLongValue(key), valueConverter
+					.getLongValue(value));
+		}
+	}
+
+	/**
+	 * Fills a {@link CObjectIntMap} of String keys.
+	 */
+	private static final class StringIntSink extends PairSink {
+
+		private final CObjectIntMap<String> map;
+
+		StringIntSink(int expectedSize) {
+			super(CTypes.STRING, CTypes.INTEGER);
+			map = new CObjectIntMap<String>(expectedSize);
+		}
+
+		@Override
+		void add(Object key, Object value) throws CDataGridException {
+			map.put((String) keyConverter.convert(key), valueConverter
+					.getIntValue(value));
+		}
+	}
+
+	/**
+	 * Get the index of a column of an opened builder.
+	 * 
+	 * @param builder
+	 *            builder
+	 * @param column
+	 *            column name
+	 * @return column index
+	 * @throws CDataGridException
+	 *             if the builder has no such column
+	 */
+	private static int findColumn(CBuilder builder, String column)
+			throws CDataGridException {
+		String[] columnNames = builder.getColumnNames();
+		for (int i = 0; i < columnNames.length; i++) {
+			if (columnNames[i].equals(column)) {
+				return i;
+			}
+		}
+		throw new CDataGridException(builder.getName()
+				+ " does not contain column with name: " + column);
+	}
+
+	/**
+	 * Check a value to be stored in a primitive array is not null.
+	 * 
+	 * @param value
+	 *            value
+	 * @param column
+	 *            column name
+	 * @param row
+	 *            row number
+	 * @return value
+	 * @throws CDataGridException
+	 *             if value is null
+	 */
+	private static Object nonNull(Object value, String column, int row)
+			throws CDataGridException {
+		if (value == null) {
+			throw new CDataGridException("Null value in column " + column
+					+ " at row " + row);
+		}
+		return value;
+	}
+
+	/**
+	 * A task over a range of array indices.
+	 */
+	private interface RangeTask {
+
+		/**
+		 * Run the task over a range.
+		 * 
+		 * @param from
+		 *            first index, inclusive
+		 * @param to
+		 *            last index, exclusive
+		 * @throws CDataGridException
+		 *             if the task fails
+		 */
+		void run(int from, int to) throws CDataGridException;
+	}
+
+	/**
+	 * Run a task over the indices of an array. Arrays of at least
+	 * {@link #PARALLEL_THRESHOLD} elements are split into one range per
+	 * processor, run on a shared pool of daemon threads.
+	 * 
+	 * @param size
+	 *            size of the array
+	 * @param task
+	 *            task
+	 * @throws CDataGridException
+	 *             if the task fails on any range
+	 */
+	private static void forRange(int size, final RangeTask task)
+			throws CDataGridException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (size < PARALLEL_THRESHOLD || threads < 2) {
+			task.run(0, size);
+			return;
+		}
+
+		ExecutorService executor = getRangeExecutor();
+		int chunk = (size + threads - 1) / threads;
+		List<Future<Object>> ranges = new ArrayList<Future<Object>>(threads);
+		for (int from = 0; from < size; from += chunk) {
+			final int start = from;
+			final int end = Math.min(from + chunk, size);
+			ranges.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws CDataGridException {
+					task.run(start, end);
+					return null;
+				}
+			}));
+		}
+
+		for (Future<Object> range : ranges) {
+			try {
+				range.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CDataGridException("Interrupted processing column", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof CDataGridException) {
+					throw (CDataGridException) e.getCause();
+				}
+				throw new CDataGridException(e.getCause().getMessage(), e
+						.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Get the pool used to read large columns, creating it if needed.
+	 * 
+	 * @return pool
+	 */
+	private static synchronized ExecutorService getRangeExecutor() {
+		if (rangeExecutor == null) {
+			rangeExecutor = Executors.newFixedThreadPool(Runtime.getRuntime()
+					.availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "casper-column-reader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return rangeExecutor;
 	}
 
 	/**
@@ -187,7 +813,9 @@ public final class CasperUtil {
 
 	/**
 	 * Scale (ie: multiply) all the numeric values of a casper dataset by a
-	 * factor. Non-numeric columns are ignored.
+	 * factor. Non-numeric and primary key columns are ignored. Numeric columns
+	 * of the result are Double, so scaled integral values are not truncated.
+	 * Missing values are not scaled.
 	 * 
 	 * @param container
 	 *            source dataset
@@ -203,35 +831,305 @@ public final class CasperUtil {
 		CDataCacheContainer result = cloneContainer(container);
 
 		CRowMetaData crmd = result.getMetaDefinition();
-		List<Integer> numericColumnIndices = new ArrayList<Integer>();
+		List<String> numericColumns = new ArrayList<String>();
 
-		// get all numeric columns
+		// get all numeric columns, except the primary key
+		String[] colnames = crmd.getColumnNames();
 		Class<?>[] coltypes = crmd.getColumnTypes();
+		List<String> pkColumns = (crmd.getPrimaryKeyColumns() == null) ? null
+				: Arrays.asList(crmd.getPrimaryKeyColumns());
 		for (int i = 0; i < coltypes.length; i++) {
-			Class<?> type = coltypes[i];
+			if (numericType(coltypes[i]) >= 0
+					&& (pkColumns == null || !pkColumns.contains(colnames[i]))) {
+				numericColumns.add(colnames[i]);
+			}
+		}
+
+		transformColumns(result, numericColumns
+				.toArray(new String[numericColumns.size()]),
+				multiplyBy(factor), Double.class);
+
+		return result;
+	}
+
+	/**
+	 * Scale (ie: multiply) the values of numeric columns by a factor, in
+	 * place. See
+	 * {@link #transformColumns(CDataCacheContainer, String[], CDoubleFunction)}.
+	 * 
+	 * @param container
+	 *            dataset to change
+	 * @param columns
+	 *            numeric columns to scale
+	 * @param factor
+	 *            factor to scale by
+	 * @throws CDataGridException
+	 *             if a column is not numeric or is part of the primary key
+	 */
+	public static void scaleColumns(CDataCacheContainer container,
+			String[] columns, double factor) throws CDataGridException {
+		transformColumns(container, columns, multiplyBy(factor));
+	}
 
-			if (type.getSuperclass() == Number.class) {
-				numericColumnIndices.add(i);
+	/**
+	 * Add an amount to the values of numeric columns, in place. See
+	 * {@link #transformColumns(CDataCacheContainer, String[], CDoubleFunction)}.
+	 * 
+	 * @param container
+	 *            dataset to change
+	 * @param columns
+	 *            numeric columns to add to
+	 * @param amount
+	 *            amount to add
+	 * @throws CDataGridException
+	 *             if a column is not numeric or is part of the primary key
+	 */
+	public static void addToColumns(CDataCacheContainer container,
+			String[] columns, final double amount) throws CDataGridException {
+		transformColumns(container, columns, new CDoubleFunction() {
+			@Override
+			public double apply(double value) {
+				return value + amount;
+			}
+		});
+	}
+
+	/**
+	 * Change the type of numeric columns, eg: from Integer to Double, in
+	 * place. See
+	 * {@link #transformColumns(CDataCacheContainer, String[], CDoubleFunction, Class)}.
+	 * 
+	 * @param container
+	 *            dataset to change
+	 * @param columns
+	 *            numeric columns to change
+	 * @param type
+	 *            new column type
+	 * @throws CDataGridException
+	 *             if a column is not numeric or is part of the primary key
+	 */
+	public static void castColumns(CDataCacheContainer container,
+			String[] columns, Class<? extends Number> type)
+			throws CDataGridException {
+		transformColumns(container, columns, IDENTITY, type);
+	}
+
+	/**
+	 * Apply a function to the values of numeric columns, in place. Values are
+	 * read directly from the container's rows, passed to {@code function}
+	 * without boxing, and stored as the column's type. Integral results are
+	 * truncated. Nulls and missing values (see {@link #isMissingValue(Object)})
+	 * are left unchanged. Large columns are transformed in parallel. If rows
+	 * are added, removed or replaced while a column is transformed, an
+	 * exception is thrown and that column and those after it are unchanged.
+	 * <p>
+	 * To transform a copy, transform the result of
+	 * {@link #cloneContainer(CDataCacheContainer)}.
+	 * 
+	 * @param container
+	 *            dataset to change
+	 * @param columns
+	 *            numeric columns to transform
+	 * @param function
+	 *            function applied to each value
+	 * @throws CDataGridException
+	 *             if a column is not numeric or is part of the primary key.
+	 *             No columns are changed.
+	 */
+	public static void transformColumns(CDataCacheContainer container,
+			String[] columns, CDoubleFunction function)
+			throws CDataGridException {
+		transformColumns(container, columns, function, null);
+	}
+
+	/**
+	 * Apply a function to the values of numeric columns, in place, and change
+	 * the type of the columns. As for
+	 * {@link #transformColumns(CDataCacheContainer, String[], CDoubleFunction)}
+	 * , except that results are stored as {@code resultType}, and missing
+	 * values are replaced with the missing value of {@code resultType}, or
+	 * null if it has none.
+	 * 
+	 * @param container
+	 *            dataset to change
+	 * @param columns
+	 *            numeric columns to transform
+	 * @param function
+	 *            function applied to each value
+	 * @param resultType
+	 *            new type of the columns, or {@code null} to keep the type of
+	 *            each column
+	 * @throws CDataGridException
+	 *             if a column or {@code resultType} is not numeric, a column
+	 *             is part of the primary key, or the type of a column would
+	 *             change and the container's column types are fixed (see
+	 *             {@link CDataCacheContainer#hasFixedColumnTypes()}). No
+	 *             columns are changed.
+	 */
+	public static void transformColumns(CDataCacheContainer container,
+			String[] columns, final CDoubleFunction function,
+			Class<? extends Number> resultType) throws CDataGridException {
+		CRowMetaData meta = container.getMetaDefinition();
+
+		int resultTypeCode = -1;
+		if (resultType != null) {
+			resultTypeCode = numericType(resultType);
+			if (resultTypeCode < 0) {
+				throw new CDataGridException("Unsupported result type "
+						+ resultType.getName());
 			}
 		}
 
-		CDataRowSet rowset = result.getAll();
+		// check every column before changing any
+		String[] pkColumns = meta.getPrimaryKeyColumns();
+		int[] columnTypes = new int[columns.length];
+		for (int c = 0; c < columns.length; c++) {
+			columnTypes[c] = numericType(meta.getColumnType(columns[c]));
+			if (columnTypes[c] < 0) {
+				throw new CDataGridException("Column " + columns[c]
+						+ " is not numeric");
+			}
+			if (pkColumns != null
+					&& Arrays.asList(pkColumns).contains(columns[c])) {
+				throw new CDataGridException("Cannot transform primary key "
+						+ "column " + columns[c]);
+			}
+			if (resultType != null && container.hasFixedColumnTypes()
+					&& !resultType.equals(meta.getColumnType(columns[c]))) {
+				throw new CDataGridException("Cannot change the type of "
+						+ "column " + columns[c] + ", the container's column "
+						+ "types are fixed");
+			}
+		}
 
-		while (rowset.next()) {
-			for (Integer i : numericColumnIndices) {
-				double value = rowset.getDouble(i);
+		for (int c = 0; c < columns.length; c++) {
+			// read again for each column, as setting a column may copy rows
+			// shared with a fork
+			final CDataRow[] rows = container.getAllRows();
+			final String column = columns[c];
+			final int col = meta.getColumnIndex(column);
+			final int sourceType = columnTypes[c];
+			final int targetType = (resultType == null) ? sourceType
+					: resultTypeCode;
+			final Object[] values = new Object[rows.length];
 
-				if (!isMissingValue(value)) {
-					rowset.setValue(i, value * factor);
+			forRange(rows.length, new RangeTask() {
+				@Override
+				public void run(int from, int to) throws CDataGridException {
+					for (int i = from; i < to; i++) {
+						Object value = rows[i].getValue(col);
+						if (value == null) {
+							continue;
+						}
+						if (isMissingValue(value)) {
+							values[i] = (targetType == sourceType) ? value
+									: missingValue(targetType);
+						} else if (value instanceof Number) {
+							values[i] = toNumber(function.apply(((Number) value)
+									.doubleValue()), targetType);
+						} else {
+							throw new CDataGridException(
+									"Non-numeric value in column " + column
+											+ " at row " + i);
+						}
+					}
 				}
+			});
+
+			// fails if rows were added, removed or replaced since they
+			// were read, rather than set values on the wrong rows
+			container.setColumnValues(column, resultType, rows, values);
+		}
+	}
+
+	/**
+	 * Get a function that multiplies by a factor.
+	 * 
+	 * @param factor
+	 *            factor
+	 * @return function
+	 */
+	private static CDoubleFunction multiplyBy(final double factor) {
+		return new CDoubleFunction() {
+			@Override
+			public double apply(double value) {
+				return value * factor;
 			}
+		};
+	}
+
+	/**
+	 * Get the {@link CTypes} of a numeric column type.
+	 * 
+	 * @param type
+	 *            column type
+	 * @return {@link CTypes} value, or -1 if {@code type} is not numeric
+	 */
+	private static int numericType(Class<?> type) {
+		int ctype = CTypes.getType(type);
+		switch (ctype) {
+		case CTypes.BYTE:
+		case CTypes.SHORT:
+		case CTypes.INTEGER:
+		case CTypes.LONG:
+		case CTypes.FLOAT:
+		case CTypes.DOUBLE:
+			return ctype;
+		default:
+			return -1;
 		}
+	}
 
-		return result;
+	/**
+	 * Box a double as a numeric {@link CTypes}, truncating integral types.
+	 * 
+	 * @param value
+	 *            value
+	 * @param type
+	 *            numeric {@link CTypes} value
+	 * @return boxed value
+	 */
+	private static Number toNumber(double value, int type) {
+		switch (type) {
+		case CTypes.BYTE:
+			return Byte.valueOf((byte) value);
+		case CTypes.SHORT:
+			return Short.valueOf((short) value);
+		case CTypes.INTEGER:
+			return Integer.valueOf((int) value);
+		case CTypes.LONG:
+			return Long.valueOf((long) value);
+		case CTypes.FLOAT:
+			return Float.valueOf((float) value);
+		default:
+			return Double.valueOf(value);
+		}
+	}
+
+	/**
+	 * Get the missing value of a numeric {@link CTypes}.
+	 * 
+	 * @param type
+	 *            numeric {@link CTypes} value
+	 * @return missing value, or {@code null} if the type has none
+	 */
+	private static Number missingValue(int type) {
+		switch (type) {
+		case CTypes.BYTE:
+			return Byte.valueOf(TypeCheckedValue.MISSING_VALUE_BYTE);
+		case CTypes.INTEGER:
+			return Integer.valueOf(TypeCheckedValue.MISSING_VALUE_INTEGER);
+		case CTypes.DOUBLE:
+			return Double.valueOf(TypeCheckedValue.MISSING_VALUE_DOUBLE);
+		default:
+			return null;
+		}
 	}
 
 	/**
-	 * Clone a casper data cache container.
+	 * Clone a casper data cache container. The clone shares its rows with
+	 * {@code source} until either changes them, so is cheap to create. See
+	 * {@link CDataCacheContainer#fork()}.
 	 * 
 	 * @param source
 	 *            source dataset
@@ -242,7 +1140,7 @@ public final class CasperUtil {
 	public static CDataCacheContainer cloneContainer(
 			CDataCacheContainer source) throws CDataGridException {
 
-		return new CDataCacheContainer(new CasperClone(source));
+		return source.fork();
 	}
 
 	/**
@@ -270,4 +1168,4 @@ public final class CasperUtil {
 
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
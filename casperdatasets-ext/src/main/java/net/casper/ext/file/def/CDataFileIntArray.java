@@ -26,6 +26,11 @@ public class CDataFileIntArray implements CDataFile {
 
 	private int[] array = null;
 
+	/**
+	 * Keep the container loaded from the file?
+	 */
+	private boolean retainContainer = true;
+
 	/**
 	 * From base components, construct a casper dataset file definition that
 	 * returns a int array.
@@ -55,6 +60,23 @@ public class CDataFileIntArray implements CDataFile {
 		this.sourceColumn = sourceColumn;
 	}
 
+	/**
+	 * Set whether the container loaded from the file is kept. If not, and the
+	 * file definition is a {@link CDataFileDef}, the column is read straight
+	 * from the file into the array, in file order, and
+	 * {@link #loadDataset(File)} and {@link #getContainer()} return
+	 * {@code null}. Otherwise the array is in primary key order.
+	 * 
+	 * @param retainContainer
+	 *            {@code false} to read only the array. Defaults to
+	 *            {@code true}.
+	 * @return this
+	 */
+	public CDataFileIntArray setRetainContainer(boolean retainContainer) {
+		this.retainContainer = retainContainer;
+		return this;
+	}
+
 	/**
 	 * Return the array of ints loaded from the column.
 	 * 
@@ -71,7 +93,7 @@ public class CDataFileIntArray implements CDataFile {
 
 	@Override
 	public CDataCacheContainer getContainer() {
-		return cDataFile.getContainer();
+		return retainContainer ? cDataFile.getContainer() : null;
 	}
 
 	@Override
@@ -81,6 +103,12 @@ public class CDataFileIntArray implements CDataFile {
 
 	@Override
 	public CDataCacheContainer loadDataset(File file) throws IOException {
+		if (!retainContainer && cDataFile instanceof CDataFileDef) {
+			array = CasperUtil.loadIntArray(((CDataFileDef) cDataFile)
+					.newBuilder(file), sourceColumn);
+			return null;
+		}
+
 		CDataCacheContainer source = cDataFile.loadDataset(file);
 
 		try {
@@ -7,7 +7,9 @@ import java.util.Map;
 
 import net.casper.data.model.CDataCacheContainer;
 import net.casper.data.model.CDataGridException;
-import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CBuilder;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CRowMetaData;
 import net.casper.io.file.def.CDataFile;
 import net.casper.io.file.def.CDataFileDef;
 
@@ -35,6 +37,11 @@ public class CDataFileMap<K, V> implements CDataFile {
 
 	private boolean mapLoaded = false;
 
+	/**
+	 * Keep the container loaded from the file?
+	 */
+	private boolean retainContainer = true;
+
 	/**
 	 * From base components, construct a casper dataset file definition that
 	 * returns a map.
@@ -81,9 +88,25 @@ public class CDataFileMap<K, V> implements CDataFile {
 	}
 
 	/**
-	 * Return the array of doubles loaded from the column.
+	 * Set whether the container loaded from the file is kept. If not, and the
+	 * file definition is a {@link CDataFileDef}, the key and value columns are
+	 * read straight from the file into the map, in file order, and
+	 * {@link #loadDataset(File)} and {@link #getContainer()} return
+	 * {@code null}. Otherwise the map is filled in primary key order.
 	 * 
-	 * @return double array
+	 * @param retainContainer
+	 *            {@code false} to read only the map. Defaults to {@code true}.
+	 * @return this
+	 */
+	public CDataFileMap<K, V> setRetainContainer(boolean retainContainer) {
+		this.retainContainer = retainContainer;
+		return this;
+	}
+
+	/**
+	 * Return the map loaded from the key and value columns.
+	 * 
+	 * @return map
 	 */
 	public Map<K, V> getMap() {
 		if (!mapLoaded) {
@@ -96,7 +119,7 @@ public class CDataFileMap<K, V> implements CDataFile {
 
 	@Override
 	public CDataCacheContainer getContainer() {
-		return cDataFile.getContainer();
+		return retainContainer ? cDataFile.getContainer() : null;
 	}
 
 	@Override
@@ -106,18 +129,23 @@ public class CDataFileMap<K, V> implements CDataFile {
 
 	@Override
 	public CDataCacheContainer loadDataset(File file) throws IOException {
+		if (!retainContainer && cDataFile instanceof CDataFileDef) {
+			loadMap(((CDataFileDef) cDataFile).newBuilder(file));
+			mapLoaded = true;
+			return null;
+		}
+
 		CDataCacheContainer source = cDataFile.loadDataset(file);
 
 		try {
-			CDataRowSet rowset = source.getAll();
-
-			while (rowset.next()) {
-				@SuppressWarnings("unchecked")
-				K key = (K) rowset.getObject(keyColumn);
-				@SuppressWarnings("unchecked")
-				V value = (V) rowset.getObject(valueColumn);
-
-				map.put(key, value);
+			CRowMetaData meta = source.getMetaDefinition();
+			int keyCol = meta.getColumnIndex(keyColumn);
+			int valueCol = meta.getColumnIndex(valueColumn);
+			CDataRow[] rows = source.getAllRows(meta.getPrimaryKeyColumns(),
+					true);
+
+			for (int i = 0; i < rows.length; i++) {
+				put(rows[i].getValue(keyCol), rows[i].getValue(valueCol));
 			}
 
 			mapLoaded = true;
@@ -130,4 +158,66 @@ public class CDataFileMap<K, V> implements CDataFile {
 		return source;
 	}
 
+	/**
+	 * Fill the map from the rows of a builder, without building a container.
+	 * 
+	 * @param builder
+	 *            unopened builder. Closed when read.
+	 * @throws IOException
+	 *             if problem reading {@code builder}
+	 */
+	private void loadMap(CBuilder builder) throws IOException {
+		try {
+			builder.open();
+			int keyCol = findColumn(builder, keyColumn);
+			int valueCol = findColumn(builder, valueColumn);
+
+			Object[] row;
+			while ((row = builder.readRow()) != null) {
+				put(row[keyCol], row[valueCol]);
+			}
+		} catch (CDataGridException e) {
+			throw new IOException("Problem loading map from "
+					+ builder.getName(), e);
+		} finally {
+			builder.close();
+		}
+	}
+
+	/**
+	 * Get the index of a column of an opened builder.
+	 * 
+	 * @param builder
+	 *            builder
+	 * @param column
+	 *            column name
+	 * @return column index
+	 * @throws CDataGridException
+	 *             if the builder has no such column
+	 */
+	private static int findColumn(CBuilder builder, String column)
+			throws CDataGridException {
+		String[] columnNames = builder.getColumnNames();
+		for (int i = 0; i < columnNames.length; i++) {
+			if (columnNames[i].equals(column)) {
+				return i;
+			}
+		}
+		throw new CDataGridException(builder.getName()
+				+ " does not contain column with name: " + column);
+	}
+
+	/**
+	 * Put a key and value into the map.
+	 * 
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 */
+	@SuppressWarnings("unchecked")
+	private void put(Object key, Object value) {
+		map.put((K) key, (V) value);
+	}
+
 }
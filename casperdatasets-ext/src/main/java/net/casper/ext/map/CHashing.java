@@ -0,0 +1,77 @@
+package net.casper.ext.map;
+
+/**
+ * Sizing and hashing shared by the open addressing maps.
+ *
+ * @author agent
+ */
+final class CHashing {
+
+	/**
+	 * Maximum ratio of entries to slots before the table grows.
+	 */
+	static final float LOAD_FACTOR = 0.7f;
+
+	/**
+	 * Largest table size.
+	 */
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private CHashing() {
+		// static utility class
+	}
+
+	/**
+	 * Get the table size that holds a number of entries without growing.
+	 *
+	 * @param expectedSize
+	 *            number of entries
+	 * @return power of two table size
+	 */
+	static int capacityFor(int expectedSize) {
+		int capacity = 16;
+		while (capacity < MAX_CAPACITY
+				&& capacity * LOAD_FACTOR <= expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Get the number of entries a table holds before growing.
+	 *
+	 * @param capacity
+	 *            table size
+	 * @return number of entries
+	 */
+	static int thresholdFor(int capacity) {
+		return (capacity == MAX_CAPACITY) ? Integer.MAX_VALUE
+				: (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Spread the bits of a hash code, so that keys that differ only in their
+	 * high bits use different slots.
+	 *
+	 * @param hash
+	 *            hash code
+	 * @return mixed hash code
+	 */
+	static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Mix a long key into a hash code.
+	 *
+	 * @param key
+	 *            key
+	 * @return mixed hash code
+	 */
+	static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
@@ -0,0 +1,188 @@
+package net.casper.ext.map;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Map of int keys to double values, without boxing. Entries are held in
+ * parallel arrays with open addressing (linear probing). Intended as a lookup
+ * table, so entries cannot be removed. Not thread-safe while being filled,
+ * but may be read by many threads once filled.
+ *
+ * @author agent
+ */
+public class CIntDoubleMap {
+
+	private int[] keys;
+
+	private double[] values;
+
+	private boolean[] used;
+
+	private int size;
+
+	private int mask;
+
+	private int threshold;
+
+	/**
+	 * Construct an empty map.
+	 */
+	public CIntDoubleMap() {
+		this(0);
+	}
+
+	/**
+	 * Construct an empty map that holds {@code expectedSize} entries without
+	 * growing.
+	 *
+	 * @param expectedSize
+	 *            expected number of entries
+	 */
+	public CIntDoubleMap(int expectedSize) {
+		allocate(CHashing.capacityFor(expectedSize));
+	}
+
+	/**
+	 * Allocate an empty table.
+	 *
+	 * @param capacity
+	 *            power of two table size
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new double[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+		threshold = CHashing.thresholdFor(capacity);
+	}
+
+	/**
+	 * Get the slot of a key.
+	 *
+	 * @param key
+	 *            key
+	 * @return slot index, or -1 if not present
+	 */
+	private int find(int key) {
+		int i = CHashing.mix(key) & mask;
+		while (used[i]) {
+			if (keys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Associate a value with a key, replacing any previous value.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 */
+	public void put(int key, double value) {
+		int i = CHashing.mix(key) & mask;
+		while (used[i]) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		used[i] = true;
+		keys[i] = key;
+		values[i] = value;
+
+		if (++size > threshold) {
+			grow();
+		}
+	}
+
+	/**
+	 * Double the table size.
+	 */
+	private void grow() {
+		int[] oldKeys = keys;
+		double[] oldValues = values;
+		boolean[] oldUsed = used;
+
+		allocate(oldKeys.length * 2);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Get the value of a key.
+	 *
+	 * @param key
+	 *            key
+	 * @return value
+	 * @throws NoSuchElementException
+	 *             if the map does not contain {@code key}
+	 */
+	public double get(int key) {
+		int i = find(key);
+		if (i < 0) {
+			throw new NoSuchElementException("No value for key " + key);
+		}
+		return values[i];
+	}
+
+	/**
+	 * Get the value of a key, or a default if the map does not contain it.
+	 *
+	 * @param key
+	 *            key
+	 * @param defaultValue
+	 *            value returned if the map does not contain {@code key}
+	 * @return value
+	 */
+	public double get(int key, double defaultValue) {
+		int i = find(key);
+		return (i < 0) ? defaultValue : values[i];
+	}
+
+	/**
+	 * Whether the map contains a key.
+	 *
+	 * @param key
+	 *            key
+	 * @return {@code true} if the map contains {@code key}
+	 */
+	public boolean containsKey(int key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Get the number of entries.
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the keys, in no particular order.
+	 *
+	 * @return keys
+	 */
+	public int[] keys() {
+		int[] result = new int[size];
+		int j = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (used[i]) {
+				result[j++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,180 @@
+package net.casper.ext.map;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Map of object keys, eg: Strings, to int values, without boxing the values.
+ * Entries are held in parallel arrays with open addressing (linear probing).
+ * Intended as a lookup table, so entries cannot be removed. Keys cannot be
+ * {@code null}. Not thread-safe while being filled, but may be read by many
+ * threads once filled.
+ *
+ * @author agent
+ * @param <K>
+ *            key type
+ */
+public class CObjectIntMap<K> {
+
+	private Object[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	private int mask;
+
+	private int threshold;
+
+	/**
+	 * Construct an empty map.
+	 */
+	public CObjectIntMap() {
+		this(0);
+	}
+
+	/**
+	 * Construct an empty map that holds {@code expectedSize} entries without
+	 * growing.
+	 *
+	 * @param expectedSize
+	 *            expected number of entries
+	 */
+	public CObjectIntMap(int expectedSize) {
+		allocate(CHashing.capacityFor(expectedSize));
+	}
+
+	/**
+	 * Allocate an empty table.
+	 *
+	 * @param capacity
+	 *            power of two table size
+	 */
+	private void allocate(int capacity) {
+		keys = new Object[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		threshold = CHashing.thresholdFor(capacity);
+	}
+
+	/**
+	 * Get the slot of a key.
+	 *
+	 * @param key
+	 *            key
+	 * @return slot index, or -1 if not present
+	 */
+	private int find(Object key) {
+		if (key == null) {
+			return -1;
+		}
+		int i = CHashing.mix(key.hashCode()) & mask;
+		while (keys[i] != null) {
+			if (keys[i].equals(key)) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Associate a value with a key, replacing any previous value.
+	 *
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 * @throws IllegalArgumentException
+	 *             if {@code key} is {@code null}
+	 */
+	public void put(K key, int value) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key cannot be null");
+		}
+
+		int i = CHashing.mix(key.hashCode()) & mask;
+		while (keys[i] != null) {
+			if (keys[i].equals(key)) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		keys[i] = key;
+		values[i] = value;
+
+		if (++size > threshold) {
+			grow();
+		}
+	}
+
+	/**
+	 * Double the table size.
+	 */
+	@SuppressWarnings("unchecked")
+	private void grow() {
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+
+		allocate(oldKeys.length * 2);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				put((K) oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Get the value of a key.
+	 *
+	 * @param key
+	 *            key
+	 * @return value
+	 * @throws NoSuchElementException
+	 *             if the map does not contain {@code key}
+	 */
+	public int get(Object key) {
+		int i = find(key);
+		if (i < 0) {
+			throw new NoSuchElementException("No value for key " + key);
+		}
+		return values[i];
+	}
+
+	/**
+	 * Get the value of a key, or a default if the map does not contain it.
+	 *
+	 * @param key
+	 *            key
+	 * @param defaultValue
+	 *            value returned if the map does not contain {@code key}
+	 * @return value
+	 */
+	public int get(Object key, int defaultValue) {
+		int i = find(key);
+		return (i < 0) ? defaultValue : values[i];
+	}
+
+	/**
+	 * Whether the map contains a key.
+	 *
+	 * @param key
+	 *            key
+	 * @return {@code true} if the map contains {@code key}
+	 */
+	public boolean containsKey(Object key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Get the number of entries.
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+}
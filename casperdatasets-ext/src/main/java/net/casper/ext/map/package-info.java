@@ -0,0 +1,8 @@
+/**
+ * Open addressing maps of primitive keys and values, used as lookup tables
+ * loaded from casper datasets.
+ *
+ * @author agent
+ *
+ */
+package net.casper.ext.map;
\ No newline at end of file
@@ -1,12 +1,22 @@
 package net.casper.ext.narrow;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import net.casper.data.model.CBuilder;
 import net.casper.data.model.CDataCacheContainer;
 import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
 import net.casper.data.model.CDataRowSet;
 import net.casper.data.model.CRowMetaData;
 
@@ -30,14 +40,47 @@ import org.omancode.rmt.cellreader.narrow.NarrowUtil;
  * {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_INTEGER} or
  * {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_DOUBLE} instead.
  * 
+ * Rows are narrowed in the order they are stored, without sorting. The
+ * narrowest type of each column is determined from a single copy of the row
+ * references. If more than one thread is set with {@link #setThreads(int)},
+ * columns are typed, and then rows narrowed in chunks, on a pool of threads.
+ * 
  * @author Oliver Mannion
  * @version $Revision: 181 $
  */
 public class CBuildNarrowed implements CBuilder {
 
+	/**
+	 * Number of rows narrowed by a thread at a time.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * Source container, or {@code null}.
+	 */
 	private final CDataCacheContainer container;
 
-	private CDataRowSet rowset = null;
+	/**
+	 * Source builder, or {@code null}. Rows are read from it when opened.
+	 */
+	private final CBuilder source;
+
+	private String name;
+
+	private String[] columnNames;
+
+	private String[] primaryKeyColumns;
+
+	/**
+	 * Rows to narrow. Each row is replaced by its narrowed row, and released
+	 * once it is read.
+	 */
+	private Object[][] rows = null;
+
+	/**
+	 * Index of the next row to read.
+	 */
+	private int nextRow;
 
 	private Class<?>[] narrowedColumnTypes = null;
 
@@ -47,6 +90,20 @@ public class CBuildNarrowed implements CBuilder {
 	 */
 	private boolean convertMissing = false;
 
+	private int threads = 1;
+
+	private ExecutorService executor;
+
+	/**
+	 * Start of the next chunk of rows to narrow.
+	 */
+	private int nextChunk;
+
+	/**
+	 * Chunks being narrowed, in row order.
+	 */
+	private final LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+
 	/**
 	 * If set, then missing integers and doubles will be returned as
 	 * {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_INTEGER} or
@@ -62,6 +119,23 @@ public class CBuildNarrowed implements CBuilder {
 		return this;
 	}
 
+	/**
+	 * Set the number of threads used to determine column types and narrow
+	 * rows.
+	 * 
+	 * @param threads
+	 *            number of threads, defaults to 1, ie: rows are narrowed by the
+	 *            building thread as they are read
+	 * @return this
+	 */
+	public CBuildNarrowed setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+		return this;
+	}
+
 	/**
 	 * Constructor for narrowing casper cache. Narrowed cache has same name as
 	 * source.
@@ -73,11 +147,13 @@ public class CBuildNarrowed implements CBuilder {
 	 */
 	public CBuildNarrowed(CDataCacheContainer source) throws CDataGridException {
 		this.container = source;
+		this.source = null;
+		setMeta(source.getCacheName(), source.getMetaDefinition());
 	}
 
 	/**
-	 * Constructor for narrowing casper rowset. Constructs a new casper cache
-	 * from the (non thread-safe) rowset.
+	 * Constructor for narrowing casper rowset. The rows of the (non
+	 * thread-safe) rowset are copied when constructed.
 	 * 
 	 * @param cacheName
 	 *            name of narrowed cache
@@ -88,66 +164,226 @@ public class CBuildNarrowed implements CBuilder {
 	 */
 	public CBuildNarrowed(String cacheName, CDataRowSet source)
 			throws CDataGridException {
+		this.container = null;
+		this.source = null;
+		setMeta(cacheName, source.getMetaDefinition());
+		this.rows = rawData(source.getAllRows());
+	}
 
-		// build new container from rowset
-		CDataCacheContainer newContainer = new CDataCacheContainer(cacheName,
-				source.getMetaDefinition());
-		newContainer.addData(source.getAllRows());
-		this.container = newContainer;
+	/**
+	 * Constructor for narrowing the rows of a builder, eg: a file builder.
+	 * Rows are read into an array when opened, without building a container
+	 * for them, and narrowed in place.
+	 * 
+	 * @param source
+	 *            builder
+	 */
+	public CBuildNarrowed(CBuilder source) {
+		this.container = null;
+		this.source = source;
+	}
+
+	/**
+	 * Set name, column names and primary key from metadata.
+	 * 
+	 * @param cacheName
+	 *            name
+	 * @param meta
+	 *            metadata
+	 */
+	private void setMeta(String cacheName, CRowMetaData meta) {
+		this.name = cacheName;
+		this.columnNames = meta.getColumnNames();
+		this.primaryKeyColumns = meta.getPrimaryKeyColumns();
+	}
+
+	/**
+	 * Get the raw data of rows.
+	 * 
+	 * @param dataRows
+	 *            rows
+	 * @return raw data of each row
+	 */
+	private static Object[][] rawData(CDataRow[] dataRows) {
+		Object[][] raw = new Object[dataRows.length][];
+		for (int i = 0; i < dataRows.length; i++) {
+			raw[i] = dataRows[i].getRawData();
+		}
+		return raw;
 	}
 
 	@Override
 	public void open() throws IOException {
-		try {
+		if (container != null) {
+			rows = rawData(container.getAllRows());
+		} else if (source != null) {
+			rows = readAll(source);
+		}
+		nextRow = 0;
+
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "casper-narrower");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
 
-			rowset = container.getAll();
-			narrowedColumnTypes = calcNarrowColTypes(rowset);
-			rowset.beforeFirst();
+		narrowedColumnTypes = calcNarrowColTypes();
 
-		} catch (CDataGridException e) {
-			throw new IOException(e);
+		if (executor != null) {
+			nextChunk = 0;
+			while (pending.size() < threads * 2 && submitNextChunk()) {
+				// fill the pipeline
+			}
+		}
+	}
+
+	/**
+	 * Read all rows of a builder, then close it.
+	 * 
+	 * @param builder
+	 *            builder
+	 * @return rows
+	 * @throws IOException
+	 *             if problem reading builder
+	 */
+	private Object[][] readAll(CBuilder builder) throws IOException {
+		try {
+			builder.open();
+			setNames(builder);
+
+			List<Object[]> read = new ArrayList<Object[]>();
+			Object[] row;
+			while ((row = builder.readRow()) != null) {
+				read.add(row);
+			}
+			return read.toArray(new Object[read.size()][]);
+		} finally {
+			builder.close();
 		}
+	}
 
+	/**
+	 * Set name, column names and primary key from a builder.
+	 * 
+	 * @param builder
+	 *            opened builder
+	 */
+	private void setNames(CBuilder builder) {
+		this.name = builder.getName();
+		this.columnNames = builder.getColumnNames();
+		this.primaryKeyColumns = builder.getPrimaryKeyColumns();
 	}
 
 	/**
-	 * Determine narrowest type for each column in the rowset.
+	 * Determine narrowest type for each column of the rows.
 	 * 
-	 * @param rowset
-	 *            rowset
 	 * @return narrowest type for column
-	 * @throws CDataGridException
-	 *             if problem reading rowset.
+	 * @throws IOException
+	 *             if problem determining a type
 	 */
-	private Class<?>[] calcNarrowColTypes(CDataRowSet rowset)
-			throws CDataGridException {
+	private Class<?>[] calcNarrowColTypes() throws IOException {
+		int cols = columnNames.length;
+		Class<?>[] narrowType = new Class[cols];
 
-		CRowMetaData dsmeta = rowset.getMetaDefinition();
-		int cols = dsmeta.getColumnCount();
+		if (executor == null) {
+			for (int col = 0; col < cols; col++) {
+				narrowType[col] = calcNarrowColType(col);
+			}
+			return narrowType;
+		}
 
-		Class<?>[] narrowType = new Class[cols];
-		int col = 0;
+		List<Future<Class<?>>> types = new ArrayList<Future<Class<?>>>(cols);
+		for (int col = 0; col < cols; col++) {
+			final int column = col;
+			types.add(executor.submit(new Callable<Class<?>>() {
+				@Override
+				public Class<?> call() {
+					return calcNarrowColType(column);
+				}
+			}));
+		}
 
-		String[] columnNames = dsmeta.getColumnNames();
-		for (String columnName : columnNames) {
+		for (int col = 0; col < cols; col++) {
+			narrowType[col] = (Class<?>) await(types.get(col));
+		}
+		return narrowType;
+	}
 
-			Object[] columnValues = rowset.getColumnValues(columnName);
-			narrowType[col++] = NarrowUtil.calcNarrowestType(columnValues,
-					convertMissing);
+	/**
+	 * Determine narrowest type for a column of the rows.
+	 * 
+	 * @param col
+	 *            column index
+	 * @return narrowest type
+	 */
+	private Class<?> calcNarrowColType(int col) {
+		Object[] columnValues = new Object[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			columnValues[i] = rows[i][col];
+		}
+		return NarrowUtil.calcNarrowestType(columnValues, convertMissing);
+	}
 
+	/**
+	 * Submit the next chunk of rows for narrowing.
+	 * 
+	 * @return {@code false} if there are no more chunks
+	 */
+	private boolean submitNextChunk() {
+		if (nextChunk >= rows.length) {
+			return false;
 		}
+		final int from = nextChunk;
+		final int to = Math.min(from + CHUNK_SIZE, rows.length);
+		nextChunk = to;
+
+		pending.add(executor.submit(new Callable<Object>() {
+			@Override
+			public Object call() throws NarrowException {
+				for (int i = from; i < to; i++) {
+					rows[i] = NarrowUtil.narrowArray(rows[i],
+							narrowedColumnTypes, convertMissing);
+				}
+				return null;
+			}
+		}));
+		return true;
+	}
 
-		return narrowType;
+	/**
+	 * Wait for a task to complete.
+	 * 
+	 * @param future
+	 *            task
+	 * @return result of the task
+	 * @throws IOException
+	 *             if the task failed or the wait was interrupted
+	 */
+	private Object await(Future<?> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while narrowing " + name, e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
 	}
 
 	@Override
 	public String getName() {
-		return container.getCacheName();
+		return name;
 	}
 
 	@Override
 	public String[] getColumnNames() {
-		return container.getMetaDefinition().getColumnNames();
+		return columnNames;
 	}
 
 	@Override
@@ -158,29 +394,37 @@ public class CBuildNarrowed implements CBuilder {
 	@Override
 	public Map getConcreteMap() {
 		// use a LinkedHashMap to retain insertion order
-		return new LinkedHashMap();
+		return new LinkedHashMap((int) (rows.length / 0.75f) + 1);
 	}
 
 	@Override
 	public String[] getPrimaryKeyColumns() {
-		return container.getMetaDefinition().getPrimaryKeyColumns();
+		return primaryKeyColumns;
 	}
 
 	@Override
 	public Object[] readRow() throws IOException {
-		try {
-			if (!rowset.next()) {
-				return null;
-			}
+		if (nextRow >= rows.length) {
+			return null;
+		}
+
+		if (executor != null && nextRow % CHUNK_SIZE == 0) {
+			// wait for the chunk starting at this row
+			await(pending.removeFirst());
+			submitNextChunk();
+		}
 
-			// get current row and convert to narrow types
-			Object[] row = rowset.getCurrentRow().getRawData();
+		Object[] row = rows[nextRow];
+		rows[nextRow++] = null;
 
+		if (executor != null) {
+			return row;
+		}
+
+		// convert to narrow types
+		try {
 			return NarrowUtil.narrowArray(row, narrowedColumnTypes,
 					convertMissing);
-
-		} catch (CDataGridException e) {
-			throw new IOException(e);
 		} catch (NarrowException e) {
 			throw new IOException(e);
 		}
@@ -188,7 +432,11 @@ public class CBuildNarrowed implements CBuilder {
 
 	@Override
 	public void close() {
-		// nothing to do
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		pending.clear();
 	}
 
 }
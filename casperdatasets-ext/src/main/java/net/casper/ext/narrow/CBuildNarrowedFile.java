@@ -5,13 +5,14 @@ import java.io.IOException;
 import java.util.Map;
 
 import net.casper.data.model.CBuilder;
-import net.casper.data.model.CDataCacheContainer;
-import net.casper.data.model.CDataGridException;
 import net.casper.io.file.in.CBuildFromFile;
 
 /**
  * Convenience builder that loads a file using {@link CBuildFromFile} and
- * narrows it at the same time using {@link CBuildNarrowed}.
+ * narrows it at the same time using {@link CBuildNarrowed}. The file's rows are
+ * narrowed as read, without first loading them into a container.
+ * To infer types while parsing instead, from a sample of rows, see
+ * {@link CBuildFromFile#setInferTypes(int, boolean)}.
  * 
  * Useful for applying to files that have been created from sources that have no
  * data type associated with columns (e.g. CSV files) or loosely specified data
@@ -89,14 +90,8 @@ public class CBuildNarrowedFile implements CBuilder {
 		CBuilder fileBuilder = new CBuildFromFile(file, containerName,
 				columnNames, null, primaryKeys);
 
-		try {
-			CDataCacheContainer container = new CDataCacheContainer(fileBuilder);
-			narrower = new CBuildNarrowed(container);
-
-		} catch (CDataGridException e) {
-			throw new IOException(e);
-		}
-
+		// rows are read and narrowed when opened
+		narrower = new CBuildNarrowed(fileBuilder);
 	}
 
 	/**
@@ -114,6 +109,19 @@ public class CBuildNarrowedFile implements CBuilder {
 		return this;
 	}
 
+	/**
+	 * Set the number of threads used to determine column types and narrow
+	 * rows.
+	 * 
+	 * @param threads
+	 *            number of threads, defaults to 1
+	 * @return this
+	 */
+	public CBuildNarrowedFile setThreads(int threads) {
+		narrower.setThreads(threads);
+		return this;
+	}
+
 	@Override
 	public void close() {
 		narrower.close();
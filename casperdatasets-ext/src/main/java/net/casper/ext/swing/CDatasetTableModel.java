@@ -1,19 +1,47 @@
 package net.casper.ext.swing;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.table.AbstractTableModel;
 
 import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataChangeListener;
 import net.casper.data.model.CDataGridException;
 import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRowSet;
 import net.casper.data.model.CDataRuntimeException;
 import net.casper.data.model.CRowMetaData;
 import net.casper.ext.CasperUtil;
+import net.casper.ext.map.CObjectIntMap;
 
 /**
- * A Swing GUI TableModel wrapper for a Casper dataset.
- * 
+ * A Swing GUI TableModel view of a Casper dataset.
+ * <p>
+ * The model does not copy the dataset. Row references are fetched from the
+ * container when the table first asks for them, and a sort is done in the
+ * background, showing the rows in the container's order until the sort
+ * finishes. Changes made to the container are shown as they happen: changed
+ * rows are updated in place, added rows are shown last, and removed rows are
+ * removed, without re-sorting. Call {@link #sortByColumns(String[], boolean)}
+ * to sort again.
+ * <p>
+ * Edits are kept by the model, in copies of the edited rows, and are included
+ * in the dataset returned by {@link #getContainer()}. The container is not
+ * changed. A change the container makes to an edited row replaces the edit.
+ * With {@link #setWriteThrough(boolean)}, edits are instead merged into the
+ * container by primary key.
+ * <p>
+ * Call {@link #dispose()} when the model is no longer needed, to stop
+ * listening to the container.
+ *
  * @author Oliver Mannion
  * @version $Revision: 206 $
  */
@@ -24,19 +52,20 @@ public class CDatasetTableModel extends AbstractTableModel {
 	private static final long serialVersionUID = 5783574608323931660L;
 
 	/**
-	 * Casper dataset name.
+	 * Maximum number of row ranges fired for a single container change.
+	 * Changes spread over more ranges are fired as one range covering them.
 	 */
-	private final String name;
+	private static final int MAX_RANGES = 32;
 
 	/**
-	 * Casper dataset's meta-data.
+	 * Casper dataset.
 	 */
-	private final CRowMetaData crmd;
+	private final CDataCacheContainer cache;
 
 	/**
-	 * Rows of the dataset.
+	 * Casper dataset's meta-data, replaced when a column's type changes.
 	 */
-	private final CDataRow[] rows;
+	private CRowMetaData crmd;
 
 	/**
 	 * Flag to display missing values as empty string or not.
@@ -49,15 +78,73 @@ public class CDatasetTableModel extends AbstractTableModel {
 	 */
 	private final boolean editable;
 
+	/**
+	 * Whether edits are merged into the container.
+	 */
+	private boolean writeThrough;
+
+	/**
+	 * Rows edited in the model, by the key of the row each replaces.
+	 */
+	private final Map<Object, CDataRow> edits = new HashMap<Object, CDataRow>();
+
+	/**
+	 * Key of each row in {@link #edits}, by identity.
+	 */
+	private final Map<CDataRow, Object> editKeys =
+			new IdentityHashMap<CDataRow, Object>();
+
+	/**
+	 * Columns to sort by, or {@code null} for the container's order.
+	 */
+	private String[] sortColumns;
+
+	/**
+	 * Sort order.
+	 */
+	private boolean ascending = true;
+
+	/**
+	 * Rows in display order, or {@code null} until first needed.
+	 */
+	private transient CDataRow[] rows;
+
+	/**
+	 * Position of each row, by primary key, or {@code null} until a change
+	 * needs it.
+	 */
+	private transient CObjectIntMap<Object> positions;
+
+	/**
+	 * Whether {@link #rows} are in sort order.
+	 */
+	private transient boolean sorted;
+
+	/**
+	 * Whether a sort is being done in the background.
+	 */
+	private transient boolean sorting;
+
+	/**
+	 * Incremented each time the rows are reloaded, so a background sort of
+	 * older rows is discarded.
+	 */
+	private transient int generation;
+
+	/**
+	 * Listens to the container.
+	 */
+	private transient CDataChangeListener listener;
+
 	/**
 	 * Construct a table model from the passed in dataset cache, sorting all
 	 * rows by primary key ascending, displaying missing values as empty string,
 	 * and non-editable.
-	 * 
+	 *
 	 * @param cache
 	 *            CDataCacheContainer to create table model for.
 	 * @throws IOException
-	 *             if cache cannot be loaded
+	 *             not thrown, rows are loaded when first needed
 	 */
 	public CDatasetTableModel(CDataCacheContainer cache) throws IOException {
 		this(cache, true, true, false);
@@ -67,7 +154,7 @@ public class CDatasetTableModel extends AbstractTableModel {
 	 * Construct a table model from the passed in dataset cache. Table Models
 	 * are constructed from a CDataCacheContainer and not a CDataRowSet because
 	 * CDataRowSets are not thread safe.
-	 * 
+	 *
 	 * @param cache
 	 *            CDataCacheContainer to create table model for.
 	 * @param sortByPrimaryKey
@@ -78,27 +165,176 @@ public class CDatasetTableModel extends AbstractTableModel {
 	 * @param editable
 	 *            if table and underlying dataset can be edited
 	 * @throws IOException
-	 *             if cache cannot be loaded
+	 *             not thrown, rows are loaded when first needed
 	 */
 	public CDatasetTableModel(CDataCacheContainer cache,
 			boolean sortByPrimaryKey, boolean blankMissingValues,
 			boolean editable) throws IOException {
-		this.name = cache.getCacheName();
+		this.cache = cache;
 		this.blankMissingValues = blankMissingValues;
 		this.editable = editable;
 		crmd = cache.getMetaDefinition();
 
-		if (sortByPrimaryKey && crmd.getPrimaryKeyColumns() != null) {
-			try {
-				rows =
-						cache.getAll(crmd.getPrimaryKeyColumns(), true)
-								.getAllRows();
-			} catch (CDataGridException e) {
-				throw new IOException(e.getMessage(), e);
+		if (sortByPrimaryKey) {
+			sortColumns = crmd.getPrimaryKeyColumns();
+		}
+
+		listen();
+	}
+
+	/**
+	 * Register for container changes.
+	 */
+	private void listen() {
+		listener = new ChangeListener();
+		cache.addChangeListener(listener);
+	}
+
+	/**
+	 * Re-register for container changes after deserialisation.
+	 *
+	 * @param in
+	 *            stream
+	 * @throws IOException
+	 *             if problem reading
+	 * @throws ClassNotFoundException
+	 *             if class of a field cannot be found
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		listen();
+	}
+
+	/**
+	 * Stop listening to the container. The model shows the rows it has
+	 * already loaded, and no longer shows changes.
+	 */
+	public void dispose() {
+		cache.removeChangeListener(listener);
+	}
+
+	/**
+	 * Merge edits into the container by primary key, rather than keep them in
+	 * the model. The container then indexes the edited rows and notifies its
+	 * listeners, including other models of it. Primary key columns cannot be
+	 * edited. Edits already kept by the model are not merged.
+	 *
+	 * @param writeThrough
+	 *            if true merge edits into the container
+	 * @throws CDataGridException
+	 *             if {@code writeThrough} and the dataset has no primary key
+	 */
+	public void setWriteThrough(boolean writeThrough)
+			throws CDataGridException {
+		if (writeThrough && crmd.getPrimaryKeyColumns() == null) {
+			throw new CDataGridException("Cannot merge edits into "
+					+ cache.getCacheName() + ", it has no primary key");
+		}
+		this.writeThrough = writeThrough;
+	}
+
+	/**
+	 * Sort rows by columns. Rows are shown in their current order until the
+	 * sort, which is done in the background, finishes.
+	 *
+	 * @param columns
+	 *            columns to sort by, or {@code null} for the container's
+	 *            order
+	 * @param ascending
+	 *            if true sort ascending, otherwise descending
+	 * @throws CDataGridException
+	 *             if a column does not exist
+	 */
+	public void sortByColumns(String[] columns, boolean ascending)
+			throws CDataGridException {
+		if (columns != null && columns.length == 0) {
+			columns = null;
+		}
+		if (columns != null) {
+			crmd.getColumnIndices(columns);
+		}
+
+		this.sortColumns = columns;
+		this.ascending = ascending;
+		reload();
+	}
+
+	/**
+	 * Whether rows are shown in the order requested. This is {@code false}
+	 * while a sort is done in the background, and after rows have been added.
+	 *
+	 * @return {@code true} if rows are in sort order
+	 */
+	public boolean isSorted() {
+		view();
+		return sorted;
+	}
+
+	/**
+	 * Discard the loaded rows, so they are loaded again when next needed.
+	 */
+	private void reload() {
+		rows = null;
+		positions = null;
+		sorting = false;
+		generation++;
+		fireTableDataChanged();
+	}
+
+	/**
+	 * Get the rows in display order, loading them from the container, and
+	 * starting a sort, if needed.
+	 *
+	 * @return rows
+	 */
+	private CDataRow[] view() {
+		if (rows == null) {
+			rows = withEdits(cache.getAllRows());
+			sorted = (sortColumns == null);
+			if (!sorted) {
+				sortInBackground();
 			}
-		} else {
-			rows = cache.getAllRows();
 		}
+		return rows;
+	}
+
+	/**
+	 * Sort the container's rows on a background thread, and show them when
+	 * sorted unless the rows have been reloaded since.
+	 */
+	private void sortInBackground() {
+		final int sortGeneration = ++generation;
+		final String[] columns = sortColumns;
+		final boolean sortAscending = ascending;
+		sorting = true;
+
+		new SwingWorker<CDataRow[], Void>() {
+			@Override
+			protected CDataRow[] doInBackground() throws CDataGridException {
+				return cache.getAllRows(columns, sortAscending);
+			}
+
+			@Override
+			protected void done() {
+				if (sortGeneration != generation) {
+					return;
+				}
+				try {
+					rows = withEdits(get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} catch (ExecutionException e) {
+					throw new CDataRuntimeException(e.getCause().getMessage(), e
+							.getCause());
+				}
+				positions = null;
+				sorted = true;
+				sorting = false;
+				fireTableDataChanged();
+			}
+		}.execute();
 	}
 
 	@Override
@@ -108,13 +344,13 @@ public class CDatasetTableModel extends AbstractTableModel {
 
 	@Override
 	public int getRowCount() {
-		return rows.length;
+		return view().length;
 	}
 
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
 		try {
-			Object value = rows[rowIndex].getValue(columnIndex);
+			Object value = view()[rowIndex].getValue(columnIndex);
 
 			// display empty string instead of missing values
 			if (blankMissingValues && CasperUtil.isMissingValue(value)) {
@@ -130,26 +366,69 @@ public class CDatasetTableModel extends AbstractTableModel {
 	@Override
 	public void setValueAt(Object value, int row, int col) {
 		try {
-			rows[row].setValue(col, value);
-			fireTableCellUpdated(row, col);
+			if (!writeThrough) {
+				// change a copy, as the row may be shared with the container
+				// and its forks
+				CDataRow current = view()[row];
+				Object key = keyOf(current);
+				CDataRow edited = edits.get(key);
+				if (edited == null) {
+					edited = new CDataRow(current.getRawData().clone());
+					edits.put(key, edited);
+					editKeys.put(edited, key);
+				}
+				edited.setValue(col, value);
+				rows[row] = edited;
+				fireTableCellUpdated(row, col);
+				return;
+			}
+
+			// merge a row of the key and the new value, rather than change
+			// the row in place, so the container indexes it, notifies its
+			// listeners, and copies it if shared with a fork
+			String[] keyColumns = crmd.getPrimaryKeyColumns();
+			String[] columns = Arrays.copyOf(keyColumns, keyColumns.length + 1);
+			Class<?>[] types = new Class<?>[columns.length];
+			Object[] values = new Object[columns.length];
+			CDataRow current = view()[row];
+
+			for (int i = 0; i < keyColumns.length; i++) {
+				int index = crmd.getColumnIndex(keyColumns[i]);
+				types[i] = crmd.getColumnTypeCls(index);
+				values[i] = current.getValue(index);
+			}
+			columns[keyColumns.length] = crmd.getColumnNames()[col];
+			types[keyColumns.length] = crmd.getColumnTypeCls(col);
+			values[keyColumns.length] = value;
+
+			CDataRowSet change =
+					new CDataRowSet(new CRowMetaData(columns, types,
+							keyColumns));
+			change.addData(new CDataRow[] { new CDataRow(values) });
+			cache.merge(change, keyColumns);
 		} catch (CDataGridException e) {
 			throw new CDataRuntimeException(e.getMessage(), e);
 		}
-
 	}
 
 	/**
-	 * Get a new dataset from the (modified) rows.
-	 * 
+	 * Get a copy of the dataset, including any edits. Without edits kept by
+	 * the model, the copy shares the dataset's rows until either changes
+	 * them. Otherwise it is a new dataset of the rows shown.
+	 *
 	 * @return casper data cache container
 	 * @throws CDataGridException
 	 *             if problem creating new dataset
 	 */
 	public CDataCacheContainer getContainer() throws CDataGridException {
+		if (edits.isEmpty()) {
+			return cache.fork();
+		}
+
 		// build new container from rows
 		CDataCacheContainer newContainer =
-				new CDataCacheContainer(name, crmd);
-		newContainer.addData(rows);
+				new CDataCacheContainer(cache.getCacheName(), crmd);
+		newContainer.addData(view().clone());
 		return newContainer;
 	}
 
@@ -173,7 +452,338 @@ public class CDatasetTableModel extends AbstractTableModel {
 
 	@Override
 	public boolean isCellEditable(int row, int col) {
-		return editable;
+		if (!editable) {
+			return false;
+		}
+		String[] keyColumns = crmd.getPrimaryKeyColumns();
+		return !writeThrough
+				|| !Arrays.asList(keyColumns).contains(getColumnName(col));
+	}
+
+	/**
+	 * Get the key of a row, used to find its position when it changes. Rows
+	 * of a container without a primary key are their own key. An edited row
+	 * has the key of the row it replaces.
+	 *
+	 * @param row
+	 *            row
+	 * @return key
+	 * @throws CDataGridException
+	 *             if problem creating key
+	 */
+	private Object keyOf(CDataRow row) throws CDataGridException {
+		Object key = editKeys.get(row);
+		if (key != null) {
+			return key;
+		}
+		return (crmd.getPrimaryKeyColumns() == null) ? row : crmd
+				.createPrimaryKey(row);
+	}
+
+	/**
+	 * Replace rows loaded from the container with their edits.
+	 *
+	 * @param loaded
+	 *            rows, changed in place
+	 * @return {@code loaded}
+	 */
+	private CDataRow[] withEdits(CDataRow[] loaded) {
+		if (edits.isEmpty()) {
+			return loaded;
+		}
+		try {
+			for (int i = 0; i < loaded.length; i++) {
+				CDataRow edited = edits.get(keyOf(loaded[i]));
+				if (edited != null) {
+					loaded[i] = edited;
+				}
+			}
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e.getMessage(), e);
+		}
+		return loaded;
+	}
+
+	/**
+	 * Discard the edit of a row, when the container changes or removes it.
+	 *
+	 * @param key
+	 *            key of row
+	 */
+	private void discardEdit(Object key) {
+		CDataRow edited = edits.remove(key);
+		if (edited != null) {
+			editKeys.remove(edited);
+		}
+	}
+
+	/**
+	 * Get the position of each row by key, building it if needed.
+	 *
+	 * @return positions
+	 * @throws CDataGridException
+	 *             if problem creating key
+	 */
+	private CObjectIntMap<Object> positions() throws CDataGridException {
+		if (positions == null) {
+			positions = new CObjectIntMap<Object>(rows.length);
+			for (int i = 0; i < rows.length; i++) {
+				positions.put(keyOf(rows[i]), i);
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * Show rows added or changed in the container. Rows that replace a
+	 * displayed row are updated in place, other rows are added last. If
+	 * changed rows cannot be found, all rows are reloaded.
+	 *
+	 * @param changed
+	 *            rows added or changed
+	 * @param added
+	 *            if true, rows have been added, otherwise changed
+	 * @throws CDataGridException
+	 *             if problem creating key
+	 */
+	private void rowsChanged(CDataRow[] changed, boolean added)
+			throws CDataGridException {
+		CObjectIntMap<Object> index = positions();
+		int[] updated = new int[changed.length];
+		int numUpdated = 0;
+		CDataRow[] appended = new CDataRow[changed.length];
+		int numAdded = 0;
+
+		for (CDataRow row : changed) {
+			Object key = keyOf(row);
+			int i = index.get(key, -1);
+			if (i >= rows.length) {
+				// added twice
+				appended[i - rows.length] = row;
+			} else if (i >= 0) {
+				discardEdit(key);
+				rows[i] = row;
+				updated[numUpdated++] = i;
+			} else if (added) {
+				index.put(key, rows.length + numAdded);
+				appended[numAdded++] = row;
+			} else {
+				// rows without a primary key that were copied by the container
+				reload();
+				return;
+			}
+		}
+
+		if (numUpdated > 0) {
+			fireRanges(Arrays.copyOf(updated, numUpdated), false);
+		}
+
+		if (numAdded > 0) {
+			int first = rows.length;
+			rows = Arrays.copyOf(rows, first + numAdded);
+			System.arraycopy(appended, 0, rows, first, numAdded);
+			sorted = (sortColumns == null);
+			fireTableRowsInserted(first, rows.length - 1);
+		}
+	}
+
+	/**
+	 * Remove rows removed from the container, keeping the order of the rest.
+	 *
+	 * @param removed
+	 *            rows removed
+	 * @throws CDataGridException
+	 *             if problem creating key
+	 */
+	private void rowsRemoved(CDataRow[] removed) throws CDataGridException {
+		CObjectIntMap<Object> index = positions();
+		boolean[] gone = new boolean[rows.length];
+		int[] deleted = new int[removed.length];
+		int numDeleted = 0;
+
+		for (CDataRow row : removed) {
+			Object key = keyOf(row);
+			discardEdit(key);
+			int i = index.get(key, -1);
+			if (i >= 0 && !gone[i]) {
+				gone[i] = true;
+				deleted[numDeleted++] = i;
+			}
+		}
+
+		if (numDeleted == 0) {
+			return;
+		}
+
+		CDataRow[] remaining = new CDataRow[rows.length - numDeleted];
+		int j = 0;
+		for (int i = 0; i < rows.length; i++) {
+			if (!gone[i]) {
+				remaining[j++] = rows[i];
+			}
+		}
+		rows = remaining;
+		positions = null;
+		fireRanges(Arrays.copyOf(deleted, numDeleted), true);
+	}
+
+	/**
+	 * Fire row updated or deleted events for contiguous ranges of rows. If
+	 * there are more than {@link #MAX_RANGES} ranges, a single event is fired
+	 * for all rows updated, or all rows if deleted.
+	 *
+	 * @param indices
+	 *            row indices, sorted in place
+	 * @param deleted
+	 *            if true, rows have been deleted, otherwise updated
+	 */
+	private void fireRanges(int[] indices, boolean deleted) {
+		Arrays.sort(indices);
+
+		int ranges = 1;
+		for (int i = 1; i < indices.length; i++) {
+			if (indices[i] != indices[i - 1] + 1) {
+				ranges++;
+			}
+		}
+
+		if (ranges > MAX_RANGES) {
+			if (deleted) {
+				fireTableDataChanged();
+			} else {
+				fireTableRowsUpdated(indices[0], indices[indices.length - 1]);
+			}
+			return;
+		}
+
+		// fire from the last range, so deleted ranges refer to rows before
+		// the earlier ranges are deleted
+		int last = indices.length - 1;
+		for (int i = indices.length - 1; i >= 0; i--) {
+			if (i == 0 || indices[i - 1] != indices[i] - 1) {
+				if (deleted) {
+					fireTableRowsDeleted(indices[i], indices[last]);
+				} else {
+					fireTableRowsUpdated(indices[i], indices[last]);
+				}
+				last = i - 1;
+			}
+		}
+	}
+
+	/**
+	 * Applies container changes to the model on the event dispatch thread.
+	 */
+	private final class ChangeListener implements CDataChangeListener {
+
+		/** Rows added. */
+		private static final int ADDED = 0;
+
+		/** Rows updated. */
+		private static final int UPDATED = 1;
+
+		/** Rows removed. */
+		private static final int REMOVED = 2;
+
+		@Override
+		public void rowsAdded(CDataCacheContainer container, CDataRow[] rows) {
+			apply(rows.clone(), ADDED);
+		}
+
+		@Override
+		public void rowsUpdated(CDataCacheContainer container,
+				CDataRow[] rows) {
+			apply(rows.clone(), UPDATED);
+		}
+
+		@Override
+		public void rowsRemoved(CDataCacheContainer container,
+				CDataRow[] rows) {
+			apply(rows.clone(), REMOVED);
+		}
+
+		@Override
+		public void columnValueSet(CDataCacheContainer container,
+				int columnIndex, Object value) {
+			// rows may have been copied, so load them again
+			onEventThread(new Runnable() {
+				@Override
+				public void run() {
+					if (rows != null) {
+						reload();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void columnTypeChanged(CDataCacheContainer container,
+				int columnIndex, CDataRow[] changed) {
+			final CRowMetaData changedMeta = container.getMetaDefinition();
+			onEventThread(new Runnable() {
+				@Override
+				public void run() {
+					// edits are of the old type
+					edits.clear();
+					editKeys.clear();
+					crmd = changedMeta;
+					reload();
+					fireTableStructureChanged();
+				}
+			});
+		}
+
+		/**
+		 * Apply changed rows.
+		 *
+		 * @param changed
+		 *            rows changed
+		 * @param change
+		 *            {@link #ADDED}, {@link #UPDATED} or {@link #REMOVED}
+		 */
+		private void apply(final CDataRow[] changed, final int change) {
+			onEventThread(new Runnable() {
+				@Override
+				public void run() {
+					// nothing shown yet, or rows will be reloaded anyway
+					if (rows == null || changed.length == 0) {
+						return;
+					}
+
+					// a sort in progress may miss these changes, so sort
+					// again once they are applied
+					boolean resort = sorting;
+
+					try {
+						if (change == REMOVED) {
+							CDatasetTableModel.this.rowsRemoved(changed);
+						} else {
+							rowsChanged(changed, change == ADDED);
+						}
+					} catch (CDataGridException e) {
+						throw new CDataRuntimeException(e.getMessage(), e);
+					}
+
+					if (resort && rows != null) {
+						sortInBackground();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Run now if on the event dispatch thread, otherwise run later on it.
+		 *
+		 * @param runnable
+		 *            runnable
+		 */
+		private void onEventThread(Runnable runnable) {
+			if (SwingUtilities.isEventDispatchThread()) {
+				runnable.run();
+			} else {
+				SwingUtilities.invokeLater(runnable);
+			}
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,321 @@
+package net.casper.io;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.casper.data.model.CBatchExporter;
+import net.casper.data.model.CExporter;
+
+/**
+ * Exports rows on a separate thread. Wraps another exporter, so that the
+ * wrapped exporter's encoding and writing of rows runs on its own thread
+ * while the exporting thread reads rows from the container.
+ * <p>
+ * Rows are handed over in batches through a bounded queue. When the queue is
+ * full the exporting thread waits, so memory use is bounded however much
+ * slower the wrapped exporter is. Batch arrays are reused once the wrapped
+ * exporter has written them. Each row array is copied when it is queued, as
+ * rows passed to a {@link CBatchExporter} are the container's own row data
+ * and must not be kept after returning. Values are not copied.
+ * <p>
+ * An error from the wrapped exporter is thrown from the next call to
+ * {@link #writeRow(Object[])}, {@link #writeRows(Object[][], int)} or
+ * {@link #flush()}. If {@link #close()} is called without {@link #flush()},
+ * eg: because the export failed, rows still queued are discarded.
+ *
+ * @author agent
+ */
+public class CExportAsync implements CBatchExporter {
+
+	/**
+	 * Default number of rows in a batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/**
+	 * Default number of batches that may be waiting to be written.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 16;
+
+	/**
+	 * Batch that tells the writing thread there are no more rows.
+	 */
+	private static final Batch END = new Batch(0);
+
+	private final CExporter exporter;
+	private final int batchSize;
+
+	/**
+	 * Batches waiting to be written.
+	 */
+	private final BlockingQueue<Batch> queue;
+
+	/**
+	 * Batches that have been written and can be reused.
+	 */
+	private final ConcurrentLinkedQueue<Batch> free = new ConcurrentLinkedQueue<Batch>();
+
+	/**
+	 * Batch being filled.
+	 */
+	private Batch current;
+
+	private Thread writer;
+
+	/**
+	 * Error thrown by the wrapped exporter, or {@code null}.
+	 */
+	private volatile IOException error;
+
+	/**
+	 * Set when closed before all rows were flushed, so queued rows are
+	 * discarded.
+	 */
+	private volatile boolean aborted;
+
+	/**
+	 * Wrap an exporter, using the default batch and queue size.
+	 *
+	 * @param exporter
+	 *            exporter to run on a separate thread
+	 */
+	public CExportAsync(CExporter exporter) {
+		this(exporter, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Wrap an exporter.
+	 *
+	 * @param exporter
+	 *            exporter to run on a separate thread
+	 * @param batchSize
+	 *            number of rows in a batch
+	 * @param queueSize
+	 *            number of batches that may be waiting to be written before
+	 *            the exporting thread waits
+	 */
+	public CExportAsync(CExporter exporter, int batchSize, int queueSize) {
+		if (batchSize < 1 || queueSize < 1) {
+			throw new IllegalArgumentException(
+					"batchSize and queueSize must be at least 1");
+		}
+		this.exporter = exporter;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<Batch>(queueSize);
+	}
+
+	@Override
+	public void setName(String name) throws IOException {
+		exporter.setName(name);
+	}
+
+	@Override
+	public void setColumnNames(String[] columnNames) throws IOException {
+		exporter.setColumnNames(columnNames);
+	}
+
+	@Override
+	public void setColumnTypes(Class[] columnTypes) throws IOException {
+		exporter.setColumnTypes(columnTypes);
+	}
+
+	@Override
+	public void setPrimaryKeyColumns(String[] primaryKeyColumns)
+			throws IOException {
+		exporter.setPrimaryKeyColumns(primaryKeyColumns);
+	}
+
+	@Override
+	public void open() throws IOException {
+		exporter.open();
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBatches();
+			}
+		}, "casper-export");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Write batches from the queue until the end of the rows. Run by the
+	 * writing thread.
+	 */
+	private void writeBatches() {
+		try {
+			while (true) {
+				Batch batch = queue.take();
+				if (batch == END) {
+					break;
+				}
+
+				if (error == null && !aborted) {
+					try {
+						writeBatch(batch);
+					} catch (IOException e) {
+						error = e;
+					} catch (RuntimeException e) {
+						error = new IOException(e);
+					}
+				}
+				// after an error or abort keep taking batches, so the
+				// exporting thread is not left waiting on a full queue
+
+				batch.count = 0;
+				free.add(batch);
+			}
+
+			if (error == null && !aborted
+					&& exporter instanceof CBatchExporter) {
+				((CBatchExporter) exporter).flush();
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			error = new IOException("Export interrupted", e);
+		}
+	}
+
+	private void writeBatch(Batch batch) throws IOException {
+		if (exporter instanceof CBatchExporter) {
+			((CBatchExporter) exporter).writeRows(batch.rows, batch.count);
+		} else {
+			for (int i = 0; i < batch.count; i++) {
+				exporter.writeRow(batch.rows[i]);
+			}
+		}
+	}
+
+	@Override
+	public void writeRow(Object[] row) throws IOException {
+		if (current == null) {
+			current = nextBatch();
+		}
+		current.rows[current.count++] = row.clone();
+		if (current.count == batchSize) {
+			submit(current);
+			current = null;
+		}
+	}
+
+	@Override
+	public void writeRows(Object[][] rows, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			writeRow(rows[i]);
+		}
+	}
+
+	/**
+	 * Get an empty batch, reusing a written batch if there is one.
+	 *
+	 * @return empty batch
+	 * @throws IOException
+	 *             if the wrapped exporter has failed
+	 */
+	private Batch nextBatch() throws IOException {
+		checkError();
+		Batch batch = free.poll();
+		return (batch == null) ? new Batch(batchSize) : batch;
+	}
+
+	/**
+	 * Queue a batch for writing, waiting if the queue is full.
+	 *
+	 * @param batch
+	 *            batch
+	 * @throws IOException
+	 *             if the wrapped exporter has failed or interrupted while
+	 *             waiting
+	 */
+	private void submit(Batch batch) throws IOException {
+		checkError();
+		try {
+			queue.put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted", e);
+		}
+	}
+
+	private void checkError() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Wait until all rows have been written by the wrapped exporter.
+	 *
+	 * @throws IOException
+	 *             if the wrapped exporter failed
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (current != null) {
+			submit(current);
+			current = null;
+		}
+		finish();
+		checkError();
+	}
+
+	/**
+	 * Tell the writing thread there are no more rows and wait for it to
+	 * finish.
+	 *
+	 * @throws IOException
+	 *             if interrupted while waiting
+	 */
+	private void finish() throws IOException {
+		if (writer == null) {
+			return;
+		}
+		try {
+			queue.put(END);
+			writer.join();
+			writer = null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted", e);
+		}
+	}
+
+	/**
+	 * Waits for the writing thread to finish and closes the wrapped exporter.
+	 * Rows not yet flushed are discarded.
+	 *
+	 * @return the value returned by closing the wrapped exporter
+	 */
+	@Override
+	public Object close() {
+		if (writer != null) {
+			aborted = true;
+			current = null;
+			queue.clear();
+		}
+		try {
+			finish();
+		} catch (IOException e) {
+			// interrupted, close without waiting
+			writer.interrupt();
+		}
+		return exporter.close();
+	}
+
+	/**
+	 * Rows handed to the writing thread.
+	 */
+	private static final class Batch {
+		private final Object[][] rows;
+		private int count;
+
+		private Batch(int size) {
+			rows = new Object[size][];
+		}
+	}
+
+}
@@ -0,0 +1,474 @@
+package net.casper.io.beans;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.WordUtils;
+
+/**
+ * The nullary constructor, property setters and readable properties of a bean
+ * class, looked up once and shared by every export to, and build from, that
+ * class. Setters are bound to a column type with
+ * {@link #getSetter(String, Class)}, which chooses the setter overload and how
+ * values are converted to its parameter type.
+ * <p>
+ * The constructor, setters and getters are made accessible once, so invoking
+ * them skips access checks. After a number of calls the JVM replaces reflective calls with
+ * generated accessors, so the cost per call is close to a direct call.
+ *
+ * @author agent
+ * @param <E>
+ *            bean class
+ */
+final class CBeanBinding<E> {
+
+	/**
+	 * Bindings by bean class.
+	 */
+	private static final ConcurrentMap<Class<?>, CBeanBinding<?>> BINDINGS = new ConcurrentHashMap<Class<?>, CBeanBinding<?>>();
+
+	private final Class<E> beanClass;
+
+	/**
+	 * Nullary constructor, or {@code null} if the class has none.
+	 */
+	private final Constructor<E> constructor;
+
+	/**
+	 * Setters by property name and column type.
+	 */
+	private final ConcurrentMap<String, Setter> setters = new ConcurrentHashMap<String, Setter>();
+
+	/**
+	 * Readable properties by stop class.
+	 */
+	private final ConcurrentMap<Class<?>, Getter[]> getters = new ConcurrentHashMap<Class<?>, Getter[]>();
+
+	private CBeanBinding(Class<E> beanClass) {
+		this.beanClass = beanClass;
+
+		// beans without a nullary constructor can still be read
+		Constructor<E> nullary = null;
+		try {
+			nullary = beanClass.getDeclaredConstructor();
+			nullary.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			nullary = null;
+		} catch (SecurityException e) {
+			nullary = null;
+		}
+		this.constructor = nullary;
+	}
+
+	/**
+	 * Get the binding for a bean class.
+	 *
+	 * @param <E>
+	 *            bean class
+	 * @param beanClass
+	 *            bean class
+	 * @return binding
+	 */
+	@SuppressWarnings("unchecked")
+	static <E> CBeanBinding<E> forClass(Class<E> beanClass) {
+		CBeanBinding<E> binding = (CBeanBinding<E>) BINDINGS.get(beanClass);
+		if (binding == null) {
+			binding = new CBeanBinding<E>(beanClass);
+			CBeanBinding<E> existing = (CBeanBinding<E>) BINDINGS.putIfAbsent(
+					beanClass, binding);
+			if (existing != null) {
+				binding = existing;
+			}
+		}
+		return binding;
+	}
+
+	/**
+	 * Create a bean.
+	 *
+	 * @return new bean
+	 * @throws IOException
+	 *             if there is no accessible nullary constructor or it fails
+	 */
+	E newInstance() throws IOException {
+		if (constructor == null) {
+			throw new IOException("Make sure " + beanClass.getCanonicalName()
+					+ " has an accessible nullary constructor");
+		}
+		try {
+			return constructor.newInstance();
+		} catch (InstantiationException e) {
+			throw new IOException("InstantiationException: make sure "
+					+ beanClass.getCanonicalName()
+					+ " has a nullary constructor", e);
+		} catch (IllegalAccessException e) {
+			throw new IOException("IllegalAccessException: make sure "
+					+ "nullary constructor of " + beanClass.getCanonicalName()
+					+ " is accessible", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Get the getters of the bean class's readable properties, sorted by
+	 * property name.
+	 *
+	 * @param stopClass
+	 *            properties of this class and its superclasses are excluded,
+	 *            eg: {@code Object.class} excludes {@code getClass()}. May be
+	 *            {@code null}.
+	 * @return getters
+	 * @throws IOException
+	 *             if the bean class cannot be introspected
+	 */
+	Getter[] getGetters(Class<?> stopClass) throws IOException {
+		Class<?> key = (stopClass == null) ? Void.class : stopClass;
+		Getter[] readable = getters.get(key);
+		if (readable != null) {
+			return readable;
+		}
+
+		PropertyDescriptor[] all;
+		try {
+			all = (stopClass != null && stopClass.isAssignableFrom(beanClass)) ? Introspector.getBeanInfo(
+					beanClass, stopClass).getPropertyDescriptors()
+					: Introspector.getBeanInfo(beanClass)
+							.getPropertyDescriptors();
+		} catch (IntrospectionException e) {
+			throw new IOException(e);
+		}
+
+		List<Getter> list = new ArrayList<Getter>(all.length);
+		for (PropertyDescriptor property : all) {
+			if (property.getReadMethod() != null) {
+				list.add(new Getter(property.getName(), property
+						.getPropertyType(), property.getReadMethod()));
+			}
+		}
+		Collections.sort(list, new Comparator<Getter>() {
+			@Override
+			public int compare(Getter g1, Getter g2) {
+				return g1.name.compareTo(g2.name);
+			}
+		});
+
+		readable = list.toArray(new Getter[list.size()]);
+		getters.putIfAbsent(key, readable);
+		return readable;
+	}
+
+	/**
+	 * Get the setter of a property for values of a column type. If the setter
+	 * is overloaded, the overload taking the column type, or its primitive or
+	 * boxed equivalent, is preferred, then one the column type is assignable
+	 * to, then one values can be converted to.
+	 *
+	 * @param propertyName
+	 *            property name
+	 * @param columnType
+	 *            type of values that will be set
+	 * @return setter
+	 * @throws IOException
+	 *             if there is no setter for the property
+	 */
+	Setter getSetter(String propertyName, Class<?> columnType)
+			throws IOException {
+		String key = propertyName + ':' + columnType.getName();
+		Setter setter = setters.get(key);
+		if (setter == null) {
+			setter = new Setter(findSetter(propertyName, columnType));
+			setters.putIfAbsent(key, setter);
+		}
+		return setter;
+	}
+
+	private Method findSetter(String propertyName, Class<?> columnType)
+			throws IOException {
+		String name = "set" + WordUtils.capitalize(propertyName);
+		Class<?> boxedColumnType = boxed(columnType);
+
+		Method assignable = null;
+		Method convertible = null;
+		Method any = null;
+		for (Method method : beanClass.getMethods()) {
+			if (!method.getName().equals(name)
+					|| method.getParameterTypes().length != 1
+					|| Modifier.isStatic(method.getModifiers())) {
+				continue;
+			}
+
+			Class<?> param = method.getParameterTypes()[0];
+			if (any == null) {
+				any = method;
+			}
+			if (boxed(param) == boxedColumnType) {
+				method.setAccessible(true);
+				return method;
+			} else if (assignable == null && param.isAssignableFrom(columnType)) {
+				assignable = method;
+			} else if (convertible == null
+					&& getConversion(param) != Setter.AS_IS) {
+				convertible = method;
+			}
+		}
+
+		// values of an Object column may still suit any setter
+		Method method = (assignable != null) ? assignable
+				: (convertible != null) ? convertible : any;
+		if (method == null) {
+			throw new IOException("No setter for property " + propertyName
+					+ " of type " + columnType.getName() + " on "
+					+ beanClass.getCanonicalName());
+		}
+		method.setAccessible(true);
+		return method;
+	}
+
+	/**
+	 * Boxed equivalent of a primitive type.
+	 *
+	 * @param type
+	 *            type
+	 * @return boxed type, or {@code type} if not primitive
+	 */
+	static Class<?> boxed(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		} else if (type == int.class) {
+			return Integer.class;
+		} else if (type == long.class) {
+			return Long.class;
+		} else if (type == double.class) {
+			return Double.class;
+		} else if (type == float.class) {
+			return Float.class;
+		} else if (type == short.class) {
+			return Short.class;
+		} else if (type == byte.class) {
+			return Byte.class;
+		} else if (type == boolean.class) {
+			return Boolean.class;
+		} else if (type == char.class) {
+			return Character.class;
+		}
+		return type;
+	}
+
+	/**
+	 * How values are converted for a setter parameter type.
+	 *
+	 * @param param
+	 *            parameter type
+	 * @return conversion
+	 */
+	private static int getConversion(Class<?> param) {
+		Class<?> type = boxed(param);
+		if (type == Integer.class) {
+			return Setter.TO_INT;
+		} else if (type == Long.class) {
+			return Setter.TO_LONG;
+		} else if (type == Double.class) {
+			return Setter.TO_DOUBLE;
+		} else if (type == Float.class) {
+			return Setter.TO_FLOAT;
+		} else if (type == Short.class) {
+			return Setter.TO_SHORT;
+		} else if (type == Byte.class) {
+			return Setter.TO_BYTE;
+		} else if (type == Boolean.class) {
+			return Setter.TO_BOOLEAN;
+		} else if (type == Character.class) {
+			return Setter.TO_CHAR;
+		} else if (type == String.class) {
+			return Setter.TO_STRING;
+		}
+		return Setter.AS_IS;
+	}
+
+	/**
+	 * A property getter.
+	 */
+	static final class Getter {
+
+		private final String name;
+
+		private final Class<?> type;
+
+		private final Method method;
+
+		private Getter(String name, Class<?> type, Method method) {
+			this.name = name;
+			this.type = type;
+			this.method = method;
+			method.setAccessible(true);
+		}
+
+		/**
+		 * Property name.
+		 *
+		 * @return name
+		 */
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * Property type.
+		 *
+		 * @return type, primitive for primitive properties
+		 */
+		Class<?> getType() {
+			return type;
+		}
+
+		/**
+		 * Get a property value.
+		 *
+		 * @param bean
+		 *            bean, an instance of the bound bean class
+		 * @return value
+		 * @throws IOException
+		 *             if the bean is not of the bound class or the getter
+		 *             fails
+		 */
+		Object get(Object bean) throws IOException {
+			try {
+				return method.invoke(bean);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Cannot get " + name + " from "
+						+ bean.getClass().getName(), e);
+			} catch (IllegalAccessException e) {
+				throw new IOException(e);
+			} catch (InvocationTargetException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * A property setter, with the conversion of values to its parameter type.
+	 */
+	static final class Setter {
+
+		static final int AS_IS = 0;
+		static final int TO_INT = 1;
+		static final int TO_LONG = 2;
+		static final int TO_DOUBLE = 3;
+		static final int TO_FLOAT = 4;
+		static final int TO_SHORT = 5;
+		static final int TO_BYTE = 6;
+		static final int TO_BOOLEAN = 7;
+		static final int TO_CHAR = 8;
+		static final int TO_STRING = 9;
+
+		private final Method method;
+
+		/** Class of the values the setter takes without conversion. */
+		private final Class<?> valueClass;
+
+		private final int conversion;
+
+		/** Whether nulls are skipped, because the parameter is primitive. */
+		private final boolean skipNull;
+
+		private Setter(Method method) {
+			this.method = method;
+			Class<?> param = method.getParameterTypes()[0];
+			this.valueClass = boxed(param);
+			this.conversion = getConversion(param);
+			this.skipNull = param.isPrimitive();
+		}
+
+		/**
+		 * Set a property value. Null values of primitive properties are not
+		 * set, leaving the bean's default.
+		 *
+		 * @param bean
+		 *            bean
+		 * @param value
+		 *            value
+		 * @throws IOException
+		 *             if the value cannot be converted or the setter fails
+		 */
+		void set(Object bean, Object value) throws IOException {
+			if (value == null && skipNull) {
+				return;
+			}
+
+			if (value != null && value.getClass() != valueClass) {
+				try {
+					value = convert(value);
+				} catch (RuntimeException e) {
+					throw new IOException("Cannot convert value " + value
+							+ " for " + method.getName(), e);
+				}
+			}
+
+			try {
+				method.invoke(bean, value);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Cannot set " + method.getName()
+						+ " to value " + value + " of type "
+						+ value.getClass().getName(), e);
+			} catch (IllegalAccessException e) {
+				throw new IOException(e);
+			} catch (InvocationTargetException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+
+		/**
+		 * Convert a value to the parameter type. Non-numeric values of numeric
+		 * properties are parsed from their string.
+		 *
+		 * @param value
+		 *            non-null value
+		 * @return converted value
+		 */
+		private Object convert(Object value) {
+			if (conversion >= TO_INT && conversion <= TO_BYTE
+					&& !(value instanceof Number)) {
+				value = new BigDecimal(value.toString().trim());
+			}
+
+			switch (conversion) {
+			case TO_INT:
+				return ((Number) value).intValue();
+			case TO_LONG:
+				return ((Number) value).longValue();
+			case TO_DOUBLE:
+				return ((Number) value).doubleValue();
+			case TO_FLOAT:
+				return ((Number) value).floatValue();
+			case TO_SHORT:
+				return ((Number) value).shortValue();
+			case TO_BYTE:
+				return ((Number) value).byteValue();
+			case TO_BOOLEAN:
+				return (value instanceof Number) ? ((Number) value).intValue() != 0
+						: Boolean.valueOf(value.toString());
+			case TO_CHAR:
+				return value.toString().charAt(0);
+			case TO_STRING:
+				return value.toString();
+			default:
+				return value;
+			}
+		}
+	}
+
+}
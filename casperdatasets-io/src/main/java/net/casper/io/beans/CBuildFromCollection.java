@@ -1,35 +1,56 @@
 package net.casper.io.beans;
 
-import java.beans.IntrospectionException;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import net.casper.data.model.CBuilder;
 
-import org.apache.commons.beanutils.PropertyUtils;
-import org.omancode.util.beans.BeanPropertyInspector;
-
 /**
  * Builds a data cache from the given Collection. Introspection is used to
  * determine the bean properties (i.e.: getter methods) that are exposed, and
  * each one becomes a column in the data cache.
- * 
+ * <p>
+ * Properties are those of the bean class, which is the class of the first bean
+ * unless given. Getters are looked up once per bean class and shared by later
+ * builds, so every bean must be an instance of the bean class.
+ * <p>
+ * If the source is a {@link List} and more than one thread is set with
+ * {@link #setThreads(int)}, values are read from the beans in chunks on a pool
+ * of threads. Rows are still returned in the order of the list.
+ *
  * @author Oliver Mannion
  * @version $Revision: 147 $
- * 
+ *
  */
 public class CBuildFromCollection implements CBuilder {
 
+	/**
+	 * Number of beans read by a thread at a time.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
 	private final String name;
 	private final Collection<?> source;
 	private Iterator<?> iterator;
 	private final String[] primaryKeyPropNames;
 
+	/**
+	 * Class whose properties become columns, or {@code null} to use the class
+	 * of the first bean.
+	 */
+	private final Class<?> beanClass;
+
 	/**
 	 * Columns are created for all getter methods that are defined by
 	 * {@code stopClass}'s subclasses. {@code stopClass}'s getter methods and
@@ -39,15 +60,36 @@ public class CBuildFromCollection implements CBuilder {
 
 	private boolean reportBoxedPrimitiveType = true;
 
-	private Collection<String> propNames = new LinkedList<String>();
-	private Collection<Class<?>> propTypes = new LinkedList<Class<?>>();
-	private int numProps = 0;
+	private int threads = 1;
+
+	private String[] propNames = new String[0];
+	private Class<?>[] propTypes = new Class<?>[0];
+
+	/**
+	 * Getter of each column.
+	 */
+	private CBeanBinding.Getter[] getters;
+
+	private ExecutorService executor;
+
+	/**
+	 * Start of the next chunk of the list to read.
+	 */
+	private int nextChunk;
+
+	/**
+	 * Chunks being read, in list order.
+	 */
+	private final LinkedList<Future<Object[][]>> pending = new LinkedList<Future<Object[][]>>();
+
+	private Object[][] current;
+	private int currentRow;
 
 	/**
 	 * Builds a data cache from the given Collection. Introspection is used to
 	 * determine the bean properties (i.e.: getter methods) that are exposed,
 	 * and each one becomes a column in the data cache.
-	 * 
+	 *
 	 * @param name
 	 *            the name of the data cache to create.
 	 * @param source
@@ -64,8 +106,35 @@ public class CBuildFromCollection implements CBuilder {
 	 */
 	public CBuildFromCollection(String name, Collection<?> source,
 			Class<?> stopClass, String primaryKeyPropNames) {
+		this(name, source, null, stopClass, primaryKeyPropNames);
+	}
+
+	/**
+	 * Builds a data cache from the given Collection of beans of a known class.
+	 * The collection may be empty.
+	 *
+	 * @param name
+	 *            the name of the data cache to create.
+	 * @param source
+	 *            the Java collection to convert.
+	 * @param beanClass
+	 *            class whose properties become columns, or {@code null} to use
+	 *            the class of the first bean.
+	 * @param stopClass
+	 *            Columns are created for all getter methods that are defined by
+	 *            {@code stopClass}'s subclasses. {@code stopClass}'s getter
+	 *            methods and superclass getter methods are not converted to
+	 *            columns in the dataframe.
+	 * @param primaryKeyPropNames
+	 *            property names of the primary key(s), separated by commas, eg:
+	 *            "firstname,lastname" (NB: do not include a space after the
+	 *            comma), or {@code null} if no primary key.
+	 */
+	public CBuildFromCollection(String name, Collection<?> source,
+			Class<?> beanClass, Class<?> stopClass, String primaryKeyPropNames) {
 		this.name = name;
 		this.source = source;
+		this.beanClass = beanClass;
 		this.stopClass = stopClass;
 
 		this.primaryKeyPropNames = (primaryKeyPropNames == null) ? null
@@ -77,7 +146,7 @@ public class CBuildFromCollection implements CBuilder {
 	 * boxed type. By default a boxed type is reported. This doesn't affect the
 	 * storing of the value, it only means the CMetaData for the created
 	 * container will report a boxed type, eg: java.lang.Integer instead of int.
-	 * 
+	 *
 	 * @param reportBoxedPrimitive
 	 *            whether bean properties returning a primitive type should
 	 *            report these as a boxed type.
@@ -88,24 +157,57 @@ public class CBuildFromCollection implements CBuilder {
 		return this;
 	}
 
+	/**
+	 * Set the number of threads used to read values from the beans. Only used
+	 * if the source is a {@link List}.
+	 *
+	 * @param threads
+	 *            number of threads, defaults to 1, ie: values are read by the
+	 *            building thread
+	 * @return this. Can be chained.
+	 */
+	public CBuildFromCollection setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Number of beans in the source collection.
+	 *
+	 * @return row count
+	 */
+	public int getRowCount() {
+		return source.size();
+	}
+
 	@Override
 	public void close() {
-		// do nothing
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		pending.clear();
+		current = null;
+		iterator = null;
 	}
 
 	@Override
 	public String[] getColumnNames() {
-		return propNames.toArray(new String[numProps]);
+		return propNames.clone();
 	}
 
 	@Override
 	public Class<?>[] getColumnTypes() {
-		return propTypes.toArray(new Class[numProps]);
+		return propTypes.clone();
 	}
 
 	@Override
 	public Map getConcreteMap() {
-		return new HashMap();
+		// presize for the number of beans
+		return new HashMap((int) (source.size() / 0.75f) + 1);
 	}
 
 	@Override
@@ -120,48 +222,121 @@ public class CBuildFromCollection implements CBuilder {
 
 	@Override
 	public void open() throws IOException {
-		iterator = source.iterator();
-		Object bean = source.iterator().next();
+		Class<?> cls = beanClass;
+		if (cls == null) {
+			if (source.isEmpty()) {
+				throw new IOException("Cannot determine the properties of "
+						+ "an empty collection. Specify the bean class.");
+			}
+			cls = source.iterator().next().getClass();
+		}
 
-		try {
-			// get the property names and types
-			BeanPropertyInspector props = new BeanPropertyInspector(bean,
-					stopClass, reportBoxedPrimitiveType);
+		// get the property names and types
+		getters = CBeanBinding.forClass(cls).getGetters(stopClass);
+		propNames = new String[getters.length];
+		propTypes = new Class<?>[getters.length];
+		for (int i = 0; i < getters.length; i++) {
+			propNames[i] = getters[i].getName();
+			propTypes[i] = reportBoxedPrimitiveType ? CBeanBinding
+					.boxed(getters[i].getType()) : getters[i].getType();
+		}
 
-			propTypes = props.getTypes();
-			propNames = props.getNames();
-			numProps = props.getCount();
+		if (threads > 1 && source instanceof List
+				&& source.size() > CHUNK_SIZE) {
+			executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "casper-bean-reader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			nextChunk = 0;
+			while (pending.size() < threads * 2 && submitNextChunk()) {
+				// fill the pipeline
+			}
+		} else {
+			iterator = source.iterator();
+		}
+	}
 
-		} catch (IntrospectionException e) {
-			throw new IOException(e);
+	/**
+	 * Submit the next chunk of the list for reading.
+	 *
+	 * @return {@code false} if there are no more chunks
+	 */
+	private boolean submitNextChunk() {
+		final List<?> list = (List<?>) source;
+		if (nextChunk >= list.size()) {
+			return false;
 		}
+		final int from = nextChunk;
+		final int to = Math.min(from + CHUNK_SIZE, list.size());
+		nextChunk = to;
 
+		pending.add(executor.submit(new Callable<Object[][]>() {
+			@Override
+			public Object[][] call() throws IOException {
+				Object[][] rows = new Object[to - from][];
+				int i = 0;
+				for (Object bean : list.subList(from, to)) {
+					rows[i++] = readBean(bean);
+				}
+				return rows;
+			}
+		}));
+		return true;
 	}
 
 	@Override
 	public Object[] readRow() throws IOException {
-		if (!iterator.hasNext()) {
-			return null;
+		if (iterator != null) {
+			return iterator.hasNext() ? readBean(iterator.next()) : null;
 		}
 
-		Object bean = iterator.next();
-		Object[] row = new Object[numProps];
-
-		int col = 0;
+		while (current == null || currentRow >= current.length) {
+			if (pending.isEmpty()) {
+				return null;
+			}
 
-		for (String propName : propNames) {
+			Future<Object[][]> next = pending.removeFirst();
+			submitNextChunk();
 
 			try {
-				row[col++] = PropertyUtils.getProperty(bean, propName);
-			} catch (IllegalAccessException e) {
-				throw new IOException(e);
-			} catch (InvocationTargetException e) {
-				throw new IOException(e);
-			} catch (NoSuchMethodException e) {
-				throw new IOException(e);
+				current = next.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while building " + name, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
 			}
+			currentRow = 0;
 		}
 
+		// release the row as it is returned
+		Object[] row = current[currentRow];
+		current[currentRow++] = null;
+		return row;
+	}
+
+	/**
+	 * Read the column values of a bean.
+	 *
+	 * @param bean
+	 *            bean
+	 * @return row
+	 * @throws IOException
+	 *             if a getter fails
+	 */
+	private Object[] readBean(Object bean) throws IOException {
+		Object[] row = new Object[getters.length];
+		for (int col = 0; col < getters.length; col++) {
+			row[col] = getters[col].get(bean);
+		}
 		return row;
 	}
 
@@ -0,0 +1,492 @@
+package net.casper.io.columnar;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.casper.data.model.CBuilder;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.offheap.CRowLayout;
+
+/**
+ * Builds a casper dataset from a columnar file written by
+ * {@link CExportColumnar}. Only the column chunks of the selected columns are
+ * read from the file.
+ * <p>
+ * Rows can be restricted to a range of values of one or more columns with
+ * {@link #addRange(String, Object, Object)}. Row groups whose chunk
+ * statistics show they have no values in a range are skipped without being
+ * read.
+ *
+ * @author agent
+ */
+public class CBuildFromColumnar implements CBuilder {
+
+	/** Columnar file. */
+	private final File file;
+
+	/** Container name, or {@code null} for the file's name. */
+	private final String containerName;
+
+	/** Columns to load, or {@code null} for all columns. */
+	private final String[] selectedColumnNames;
+
+	/** Primary key, or {@code null} for the file's primary key. */
+	private final String[] primaryKeys;
+
+	/** Ranges rows must be in. */
+	private final List<Range> ranges = new ArrayList<Range>();
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+
+	private String name;
+	private String[] fileColumnNames;
+	private int[] typeCodes;
+	private String[] filePrimaryKeyColumns;
+	private int[] groupRowCounts;
+	private CColumnChunk[][] groupChunks;
+
+	/** File position of each selected column. */
+	private int[] columns;
+	private String[] columnNames;
+	private Class<?>[] columnTypes;
+	private String[] primaryKeyColumns;
+
+	/** Whether each column of the file is read. */
+	private boolean[] read;
+
+	/** Row groups to read. */
+	private int[] groups;
+	private int nextGroup;
+
+	/** Values of the current row group, by file column position. */
+	private Object[][] groupValues;
+	private int groupRowCount;
+	private int nextRow;
+
+	/**
+	 * Build all columns of a columnar file, with the name and primary key
+	 * saved in the file.
+	 *
+	 * @param file
+	 *            columnar file
+	 */
+	public CBuildFromColumnar(File file) {
+		this(file, null, null, null);
+	}
+
+	/**
+	 * Build from a columnar file.
+	 *
+	 * @param file
+	 *            columnar file
+	 * @param containerName
+	 *            if {@code null} will use the name saved in the file
+	 * @param columnNames
+	 *            the columns to load (case insensitive), or {@code null} to
+	 *            load all columns
+	 * @param primaryKeys
+	 *            if {@code null} will use the primary key saved in the file,
+	 *            if it was loaded
+	 */
+	public CBuildFromColumnar(File file, String containerName,
+			String[] columnNames, String[] primaryKeys) {
+		this.file = file;
+		this.containerName = containerName;
+		this.selectedColumnNames = columnNames;
+		this.primaryKeys = primaryKeys;
+	}
+
+	/**
+	 * Only build rows with a value of {@code columnName} from {@code min} to
+	 * {@code max} inclusive. Rows with a {@code null} value are not built.
+	 * May be called more than once, in which case rows must be in every
+	 * range. Must be called before {@link #open()}.
+	 *
+	 * @param columnName
+	 *            column name (case insensitive). Need not be a loaded column.
+	 * @param min
+	 *            smallest value, of the column's type, or {@code null} for no
+	 *            lower bound
+	 * @param max
+	 *            largest value, of the column's type, or {@code null} for no
+	 *            upper bound
+	 */
+	public void addRange(String columnName, Object min, Object max) {
+		ranges.add(new Range(columnName, min, max));
+	}
+
+	@Override
+	public void open() throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		try {
+			readFooter();
+		} catch (CDataGridException e) {
+			close();
+			throw new IOException("Cannot read columnar file " + file + ": "
+					+ e.getMessage(), e);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+
+		if (selectedColumnNames == null) {
+			columns = new int[fileColumnNames.length];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = i;
+			}
+		} else {
+			columns = new int[selectedColumnNames.length];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = indexOf(selectedColumnNames[i]);
+			}
+		}
+
+		read = new boolean[fileColumnNames.length];
+		columnNames = new String[columns.length];
+		columnTypes = new Class<?>[columns.length];
+		try {
+			for (int i = 0; i < columns.length; i++) {
+				columnNames[i] = fileColumnNames[columns[i]];
+				columnTypes[i] = CRowLayout.getTypeClass(typeCodes[columns[i]]);
+				read[columns[i]] = true;
+			}
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		}
+
+		for (Range range : ranges) {
+			range.column = indexOf(range.columnName);
+			read[range.column] = true;
+		}
+
+		if (primaryKeys != null) {
+			primaryKeyColumns = primaryKeys.clone();
+		} else if (filePrimaryKeyColumns != null
+				&& Arrays.asList(columnNames).containsAll(
+						Arrays.asList(filePrimaryKeyColumns))) {
+			// only keep the saved primary key if all its columns are loaded
+			primaryKeyColumns = filePrimaryKeyColumns;
+		}
+
+		// skip row groups whose statistics are outside a range
+		int[] kept = new int[groupChunks.length];
+		int keptCount = 0;
+		for (int g = 0; g < groupChunks.length; g++) {
+			if (mayMatch(groupChunks[g])) {
+				kept[keptCount++] = g;
+			}
+		}
+		groups = Arrays.copyOf(kept, keptCount);
+
+		nextGroup = 0;
+		groupRowCount = 0;
+		nextRow = 0;
+	}
+
+	/**
+	 * Read the footer.
+	 *
+	 * @throws IOException
+	 *             if the file is not a columnar file or cannot be read
+	 * @throws CDataGridException
+	 *             if chunk statistics cannot be decoded
+	 */
+	private void readFooter() throws IOException, CDataGridException {
+		long size = channel.size();
+		if (size < CColumnarFormat.HEADER_SIZE + CColumnarFormat.TRAILER_SIZE) {
+			throw new IOException("Not a columnar file: " + file);
+		}
+
+		ByteBuffer trailer = readFully(size - CColumnarFormat.TRAILER_SIZE,
+				CColumnarFormat.TRAILER_SIZE);
+		int footerLength = trailer.getInt();
+		if (trailer.getInt() != CColumnarFormat.MAGIC) {
+			throw new IOException("Not a columnar file: " + file);
+		}
+
+		ByteBuffer header = readFully(0, CColumnarFormat.HEADER_SIZE);
+		if (header.getInt() != CColumnarFormat.MAGIC) {
+			throw new IOException("Not a columnar file: " + file);
+		}
+		short version = header.getShort();
+		if (version != CColumnarFormat.VERSION) {
+			throw new IOException("Unsupported columnar file version "
+					+ version);
+		}
+
+		ByteBuffer footer = readFully(size - CColumnarFormat.TRAILER_SIZE
+				- footerLength, footerLength);
+
+		name = (footer.get() != 0) ? CColumnarFormat.readString(footer) : null;
+
+		int columnCount = footer.getInt();
+		fileColumnNames = new String[columnCount];
+		typeCodes = new int[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			fileColumnNames[i] = CColumnarFormat.readString(footer);
+			typeCodes[i] = footer.get();
+		}
+
+		int pkCount = footer.getInt();
+		if (pkCount >= 0) {
+			filePrimaryKeyColumns = new String[pkCount];
+			for (int i = 0; i < pkCount; i++) {
+				filePrimaryKeyColumns[i] = CColumnarFormat.readString(footer);
+			}
+		}
+
+		int groupCount = footer.getInt();
+		groupRowCounts = new int[groupCount];
+		groupChunks = new CColumnChunk[groupCount][columnCount];
+		for (int g = 0; g < groupCount; g++) {
+			groupRowCounts[g] = footer.getInt();
+			for (int i = 0; i < columnCount; i++) {
+				groupChunks[g][i] = CColumnChunk.readMetaData(footer,
+						typeCodes[i]);
+			}
+		}
+	}
+
+	/**
+	 * Read bytes from the file.
+	 *
+	 * @param position
+	 *            file position
+	 * @param length
+	 *            number of bytes
+	 * @return heap buffer holding the bytes
+	 * @throws IOException
+	 *             if problem reading
+	 */
+	private ByteBuffer readFully(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new EOFException("Columnar file " + file
+						+ " is truncated");
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Position of a column name, ignoring case.
+	 *
+	 * @param columnName
+	 *            column name to find
+	 * @return position of {@code columnName}
+	 * @throws IOException
+	 *             if the column does not exist
+	 */
+	private int indexOf(String columnName) throws IOException {
+		for (int i = 0; i < fileColumnNames.length; i++) {
+			if (fileColumnNames[i].equalsIgnoreCase(columnName)) {
+				return i;
+			}
+		}
+		throw new IOException("Column named " + columnName
+				+ " does not exist in columnar file.");
+	}
+
+	/**
+	 * Whether a row group may have rows in every range, according to its
+	 * chunk statistics.
+	 *
+	 * @param chunks
+	 *            row group chunks
+	 * @return {@code false} if the row group can be skipped
+	 */
+	private boolean mayMatch(CColumnChunk[] chunks) {
+		for (Range range : ranges) {
+			CColumnChunk chunk = chunks[range.column];
+			if (chunk.getMin() == null) {
+				// all values null
+				return false;
+			}
+			if (range.min != null && compare(chunk.getMax(), range.min) < 0) {
+				return false;
+			}
+			if (range.max != null && compare(chunk.getMin(), range.max) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Whether a row of the current row group is in every range.
+	 *
+	 * @param row
+	 *            row of the current row group
+	 * @return {@code true} if the row should be built
+	 */
+	private boolean matches(int row) {
+		for (Range range : ranges) {
+			Object value = groupValues[range.column][row];
+			if (value == null) {
+				return false;
+			}
+			if (range.min != null && compare(value, range.min) < 0) {
+				return false;
+			}
+			if (range.max != null && compare(value, range.max) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int compare(Object value, Object bound) {
+		return ((Comparable<Object>) value).compareTo(bound);
+	}
+
+	@Override
+	public void close() {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				// swallow exception
+			}
+			raf = null;
+			channel = null;
+		}
+		groupValues = null;
+	}
+
+	@Override
+	public String getName() {
+		if (containerName != null) {
+			return containerName;
+		}
+		return (name != null) ? name : file.getName();
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	@Override
+	public Class[] getColumnTypes() {
+		return columnTypes.clone();
+	}
+
+	@Override
+	public String[] getPrimaryKeyColumns() {
+		return primaryKeyColumns;
+	}
+
+	/**
+	 * Number of row groups in the file.
+	 *
+	 * @return row group count
+	 */
+	public int getRowGroupCount() {
+		return groupChunks.length;
+	}
+
+	/**
+	 * Number of row groups that will be read, ie: not skipped because of
+	 * their statistics.
+	 *
+	 * @return row groups read
+	 */
+	public int getRowGroupsRead() {
+		return groups.length;
+	}
+
+	@Override
+	public Map getConcreteMap() {
+		// presize for the rows in the groups read. If no primary key
+		// return a LinkedHashMap so the container keeps the file order
+		long rowCount = 0;
+		for (int g : groups) {
+			rowCount += groupRowCounts[g];
+		}
+		int capacity = (int) Math.min(rowCount / 0.75f + 1, Integer.MAX_VALUE);
+		return (primaryKeyColumns == null) ? new LinkedHashMap(capacity)
+				: new HashMap(capacity);
+	}
+
+	@Override
+	public Object[] readRow() throws IOException {
+		while (true) {
+			while (nextRow < groupRowCount) {
+				int row = nextRow++;
+				if (ranges.isEmpty() || matches(row)) {
+					Object[] values = new Object[columns.length];
+					for (int i = 0; i < columns.length; i++) {
+						values[i] = groupValues[columns[i]][row];
+					}
+					return values;
+				}
+			}
+
+			if (nextGroup == groups.length) {
+				groupValues = null;
+				return null;
+			}
+			readRowGroup(groups[nextGroup++]);
+		}
+	}
+
+	/**
+	 * Read and decode the chunks of the columns needed from a row group.
+	 *
+	 * @param group
+	 *            row group
+	 * @throws IOException
+	 *             if problem reading or decoding
+	 */
+	private void readRowGroup(int group) throws IOException {
+		groupRowCount = groupRowCounts[group];
+		groupValues = new Object[fileColumnNames.length][];
+		try {
+			for (int i = 0; i < read.length; i++) {
+				if (read[i]) {
+					CColumnChunk chunk = groupChunks[group][i];
+					ByteBuffer buf = readFully(chunk.getOffset(), chunk
+							.getLength());
+					groupValues[i] = chunk.decode(buf, typeCodes[i],
+							groupRowCount);
+				}
+			}
+		} catch (CDataGridException e) {
+			throw new IOException("Cannot decode row group " + group
+					+ " of columnar file " + file + ": " + e.getMessage(), e);
+		}
+		nextRow = 0;
+	}
+
+	/**
+	 * A range of values of a column.
+	 */
+	private static final class Range {
+		private final String columnName;
+		private final Object min;
+		private final Object max;
+		private int column;
+
+		private Range(String columnName, Object min, Object max) {
+			this.columnName = columnName;
+			this.min = min;
+			this.max = max;
+		}
+	}
+
+}
@@ -0,0 +1,438 @@
+package net.casper.io.columnar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.casper.data.model.CDataGridException;
+
+/**
+ * The values of one column in one row group, and its statistics.
+ * <p>
+ * A chunk starts with a null bitmap if any value is null, followed by the
+ * non-null values in one of these encodings:
+ * <ul>
+ * <li>{@link CColumnarFormat#PLAIN}: each value.</li>
+ * <li>{@link CColumnarFormat#DICTIONARY}: the number of distinct values, each
+ * distinct value, then the id of each value packed into the fewest bits that
+ * can hold the largest id.</li>
+ * <li>{@link CColumnarFormat#RLE}: for each run of equal values, the run
+ * length then the value.</li>
+ * <li>{@link CColumnarFormat#DELTA}: for whole number types, the first value
+ * then the difference from the previous value, as zig-zag varints.</li>
+ * </ul>
+ * The writer encodes a chunk every way that applies and keeps the smallest.
+ * The minimum and maximum non-null value are kept in the footer, so a reader
+ * can skip row groups without reading their chunks.
+ *
+ * @author agent
+ */
+final class CColumnChunk {
+
+	/** File offset of the chunk. */
+	private long offset;
+
+	/** Number of bytes in the chunk. */
+	private final int length;
+
+	/** Encoding of the non-null values. */
+	private final byte encoding;
+
+	/** Number of null values. */
+	private final int nullCount;
+
+	/** Smallest non-null value, or {@code null} if all values are null. */
+	private final Object min;
+
+	/** Largest non-null value, or {@code null} if all values are null. */
+	private final Object max;
+
+	/** Encoded chunk, until it is written. */
+	private byte[] data;
+
+	private CColumnChunk(long offset, int length, byte encoding,
+			int nullCount, Object min, Object max) {
+		this.offset = offset;
+		this.length = length;
+		this.encoding = encoding;
+		this.nullCount = nullCount;
+		this.min = min;
+		this.max = max;
+	}
+
+	long getOffset() {
+		return offset;
+	}
+
+	void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	byte getEncoding() {
+		return encoding;
+	}
+
+	int getNullCount() {
+		return nullCount;
+	}
+
+	Object getMin() {
+		return min;
+	}
+
+	Object getMax() {
+		return max;
+	}
+
+	/**
+	 * Encoded chunk. Only available on a chunk returned by
+	 * {@link #encode(int, Object[], int)}, until {@link #clearData()}.
+	 *
+	 * @return encoded bytes
+	 */
+	byte[] getData() {
+		return data;
+	}
+
+	void clearData() {
+		data = null;
+	}
+
+	/**
+	 * Encode a column chunk using the smallest encoding.
+	 *
+	 * @param typeCode
+	 *            type code of the column
+	 * @param values
+	 *            column values, of which the first {@code rowCount} are
+	 *            encoded
+	 * @param rowCount
+	 *            number of values
+	 * @return encoded chunk, with an offset of 0
+	 * @throws CDataGridException
+	 *             if a value is not of the column type
+	 */
+	static CColumnChunk encode(int typeCode, Object[] values, int rowCount)
+			throws CDataGridException {
+		byte[] bitmap = new byte[CColumnarFormat.bitmapSize(rowCount)];
+		List<Object> present = new ArrayList<Object>(rowCount);
+		Comparable<Object> min = null;
+		Comparable<Object> max = null;
+
+		for (int i = 0; i < rowCount; i++) {
+			Object value = values[i];
+			if (value == null) {
+				bitmap[i >> 3] |= 1 << (i & 7);
+				continue;
+			}
+			present.add(value);
+
+			@SuppressWarnings("unchecked")
+			Comparable<Object> comparable = (Comparable<Object>) value;
+			try {
+				if (min == null || comparable.compareTo(min) < 0) {
+					min = comparable;
+				}
+				if (max == null || comparable.compareTo(max) > 0) {
+					max = comparable;
+				}
+			} catch (ClassCastException e) {
+				throw new CDataGridException("Value " + value + " of type "
+						+ value.getClass().getName()
+						+ " does not match the type of other values in column");
+			}
+		}
+		int nullCount = rowCount - present.size();
+
+		try {
+			byte encoding = CColumnarFormat.PLAIN;
+			byte[] best = encodePlain(typeCode, present);
+
+			byte[] rle = encodeRle(typeCode, present);
+			if (rle.length < best.length) {
+				encoding = CColumnarFormat.RLE;
+				best = rle;
+			}
+
+			byte[] dictionary = encodeDictionary(typeCode, present);
+			if (dictionary != null && dictionary.length < best.length) {
+				encoding = CColumnarFormat.DICTIONARY;
+				best = dictionary;
+			}
+
+			if (CColumnarFormat.isIntegral(typeCode)) {
+				byte[] delta = encodeDelta(typeCode, present);
+				if (delta.length < best.length) {
+					encoding = CColumnarFormat.DELTA;
+					best = delta;
+				}
+			}
+
+			int bitmapLength = (nullCount == 0) ? 0 : bitmap.length;
+			byte[] data = new byte[bitmapLength + best.length];
+			System.arraycopy(bitmap, 0, data, 0, bitmapLength);
+			System.arraycopy(best, 0, data, bitmapLength, best.length);
+
+			CColumnChunk chunk = new CColumnChunk(0, data.length, encoding,
+					nullCount, min, max);
+			chunk.data = data;
+			return chunk;
+		} catch (IOException e) {
+			// not thrown when writing to a byte array
+			throw new CDataGridException(e);
+		}
+	}
+
+	private static byte[] encodePlain(int typeCode, List<Object> values)
+			throws IOException, CDataGridException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		ByteBuffer scratch = ByteBuffer.allocate(16);
+		for (Object value : values) {
+			CColumnarFormat.writePlain(out, typeCode, value, scratch);
+		}
+		return bos.toByteArray();
+	}
+
+	private static byte[] encodeRle(int typeCode, List<Object> values)
+			throws IOException, CDataGridException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		ByteBuffer scratch = ByteBuffer.allocate(16);
+		int start = 0;
+		while (start < values.size()) {
+			Object value = values.get(start);
+			int end = start + 1;
+			while (end < values.size() && value.equals(values.get(end))) {
+				end++;
+			}
+			CColumnarFormat.writeVarLong(out, end - start);
+			CColumnarFormat.writePlain(out, typeCode, value, scratch);
+			start = end;
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Dictionary encode values.
+	 *
+	 * @return encoded bytes, or {@code null} if there are more than
+	 *         {@link CColumnarFormat#MAX_DICTIONARY_SIZE} distinct values
+	 */
+	private static byte[] encodeDictionary(int typeCode, List<Object> values)
+			throws IOException, CDataGridException {
+		Map<Object, Integer> ids = new HashMap<Object, Integer>();
+		List<Object> dictionary = new ArrayList<Object>();
+		int[] valueIds = new int[values.size()];
+		for (int i = 0; i < valueIds.length; i++) {
+			Object value = values.get(i);
+			Integer id = ids.get(value);
+			if (id == null) {
+				if (dictionary.size() == CColumnarFormat.MAX_DICTIONARY_SIZE) {
+					return null;
+				}
+				id = dictionary.size();
+				ids.put(value, id);
+				dictionary.add(value);
+			}
+			valueIds[i] = id;
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		ByteBuffer scratch = ByteBuffer.allocate(16);
+		CColumnarFormat.writeVarLong(out, dictionary.size());
+		for (Object value : dictionary) {
+			CColumnarFormat.writePlain(out, typeCode, value, scratch);
+		}
+
+		int bitWidth = bitWidth(dictionary.size());
+		long bits = 0;
+		int bitCount = 0;
+		for (int id : valueIds) {
+			bits |= (long) id << bitCount;
+			bitCount += bitWidth;
+			while (bitCount >= 8) {
+				out.write((int) bits);
+				bits >>>= 8;
+				bitCount -= 8;
+			}
+		}
+		if (bitCount > 0) {
+			out.write((int) bits);
+		}
+		return bos.toByteArray();
+	}
+
+	private static byte[] encodeDelta(int typeCode, List<Object> values)
+			throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		long previous = 0;
+		for (Object value : values) {
+			long current = CColumnarFormat.toLong(typeCode, value);
+			CColumnarFormat.writeVarLong(out, CColumnarFormat.zigZag(current
+					- previous));
+			previous = current;
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Number of bits needed for dictionary ids.
+	 *
+	 * @param dictionarySize
+	 *            number of distinct values
+	 * @return bits needed to hold {@code dictionarySize - 1}
+	 */
+	private static int bitWidth(int dictionarySize) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(dictionarySize - 1,
+				0));
+	}
+
+	/**
+	 * Decode a column chunk.
+	 *
+	 * @param buf
+	 *            heap buffer holding the chunk, from its start
+	 * @param typeCode
+	 *            type code of the column
+	 * @param rowCount
+	 *            number of rows in the row group
+	 * @return values, {@code null} where null
+	 * @throws CDataGridException
+	 *             if the chunk cannot be decoded
+	 */
+	Object[] decode(ByteBuffer buf, int typeCode, int rowCount)
+			throws CDataGridException {
+		byte[] bitmap = null;
+		if (nullCount > 0) {
+			bitmap = new byte[CColumnarFormat.bitmapSize(rowCount)];
+			buf.get(bitmap);
+		}
+		int count = rowCount - nullCount;
+
+		Object[] present = new Object[count];
+		switch (encoding) {
+		case CColumnarFormat.PLAIN:
+			for (int i = 0; i < count; i++) {
+				present[i] = CColumnarFormat.readPlain(buf, typeCode);
+			}
+			break;
+		case CColumnarFormat.RLE:
+			for (int i = 0; i < count;) {
+				int run = (int) CColumnarFormat.readVarLong(buf);
+				Object value = CColumnarFormat.readPlain(buf, typeCode);
+				for (int end = i + run; i < end; i++) {
+					present[i] = value;
+				}
+			}
+			break;
+		case CColumnarFormat.DICTIONARY:
+			Object[] dictionary = new Object[(int) CColumnarFormat
+					.readVarLong(buf)];
+			for (int i = 0; i < dictionary.length; i++) {
+				dictionary[i] = CColumnarFormat.readPlain(buf, typeCode);
+			}
+			int bitWidth = bitWidth(dictionary.length);
+			long mask = (1L << bitWidth) - 1;
+			long bits = 0;
+			int bitCount = 0;
+			for (int i = 0; i < count; i++) {
+				while (bitCount < bitWidth) {
+					bits |= (long) (buf.get() & 0xFF) << bitCount;
+					bitCount += 8;
+				}
+				present[i] = dictionary[(int) (bits & mask)];
+				bits >>>= bitWidth;
+				bitCount -= bitWidth;
+			}
+			break;
+		case CColumnarFormat.DELTA:
+			long previous = 0;
+			for (int i = 0; i < count; i++) {
+				previous += CColumnarFormat.unZigZag(CColumnarFormat
+						.readVarLong(buf));
+				present[i] = CColumnarFormat.fromLong(typeCode, previous);
+			}
+			break;
+		default:
+			throw new CDataGridException("Unknown column chunk encoding "
+					+ encoding);
+		}
+
+		if (bitmap == null) {
+			return present;
+		}
+
+		Object[] values = new Object[rowCount];
+		for (int i = 0, p = 0; i < rowCount; i++) {
+			if ((bitmap[i >> 3] & (1 << (i & 7))) == 0) {
+				values[i] = present[p++];
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Write the chunk's location, encoding and statistics to the footer.
+	 *
+	 * @param out
+	 *            footer
+	 * @param typeCode
+	 *            type code of the column
+	 * @throws IOException
+	 *             if problem writing
+	 * @throws CDataGridException
+	 *             if the statistics cannot be encoded
+	 */
+	void writeMetaData(DataOutputStream out, int typeCode) throws IOException,
+			CDataGridException {
+		out.writeLong(offset);
+		out.writeInt(length);
+		out.writeByte(encoding);
+		out.writeInt(nullCount);
+		out.writeBoolean(min != null);
+		if (min != null) {
+			ByteBuffer scratch = ByteBuffer.allocate(16);
+			CColumnarFormat.writePlain(out, typeCode, min, scratch);
+			CColumnarFormat.writePlain(out, typeCode, max, scratch);
+		}
+	}
+
+	/**
+	 * Read a chunk's location, encoding and statistics from the footer.
+	 *
+	 * @param buf
+	 *            footer, positioned at the chunk
+	 * @param typeCode
+	 *            type code of the column
+	 * @return chunk
+	 * @throws CDataGridException
+	 *             if the statistics cannot be decoded
+	 */
+	static CColumnChunk readMetaData(ByteBuffer buf, int typeCode)
+			throws CDataGridException {
+		long offset = buf.getLong();
+		int length = buf.getInt();
+		byte encoding = buf.get();
+		int nullCount = buf.getInt();
+		Object min = null;
+		Object max = null;
+		if (buf.get() != 0) {
+			min = CColumnarFormat.readPlain(buf, typeCode);
+			max = CColumnarFormat.readPlain(buf, typeCode);
+		}
+		return new CColumnChunk(offset, length, encoding, nullCount, min, max);
+	}
+
+}
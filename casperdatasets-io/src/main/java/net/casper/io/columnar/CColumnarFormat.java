@@ -0,0 +1,304 @@
+package net.casper.io.columnar;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.sql.Time;
+import java.util.Date;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.offheap.CRowLayout;
+
+/**
+ * Constants and helpers shared by the columnar writer and reader.
+ * <p>
+ * A columnar file is laid out as:
+ * <ol>
+ * <li>Magic number and format version.</li>
+ * <li>Row groups: for each group of up to {@code rowGroupSize} rows, one
+ * column chunk per column (see {@link CColumnChunk}).</li>
+ * <li>Footer: dataset name, column names and type codes (see
+ * {@link CRowLayout}), primary key columns, then for each row group its row
+ * count and the location, encoding and statistics of each of its column
+ * chunks.</li>
+ * <li>Trailer: the footer length and the magic number.</li>
+ * </ol>
+ * The footer is at the end so rows can be written as they arrive, and read
+ * first so only the column chunks needed are read. Fixed width values are
+ * big-endian. Variable length numbers and strings are prefixed with their
+ * length as a varint.
+ *
+ * @author agent
+ */
+final class CColumnarFormat {
+
+	/** Magic number at the start and end of every columnar file: "CCOL". */
+	static final int MAGIC = 0x43434F4C;
+
+	/** Current format version. */
+	static final short VERSION = 1;
+
+	/** Size of the header: magic number and version. */
+	static final int HEADER_SIZE = 6;
+
+	/** Size of the trailer: footer length and magic number. */
+	static final int TRAILER_SIZE = 8;
+
+	/** Values written one after the other. */
+	static final byte PLAIN = 0;
+
+	/** Distinct values written once, then a bit-packed id for each value. */
+	static final byte DICTIONARY = 1;
+
+	/** Runs of equal values, as a run length then the value. */
+	static final byte RLE = 2;
+
+	/** First value then the difference from the previous value. */
+	static final byte DELTA = 3;
+
+	/** Chunks with more distinct values are not dictionary encoded. */
+	static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+	private CColumnarFormat() {
+		// no instantiation
+	}
+
+	/**
+	 * Number of bytes in the null bitmap of a column chunk.
+	 *
+	 * @param rowCount
+	 *            number of rows
+	 * @return bitmap size
+	 */
+	static int bitmapSize(int rowCount) {
+		return (rowCount + 7) / 8;
+	}
+
+	/**
+	 * Whether values of a type are whole numbers that can be delta encoded.
+	 *
+	 * @param typeCode
+	 *            type code
+	 * @return {@code true} if values convert to and from a long
+	 */
+	static boolean isIntegral(int typeCode) {
+		switch (typeCode) {
+		case CRowLayout.TYPE_BYTE:
+		case CRowLayout.TYPE_SHORT:
+		case CRowLayout.TYPE_INTEGER:
+		case CRowLayout.TYPE_LONG:
+		case CRowLayout.TYPE_DATE:
+		case CRowLayout.TYPE_SQL_DATE:
+		case CRowLayout.TYPE_TIME:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Value of an integral type as a long.
+	 *
+	 * @param typeCode
+	 *            integral type code
+	 * @param value
+	 *            non-null value
+	 * @return long value
+	 */
+	static long toLong(int typeCode, Object value) {
+		switch (typeCode) {
+		case CRowLayout.TYPE_DATE:
+		case CRowLayout.TYPE_SQL_DATE:
+		case CRowLayout.TYPE_TIME:
+			return ((Date) value).getTime();
+		default:
+			return ((Number) value).longValue();
+		}
+	}
+
+	/**
+	 * Value of an integral type from a long.
+	 *
+	 * @param typeCode
+	 *            integral type code
+	 * @param value
+	 *            long value
+	 * @return value
+	 */
+	static Object fromLong(int typeCode, long value) {
+		switch (typeCode) {
+		case CRowLayout.TYPE_BYTE:
+			return Byte.valueOf((byte) value);
+		case CRowLayout.TYPE_SHORT:
+			return Short.valueOf((short) value);
+		case CRowLayout.TYPE_INTEGER:
+			return Integer.valueOf((int) value);
+		case CRowLayout.TYPE_DATE:
+			return new Date(value);
+		case CRowLayout.TYPE_SQL_DATE:
+			return new java.sql.Date(value);
+		case CRowLayout.TYPE_TIME:
+			return new Time(value);
+		default:
+			return Long.valueOf(value);
+		}
+	}
+
+	/**
+	 * Write an unsigned varint: 7 bits per byte, low bits first, with the top
+	 * bit set on all but the last byte.
+	 *
+	 * @param out
+	 *            destination
+	 * @param value
+	 *            value, treated as unsigned
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	static void writeVarLong(DataOutputStream out, long value)
+			throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Read an unsigned varint written by
+	 * {@link #writeVarLong(DataOutputStream, long)}.
+	 *
+	 * @param buf
+	 *            source, positioned at the varint
+	 * @return value
+	 */
+	static long readVarLong(ByteBuffer buf) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Map a signed value to an unsigned value so small magnitudes have short
+	 * varints: 0, -1, 1, -2, 2 become 0, 1, 2, 3, 4.
+	 *
+	 * @param value
+	 *            signed value
+	 * @return unsigned value
+	 */
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Reverse {@link #zigZag(long)}.
+	 *
+	 * @param value
+	 *            unsigned value
+	 * @return signed value
+	 */
+	static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Write a string as a varint length followed by its UTF-8 bytes.
+	 *
+	 * @param out
+	 *            destination
+	 * @param str
+	 *            string
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	static void writeString(DataOutputStream out, String str)
+			throws IOException {
+		byte[] bytes = str.getBytes("UTF-8");
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param buf
+	 *            source, positioned at the string
+	 * @return string
+	 */
+	static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[(int) readVarLong(buf)];
+		buf.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Write a non-null value in its plain encoding: fixed width types in
+	 * their {@link CRowLayout} slot width, variable length types as a varint
+	 * length then the encoded bytes.
+	 *
+	 * @param out
+	 *            destination
+	 * @param typeCode
+	 *            type code of the value
+	 * @param value
+	 *            non-null value
+	 * @param scratch
+	 *            buffer of at least 12 bytes used to encode fixed width
+	 *            values
+	 * @throws IOException
+	 *             if problem writing
+	 * @throws CDataGridException
+	 *             if the value is not of the expected type
+	 */
+	static void writePlain(DataOutputStream out, int typeCode, Object value,
+			ByteBuffer scratch) throws IOException, CDataGridException {
+		if (CRowLayout.isVariable(typeCode)) {
+			byte[] bytes = CRowLayout.encodeVariable(typeCode, value);
+			writeVarLong(out, bytes.length);
+			out.write(bytes);
+		} else {
+			CRowLayout.writeFixed(scratch, 0, typeCode, value);
+			out.write(scratch.array(), 0, CRowLayout.getSlotWidth(typeCode));
+		}
+	}
+
+	/**
+	 * Read a value written by
+	 * {@link #writePlain(DataOutputStream, int, Object, ByteBuffer)}.
+	 *
+	 * @param buf
+	 *            source, positioned at the value
+	 * @param typeCode
+	 *            type code of the value
+	 * @return value
+	 * @throws CDataGridException
+	 *             if the type code is unknown
+	 */
+	static Object readPlain(ByteBuffer buf, int typeCode)
+			throws CDataGridException {
+		if (CRowLayout.isVariable(typeCode)) {
+			int length = (int) readVarLong(buf);
+			Object value = CRowLayout.decodeVariable(typeCode, buf.array(), buf
+					.arrayOffset()
+					+ buf.position(), length);
+			buf.position(buf.position() + length);
+			return value;
+		}
+
+		Object value = CRowLayout.readFixed(buf, buf.position(), typeCode);
+		buf.position(buf.position() + CRowLayout.getSlotWidth(typeCode));
+		return value;
+	}
+
+}
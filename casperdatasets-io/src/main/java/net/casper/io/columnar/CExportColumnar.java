@@ -0,0 +1,274 @@
+package net.casper.io.columnar;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CExporter;
+import net.casper.data.model.offheap.CRowLayout;
+
+/**
+ * Exports a casper dataset to a columnar file. Rows are buffered until a row
+ * group is full, then each column of the group is encoded and written as a
+ * column chunk. The footer, with the statistics of every chunk, is written
+ * when the exporter is closed. See {@link CColumnarFormat} for the layout and
+ * {@link CColumnChunk} for the encodings.
+ * <p>
+ * Column types must be one of the types supported by {@link CRowLayout}. Read
+ * the file with {@link CBuildFromColumnar}.
+ *
+ * @author agent
+ */
+public class CExportColumnar implements CExporter {
+
+	/**
+	 * Default number of rows in a row group.
+	 */
+	public static final int DEFAULT_ROW_GROUP_SIZE = 64 * 1024;
+
+	/** Destination file. */
+	private final File file;
+
+	/** Number of rows in a row group. */
+	private final int rowGroupSize;
+
+	private String name;
+	private String[] columnNames;
+	private Class<?>[] columnTypes;
+	private String[] primaryKeyColumns;
+
+	/** Type code of each column. */
+	private int[] typeCodes;
+
+	private DataOutputStream out;
+
+	/** Number of bytes written. */
+	private long position;
+
+	/** Values of the current row group, by column. */
+	private Object[][] values;
+
+	/** Number of rows in the current row group. */
+	private int groupRowCount;
+
+	/** Row count of each written row group. */
+	private final List<Integer> groupRowCounts = new ArrayList<Integer>();
+
+	/** Column chunks of each written row group. */
+	private final List<CColumnChunk[]> groupChunks = new ArrayList<CColumnChunk[]>();
+
+	/** Set if a row could not be written, so no footer is written. */
+	private boolean failed;
+
+	/**
+	 * Construct an exporter that writes to {@code file} with the default row
+	 * group size.
+	 *
+	 * @param file
+	 *            columnar file to create
+	 */
+	public CExportColumnar(File file) {
+		this(file, DEFAULT_ROW_GROUP_SIZE);
+	}
+
+	/**
+	 * Construct an exporter that writes to {@code file}.
+	 *
+	 * @param file
+	 *            columnar file to create
+	 * @param rowGroupSize
+	 *            number of rows in a row group. Smaller groups allow more rows
+	 *            to be skipped when reading, larger groups encode better.
+	 */
+	public CExportColumnar(File file, int rowGroupSize) {
+		if (rowGroupSize < 1) {
+			throw new IllegalArgumentException(
+					"rowGroupSize must be at least 1");
+		}
+		this.file = file;
+		this.rowGroupSize = rowGroupSize;
+	}
+
+	@Override
+	public void setName(String name) throws IOException {
+		this.name = name;
+	}
+
+	@Override
+	public void setColumnNames(String[] columnNames) throws IOException {
+		this.columnNames = columnNames.clone();
+	}
+
+	@Override
+	public void setColumnTypes(Class[] columnTypes) throws IOException {
+		this.columnTypes = columnTypes.clone();
+	}
+
+	@Override
+	public void setPrimaryKeyColumns(String[] primaryKeyColumns)
+			throws IOException {
+		this.primaryKeyColumns = (primaryKeyColumns == null) ? null
+				: primaryKeyColumns.clone();
+	}
+
+	@Override
+	public void open() throws IOException {
+		typeCodes = new int[columnTypes.length];
+		for (int i = 0; i < columnTypes.length; i++) {
+			typeCodes[i] = CRowLayout.getTypeCode(columnTypes[i]);
+			if (typeCodes[i] < 0) {
+				throw new IOException("Column " + columnNames[i] + " of type "
+						+ columnTypes[i].getName()
+						+ " cannot be written to a columnar file.");
+			}
+		}
+
+		values = new Object[columnTypes.length][rowGroupSize];
+
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		out.writeInt(CColumnarFormat.MAGIC);
+		out.writeShort(CColumnarFormat.VERSION);
+		position = CColumnarFormat.HEADER_SIZE;
+	}
+
+	@Override
+	public void writeRow(Object[] row) throws IOException {
+		for (int i = 0; i < row.length; i++) {
+			values[i][groupRowCount] = row[i];
+		}
+		groupRowCount++;
+
+		if (groupRowCount == rowGroupSize) {
+			writeRowGroup();
+		}
+	}
+
+	/**
+	 * Encode and write the buffered row group.
+	 *
+	 * @throws IOException
+	 *             if a value is not of its column type or problem writing
+	 */
+	private void writeRowGroup() throws IOException {
+		CColumnChunk[] chunks = new CColumnChunk[values.length];
+		try {
+			for (int i = 0; i < values.length; i++) {
+				chunks[i] = CColumnChunk.encode(typeCodes[i], values[i],
+						groupRowCount);
+			}
+		} catch (CDataGridException e) {
+			failed = true;
+			throw new IOException("Cannot write column chunk: "
+					+ e.getMessage(), e);
+		}
+
+		for (CColumnChunk chunk : chunks) {
+			chunk.setOffset(position);
+			out.write(chunk.getData());
+			position += chunk.getLength();
+			chunk.clearData();
+		}
+
+		groupRowCounts.add(groupRowCount);
+		groupChunks.add(chunks);
+
+		for (Object[] column : values) {
+			for (int i = 0; i < groupRowCount; i++) {
+				column[i] = null;
+			}
+		}
+		groupRowCount = 0;
+	}
+
+	/**
+	 * Write the last row group and the footer.
+	 *
+	 * @return {@code null}
+	 * @throws CDataRuntimeException
+	 *             if the file cannot be written
+	 */
+	@Override
+	public Object close() {
+		if (out == null) {
+			return null;
+		}
+
+		try {
+			try {
+				if (!failed) {
+					if (groupRowCount > 0) {
+						writeRowGroup();
+					}
+					byte[] footer = footer();
+					out.write(footer);
+					out.writeInt(footer.length);
+					out.writeInt(CColumnarFormat.MAGIC);
+				}
+			} finally {
+				out.close();
+				out = null;
+			}
+		} catch (IOException e) {
+			throw new CDataRuntimeException("Cannot write columnar file "
+					+ file.getPath(), e);
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException("Cannot write columnar file "
+					+ file.getPath(), e);
+		}
+		return null;
+	}
+
+	/**
+	 * Encode the footer.
+	 *
+	 * @return footer bytes
+	 * @throws IOException
+	 *             if problem encoding
+	 * @throws CDataGridException
+	 *             if chunk statistics cannot be encoded
+	 */
+	private byte[] footer() throws IOException, CDataGridException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+
+		dos.writeBoolean(name != null);
+		if (name != null) {
+			CColumnarFormat.writeString(dos, name);
+		}
+
+		dos.writeInt(columnNames.length);
+		for (int i = 0; i < columnNames.length; i++) {
+			CColumnarFormat.writeString(dos, columnNames[i]);
+			dos.writeByte(typeCodes[i]);
+		}
+
+		dos.writeInt(primaryKeyColumns == null ? -1 : primaryKeyColumns.length);
+		if (primaryKeyColumns != null) {
+			for (String pk : primaryKeyColumns) {
+				CColumnarFormat.writeString(dos, pk);
+			}
+		}
+
+		dos.writeInt(groupChunks.size());
+		for (int g = 0; g < groupChunks.size(); g++) {
+			dos.writeInt(groupRowCounts.get(g));
+			CColumnChunk[] chunks = groupChunks.get(g);
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i].writeMetaData(dos, typeCodes[i]);
+			}
+		}
+
+		dos.flush();
+		return bos.toByteArray();
+	}
+
+}
@@ -0,0 +1,7 @@
+/**
+ * Columnar files of casper datasets, for reading only some of the columns of
+ * large extracts and skipping row groups using column statistics.
+ * 
+ * @author agent
+ */
+package net.casper.io.columnar;
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 
+import net.casper.data.model.CBuilder;
 import net.casper.data.model.CDataCacheContainer;
 import net.casper.data.model.CDataGridException;
 import net.casper.io.file.in.CBuildFromFile;
@@ -110,13 +111,25 @@ public class CDataFileDef implements CDataFile {
 		this.cellReaders = cellReaders;
 	}
 
+	/**
+	 * Create a builder that reads a file with this definition, eg: to read
+	 * rows without loading a container.
+	 * 
+	 * @param file
+	 *            file to read
+	 * @return unopened builder
+	 * @throws IOException
+	 *             if IO problem reading file header.
+	 */
+	public CBuilder newBuilder(File file) throws IOException {
+		return new CBuildFromFile(file, name, columns, cellReaders, primaryKey);
+	}
+
 	@Override
 	public CDataCacheContainer loadDataset(File file) throws IOException {
 
 		try {
-			container =
-					new CDataCacheContainer(new CBuildFromFile(file, name,
-							columns, cellReaders, primaryKey));
+			container = new CDataCacheContainer(newBuilder(file));
 
 			return container;
 		} catch (CDataGridException e) {
@@ -0,0 +1,267 @@
+package net.casper.io.file.in;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.casper.data.model.CBuilder;
+
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.util.ArrayUtil;
+
+/**
+ * Builds casper data from a UTF-8 CSV file by parsing it directly from memory
+ * mapped regions of the file, or from a {@link ByteBuffer}. Numeric cells
+ * are converted without creating intermediate Strings and repeated String
+ * values share one instance (see {@link CCSVParser}). {@link CBuildFromFile}
+ * uses this builder for CSV files when asked to parse them from memory.
+ * <p>
+ * The file must have a header. Fields are separated by commas and may be
+ * enclosed in double quotes, in which case a double quote within the field is
+ * escaped by another double quote.
+ *
+ * @author agent
+ */
+public class CBuildFromCSV implements CBuilder {
+
+	/**
+	 * Maximum size of a region of the file mapped at once.
+	 */
+	private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+
+	private final File file;
+	private final ByteBuffer source;
+	private final String containerName;
+	private final String[] primaryKeys;
+	private final CCSVParser parser;
+
+	/**
+	 * Position of the first row.
+	 */
+	private final long dataStart;
+
+	private FileChannel channel;
+	private long size;
+	private ByteBuffer window;
+	private long windowStart;
+	private CCSVParser.RowReader rowReader;
+
+	/**
+	 * Construct a CSV file builder.
+	 *
+	 * @param file
+	 *            file
+	 * @param containerName
+	 *            if {@code null} will use default (the file name)
+	 * @param columnNames
+	 *            the name of the columns to read. If {@code null}, column
+	 *            names will be loaded from the file header. If specified then
+	 *            the file must have a header containing the columns (case and
+	 *            order insensitive).
+	 * @param cellReaders
+	 *            cell readers for each column. If {@code null}, columns are
+	 *            read as Strings and empty cells as {@code null}.
+	 * @param primaryKeys
+	 *            {@code null} if no primary key otherwise an array of primary
+	 *            key names
+	 * @throws IOException
+	 *             if IO problem reading file header.
+	 */
+	public CBuildFromCSV(File file, String containerName,
+			String[] columnNames, CellReader<?>[] cellReaders,
+			String[] primaryKeys) throws IOException {
+		if (!file.exists()) {
+			throw new FileNotFoundException(file + " does not exist.");
+		}
+
+		this.file = file;
+		this.source = null;
+		this.containerName = containerName == null ? file.getName()
+				: containerName;
+
+		List<String> header = new ArrayList<String>();
+		dataStart = CCSVParser.readHeader(file, header);
+		parser = new CCSVParser(file.getName(), header
+				.toArray(new String[header.size()]), columnNames, cellReaders);
+		this.primaryKeys = checkPrimaryKeys(primaryKeys, parser
+				.getColumnNames(), this.containerName);
+	}
+
+	/**
+	 * Construct a builder that reads CSV from a buffer, eg: a direct buffer
+	 * filled from a network channel. The CSV is read from the buffer's
+	 * position to its limit. The buffer is not modified.
+	 *
+	 * @param buffer
+	 *            buffer
+	 * @param containerName
+	 *            container name
+	 * @param columnNames
+	 *            the name of the columns to read. If {@code null}, column
+	 *            names will be loaded from the header.
+	 * @param cellReaders
+	 *            cell readers for each column. If {@code null}, columns are
+	 *            read as Strings and empty cells as {@code null}.
+	 * @param primaryKeys
+	 *            {@code null} if no primary key otherwise an array of primary
+	 *            key names
+	 * @throws IOException
+	 *             if problem reading header.
+	 */
+	public CBuildFromCSV(ByteBuffer buffer, String containerName,
+			String[] columnNames, CellReader<?>[] cellReaders,
+			String[] primaryKeys) throws IOException {
+		this.file = null;
+		this.source = buffer.duplicate();
+		this.containerName = containerName;
+
+		List<String> header = new ArrayList<String>();
+		int end = CCSVParser.readHeader(source.duplicate(), header);
+		if (end < 0) {
+			throw new IOException("Cannot read header of " + containerName);
+		}
+		dataStart = end;
+		parser = new CCSVParser(containerName, header
+				.toArray(new String[header.size()]), columnNames, cellReaders);
+		this.primaryKeys = checkPrimaryKeys(primaryKeys, parser
+				.getColumnNames(), containerName);
+	}
+
+	/**
+	 * Check primary keys, ie: if primary keys are specified make sure they
+	 * are columns read.
+	 *
+	 * @param specifiedPKs
+	 *            primary keys expected
+	 * @param columnsAvailable
+	 *            columns read
+	 * @param sourceName
+	 *            name of source, for error messages
+	 * @return clone of specifiedPKs if checks pass
+	 * @throws IOException
+	 *             if problem with primary keys
+	 */
+	static String[] checkPrimaryKeys(String[] specifiedPKs,
+			String[] columnsAvailable, String sourceName) throws IOException {
+
+		if (specifiedPKs == null) {
+			return null;
+		}
+
+		String missingPK = ArrayUtil.firstStringComplement(columnsAvailable,
+				specifiedPKs, false);
+		if (missingPK != null) {
+			throw new IOException("Primary key column \"" + missingPK
+					+ "\" does not exist/not read from " + sourceName);
+		}
+
+		return specifiedPKs.clone();
+	}
+
+	@Override
+	public void open() throws IOException {
+		rowReader = parser.new RowReader();
+
+		if (file == null) {
+			window = source.duplicate();
+			window.position((int) dataStart);
+			windowStart = 0;
+			size = window.limit();
+		} else {
+			channel = new FileInputStream(file).getChannel();
+			size = channel.size();
+			mapWindow(dataStart);
+		}
+	}
+
+	/**
+	 * Map the region of the file starting at a position.
+	 *
+	 * @param start
+	 *            position
+	 * @throws IOException
+	 *             if problem mapping file
+	 */
+	private void mapWindow(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(
+				size - start, WINDOW_SIZE));
+	}
+
+	@Override
+	public void close() {
+		window = null;
+		rowReader = null;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing more can be done
+			}
+			channel = null;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return containerName;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return parser.getColumnNames();
+	}
+
+	@Override
+	public Class[] getColumnTypes() {
+		return parser.getColumnTypes();
+	}
+
+	@Override
+	public Map getConcreteMap() {
+		// if no primary key return a LinkedHashMap so the container
+		// will be ordered according to insert order, ie:
+		// same order as in the file
+		return (primaryKeys == null) ? new LinkedHashMap() : new HashMap();
+	}
+
+	@Override
+	public String[] getPrimaryKeyColumns() {
+		return primaryKeys;
+	}
+
+	@Override
+	public Object[] readRow() throws IOException {
+		while (true) {
+			boolean last = windowStart + window.limit() >= size;
+			Object[] row = rowReader.next(window, last, windowStart);
+			if (row != null) {
+				return row;
+			}
+
+			long next = windowStart + window.position();
+			if (rowReader.isUnterminated()) {
+				throw new IOException("Unterminated quoted field at byte "
+						+ next + " of " + containerName);
+			}
+			if (last) {
+				return null;
+			}
+			if (window.position() == 0) {
+				throw new IOException("Row at byte " + next + " of "
+						+ containerName + " is longer than " + WINDOW_SIZE
+						+ " bytes.");
+			}
+			mapWindow(next);
+		}
+	}
+
+}
@@ -0,0 +1,452 @@
+package net.casper.io.file.in;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+import net.casper.data.model.CBuilder;
+
+import org.omancode.rmt.cellreader.CellReader;
+
+/**
+ * Builds casper data from one or more CSV files by parsing them in parallel.
+ * Each file is split into chunks at line boundaries, and chunks are memory
+ * mapped and parsed on a pool of threads (see {@link CCSVParser}). Rows
+ * are returned in the order they appear in the files, and files in the order
+ * given, so a container without a primary key has the same row order as
+ * loading the files one after the other.
+ * <p>
+ * Files must be UTF-8 (or ASCII) and each must have a header. The columns
+ * read must be in the header of every file, but may be in a different order
+ * in each. A quoted field may contain a line break only if its file is not
+ * split into chunks, ie: the chunk size is 0.
+ * <p>
+ * At most two chunks per thread are read ahead of the rows returned by
+ * {@link #readRow()}, which bounds the memory used while loading.
+ *
+ * @author agent
+ */
+public class CBuildFromCSVParallel implements CBuilder {
+
+	/**
+	 * Default chunk size, in bytes.
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Size of the buffer used to find line boundaries.
+	 */
+	private static final int SCAN_BUFFER_SIZE = 8192;
+
+	private final File[] files;
+	private final String containerName;
+	private final String[] columnNames;
+	private final Class<?>[] columnTypes;
+	private final String[] primaryKeys;
+	private final int threads;
+
+	/**
+	 * Parser of each file.
+	 */
+	private final CCSVParser[] parsers;
+
+	/**
+	 * Position of the first row of each file.
+	 */
+	private final long[] dataStarts;
+
+	private final long chunkSize;
+
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+	private int nextChunk;
+	private final LinkedList<Future<List<Object[]>>> pending = new LinkedList<Future<List<Object[]>>>();
+
+	private FileChannel[] channels;
+	private ExecutorService executor;
+
+	private List<Object[]> current;
+	private int currentRow;
+
+	/**
+	 * Create a parallel CSV builder for a single file, using a thread per
+	 * processor and the default chunk size.
+	 *
+	 * @param file
+	 *            file
+	 * @param containerName
+	 *            if {@code null} will use default (the file name)
+	 * @param columnNames
+	 *            names of the columns to read, case insensitive. If
+	 *            {@code null}, all columns in the file's header are read.
+	 * @param cellReaders
+	 *            cell readers for each column. If {@code null}, columns are
+	 *            read as Strings and empty cells as {@code null}.
+	 * @param primaryKeys
+	 *            {@code null} if no primary key otherwise an array of primary
+	 *            key names
+	 * @throws IOException
+	 *             if IO problem reading file header.
+	 */
+	public CBuildFromCSVParallel(File file, String containerName,
+			String[] columnNames, CellReader<?>[] cellReaders,
+			String[] primaryKeys) throws IOException {
+		this(new File[] { file }, containerName, columnNames, cellReaders,
+				primaryKeys, Runtime.getRuntime().availableProcessors(),
+				DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Construct a parallel CSV builder.
+	 *
+	 * @param files
+	 *            files, loaded in the order given. See
+	 *            {@link #listFiles(File, String)}.
+	 * @param containerName
+	 *            if {@code null} will use default (the name of the first
+	 *            file)
+	 * @param columnNames
+	 *            names of the columns to read, case insensitive. If
+	 *            {@code null}, all columns in the first file's header are
+	 *            read.
+	 * @param cellReaders
+	 *            cell readers for each column. If {@code null}, columns are
+	 *            read as Strings and empty cells as {@code null}.
+	 * @param primaryKeys
+	 *            {@code null} if no primary key otherwise an array of primary
+	 *            key names
+	 * @param threads
+	 *            number of threads used to parse
+	 * @param chunkSize
+	 *            approximate size of the chunks files are split into, in
+	 *            bytes, or 0 to parse each file as a single chunk
+	 * @throws IOException
+	 *             if IO problem reading file headers, or the headers do not
+	 *             contain the columns
+	 */
+	public CBuildFromCSVParallel(File[] files, String containerName,
+			String[] columnNames, CellReader<?>[] cellReaders,
+			String[] primaryKeys, int threads, long chunkSize)
+			throws IOException {
+
+		if (files.length == 0) {
+			throw new FileNotFoundException("No files to load.");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		if (chunkSize < 0 || chunkSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("chunkSize must be between 0 and "
+					+ Integer.MAX_VALUE);
+		}
+
+		this.files = files.clone();
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+		this.containerName = containerName == null ? files[0].getName()
+				: containerName;
+
+		parsers = new CCSVParser[files.length];
+		dataStarts = new long[files.length];
+		List<String> header = new ArrayList<String>();
+
+		for (int i = 0; i < files.length; i++) {
+			if (!files[i].exists()) {
+				throw new FileNotFoundException(files[i] + " does not exist.");
+			}
+
+			dataStarts[i] = CCSVParser.readHeader(files[i], header);
+
+			// the columns of the first file are read from the rest
+			parsers[i] = new CCSVParser(files[i].getName(), header
+					.toArray(new String[header.size()]), (i == 0) ? columnNames
+					: parsers[0].getColumnNames(), cellReaders);
+		}
+
+		this.columnNames = parsers[0].getColumnNames();
+		this.columnTypes = parsers[0].getColumnTypes();
+		this.primaryKeys = CBuildFromCSV.checkPrimaryKeys(primaryKeys,
+				this.columnNames, this.containerName);
+	}
+
+	/**
+	 * List the files in a directory whose names match a glob pattern, sorted
+	 * by name. In the pattern, {@code *} matches any characters and {@code ?}
+	 * matches a single character, eg: {@code positions-*.csv}.
+	 *
+	 * @param dir
+	 *            directory
+	 * @param glob
+	 *            pattern to match file names against
+	 * @return matching files
+	 * @throws FileNotFoundException
+	 *             if the directory does not exist or no files match
+	 */
+	public static File[] listFiles(File dir, String glob)
+			throws FileNotFoundException {
+		StringBuffer regex = new StringBuffer();
+		StringBuffer literal = new StringBuffer();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				if (literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? ".*" : ".");
+			} else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+
+		Pattern pattern = Pattern.compile(regex.toString());
+		File[] all = dir.listFiles();
+		if (all == null) {
+			throw new FileNotFoundException(dir + " is not a directory.");
+		}
+
+		List<File> matches = new ArrayList<File>();
+		for (File file : all) {
+			if (file.isFile() && pattern.matcher(file.getName()).matches()) {
+				matches.add(file);
+			}
+		}
+		if (matches.isEmpty()) {
+			throw new FileNotFoundException("No files in " + dir
+					+ " match " + glob);
+		}
+
+		File[] result = matches.toArray(new File[matches.size()]);
+		Arrays.sort(result);
+		return result;
+	}
+
+	@Override
+	public void open() throws IOException {
+		channels = new FileChannel[files.length];
+		try {
+			for (int i = 0; i < files.length; i++) {
+				channels[i] = new FileInputStream(files[i]).getChannel();
+				splitIntoChunks(i);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "casper-csv-parser");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		while (pending.size() < threads * 2 && submitNextChunk()) {
+			// fill the pipeline
+		}
+	}
+
+	/**
+	 * Split a file into chunks that end at a line boundary.
+	 *
+	 * @param fileNo
+	 *            index of file
+	 * @throws IOException
+	 *             if problem reading file
+	 */
+	private void splitIntoChunks(int fileNo) throws IOException {
+		FileChannel channel = channels[fileNo];
+		long size = channel.size();
+		long start = dataStarts[fileNo];
+
+		if (chunkSize == 0 && size - start > Integer.MAX_VALUE) {
+			throw new IOException(files[fileNo]
+					+ " is too large to load as a single chunk.");
+		}
+
+		while (start < size) {
+			long end = (chunkSize == 0) ? size : findLineEnd(channel, start
+					+ chunkSize, size);
+			if (end - start > Integer.MAX_VALUE) {
+				throw new IOException("A line of " + files[fileNo]
+						+ " is too long to load.");
+			}
+			chunks.add(new Chunk(fileNo, start, (int) (end - start)));
+			start = end;
+		}
+	}
+
+	/**
+	 * Find the end of the line containing a position.
+	 *
+	 * @param channel
+	 *            file
+	 * @param pos
+	 *            position
+	 * @param size
+	 *            size of file
+	 * @return position after the line feed that ends the line, or the end of
+	 *         the file
+	 * @throws IOException
+	 *             if problem reading file
+	 */
+	private static long findLineEnd(FileChannel channel, long pos, long size)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		while (pos < size) {
+			buffer.clear();
+			int read = channel.read(buffer, pos);
+			if (read < 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Submit the next chunk for parsing.
+	 *
+	 * @return {@code false} if there are no more chunks
+	 */
+	private boolean submitNextChunk() {
+		if (nextChunk >= chunks.size()) {
+			return false;
+		}
+		final Chunk chunk = chunks.get(nextChunk);
+		chunks.set(nextChunk++, null);
+
+		pending.add(executor.submit(new Callable<List<Object[]>>() {
+			@Override
+			public List<Object[]> call() throws IOException {
+				ByteBuffer buffer = channels[chunk.fileNo].map(
+						FileChannel.MapMode.READ_ONLY, chunk.start,
+						chunk.length);
+				return parsers[chunk.fileNo].parse(buffer, chunk.start);
+			}
+		}));
+		return true;
+	}
+
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		pending.clear();
+		current = null;
+
+		if (channels != null) {
+			for (FileChannel channel : channels) {
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						// nothing more can be done
+					}
+				}
+			}
+			channels = null;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return containerName;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	@Override
+	public Class[] getColumnTypes() {
+		return columnTypes.clone();
+	}
+
+	@Override
+	public Map getConcreteMap() {
+		// if no primary key return a LinkedHashMap so the container
+		// will be ordered according to insert order, ie:
+		// same order as in the files
+		return (primaryKeys == null) ? new LinkedHashMap() : new HashMap();
+	}
+
+	@Override
+	public String[] getPrimaryKeyColumns() {
+		return primaryKeys;
+	}
+
+	@Override
+	public Object[] readRow() throws IOException {
+		while (current == null || currentRow >= current.size()) {
+			if (pending.isEmpty()) {
+				return null;
+			}
+
+			Future<List<Object[]>> next = pending.removeFirst();
+			submitNextChunk();
+
+			try {
+				current = next.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while loading "
+						+ containerName, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+			currentRow = 0;
+		}
+
+		// release the row as it is returned
+		return current.set(currentRow++, null);
+	}
+
+	/**
+	 * A range of lines in a file.
+	 */
+	private static final class Chunk {
+		private final int fileNo;
+		private final long start;
+		private final int length;
+
+		private Chunk(int fileNo, long start, int length) {
+			this.fileNo = fileNo;
+			this.start = start;
+			this.length = length;
+		}
+	}
+
+}
@@ -10,6 +10,7 @@ import javax.swing.filechooser.FileFilter;
 
 import net.casper.data.model.CBuilder;
 import net.casper.io.CBuildFromTableReader;
+import net.casper.io.snapshot.CBuildFromSnapshot;
 
 import org.omancode.rmt.cellreader.CellReader;
 import org.omancode.rmt.tablereader.AbstractTableReader;
@@ -20,7 +21,8 @@ import org.omancode.util.io.ExtFileFilter;
 /**
  * Loads a casper dataset from a file based on the file type. The type of the
  * file is determined by its extension, and the appropriate file builder is
- * used. Currently supported file types are XLS, XLSX, CSV.
+ * used. Currently supported file types are XLS, XLSX, CSV and CDS (casper
+ * dataset binary snapshots, see {@link CBuildFromSnapshot}).
  * 
  * Types of columns in files may be specified or unspecified (in which case the
  * widest possible type is used for loading values, eg: Object or String).
@@ -29,12 +31,31 @@ import org.omancode.util.io.ExtFileFilter;
  * known in advance and all columns are loaded). Missing values are supporting
  * in files via the use of optional cell readers.
  * 
+ * Large CSV files, or many CSV files loaded into one container, can be parsed
+ * in parallel by specifying a number of threads (see
+ * {@link CBuildFromCSVParallel}). A UTF-8 CSV file can be parsed directly
+ * from memory rather than by {@link DelimitedFileReader} (see
+ * {@link #CBuildFromFile(File, String, String[], CellReader[], String[], boolean)}),
+ * and the first sheet of an XLSX file can be streamed rather than loading
+ * the whole workbook (see
+ * {@link #CBuildFromFile(File, String, String[], CellReader[], String[], boolean, boolean)}).
+ * 
+ * The narrowest type of each column of an untyped file can be inferred while
+ * loading, from a sample of rows or a first pass over the file (see
+ * {@link #setInferTypes(int, boolean)}).
+ * 
  * @author Oliver Mannion
  * @version $Revision: 147 $
  */
 public class CBuildFromFile implements CBuilder {
 
-	private final CBuilder builder;
+	/**
+	 * Creates a builder for the file(s), used to read files again when
+	 * inferring types from a first pass.
+	 */
+	private final FileBuilderSource fileSource;
+
+	private CBuilder builder;
 
 	/**
 	 * Create file builder. Container name is the file name and will read column
@@ -94,6 +115,80 @@ public class CBuildFromFile implements CBuilder {
 	public CBuildFromFile(File file, String containerName,
 			String[] columnNames, CellReader<?>[] cellReaders,
 			String[] primaryKeys) throws IOException {
+		this(file, containerName, columnNames, cellReaders, primaryKeys, false);
+	}
+
+	/**
+	 * Construct a casper file builder, optionally parsing a CSV file directly
+	 * from memory mapped regions of the file with {@link CBuildFromCSV}. This
+	 * is faster than {@link DelimitedFileReader} but the file must be UTF-8
+	 * (or ASCII), and without cell readers columns are loaded as Strings.
+	 * 
+	 * @param file
+	 *            file
+	 * @param containerName
+	 *            if {@code null} will use default (the file name)
+	 * @param columnNames
+	 *            the name of the columns in the file. If {@code null}, column
+	 *            names will be loaded from the file header. If specified then
+	 *            the file must have a header with the same columns names (case
+	 *            and order insensitive).
+	 * @param cellReaders
+	 *            cell readers for each column. If {@code null}, the default
+	 *            cell readers for the file type will be used.
+	 * @param primaryKeys
+	 *            {@code null} if no primary key otherwise an array of primary
+	 *            key names
+	 * @param mappedCSV
+	 *            if {@code true} and {@code file} is a CSV file, parse it with
+	 *            {@link CBuildFromCSV}. Ignored for other file types.
+	 * @throws IOException
+	 *             if IO problem reading file header.
+	 */
+	public CBuildFromFile(File file, String containerName,
+			String[] columnNames, CellReader<?>[] cellReaders,
+			String[] primaryKeys, boolean mappedCSV) throws IOException {
+		this(file, containerName, columnNames, cellReaders, primaryKeys,
+				mappedCSV, false);
+	}
+
+	/**
+	 * Construct a casper file builder, optionally parsing a CSV file from
+	 * memory mapped regions of the file with {@link CBuildFromCSV}, and
+	 * optionally streaming the first sheet of an XLSX file with
+	 * {@link CBuildFromXLSX}. Streaming keeps memory use flat for large
+	 * workbooks, but cell readers are given the cell's stored value rather
+	 * than its formatted text: dates as serial numbers, whole numbers without
+	 * a fraction and booleans as {@code TRUE} or {@code FALSE}.
+	 * 
+	 * @param file
+	 *            file
+	 * @param containerName
+	 *            if {@code null} will use default (the file name)
+	 * @param columnNames
+	 *            the name of the columns in the file. If {@code null}, column
+	 *            names will be loaded from the file header. If specified then
+	 *            the file must have a header with the same columns names (case
+	 *            and order insensitive).
+	 * @param cellReaders
+	 *            cell readers for each column. If {@code null}, the default
+	 *            cell readers for the file type will be used.
+	 * @param primaryKeys
+	 *            {@code null} if no primary key otherwise an array of primary
+	 *            key names
+	 * @param mappedCSV
+	 *            if {@code true} and {@code file} is a CSV file, parse it with
+	 *            {@link CBuildFromCSV}. Ignored for other file types.
+	 * @param streamXLSX
+	 *            if {@code true} and {@code file} is an XLSX file, stream it
+	 *            with {@link CBuildFromXLSX}. Ignored for other file types.
+	 * @throws IOException
+	 *             if IO problem reading file header.
+	 */
+	public CBuildFromFile(final File file, final String containerName,
+			final String[] columnNames, final CellReader<?>[] cellReaders,
+			final String[] primaryKeys, boolean mappedCSV, boolean streamXLSX)
+			throws IOException {
 
 		if (!file.exists()) {
 			throw new FileNotFoundException(file + " does not exist.");
@@ -120,11 +215,152 @@ public class CBuildFromFile implements CBuilder {
 					+ extension + " not supported. Cannot load " + file);
 		}
 
-		builder = filetype.getFactory().newBuilder(file, containerName,
-				columnNames, cellReaders, primaryKeys);
+		final CBuilderFileFactory factory = filetype.getFactory();
+		if (mappedCSV && filetype == FileTypeFactories.CSV) {
+			fileSource = new FileBuilderSource() {
+				@Override
+				public CBuilder newBuilder() throws IOException {
+					return new CBuildFromCSV(file, containerName, columnNames,
+							cellReaders, primaryKeys);
+				}
+			};
+		} else if (streamXLSX && filetype == FileTypeFactories.XLSX) {
+			fileSource = new FileBuilderSource() {
+				@Override
+				public CBuilder newBuilder() throws IOException {
+					return new CBuildFromXLSX(file, containerName,
+							columnNames, cellReaders, primaryKeys);
+				}
+			};
+		} else {
+			fileSource = new FileBuilderSource() {
+				@Override
+				public CBuilder newBuilder() throws IOException {
+					return factory.newBuilder(file, containerName,
+							columnNames, cellReaders, primaryKeys);
+				}
+			};
+		}
+		builder = fileSource.newBuilder();
 
 	}
 
+	/**
+	 * Construct a casper file builder that loads one or more CSV files in
+	 * parallel. Each file is split into chunks at line boundaries and chunks
+	 * are parsed on {@code threads} threads. Rows are loaded in the order they
+	 * appear in the files, and files in the order given.
+	 * 
+	 * @param files
+	 *            CSV files, eg: from
+	 *            {@link CBuildFromCSVParallel#listFiles(File, String)}
+	 * @param containerName
+	 *            if {@code null} will use default (the name of the first
+	 *            file)
+	 * @param columnNames
+	 *            the name of the columns to read. If {@code null}, column
+	 *            names will be loaded from the header of the first file. Every
+	 *            file must have a header containing the columns (case and
+	 *            order insensitive).
+	 * @param cellReaders
+	 *            cell readers for each column. If {@code null}, columns are
+	 *            loaded as Strings.
+	 * @param primaryKeys
+	 *            {@code null} if no primary key otherwise an array of primary
+	 *            key names
+	 * @param threads
+	 *            number of threads used to parse the files
+	 * @throws IOException
+	 *             if IO problem reading file headers.
+	 */
+	public CBuildFromFile(final File[] files, final String containerName,
+			final String[] columnNames, final CellReader<?>[] cellReaders,
+			final String[] primaryKeys, final int threads) throws IOException {
+
+		for (File file : files) {
+			String extension = getExtension(file);
+			if (extension == null
+					|| FileTypeFactories.CSV != lookupFileType(extension)) {
+				throw new UnsupportedFileTypeException("Parallel loading of "
+						+ file + " not supported. Only CSV files can be"
+						+ " loaded in parallel.");
+			}
+		}
+
+		fileSource = new FileBuilderSource() {
+			@Override
+			public CBuilder newBuilder() throws IOException {
+				return new CBuildFromCSVParallel(files, containerName,
+						columnNames, cellReaders, primaryKeys, threads,
+						CBuildFromCSVParallel.DEFAULT_CHUNK_SIZE);
+			}
+		};
+		builder = fileSource.newBuilder();
+	}
+
+	/**
+	 * Infer the narrowest type of each column while loading, eg: for CSV
+	 * files read without cell readers, where every column is a String. Values
+	 * are converted as they are read, so the file is loaded once rather than
+	 * loaded and then narrowed (see {@link CBuildInferred}).
+	 * 
+	 * @param sampleRows
+	 *            number of rows to infer types from. Columns are widened if a
+	 *            later value does not fit. If {@link CBuildInferred#SCAN_ALL},
+	 *            types are inferred from a first pass over the whole file,
+	 *            which is read twice.
+	 * @param convertMissing
+	 *            true to convert missing integers and doubles to
+	 *            {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_INTEGER}
+	 *            or
+	 *            {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_DOUBLE}
+	 * @return this
+	 * @throws IOException
+	 *             if IO problem reading file header for the first pass.
+	 */
+	public CBuildFromFile setInferTypes(int sampleRows, boolean convertMissing)
+			throws IOException {
+		CBuilder fileBuilder = (builder instanceof CBuildInferred) ? fileSource
+				.newBuilder() : builder;
+
+		CBuildInferred inferred = (sampleRows == CBuildInferred.SCAN_ALL) ? new CBuildInferred(
+				fileBuilder, fileSource.newBuilder())
+				: new CBuildInferred(fileBuilder, sampleRows);
+		builder = inferred.setConvertMissing(convertMissing);
+		return this;
+	}
+
+	/**
+	 * Creates a builder for the file(s) being loaded.
+	 */
+	private interface FileBuilderSource {
+
+		/**
+		 * Create a new builder.
+		 * 
+		 * @return builder
+		 * @throws IOException
+		 *             if IO problem reading file header.
+		 */
+		CBuilder newBuilder() throws IOException;
+	}
+
+	/**
+	 * Get the file type of an extension.
+	 * 
+	 * @param extension
+	 *            file extension
+	 * @return file type, or {@code null} if not supported
+	 */
+	private static FileTypeFactories lookupFileType(String extension) {
+		try {
+			return FileTypeFactories.valueOf(extension.toUpperCase(Locale
+					.getDefault()));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
 	@Override
 	public void open() throws IOException {
 		builder.open();
@@ -189,7 +425,8 @@ public class CBuildFromFile implements CBuilder {
 	 * factory returns an instance of the CBuilder required to load that file
 	 * type into a casper container.
 	 * 
-	 * File types implemented so far are XLS (Excel) and CSV files.
+	 * File types implemented so far are XLS (Excel), CSV and CDS (snapshot)
+	 * files.
 	 * 
 	 * @author Oliver Mannion
 	 * 
@@ -245,6 +482,22 @@ public class CBuildFromFile implements CBuilder {
 
 				return new CBuildFromTableReader(cellfile, name, primaryKeys);
 			}
+		}),
+
+		/**
+		 * Casper dataset binary snapshots. Column types are saved in the
+		 * snapshot, so cell readers are ignored.
+		 */
+		CDS(new CBuilderFileFactory() {
+
+			@Override
+			public CBuilder newBuilder(File file, String name,
+					String[] columnNames, CellReader<?>[] cellReaders,
+					String[] primaryKeys) throws IOException {
+
+				return new CBuildFromSnapshot(file, name, columnNames,
+						primaryKeys);
+			}
 		});
 
 		/**
@@ -0,0 +1,520 @@
+package net.casper.io.file.in;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.casper.data.model.CBuilder;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.rmt.cellreader.CellReaderException;
+import org.xml.sax.SAXException;
+
+/**
+ * Builds casper data from the first sheet of an Excel XLSX workbook by
+ * streaming the sheet's XML, so rows are returned as they are parsed and
+ * memory use does not grow with the number of rows. Only the workbook's
+ * shared strings and styles are held in memory. {@link CBuildFromFile} uses
+ * this builder for XLSX files only when asked to stream them.
+ * <p>
+ * The first row of the sheet is the header. When cell readers are given,
+ * each cell is passed to its reader as a String: numbers (including dates) in
+ * their stored decimal form, or without a fraction if they are whole,
+ * booleans as {@code TRUE} or {@code FALSE}, and missing cells as empty
+ * Strings. Without cell readers,
+ * columns are of type Object and cells are loaded as a Double, Date, Boolean
+ * or String according to the cell.
+ *
+ * @author agent
+ */
+public class CBuildFromXLSX implements CBuilder {
+
+	private static final XMLInputFactory XML_FACTORY = newXMLFactory();
+
+	/**
+	 * Whole numbers smaller than this are passed to cell readers without a
+	 * fraction or exponent.
+	 */
+	private static final double MAX_WHOLE_NUMBER = 1e15;
+
+	private final File file;
+	private final String containerName;
+	private final String[] columnNames;
+	private final Class<?>[] columnTypes;
+	private final CellReader<?>[] cellReaders;
+	private final String[] primaryKeys;
+
+	/**
+	 * The column index of each sheet column, or -1 if the sheet column is not
+	 * read.
+	 */
+	private final int[] fieldColumns;
+
+	private ReadOnlySharedStringsTable sharedStrings;
+	private StylesTable styles;
+
+	/**
+	 * Whether each style formats a date, or {@code null} if not yet
+	 * determined.
+	 */
+	private Boolean[] dateStyles;
+
+	private OPCPackage pkg;
+	private InputStream sheet;
+	private XMLStreamReader xml;
+
+	/**
+	 * Values of the cells of the current row, indexed by sheet column.
+	 */
+	private final List<Object> cells = new ArrayList<Object>();
+
+	/**
+	 * One-based number of the current row in the sheet.
+	 */
+	private int rowNumber;
+
+	/**
+	 * Create the factory for sheet XML. DTDs and external entities are not
+	 * read, so a workbook cannot make the parser read other files or URLs.
+	 *
+	 * @return factory
+	 */
+	private static XMLInputFactory newXMLFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+		return factory;
+	}
+
+	/**
+	 * Construct an XLSX file builder.
+	 *
+	 * @param file
+	 *            file
+	 * @param containerName
+	 *            if {@code null} will use default (the file name)
+	 * @param columnNames
+	 *            the name of the columns to read. If {@code null}, column
+	 *            names will be loaded from the header. If specified then the
+	 *            sheet must have a header containing the columns (case and
+	 *            order insensitive).
+	 * @param cellReaders
+	 *            cell readers for each column. If {@code null}, columns are
+	 *            of type Object.
+	 * @param primaryKeys
+	 *            {@code null} if no primary key otherwise an array of primary
+	 *            key names
+	 * @throws IOException
+	 *             if IO problem reading file header.
+	 */
+	public CBuildFromXLSX(File file, String containerName,
+			String[] columnNames, CellReader<?>[] cellReaders,
+			String[] primaryKeys) throws IOException {
+		if (!file.exists()) {
+			throw new FileNotFoundException(file + " does not exist.");
+		}
+
+		this.file = file;
+		this.containerName = containerName == null ? file.getName()
+				: containerName;
+
+		String[] header;
+		openSheet();
+		try {
+			if (!readCells(false)) {
+				throw new IOException(file + " does not have a header.");
+			}
+			header = new String[cells.size()];
+			for (int i = 0; i < header.length; i++) {
+				Object cell = cells.get(i);
+				header[i] = (cell == null) ? "" : cell.toString().trim();
+			}
+		} finally {
+			closeSheet();
+		}
+
+		if (columnNames == null) {
+			List<String> names = new ArrayList<String>();
+			for (String name : header) {
+				if (name.length() > 0) {
+					names.add(name);
+				}
+			}
+			this.columnNames = names.toArray(new String[names.size()]);
+		} else {
+			this.columnNames = columnNames.clone();
+		}
+
+		if (cellReaders != null && cellReaders.length != this.columnNames.length) {
+			throw new IOException("Number of cell readers ("
+					+ cellReaders.length + ") does not match the number of "
+					+ "columns (" + this.columnNames.length + ") read from "
+					+ file);
+		}
+		this.cellReaders = (cellReaders == null) ? null : cellReaders.clone();
+
+		fieldColumns = new int[header.length];
+		for (int i = 0; i < header.length; i++) {
+			fieldColumns[i] = -1;
+		}
+		for (int col = 0; col < this.columnNames.length; col++) {
+			int field = -1;
+			for (int i = 0; i < header.length && field < 0; i++) {
+				if (fieldColumns[i] < 0
+						&& header[i].equalsIgnoreCase(this.columnNames[col])) {
+					field = i;
+				}
+			}
+			if (field < 0) {
+				throw new IOException("Column \"" + this.columnNames[col]
+						+ "\" does not exist in " + file);
+			}
+			fieldColumns[field] = col;
+		}
+
+		columnTypes = new Class<?>[this.columnNames.length];
+		for (int col = 0; col < columnTypes.length; col++) {
+			columnTypes[col] = (cellReaders == null) ? Object.class
+					: cellReaders[col].getType();
+		}
+
+		this.primaryKeys = CBuildFromCSV.checkPrimaryKeys(primaryKeys,
+				this.columnNames, this.containerName);
+	}
+
+	/**
+	 * Open the workbook and start streaming its first sheet.
+	 *
+	 * @throws IOException
+	 *             if problem opening workbook
+	 */
+	private void openSheet() throws IOException {
+		try {
+			pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+			XSSFReader reader = new XSSFReader(pkg);
+			if (sharedStrings == null) {
+				sharedStrings = new ReadOnlySharedStringsTable(pkg);
+				styles = reader.getStylesTable();
+				dateStyles = new Boolean[(styles == null) ? 0 : styles
+						.getNumCellStyles()];
+			}
+
+			Iterator<InputStream> sheets = reader.getSheetsData();
+			if (!sheets.hasNext()) {
+				throw new IOException(file + " does not have a sheet.");
+			}
+			sheet = sheets.next();
+			xml = XML_FACTORY.createXMLStreamReader(sheet);
+		} catch (OpenXML4JException e) {
+			closeSheet();
+			throw new IOException("Cannot open " + file, e);
+		} catch (SAXException e) {
+			closeSheet();
+			throw new IOException("Cannot read shared strings of " + file, e);
+		} catch (XMLStreamException e) {
+			closeSheet();
+			throw new IOException("Cannot read sheet of " + file, e);
+		} catch (IOException e) {
+			closeSheet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop streaming the sheet and close the workbook.
+	 */
+	private void closeSheet() {
+		if (xml != null) {
+			try {
+				xml.close();
+			} catch (XMLStreamException e) {
+				// nothing more can be done
+			}
+			xml = null;
+		}
+		if (sheet != null) {
+			try {
+				sheet.close();
+			} catch (IOException e) {
+				// nothing more can be done
+			}
+			sheet = null;
+		}
+		if (pkg != null) {
+			// read only packages are closed without saving by revert
+			pkg.revert();
+			pkg = null;
+		}
+	}
+
+	/**
+	 * Read the cells of the next row that has any. Cells not present in the
+	 * sheet are {@code null}.
+	 *
+	 * @param typed
+	 *            if {@code true}, numbers are returned as Doubles or Dates and
+	 *            booleans as Booleans. If {@code false}, all cells are
+	 *            returned as their stored String.
+	 * @return {@code false} if there are no more rows
+	 * @throws IOException
+	 *             if problem reading sheet
+	 */
+	private boolean readCells(boolean typed) throws IOException {
+		try {
+			cells.clear();
+			boolean inRow = false;
+			int nextColumn = 0;
+
+			while (xml.hasNext()) {
+				int event = xml.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = xml.getLocalName();
+					if ("row".equals(name)) {
+						inRow = true;
+						nextColumn = 0;
+						String ref = xml.getAttributeValue(null, "r");
+						rowNumber = (ref == null) ? rowNumber + 1 : Integer
+								.parseInt(ref);
+					} else if (inRow && "c".equals(name)) {
+						String ref = xml.getAttributeValue(null, "r");
+						int column = (ref == null) ? nextColumn
+								: columnIndex(ref);
+						nextColumn = column + 1;
+						Object value = readCell(typed);
+						if (value != null) {
+							while (cells.size() <= column) {
+								cells.add(null);
+							}
+							cells.set(column, value);
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					String name = xml.getLocalName();
+					if ("row".equals(name)) {
+						inRow = false;
+						if (!cells.isEmpty()) {
+							return true;
+						}
+					} else if ("sheetData".equals(name)) {
+						return false;
+					}
+				}
+			}
+			return false;
+		} catch (XMLStreamException e) {
+			throw new IOException("Cannot read sheet of " + file, e);
+		}
+	}
+
+	/**
+	 * Read the value of the cell element at the current position, leaving
+	 * the stream at the end of the cell element.
+	 *
+	 * @param typed
+	 *            whether to return typed values, see
+	 *            {@link #readCells(boolean)}
+	 * @return value, or {@code null} if the cell has no value
+	 * @throws XMLStreamException
+	 *             if problem reading sheet
+	 */
+	private Object readCell(boolean typed) throws XMLStreamException {
+		String type = xml.getAttributeValue(null, "t");
+		String style = xml.getAttributeValue(null, "s");
+		StringBuilder value = null;
+		boolean inValue = false;
+
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = xml.getLocalName();
+				// <v> holds the value, <t> the text of an inline string
+				if ("v".equals(name) || "t".equals(name)) {
+					inValue = true;
+					if (value == null) {
+						value = new StringBuilder();
+					}
+				}
+			} else if (event == XMLStreamConstants.CHARACTERS
+					|| event == XMLStreamConstants.CDATA) {
+				if (inValue) {
+					value.append(xml.getText());
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				String name = xml.getLocalName();
+				if ("v".equals(name) || "t".equals(name)) {
+					inValue = false;
+				} else if ("c".equals(name)) {
+					break;
+				}
+			}
+		}
+
+		if (value == null) {
+			return null;
+		}
+		String text = value.toString();
+
+		if ("s".equals(type)) {
+			return sharedStrings.getEntryAt(Integer.parseInt(text.trim()));
+		} else if ("b".equals(type)) {
+			boolean bool = "1".equals(text.trim());
+			if (typed) {
+				return Boolean.valueOf(bool);
+			}
+			return bool ? "TRUE" : "FALSE";
+		} else if (type == null || "n".equals(type)) {
+			double number = Double.parseDouble(text);
+			if (!typed) {
+				// whole numbers may be stored as eg: 1.0, read them as 1
+				if (number == Math.rint(number)
+						&& Math.abs(number) < MAX_WHOLE_NUMBER) {
+					return Long.toString((long) number);
+				}
+				return text;
+			}
+			if (style != null && isDateStyle(Integer.parseInt(style))
+					&& DateUtil.isValidExcelDate(number)) {
+				return DateUtil.getJavaDate(number);
+			}
+			return Double.valueOf(number);
+		}
+
+		// inline strings, formula strings and errors
+		return text;
+	}
+
+	/**
+	 * Whether a style formats cells as dates.
+	 *
+	 * @param styleIndex
+	 *            index of style
+	 * @return {@code true} if the style's number format is a date format
+	 */
+	private boolean isDateStyle(int styleIndex) {
+		if (styleIndex < 0 || styleIndex >= dateStyles.length) {
+			return false;
+		}
+		if (dateStyles[styleIndex] == null) {
+			CellStyle cellStyle = styles.getStyleAt(styleIndex);
+			dateStyles[styleIndex] = Boolean.valueOf(DateUtil.isADateFormat(
+					cellStyle.getDataFormat(), cellStyle.getDataFormatString()));
+		}
+		return dateStyles[styleIndex].booleanValue();
+	}
+
+	/**
+	 * Get the zero-based column index of a cell reference, eg: 2 for "C5".
+	 *
+	 * @param ref
+	 *            cell reference
+	 * @return column index
+	 */
+	private static int columnIndex(String ref) {
+		int column = 0;
+		for (int i = 0; i < ref.length(); i++) {
+			char c = ref.charAt(i);
+			if (c < 'A' || c > 'Z') {
+				break;
+			}
+			column = column * 26 + (c - 'A' + 1);
+		}
+		return column - 1;
+	}
+
+	@Override
+	public void open() throws IOException {
+		rowNumber = 0;
+		openSheet();
+		// skip the header
+		readCells(false);
+	}
+
+	@Override
+	public void close() {
+		closeSheet();
+	}
+
+	@Override
+	public String getName() {
+		return containerName;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	@Override
+	public Class[] getColumnTypes() {
+		return columnTypes.clone();
+	}
+
+	@Override
+	public Map getConcreteMap() {
+		// if no primary key return a LinkedHashMap so the container
+		// will be ordered according to insert order, ie:
+		// same order as in the sheet
+		return (primaryKeys == null) ? new LinkedHashMap() : new HashMap();
+	}
+
+	@Override
+	public String[] getPrimaryKeyColumns() {
+		return primaryKeys;
+	}
+
+	@Override
+	public Object[] readRow() throws IOException {
+		boolean typed = cellReaders == null;
+
+		if (!readCells(typed)) {
+			return null;
+		}
+
+		Object[] row = new Object[columnNames.length];
+		for (int field = 0; field < fieldColumns.length; field++) {
+			int col = fieldColumns[field];
+			if (col < 0) {
+				continue;
+			}
+
+			Object cell = (field < cells.size()) ? cells.get(field) : null;
+			if (typed) {
+				row[col] = cell;
+			} else {
+				try {
+					row[col] = cellReaders[col].read((cell == null) ? ""
+							: (String) cell);
+				} catch (CellReaderException e) {
+					throw new IOException("Cannot read column \""
+							+ columnNames[col] + "\" of row " + rowNumber
+							+ " of "
+							+ file + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		return row;
+	}
+
+}
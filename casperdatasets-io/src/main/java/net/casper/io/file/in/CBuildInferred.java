@@ -0,0 +1,323 @@
+package net.casper.io.file.in;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.casper.data.model.CBuilder;
+
+import org.omancode.rmt.cellreader.narrow.NarrowException;
+import org.omancode.rmt.cellreader.narrow.NarrowUtil;
+
+/**
+ * Infers the narrowest type of each column of an untyped builder, eg: a CSV
+ * file read as Strings, and returns rows with values converted to those types
+ * as they are read, in a single load.
+ * <p>
+ * Types are inferred either from a sample of the first rows, or from a first
+ * pass over all rows of a second instance of the source (eg: the same file
+ * read again). Types are determined by
+ * {@link NarrowUtil#calcNarrowestType(Object[], boolean)}, a block of rows at a
+ * time, so no more than a block of rows is held while scanning.
+ * <p>
+ * If a later row has a value that does not fit the inferred type of its
+ * column, the column is widened, eg: from Integer to Double or String, and the
+ * wider type is reported by {@link #getColumnTypes()}. A container built from
+ * this builder converts the values it has already stored once all rows are
+ * read. Values converted back to String are formatted from their narrowed
+ * value, eg: "007" read as an Integer becomes "7".
+ * <p>
+ * Missing integer or double values will be treated as Strings, unless
+ * {@link #setConvertMissing(boolean)} is {@code true} in which case they will
+ * be converted to
+ * {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_INTEGER} or
+ * {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_DOUBLE} instead.
+ *
+ * @author agent
+ */
+public class CBuildInferred implements CBuilder {
+
+	/**
+	 * Sample size that infers types from a first pass over all rows.
+	 */
+	public static final int SCAN_ALL = 0;
+
+	/**
+	 * Number of rows typed at a time.
+	 */
+	private static final int BLOCK_SIZE = 8192;
+
+	/**
+	 * Numeric types, from narrowest to widest.
+	 */
+	private static final Class<?>[] NUMBER_WIDENING = { Integer.class,
+			Long.class, Double.class };
+
+	private final CBuilder source;
+
+	/**
+	 * Second instance of the source read to infer types, or {@code null} to
+	 * infer from a sample.
+	 */
+	private final CBuilder scan;
+
+	private final int sampleRows;
+
+	private boolean convertMissing = false;
+
+	private Class<?>[] columnTypes;
+
+	/**
+	 * Rows of the sample not yet returned.
+	 */
+	private Object[][] sample;
+
+	private int nextSampleRow;
+
+	/**
+	 * Infer column types from a sample of the first rows of {@code source}.
+	 *
+	 * @param source
+	 *            untyped builder
+	 * @param sampleRows
+	 *            number of rows to infer types from
+	 */
+	public CBuildInferred(CBuilder source, int sampleRows) {
+		if (sampleRows < 1) {
+			throw new IllegalArgumentException(
+					"sampleRows must be at least 1");
+		}
+		this.source = source;
+		this.scan = null;
+		this.sampleRows = sampleRows;
+	}
+
+	/**
+	 * Infer column types from a first pass over all rows of {@code scan},
+	 * then read rows from {@code source}.
+	 *
+	 * @param source
+	 *            untyped builder
+	 * @param scan
+	 *            a second, unopened, builder with the same rows as
+	 *            {@code source}
+	 */
+	public CBuildInferred(CBuilder source, CBuilder scan) {
+		this.source = source;
+		this.scan = scan;
+		this.sampleRows = SCAN_ALL;
+	}
+
+	/**
+	 * If set, then missing integers and doubles will be returned as
+	 * {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_INTEGER} or
+	 * {@link org.omancode.rmt.cellreader.CellReaders#MISSING_VALUE_DOUBLE}
+	 * instead.
+	 *
+	 * @param convertMissing
+	 *            true to convert missing ints/doubles
+	 * @return this
+	 */
+	public CBuildInferred setConvertMissing(boolean convertMissing) {
+		this.convertMissing = convertMissing;
+		return this;
+	}
+
+	@Override
+	public void open() throws IOException {
+		source.open();
+		columnTypes = null;
+
+		if (scan == null) {
+			List<Object[]> read = new ArrayList<Object[]>(Math.min(sampleRows,
+					BLOCK_SIZE));
+			Object[] row;
+			while (read.size() < sampleRows
+					&& (row = source.readRow()) != null) {
+				read.add(row);
+			}
+			sample = read.toArray(new Object[read.size()][]);
+			nextSampleRow = 0;
+			inferTypes(sample, sample.length);
+		} else {
+			try {
+				scan.open();
+				Object[][] block = new Object[BLOCK_SIZE][];
+				int count = 0;
+				Object[] row;
+				while ((row = scan.readRow()) != null) {
+					block[count++] = row;
+					if (count == BLOCK_SIZE) {
+						inferTypes(block, count);
+						count = 0;
+					}
+				}
+				inferTypes(block, count);
+			} finally {
+				scan.close();
+			}
+		}
+
+		if (columnTypes == null) {
+			// no rows, keep the source types
+			columnTypes = source.getColumnTypes().clone();
+		}
+	}
+
+	/**
+	 * Infer the types of a block of rows, widening the types of earlier
+	 * blocks.
+	 *
+	 * @param rows
+	 *            rows
+	 * @param count
+	 *            number of rows in {@code rows}
+	 */
+	private void inferTypes(Object[][] rows, int count) {
+		if (count == 0) {
+			return;
+		}
+
+		int cols = rows[0].length;
+		if (columnTypes == null) {
+			columnTypes = new Class<?>[cols];
+		}
+
+		Object[] columnValues = new Object[count];
+		for (int col = 0; col < cols; col++) {
+			for (int i = 0; i < count; i++) {
+				columnValues[i] = rows[i][col];
+			}
+			columnTypes[col] = widen(columnTypes[col], NarrowUtil
+					.calcNarrowestType(columnValues, convertMissing));
+		}
+	}
+
+	/**
+	 * Get the narrowest type both types can be converted to.
+	 *
+	 * @param type
+	 *            type, or {@code null}
+	 * @param other
+	 *            other type
+	 * @return {@code other} if {@code type} is {@code null} or the same, the
+	 *         wider of two numeric types, otherwise String
+	 */
+	private static Class<?> widen(Class<?> type, Class<?> other) {
+		if (type == null || type.equals(other)) {
+			return other;
+		}
+
+		int width = -1;
+		int otherWidth = -1;
+		for (int i = 0; i < NUMBER_WIDENING.length; i++) {
+			if (NUMBER_WIDENING[i].equals(type)) {
+				width = i;
+			}
+			if (NUMBER_WIDENING[i].equals(other)) {
+				otherWidth = i;
+			}
+		}
+
+		if (width < 0 || otherWidth < 0) {
+			return String.class;
+		}
+		return NUMBER_WIDENING[Math.max(width, otherWidth)];
+	}
+
+	@Override
+	public Object[] readRow() throws IOException {
+		Object[] row;
+		if (sample != null && nextSampleRow < sample.length) {
+			row = sample[nextSampleRow];
+			sample[nextSampleRow++] = null;
+		} else {
+			sample = null;
+			row = source.readRow();
+		}
+
+		if (row == null) {
+			return null;
+		}
+
+		try {
+			return NarrowUtil.narrowArray(row, columnTypes, convertMissing);
+		} catch (NarrowException e) {
+			// a value does not fit its column
+			return narrowWidening(row);
+		}
+	}
+
+	/**
+	 * Narrow a row value by value, widening the type of any column whose
+	 * value does not fit.
+	 *
+	 * @param row
+	 *            row
+	 * @return narrowed row
+	 * @throws IOException
+	 *             if a value cannot be narrowed to a widened type
+	 */
+	private Object[] narrowWidening(Object[] row) throws IOException {
+		Object[] narrowed = new Object[row.length];
+		Object[] value = new Object[1];
+		Class<?>[] type = new Class<?>[1];
+
+		for (int col = 0; col < row.length; col++) {
+			value[0] = row[col];
+			type[0] = columnTypes[col];
+			try {
+				narrowed[col] = NarrowUtil.narrowArray(value, type,
+						convertMissing)[0];
+			} catch (NarrowException e) {
+				columnTypes[col] = widen(columnTypes[col], NarrowUtil
+						.calcNarrowestType(value, convertMissing));
+				type[0] = columnTypes[col];
+				try {
+					narrowed[col] = NarrowUtil.narrowArray(value, type,
+							convertMissing)[0];
+				} catch (NarrowException e2) {
+					throw new IOException(e2);
+				}
+			}
+		}
+		return narrowed;
+	}
+
+	@Override
+	public void close() {
+		sample = null;
+		source.close();
+	}
+
+	@Override
+	public String getName() {
+		return source.getName();
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return source.getColumnNames();
+	}
+
+	@Override
+	public Class[] getColumnTypes() {
+		if (columnTypes == null) {
+			return source.getColumnTypes();
+		}
+		// a copy, so widened columns can be detected
+		return columnTypes.clone();
+	}
+
+	@Override
+	public Map getConcreteMap() {
+		return source.getConcreteMap();
+	}
+
+	@Override
+	public String[] getPrimaryKeyColumns() {
+		return source.getPrimaryKeyColumns();
+	}
+
+}
@@ -0,0 +1,750 @@
+package net.casper.io.file.in;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.rmt.cellreader.CellReaderException;
+import org.omancode.rmt.cellreader.CellReaders;
+
+/**
+ * Parses the rows of a UTF-8 CSV file directly from a {@link ByteBuffer},
+ * eg: a memory mapped region of the file.
+ * <p>
+ * Cells read by {@link CellReaders#INTEGER}, {@link CellReaders#DOUBLE},
+ * their optional variants and {@link CellReaders#CHARACTER} are converted
+ * straight from their bytes, without creating a String. Any cell these
+ * conversions do not handle, eg: one with surrounding spaces or more digits
+ * than a double can exactly represent, is passed as a String to its cell
+ * reader, so values are the same as reading every cell with its cell reader.
+ * Strings are decoded through a {@link CStringDictionary}, so repeated values
+ * share one instance.
+ * <p>
+ * Fields are separated by commas and may be enclosed in double quotes, in
+ * which case a double quote within the field is escaped by another double
+ * quote. Lines end with LF or CRLF and blank lines are skipped. Missing
+ * trailing cells are read as empty cells.
+ * <p>
+ * The parser itself is immutable and may be shared by threads. Rows are read
+ * with a {@link RowReader}, one per thread.
+ *
+ * @author agent
+ */
+final class CCSVParser {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte COMMA = ',';
+	private static final byte QUOTE = '"';
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	/**
+	 * Amount of a file mapped to read its header.
+	 */
+	private static final int HEADER_MAP_SIZE = 1024 * 1024;
+
+	/** Cells are Strings, empty cells {@code null}. */
+	private static final int KIND_STRING = 0;
+	/** Cells are read by {@link CellReaders#INTEGER}. */
+	private static final int KIND_INTEGER = 1;
+	/** Cells are read by {@link CellReaders#OPTIONAL_INTEGER}. */
+	private static final int KIND_OPTIONAL_INTEGER = 2;
+	/** Cells are read by {@link CellReaders#DOUBLE}. */
+	private static final int KIND_DOUBLE = 3;
+	/** Cells are read by {@link CellReaders#OPTIONAL_DOUBLE}. */
+	private static final int KIND_OPTIONAL_DOUBLE = 4;
+	/** Cells are read by {@link CellReaders#CHARACTER}. */
+	private static final int KIND_CHARACTER = 5;
+	/** Cells are read by another cell reader. */
+	private static final int KIND_READER = 6;
+
+	/**
+	 * Failed result of {@link #parseInt(ByteBuffer, int, int)}.
+	 */
+	private static final long NOT_AN_INT = Long.MIN_VALUE;
+
+	/**
+	 * Maximum number of significant digits parsed directly as a double. The
+	 * digits fit exactly in a double's mantissa.
+	 */
+	private static final int MAX_DOUBLE_DIGITS = 15;
+
+	/**
+	 * Powers of 10 that are exactly representable as doubles.
+	 */
+	private static final double[] POWERS_OF_10 = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * Name of the source being parsed, for error messages.
+	 */
+	private final String sourceName;
+
+	/**
+	 * The column index of each field in the source, or -1 if the field is not
+	 * read.
+	 */
+	private final int[] fieldColumns;
+
+	private final String[] columnNames;
+	private final Class<?>[] columnTypes;
+
+	/**
+	 * Cell reader of each column read, or {@code null} to read all columns
+	 * as Strings.
+	 */
+	private final CellReader<?>[] cellReaders;
+
+	/**
+	 * How the cells of each column are converted, one of the KIND constants.
+	 */
+	private final int[] kinds;
+
+	/**
+	 * Create a parser for the columns of a source.
+	 *
+	 * @param sourceName
+	 *            name of source, for error messages
+	 * @param header
+	 *            field names in the source's header
+	 * @param columnNames
+	 *            names of the columns to read, case insensitive, or
+	 *            {@code null} to read all fields in the header
+	 * @param cellReaders
+	 *            cell reader of each column read, or {@code null} to read all
+	 *            columns as Strings
+	 * @throws IOException
+	 *             if a column is not in the header
+	 */
+	CCSVParser(String sourceName, String[] header, String[] columnNames,
+			CellReader<?>[] cellReaders) throws IOException {
+		this.sourceName = sourceName;
+
+		if (columnNames == null) {
+			this.columnNames = new String[header.length];
+			for (int i = 0; i < header.length; i++) {
+				this.columnNames[i] = header[i].trim();
+			}
+		} else {
+			this.columnNames = columnNames.clone();
+		}
+
+		if (cellReaders != null && cellReaders.length != this.columnNames.length) {
+			throw new IOException("Number of cell readers ("
+					+ cellReaders.length + ") does not match the number of "
+					+ "columns (" + this.columnNames.length + ") read from "
+					+ sourceName);
+		}
+
+		this.cellReaders = (cellReaders == null) ? null : cellReaders.clone();
+		this.fieldColumns = mapFields(sourceName, header, this.columnNames);
+
+		columnTypes = new Class<?>[this.columnNames.length];
+		kinds = new int[this.columnNames.length];
+		for (int col = 0; col < kinds.length; col++) {
+			if (cellReaders == null) {
+				columnTypes[col] = String.class;
+				kinds[col] = KIND_STRING;
+			} else {
+				columnTypes[col] = cellReaders[col].getType();
+				kinds[col] = getKind(cellReaders[col]);
+			}
+		}
+	}
+
+	private static int getKind(CellReader<?> reader) {
+		if (reader == CellReaders.INTEGER) {
+			return KIND_INTEGER;
+		} else if (reader == CellReaders.OPTIONAL_INTEGER) {
+			return KIND_OPTIONAL_INTEGER;
+		} else if (reader == CellReaders.DOUBLE) {
+			return KIND_DOUBLE;
+		} else if (reader == CellReaders.OPTIONAL_DOUBLE) {
+			return KIND_OPTIONAL_DOUBLE;
+		} else if (reader == CellReaders.CHARACTER) {
+			return KIND_CHARACTER;
+		}
+		return KIND_READER;
+	}
+
+	/**
+	 * Map the fields of a header to the columns read.
+	 *
+	 * @param sourceName
+	 *            name of source, for error messages
+	 * @param header
+	 *            field names in the header
+	 * @param columnNames
+	 *            names of the columns to read
+	 * @return the column index of each field, or -1 if the field is not read
+	 * @throws IOException
+	 *             if a column is not in the header
+	 */
+	private static int[] mapFields(String sourceName, String[] header,
+			String[] columnNames) throws IOException {
+		int[] fieldColumns = new int[header.length];
+		for (int i = 0; i < header.length; i++) {
+			fieldColumns[i] = -1;
+		}
+
+		for (int col = 0; col < columnNames.length; col++) {
+			int field = -1;
+			for (int i = 0; i < header.length && field < 0; i++) {
+				if (fieldColumns[i] < 0
+						&& header[i].trim().equalsIgnoreCase(columnNames[col])) {
+					field = i;
+				}
+			}
+			if (field < 0) {
+				throw new IOException("Column \"" + columnNames[col]
+						+ "\" does not exist in " + sourceName);
+			}
+			fieldColumns[field] = col;
+		}
+
+		return fieldColumns;
+	}
+
+	/**
+	 * Names of the columns read.
+	 *
+	 * @return column names
+	 */
+	String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	/**
+	 * Types of the columns read.
+	 *
+	 * @return column types
+	 */
+	Class<?>[] getColumnTypes() {
+		return columnTypes.clone();
+	}
+
+	/**
+	 * Parse all the rows of a chunk, ie: a buffer containing a whole number of
+	 * lines.
+	 *
+	 * @param buffer
+	 *            the chunk, from its position to its limit
+	 * @param offset
+	 *            position of the start of the buffer in the source, for error
+	 *            messages
+	 * @return rows, in the order they appear in the chunk
+	 * @throws IOException
+	 *             if a row cannot be parsed or a cell cannot be read
+	 */
+	List<Object[]> parse(ByteBuffer buffer, long offset) throws IOException {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		RowReader reader = new RowReader();
+
+		Object[] row;
+		while ((row = reader.next(buffer, true, offset)) != null) {
+			rows.add(row);
+		}
+
+		if (reader.isUnterminated()) {
+			throw new IOException("Unterminated quoted field at byte "
+					+ (offset + buffer.position()) + " of " + sourceName
+					+ ". If quoted fields contain line breaks, load the"
+					+ " file without splitting it into chunks.");
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Reads rows from buffers. Holds the per thread state of parsing, ie: the
+	 * String dictionaries and a scratch buffer for unescaping quoted fields.
+	 */
+	final class RowReader {
+
+		private final CStringDictionary[] dictionaries = new CStringDictionary[columnNames.length];
+
+		private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+		/**
+		 * Value read from an empty cell of each optional numeric column, and
+		 * whether it has been read.
+		 */
+		private final Object[] emptyValues = new Object[columnNames.length];
+		private final boolean[] emptyRead = new boolean[columnNames.length];
+
+		private boolean unterminated;
+
+		/**
+		 * Whether the last call to {@link #next(ByteBuffer, boolean, long)}
+		 * returned {@code null} because a quoted field was not terminated
+		 * before the end of the source.
+		 *
+		 * @return {@code true} if the source ends within a quoted field
+		 */
+		boolean isUnterminated() {
+			return unterminated;
+		}
+
+		/**
+		 * Read the next row, starting at the buffer's position. If a row is
+		 * read the buffer's position is moved to the start of the next row.
+		 *
+		 * @param buffer
+		 *            buffer
+		 * @param last
+		 *            {@code true} if the buffer's limit is the end of the
+		 *            source. If {@code false}, a row that is not complete
+		 *            before the limit is not read and the buffer's position is
+		 *            left at its start, so it can be read again from a buffer
+		 *            that contains all of it.
+		 * @param offset
+		 *            position of the start of the buffer in the source, for
+		 *            error messages
+		 * @return row, or {@code null} if no complete row remains in the
+		 *         buffer
+		 * @throws IOException
+		 *             if a row has too many fields or a cell cannot be read
+		 */
+		Object[] next(ByteBuffer buffer, boolean last, long offset)
+				throws IOException {
+			unterminated = false;
+			int limit = buffer.limit();
+			int pos = buffer.position();
+
+			// skip blank lines
+			while (pos < limit
+					&& (buffer.get(pos) == LF || buffer.get(pos) == CR)) {
+				pos++;
+			}
+			buffer.position(pos);
+			if (pos >= limit) {
+				return null;
+			}
+
+			long rowPosition = offset + pos;
+			Object[] row = new Object[columnNames.length];
+			int field = 0;
+
+			while (true) {
+				ByteBuffer cell = buffer;
+				int start = pos;
+				int end;
+
+				if (pos < limit && buffer.get(pos) == QUOTE) {
+					pos++;
+					scratch.clear();
+					while (true) {
+						if (pos >= limit) {
+							unterminated = last;
+							return null;
+						}
+						byte b = buffer.get(pos++);
+						if (b != QUOTE) {
+							putScratch(b);
+						} else if (pos < limit && buffer.get(pos) == QUOTE) {
+							putScratch(QUOTE);
+							pos++;
+						} else if (pos >= limit && !last) {
+							// may be the first of an escaped quote
+							return null;
+						} else {
+							break;
+						}
+					}
+					// ignore anything between the closing quote and delimiter
+					while (pos < limit && !isDelimiter(buffer.get(pos))) {
+						pos++;
+					}
+					cell = scratch;
+					start = 0;
+					end = scratch.position();
+				} else {
+					while (pos < limit && !isDelimiter(buffer.get(pos))) {
+						pos++;
+					}
+					end = pos;
+				}
+
+				if (pos >= limit && !last) {
+					// the row may continue past the limit
+					return null;
+				}
+
+				if (field >= fieldColumns.length) {
+					throw new IOException("Row at byte " + rowPosition + " of "
+							+ sourceName + " has more fields than the header ("
+							+ fieldColumns.length + ")");
+				}
+				int col = fieldColumns[field++];
+				if (col >= 0) {
+					row[col] = convert(col, cell, start, end, rowPosition);
+				}
+
+				if (pos >= limit) {
+					break;
+				}
+				if (buffer.get(pos) == COMMA) {
+					pos++;
+				} else {
+					if (buffer.get(pos) == CR) {
+						pos++;
+					}
+					if (pos < limit && buffer.get(pos) == LF) {
+						pos++;
+					}
+					break;
+				}
+			}
+
+			// missing trailing cells
+			for (; field < fieldColumns.length; field++) {
+				int col = fieldColumns[field];
+				if (col >= 0) {
+					row[col] = convert(col, buffer, 0, 0, rowPosition);
+				}
+			}
+
+			buffer.position(pos);
+			return row;
+		}
+
+		private void putScratch(byte b) {
+			if (!scratch.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(scratch.capacity() * 2);
+				scratch.flip();
+				larger.put(scratch);
+				scratch = larger;
+			}
+			scratch.put(b);
+		}
+
+		/**
+		 * Convert a cell to a column value.
+		 *
+		 * @param col
+		 *            column index
+		 * @param buffer
+		 *            buffer containing the cell
+		 * @param start
+		 *            index of first byte of cell
+		 * @param end
+		 *            index after last byte of cell
+		 * @param rowPosition
+		 *            position of the row in the source, for error messages
+		 * @return value
+		 * @throws IOException
+		 *             if the cell reader cannot read the cell
+		 */
+		private Object convert(int col, ByteBuffer buffer, int start,
+				int end, long rowPosition) throws IOException {
+			boolean empty = start == end;
+
+			switch (kinds[col]) {
+			case KIND_STRING:
+				return empty ? null : dictionary(col).get(buffer, start, end);
+			case KIND_OPTIONAL_INTEGER:
+				if (empty) {
+					return readEmpty(col, rowPosition);
+				}
+				// fall through
+			case KIND_INTEGER:
+				long intValue = parseInt(buffer, start, end);
+				if (intValue != NOT_AN_INT) {
+					return Integer.valueOf((int) intValue);
+				}
+				break;
+			case KIND_OPTIONAL_DOUBLE:
+				if (empty) {
+					return readEmpty(col, rowPosition);
+				}
+				// fall through
+			case KIND_DOUBLE:
+				double doubleValue = parseDouble(buffer, start, end);
+				if (!Double.isNaN(doubleValue)) {
+					return Double.valueOf(doubleValue);
+				}
+				break;
+			case KIND_CHARACTER:
+				if (end - start == 1) {
+					byte b = buffer.get(start);
+					if (b > ' ' && b < 0x7F) {
+						return Character.valueOf((char) b);
+					}
+				}
+				break;
+			default:
+				break;
+			}
+
+			String value = empty ? "" : dictionary(col).get(buffer, start, end);
+			return read(col, value, rowPosition);
+		}
+
+		/**
+		 * Read an empty cell of an optional numeric column with its cell
+		 * reader, eg: as a missing value. The value is read once per column,
+		 * as it is the same for every empty cell.
+		 *
+		 * @param col
+		 *            column index
+		 * @param rowPosition
+		 *            position of the row in the source, for error messages
+		 * @return value
+		 * @throws IOException
+		 *             if the cell reader cannot read an empty cell
+		 */
+		private Object readEmpty(int col, long rowPosition)
+				throws IOException {
+			if (!emptyRead[col]) {
+				emptyValues[col] = read(col, "", rowPosition);
+				emptyRead[col] = true;
+			}
+			return emptyValues[col];
+		}
+
+		private Object read(int col, String value, long rowPosition)
+				throws IOException {
+			try {
+				return cellReaders[col].read(value);
+			} catch (CellReaderException e) {
+				throw new IOException("Cannot read column \""
+						+ columnNames[col] + "\" of row at byte "
+						+ rowPosition + " of " + sourceName + ": "
+						+ e.getMessage(), e);
+			}
+		}
+
+		private CStringDictionary dictionary(int col) {
+			if (dictionaries[col] == null) {
+				dictionaries[col] = new CStringDictionary();
+			}
+			return dictionaries[col];
+		}
+
+	}
+
+	private static boolean isDelimiter(byte b) {
+		return b == COMMA || b == LF || b == CR;
+	}
+
+	/**
+	 * Parse an optionally signed decimal integer.
+	 *
+	 * @param buffer
+	 *            buffer containing the cell
+	 * @param start
+	 *            index of first byte of cell
+	 * @param end
+	 *            index after last byte of cell
+	 * @return value, or {@link #NOT_AN_INT} if the cell is not an integer in
+	 *         the range of an int
+	 */
+	static long parseInt(ByteBuffer buffer, int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+		if (pos == end || end - pos > 10) {
+			return NOT_AN_INT;
+		}
+
+		long value = 0;
+		for (; pos < end; pos++) {
+			int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				return NOT_AN_INT;
+			}
+			value = value * 10 + digit;
+		}
+		if (negative) {
+			value = -value;
+		}
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			return NOT_AN_INT;
+		}
+		return value;
+	}
+
+	/**
+	 * Parse a decimal number with an optional sign, fraction and exponent.
+	 * Only numbers whose value can be computed exactly, ie: with at most
+	 * {@link #MAX_DOUBLE_DIGITS} significant digits and a small decimal
+	 * exponent, are parsed. The result is then correctly rounded, the same as
+	 * {@link Double#parseDouble(String)}.
+	 *
+	 * @param buffer
+	 *            buffer containing the cell
+	 * @param start
+	 *            index of first byte of cell
+	 * @param end
+	 *            index after last byte of cell
+	 * @return value, or {@link Double#NaN} if the cell is not parsed
+	 */
+	static double parseDouble(ByteBuffer buffer, int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean fraction = false;
+
+		for (; pos < end; pos++) {
+			byte b = buffer.get(pos);
+			if (b == '.' && !fraction) {
+				fraction = true;
+			} else if (b >= '0' && b <= '9') {
+				digits++;
+				if (mantissa != 0 || b != '0') {
+					if (++significantDigits > MAX_DOUBLE_DIGITS) {
+						return Double.NaN;
+					}
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (fraction) {
+					exponent--;
+				}
+			} else {
+				break;
+			}
+		}
+		if (digits == 0) {
+			return Double.NaN;
+		}
+
+		if (pos < end) {
+			byte b = buffer.get(pos);
+			if (b != 'e' && b != 'E') {
+				return Double.NaN;
+			}
+			long intValue = parseInt(buffer, pos + 1, end);
+			if (intValue == NOT_AN_INT) {
+				return Double.NaN;
+			}
+			exponent += intValue;
+		}
+
+		double value;
+		if (mantissa == 0) {
+			value = 0;
+		} else if (exponent >= 0 && exponent < POWERS_OF_10.length) {
+			value = mantissa * POWERS_OF_10[exponent];
+		} else if (exponent < 0 && -exponent < POWERS_OF_10.length) {
+			value = mantissa / POWERS_OF_10[-exponent];
+		} else {
+			return Double.NaN;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Read the header of a CSV file.
+	 *
+	 * @param file
+	 *            file
+	 * @param header
+	 *            cleared and then filled with the field names in the header
+	 * @return position of the first byte after the header
+	 * @throws IOException
+	 *             if problem reading file, or the file has no header
+	 */
+	static long readHeader(File file, List<String> header) throws IOException {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			long size = channel.size();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					Math.min(size, HEADER_MAP_SIZE));
+			int end = readHeader(buffer, header);
+			if (end < 0 || (end == buffer.limit() && end < size)) {
+				throw new IOException("Cannot read header of " + file);
+			}
+			return end;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Read a header from a buffer, starting at its position. A UTF-8 byte
+	 * order mark is skipped.
+	 *
+	 * @param buffer
+	 *            buffer
+	 * @param header
+	 *            cleared and then filled with the field names in the header
+	 * @return index of the first byte after the header, or -1 if the buffer
+	 *         ends within a quoted field
+	 * @throws IOException
+	 *             if there is no header
+	 */
+	static int readHeader(ByteBuffer buffer, List<String> header)
+			throws IOException {
+		header.clear();
+		int limit = buffer.limit();
+		int pos = buffer.position();
+
+		if (limit - pos >= 3 && buffer.get(pos) == (byte) 0xEF
+				&& buffer.get(pos + 1) == (byte) 0xBB
+				&& buffer.get(pos + 2) == (byte) 0xBF) {
+			pos += 3;
+		}
+
+		ByteArrayOutputStream field = new ByteArrayOutputStream();
+		boolean quoted = false;
+		for (; pos < limit; pos++) {
+			byte b = buffer.get(pos);
+			if (quoted) {
+				if (b != QUOTE) {
+					field.write(b);
+				} else if (pos + 1 < limit && buffer.get(pos + 1) == QUOTE) {
+					field.write(QUOTE);
+					pos++;
+				} else {
+					quoted = false;
+				}
+			} else if (b == QUOTE) {
+				quoted = true;
+			} else if (b == COMMA) {
+				header.add(new String(field.toByteArray(), UTF8));
+				field.reset();
+			} else if (b == LF || b == CR) {
+				break;
+			} else {
+				field.write(b);
+			}
+		}
+		if (quoted) {
+			return -1;
+		}
+		header.add(new String(field.toByteArray(), UTF8));
+
+		if (pos < limit && buffer.get(pos) == CR) {
+			pos++;
+		}
+		if (pos < limit && buffer.get(pos) == LF) {
+			pos++;
+		}
+
+		if (header.size() == 1 && header.get(0).trim().length() == 0) {
+			throw new IOException("CSV does not have a header.");
+		}
+		return pos;
+	}
+
+}
@@ -0,0 +1,102 @@
+package net.casper.io.file.in;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Decodes UTF-8 cells to Strings, returning the same String instance for
+ * cells with the same bytes. Repeated values, eg: codes and categories, are
+ * then only decoded and stored once. Looking up a cell does not allocate.
+ * <p>
+ * Only short cells are kept, and only up to a maximum number of distinct
+ * values, so a column of unique values does not fill the dictionary.
+ *
+ * @author agent
+ */
+final class CStringDictionary {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Maximum number of distinct values kept.
+	 */
+	private static final int MAX_ENTRIES = 4096;
+
+	/**
+	 * Maximum length in bytes of a value kept.
+	 */
+	private static final int MAX_LENGTH = 64;
+
+	/**
+	 * Table capacity, a power of 2 at least twice {@link #MAX_ENTRIES}.
+	 */
+	private static final int CAPACITY = 8192;
+
+	private final byte[][] keys = new byte[CAPACITY][];
+	private final String[] values = new String[CAPACITY];
+	private int size;
+
+	/**
+	 * Get the String of a cell.
+	 *
+	 * @param buffer
+	 *            buffer containing the cell
+	 * @param start
+	 *            index of first byte of cell
+	 * @param end
+	 *            index after last byte of cell
+	 * @return decoded cell
+	 */
+	String get(ByteBuffer buffer, int start, int end) {
+		int length = end - start;
+		if (length > MAX_LENGTH) {
+			return new String(copy(buffer, start, length), UTF8);
+		}
+
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+		hash ^= hash >>> 16;
+
+		int slot = hash & (CAPACITY - 1);
+		byte[] key;
+		while ((key = keys[slot]) != null) {
+			if (matches(key, buffer, start, length)) {
+				return values[slot];
+			}
+			slot = (slot + 1) & (CAPACITY - 1);
+		}
+
+		byte[] bytes = copy(buffer, start, length);
+		String value = new String(bytes, UTF8);
+		if (size < MAX_ENTRIES) {
+			keys[slot] = bytes;
+			values[slot] = value;
+			size++;
+		}
+		return value;
+	}
+
+	private static boolean matches(byte[] key, ByteBuffer buffer, int start,
+			int length) {
+		if (key.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (key[i] != buffer.get(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] copy(ByteBuffer buffer, int start, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return bytes;
+	}
+
+}
@@ -1,29 +1,78 @@
 package net.casper.io.file.out;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
 
-import net.casper.data.model.CExporter;
-
-import org.supercsv.io.CsvListWriter;
-import org.supercsv.io.ICsvListWriter;
-import org.supercsv.prefs.CsvPreference;
+import net.casper.data.model.CBatchExporter;
 
 /**
- * Exports a casper dataset to a CSV file.
- * 
+ * Exports a casper dataset to a CSV file. Rows are accepted in batches (see
+ * {@link CBatchExporter}).
+ *
+ * Values are encoded as UTF-8 straight into a reusable byte buffer, which is
+ * written out when full. Integers and longs are formatted without creating
+ * Strings, as are doubles that can be written exactly with a few decimal
+ * places (other doubles are written by {@link Double#toString(double)}).
+ * Other values are written using their {@code toString()}. Values are quoted
+ * only if they contain a comma, double quote or line break, and lines end
+ * with CRLF. The file may be gzip compressed as it is written, or the CSV can
+ * be written to any stream, eg: one that compresses with another algorithm.
+ *
  * @author Oliver Mannion
  * @version $Revision: 147 $
  */
-public class CExportCSV implements CExporter {
+public class CExportCSV implements CBatchExporter {
+
+	/**
+	 * Size of the output buffer, in bytes.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Space needed in the buffer to format any number without checking.
+	 */
+	private static final int MAX_NUMBER_LENGTH = 32;
+
+	/**
+	 * Maximum number of decimal places written by the exact double format.
+	 */
+	private static final int MAX_DECIMAL_PLACES = 8;
+
+	/**
+	 * Doubles whose scaled value is at least this are written by
+	 * {@link Double#toString(double)}. Scaled values below 2^53 are exact.
+	 */
+	private static final double MAX_EXACT_SCALED = 9007199254740992.0;
+
+	private static final double[] POWERS_OF_10 = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8 };
+
+	private static final byte COMMA = ',';
+	private static final byte QUOTE = '"';
+	private static final byte[] NEWLINE = { '\r', '\n' };
+
+	/**
+	 * Destination.
+	 */
+	private final OutputStream out;
 
 	/**
-	 * SuperCSV writer.
+	 * Output buffer.
 	 */
-	private final ICsvListWriter writer;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Number of bytes in {@link #buffer}.
+	 */
+	private int count;
+
+	/**
+	 * Digits of the number being formatted, in reverse order.
+	 */
+	private final byte[] digits = new byte[MAX_NUMBER_LENGTH];
 
 	/**
 	 * Data set column names to write to the CSV file.
@@ -33,12 +82,12 @@ public class CExportCSV implements CExporter {
 	/**
 	 * Data set column positions to write to the CSV file.
 	 */
-	private final Collection<Integer> selectedColumnIndices = new LinkedList<Integer>();
+	private int[] selectedColumnIndices;
 
 	/**
 	 * Construct a casper exporter that writes all columns in CSV format to
 	 * {@code file}.
-	 * 
+	 *
 	 * @param file
 	 *            CSV file to create and write to.
 	 * @throws IOException
@@ -51,7 +100,7 @@ public class CExportCSV implements CExporter {
 	/**
 	 * Construct a casper exporter that writes the specified columns in CSV
 	 * format to {@code file}.
-	 * 
+	 *
 	 * @param file
 	 *            CSV file to create and write to.
 	 * @param selectedColumnNames
@@ -63,16 +112,68 @@ public class CExportCSV implements CExporter {
 	 *             if problem creating file.
 	 */
 	public CExportCSV(File file, String selectedColumnNames) throws IOException {
-		this.writer = new CsvListWriter(new FileWriter(file),
-				CsvPreference.STANDARD_PREFERENCE);
+		this(file, selectedColumnNames, false);
+	}
+
+	/**
+	 * Construct a casper exporter that writes the specified columns in CSV
+	 * format to {@code file}, optionally gzip compressed.
+	 *
+	 * @param file
+	 *            CSV file to create and write to, eg: {@code data.csv.gz} if
+	 *            compressed.
+	 * @param selectedColumnNames
+	 *            the columns to write, or {@code null} to write all columns.
+	 *            Multiple columns are separated by commas.
+	 * @param gzip
+	 *            {@code true} to gzip compress the file
+	 * @throws IOException
+	 *             if problem creating file.
+	 */
+	public CExportCSV(File file, String selectedColumnNames, boolean gzip)
+			throws IOException {
+		this(openFile(file, gzip), selectedColumnNames);
+	}
+
+	/**
+	 * Construct a casper exporter that writes the specified columns in CSV
+	 * format to a stream. The stream is closed when the exporter is closed.
+	 *
+	 * @param out
+	 *            stream to write to, eg: a compressing stream. Writes to it
+	 *            are already buffered.
+	 * @param selectedColumnNames
+	 *            the columns to write, or {@code null} to write all columns.
+	 *            Multiple columns are separated by commas.
+	 */
+	public CExportCSV(OutputStream out, String selectedColumnNames) {
+		this.out = out;
 		this.selectedColumnNames = (selectedColumnNames == null) ? null
 				: selectedColumnNames.split(",");
 	}
 
+	private static OutputStream openFile(File file, boolean gzip)
+			throws IOException {
+		OutputStream fileOut = new FileOutputStream(file);
+		if (!gzip) {
+			return fileOut;
+		}
+		try {
+			return new GZIPOutputStream(fileOut, BUFFER_SIZE);
+		} catch (IOException e) {
+			fileOut.close();
+			throw e;
+		}
+	}
+
 	@Override
 	public Object close() {
 		try {
-			writer.close();
+			try {
+				flushBuffer();
+			} finally {
+				out.close();
+			}
 		} catch (IOException e) {
 			// swallow exception
 		}
@@ -88,15 +189,18 @@ public class CExportCSV implements CExporter {
 	public void setColumnNames(String[] columnNames) throws IOException {
 		if (selectedColumnNames == null) {
 			// write out all columns
-			writer.writeHeader(columnNames);
+			writeValues(columnNames);
 
+			selectedColumnIndices = new int[columnNames.length];
 			for (int i = 0; i < columnNames.length; i++) {
-				selectedColumnIndices.add(i);
+				selectedColumnIndices[i] = i;
 			}
 
 		} else {
 			// columns to write out have been specified
 
+			selectedColumnIndices = new int[selectedColumnNames.length];
+			int selected = 0;
 			for (String colToWrite : selectedColumnNames) {
 
 				// determine the array index of the
@@ -114,11 +218,11 @@ public class CExportCSV implements CExporter {
 							+ " does not exist in column list.");
 				}
 
-				selectedColumnIndices.add(positionOfColToWrite);
+				selectedColumnIndices[selected++] = positionOfColToWrite;
 
 			}
 
-			writer.writeHeader(selectedColumnNames);
+			writeValues(selectedColumnNames);
 		}
 	}
 
@@ -135,16 +239,27 @@ public class CExportCSV implements CExporter {
 
 	@Override
 	public void writeRow(Object[] row) throws IOException {
-		Object[] dataToWrite;
-
-		dataToWrite = new Object[selectedColumnIndices.size()];
-		int i = 0;
-
 		// write out only the selected columns
-		for (Integer col : selectedColumnIndices) {
-			dataToWrite[i++] = (row[col] == null) ? "" : row[col];
+		for (int i = 0; i < selectedColumnIndices.length; i++) {
+			if (i > 0) {
+				writeByte(COMMA);
+			}
+			writeValue(row[selectedColumnIndices[i]]);
+		}
+		writeNewline();
+	}
+
+	@Override
+	public void writeRows(Object[][] rows, int rowCount) throws IOException {
+		for (int i = 0; i < rowCount; i++) {
+			writeRow(rows[i]);
 		}
-		writer.write(dataToWrite);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
 	}
 
 	@Override
@@ -152,4 +267,255 @@ public class CExportCSV implements CExporter {
 		// nothing to do
 	}
 
+	/**
+	 * Write a line of values.
+	 *
+	 * @param values
+	 *            values
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeValues(Object[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				writeByte(COMMA);
+			}
+			writeValue(values[i]);
+		}
+		writeNewline();
+	}
+
+	/**
+	 * Write a value.
+	 *
+	 * @param value
+	 *            value, or {@code null} to write an empty cell
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeValue(Object value) throws IOException {
+		if (value == null) {
+			return;
+		}
+
+		if (value instanceof Integer || value instanceof Long
+				|| value instanceof Short || value instanceof Byte) {
+			writeLong(((Number) value).longValue());
+		} else if (value instanceof Double) {
+			writeDouble(((Double) value).doubleValue());
+		} else {
+			writeString(value.toString());
+		}
+	}
+
+	/**
+	 * Write a long in decimal.
+	 *
+	 * @param value
+	 *            value
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			// cannot be negated
+			writeString(Long.toString(value));
+			return;
+		}
+		ensureSpace(MAX_NUMBER_LENGTH);
+
+		if (value < 0) {
+			buffer[count++] = '-';
+			value = -value;
+		}
+
+		int length = 0;
+		do {
+			digits[length++] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+
+		while (length > 0) {
+			buffer[count++] = digits[--length];
+		}
+	}
+
+	/**
+	 * Write a double. Doubles with a magnitude from 0.001 up to 10^7 (the
+	 * range {@link Double#toString(double)} writes without an exponent) that
+	 * are exactly the value of a decimal with at most
+	 * {@link #MAX_DECIMAL_PLACES} places are written as that decimal, with at
+	 * least one decimal place, eg: 45.0 or 841.9098462. The decimal reads
+	 * back as the same double. Other doubles are written by
+	 * {@link Double#toString(double)}.
+	 *
+	 * @param value
+	 *            value
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeDouble(double value) throws IOException {
+		double magnitude = Math.abs(value);
+		if (magnitude >= 1e-3 && magnitude < 1e7) {
+			for (int places = 0; places <= MAX_DECIMAL_PLACES; places++) {
+				double scaled = Math.rint(magnitude * POWERS_OF_10[places]);
+				if (scaled >= MAX_EXACT_SCALED) {
+					break;
+				}
+				if (scaled / POWERS_OF_10[places] == magnitude) {
+					writeDecimal(value < 0, (long) scaled, places);
+					return;
+				}
+			}
+		}
+		writeString(Double.toString(value));
+	}
+
+	/**
+	 * Write a decimal.
+	 *
+	 * @param negative
+	 *            whether the decimal is negative
+	 * @param unscaled
+	 *            digits of the decimal
+	 * @param places
+	 *            number of decimal places in {@code unscaled}, if 0 one
+	 *            decimal place of 0 is written
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeDecimal(boolean negative, long unscaled, int places)
+			throws IOException {
+		ensureSpace(MAX_NUMBER_LENGTH);
+
+		if (negative) {
+			buffer[count++] = '-';
+		}
+
+		int length = 0;
+		if (places == 0) {
+			digits[length++] = '0';
+			digits[length++] = '.';
+		}
+		do {
+			digits[length++] = (byte) ('0' + (unscaled % 10));
+			unscaled /= 10;
+			if (length == places) {
+				digits[length++] = '.';
+			}
+		} while (unscaled != 0 || length <= places);
+
+		if (digits[length - 1] == '.') {
+			digits[length++] = '0';
+		}
+
+		while (length > 0) {
+			buffer[count++] = digits[--length];
+		}
+	}
+
+	/**
+	 * Write a String, quoted if it contains a comma, double quote or line
+	 * break.
+	 *
+	 * @param value
+	 *            value
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void writeString(String value) throws IOException {
+		int length = value.length();
+		boolean quote = false;
+		for (int i = 0; i < length && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+
+		if (quote) {
+			writeByte(QUOTE);
+		}
+
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				if (count == buffer.length) {
+					flushBuffer();
+				}
+				if (c == '"') {
+					// escape double quote with another
+					buffer[count++] = QUOTE;
+					writeByte(QUOTE);
+				} else {
+					buffer[count++] = (byte) c;
+				}
+			} else {
+				ensureSpace(4);
+				if (c < 0x800) {
+					buffer[count++] = (byte) (0xC0 | (c >> 6));
+					buffer[count++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value
+							.charAt(++i));
+					buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+					buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else if (Character.isHighSurrogate(c)
+						|| Character.isLowSurrogate(c)) {
+					// unpaired surrogate
+					buffer[count++] = '?';
+				} else {
+					buffer[count++] = (byte) (0xE0 | (c >> 12));
+					buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buffer[count++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		if (quote) {
+			writeByte(QUOTE);
+		}
+	}
+
+	private void writeNewline() throws IOException {
+		ensureSpace(NEWLINE.length);
+		buffer[count++] = NEWLINE[0];
+		buffer[count++] = NEWLINE[1];
+	}
+
+	private void writeByte(byte b) throws IOException {
+		if (count == buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = b;
+	}
+
+	/**
+	 * Make sure there is space for {@code length} bytes in the buffer.
+	 *
+	 * @param length
+	 *            number of bytes
+	 * @throws IOException
+	 *             if problem writing out the buffer
+	 */
+	private void ensureSpace(int length) throws IOException {
+		if (buffer.length - count < length) {
+			flushBuffer();
+		}
+	}
+
+	/**
+	 * Write out the buffer.
+	 *
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
 }
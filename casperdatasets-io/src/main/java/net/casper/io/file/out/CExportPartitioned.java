@@ -0,0 +1,545 @@
+package net.casper.io.file.out;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CExporter;
+import net.casper.data.model.CRowMetaData;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Exports a casper dataset to multiple files, one per partition, writing the
+ * partitions in parallel. A container is partitioned either into ranges of
+ * rows, or by the value of a column (eg: one file per business date). Each
+ * partition is written by its own {@link CExporter}, created for its file by
+ * an {@link ExporterFactory}, eg:
+ *
+ * <pre>
+ * CExportPartitioned export = new CExportPartitioned(dir, &quot;.csv&quot;,
+ * 		new CExportPartitioned.ExporterFactory() {
+ * 			public CExporter createExporter(File file) throws IOException {
+ * 				return new CExportCSV(file);
+ * 			}
+ * 		}, 4);
+ * export.exportByColumn(container, &quot;date&quot;);
+ * </pre>
+ *
+ * Partitions by range are written to {@code <name>-part-00000<extension>},
+ * {@code <name>-part-00001<extension>} and so on. Partitions by column are
+ * written to {@code <column>=<value>/<name><extension>}, the directory layout
+ * used by Hive and Spark partition discovery. Rows are sorted by primary key
+ * within each partition. Column values whose paths would be the same, ignoring
+ * case, are rejected before anything is written, as one partition would
+ * overwrite the other on a case-insensitive file system. Such values differ
+ * only in case, or are different values with the same string form.
+ *
+ * A manifest listing the files written, and the number of rows in each, is
+ * written as JSON to {@value #MANIFEST_FILE_NAME} in the export directory.
+ *
+ * @author agent
+ */
+public class CExportPartitioned {
+
+	/**
+	 * Name of the manifest file written to the export directory.
+	 */
+	public static final String MANIFEST_FILE_NAME = "_manifest.json";
+
+	/**
+	 * Directory name value of the partition for {@code null} column values.
+	 */
+	public static final String NULL_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+	/**
+	 * Creates an exporter for each partition.
+	 */
+	public interface ExporterFactory {
+
+		/**
+		 * Create an exporter for a partition. Called from the thread that
+		 * writes the partition.
+		 *
+		 * @param file
+		 *            file to write the partition to
+		 * @return exporter
+		 * @throws IOException
+		 *             if problem creating the exporter
+		 */
+		CExporter createExporter(File file) throws IOException;
+	}
+
+	private final File directory;
+	private final String extension;
+	private final ExporterFactory factory;
+	private final int threads;
+
+	private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+	/**
+	 * Construct a partitioned export.
+	 *
+	 * @param directory
+	 *            directory to write partitions and the manifest to. Created if
+	 *            it doesn't exist.
+	 * @param extension
+	 *            extension of partition files, eg: {@code .csv}
+	 * @param factory
+	 *            creates an exporter for each partition
+	 * @param threads
+	 *            number of partitions to write at once
+	 */
+	public CExportPartitioned(File directory, String extension,
+			ExporterFactory factory, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.directory = directory;
+		this.extension = extension;
+		this.factory = factory;
+		this.threads = threads;
+	}
+
+	/**
+	 * Export a container in ranges of rows, in primary key order.
+	 *
+	 * @param container
+	 *            container to export
+	 * @param rowsPerPartition
+	 *            maximum number of rows in a partition
+	 * @return manifest of the files written
+	 * @throws IOException
+	 *             if problem exporting
+	 */
+	public Manifest exportByRows(CDataCacheContainer container,
+			int rowsPerPartition) throws IOException {
+		if (rowsPerPartition < 1) {
+			throw new IllegalArgumentException(
+					"rowsPerPartition must be at least 1");
+		}
+
+		CDataRow[] rows = getRows(container, container.getMetaDefinition()
+				.getPrimaryKeyColumns());
+		String name = fileName(container.getCacheName());
+
+		List<Partition> partitions = new ArrayList<Partition>();
+		for (int start = 0; start < rows.length; start += rowsPerPartition) {
+			int end = Math.min(start + rowsPerPartition, rows.length);
+			String path = String.format("%s-part-%05d%s", name,
+					partitions.size(), extension);
+			partitions.add(new Partition(path, null, Arrays.copyOfRange(rows,
+					start, end)));
+		}
+
+		return export(container, null, partitions);
+	}
+
+	/**
+	 * Export a container with one partition per value of a column. Partitions
+	 * are in column value order.
+	 *
+	 * @param container
+	 *            container to export
+	 * @param columnName
+	 *            column to partition by
+	 * @return manifest of the files written
+	 * @throws IOException
+	 *             if problem exporting, the column does not exist, or two
+	 *             values of the column have the same path
+	 */
+	public Manifest exportByColumn(CDataCacheContainer container,
+			String columnName) throws IOException {
+		if (columnName == null
+				|| !container.getMetaDefinition().containsColumn(columnName)) {
+			throw new IOException("Column " + columnName
+					+ " does not exist in " + container.getCacheName());
+		}
+		try {
+			return export(container, columnName, partitionByColumn(container,
+					columnName));
+		} catch (CDataGridException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Split rows into runs with the same column value.
+	 *
+	 * @throws IOException
+	 *             if two values have the same path, ignoring case
+	 */
+	private List<Partition> partitionByColumn(
+			CDataCacheContainer container, String columnName)
+			throws CDataGridException, IOException {
+		CRowMetaData meta = container.getMetaDefinition();
+		int column = meta.getColumnIndex(columnName);
+
+		// sort by the partition column, then primary key
+		List<String> sortColumnNames = new ArrayList<String>();
+		sortColumnNames.add(columnName);
+		if (meta.getPrimaryKeyColumns() != null) {
+			for (String pk : meta.getPrimaryKeyColumns()) {
+				if (!pk.equalsIgnoreCase(columnName)) {
+					sortColumnNames.add(pk);
+				}
+			}
+		}
+		CDataRow[] rows = container.getAllRows(sortColumnNames
+				.toArray(new String[sortColumnNames.size()]), true);
+		String name = fileName(container.getCacheName());
+
+		List<Partition> partitions = new ArrayList<Partition>();
+		Map<String, Object> pathValues = new HashMap<String, Object>();
+		int start = 0;
+		while (start < rows.length) {
+			Object value = rows[start].getValue(column);
+			int end = start + 1;
+			while (end < rows.length
+					&& equal(value, rows[end].getValue(column))) {
+				end++;
+			}
+
+			String path = columnName + "="
+					+ (value == null ? NULL_PARTITION : escape(value.toString()))
+					+ "/" + name + extension;
+
+			String pathKey = path.toLowerCase(Locale.ROOT);
+			if (pathValues.containsKey(pathKey)) {
+				throw new IOException("Values " + pathValues.get(pathKey)
+						+ " and " + value + " of column " + columnName
+						+ " would be written to the same partition " + path);
+			}
+			pathValues.put(pathKey, value);
+
+			partitions.add(new Partition(path, value == null ? null : value
+					.toString(), Arrays.copyOfRange(rows, start, end)));
+			start = end;
+		}
+
+		return partitions;
+	}
+
+	private static CDataRow[] getRows(CDataCacheContainer container,
+			String[] sortColumnNames) throws IOException {
+		try {
+			return container.getAllRows(sortColumnNames, true);
+		} catch (CDataGridException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private static boolean equal(Object o1, Object o2) {
+		return (o1 == null) ? o2 == null : o1.equals(o2);
+	}
+
+	/**
+	 * Write partitions in parallel, then the manifest.
+	 *
+	 * @param container
+	 *            container the partition rows are from
+	 * @param partitionColumn
+	 *            column partitioned by, or {@code null}
+	 * @param partitions
+	 *            partitions
+	 * @return manifest
+	 * @throws IOException
+	 *             if problem writing a partition or the manifest
+	 */
+	private Manifest export(final CDataCacheContainer container,
+			String partitionColumn, List<Partition> partitions)
+			throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r,
+								"casper-partition-export");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		List<PartitionFile> files = new ArrayList<PartitionFile>();
+		int rowCount = 0;
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final Partition partition : partitions) {
+				futures.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws IOException,
+							CDataGridException {
+						File file = new File(directory, partition.path);
+						File parent = file.getParentFile();
+						if (!parent.isDirectory() && !parent.mkdirs()) {
+							throw new IOException(
+									"Could not create directory " + parent);
+						}
+						return container.export(factory.createExporter(file),
+								partition.rows);
+					}
+				}));
+			}
+
+			for (int i = 0; i < partitions.size(); i++) {
+				Partition partition = partitions.get(i);
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw new IOException("Error exporting partition "
+							+ partition.path + ": " + cause.getMessage(), cause);
+				}
+				files.add(new PartitionFile(partition.path, partition.value,
+						partition.rows.length));
+				rowCount += partition.rows.length;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted", e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		CRowMetaData meta = container.getMetaDefinition();
+		Manifest manifest = new Manifest(container.getCacheName(), meta
+				.getColumnNames(), partitionColumn, rowCount, files);
+		writeManifest(manifest);
+		return manifest;
+	}
+
+	private void writeManifest(Manifest manifest) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(
+				directory, MANIFEST_FILE_NAME)), "UTF-8");
+		try {
+			gson.toJson(manifest, writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Name used for partition files, from the container name.
+	 *
+	 * @param cacheName
+	 *            container name
+	 * @return file name without extension
+	 */
+	private static String fileName(String cacheName) {
+		return (cacheName == null || cacheName.length() == 0) ? "part"
+				: escape(cacheName);
+	}
+
+	/**
+	 * Escape a value for use in a file name. Characters other than letters,
+	 * digits, {@code .}, {@code -} and {@code _} are written as {@code %}
+	 * followed by the hex digits of each UTF-8 byte, as Hive escapes
+	 * partition values.
+	 *
+	 * @param value
+	 *            value
+	 * @return escaped value
+	 */
+	static String escape(String value) {
+		StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+					|| (c >= '0' && c <= '9') || c == '.' || c == '-'
+					|| c == '_') {
+				sb.append(c);
+			} else {
+				int end = Character.isHighSurrogate(c)
+						&& i + 1 < value.length() ? i + 2 : i + 1;
+				try {
+					for (byte b : value.substring(i, end).getBytes("UTF-8")) {
+						sb.append(String.format("%%%02X", b & 0xFF));
+					}
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+				i = end - 1;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Rows written to a file.
+	 */
+	private static final class Partition {
+		private final String path;
+		private final String value;
+		private final CDataRow[] rows;
+
+		private Partition(String path, String value, CDataRow[] rows) {
+			this.path = path;
+			this.value = value;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * A file written by a partitioned export.
+	 */
+	public static final class PartitionFile {
+		private final String path;
+
+		@SerializedName("partition_value")
+		private final String partitionValue;
+
+		@SerializedName("row_count")
+		private final int rowCount;
+
+		private PartitionFile(String path, String partitionValue, int rowCount) {
+			this.path = path;
+			this.partitionValue = partitionValue;
+			this.rowCount = rowCount;
+		}
+
+		/**
+		 * Path of the file, relative to the export directory, using {@code /}
+		 * to separate directories.
+		 *
+		 * @return path
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * Value of the partition column of the rows in the file, or
+		 * {@code null} if partitioned by range or the value is {@code null}.
+		 *
+		 * @return value as a string
+		 */
+		public String getPartitionValue() {
+			return partitionValue;
+		}
+
+		/**
+		 * Number of rows in the file.
+		 *
+		 * @return row count
+		 */
+		public int getRowCount() {
+			return rowCount;
+		}
+	}
+
+	/**
+	 * Manifest of the files written by a partitioned export. Written as JSON,
+	 * eg:
+	 *
+	 * <pre>
+	 * {
+	 *   &quot;name&quot;: &quot;trades&quot;,
+	 *   &quot;column_names&quot;: [&quot;id&quot;, &quot;date&quot;, &quot;amount&quot;],
+	 *   &quot;partition_column&quot;: &quot;date&quot;,
+	 *   &quot;row_count&quot;: 3,
+	 *   &quot;files&quot;: [
+	 *     {
+	 *       &quot;path&quot;: &quot;date=2012-11-26/trades.csv&quot;,
+	 *       &quot;partition_value&quot;: &quot;2012-11-26&quot;,
+	 *       &quot;row_count&quot;: 2
+	 *     },
+	 *     ...
+	 *   ]
+	 * }
+	 * </pre>
+	 */
+	public static final class Manifest {
+		private final String name;
+
+		@SerializedName("column_names")
+		private final String[] columnNames;
+
+		@SerializedName("partition_column")
+		private final String partitionColumn;
+
+		@SerializedName("row_count")
+		private final int rowCount;
+
+		private final List<PartitionFile> files;
+
+		private Manifest(String name, String[] columnNames,
+				String partitionColumn, int rowCount, List<PartitionFile> files) {
+			this.name = name;
+			this.columnNames = columnNames;
+			this.partitionColumn = partitionColumn;
+			this.rowCount = rowCount;
+			this.files = files;
+		}
+
+		/**
+		 * Container name.
+		 *
+		 * @return name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Container column names.
+		 *
+		 * @return column names
+		 */
+		public String[] getColumnNames() {
+			return columnNames;
+		}
+
+		/**
+		 * Column partitioned by.
+		 *
+		 * @return column name, or {@code null} if partitioned by range
+		 */
+		public String getPartitionColumn() {
+			return partitionColumn;
+		}
+
+		/**
+		 * Total number of rows written.
+		 *
+		 * @return row count
+		 */
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		/**
+		 * Files written, in partition order.
+		 *
+		 * @return files
+		 */
+		public List<PartitionFile> getFiles() {
+			return Collections.unmodifiableList(files);
+		}
+	}
+
+}
@@ -0,0 +1,722 @@
+package net.casper.io.jdbc;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.sql.DataSource;
+
+import net.casper.data.model.CBatchExporter;
+
+/**
+ * Exports a casper dataset to a database table. Rows are written with
+ * {@link PreparedStatement} batches, using the column names of the dataset
+ * as the column names of the table, which must already exist. Each value is
+ * set with the {@link PreparedStatement} setter for its column type, chosen
+ * once when the exporter is opened.
+ * <p>
+ * In upsert mode, rows whose primary key is already in the table are updated
+ * and other rows are inserted. Each batch is first written as updates keyed
+ * by the primary key columns, then the rows that updated nothing are
+ * inserted. This works with any database, but is not safe against other
+ * writers inserting the same keys at the same time.
+ * <p>
+ * Rows can be written by several threads, each with its own connection.
+ * Each connection commits separately, every {@code commitInterval} rows and
+ * when the export finishes, so an export that fails part way may leave some
+ * rows committed.
+ * Writing with more than one thread needs a database that locks rows rather
+ * than tables, otherwise the connections wait on each other's uncommitted
+ * rows.
+ *
+ * @author agent
+ */
+public class CExportJDBC implements CBatchExporter {
+
+	/**
+	 * Default number of rows in a statement batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	// setters for column types
+	private static final int SET_OBJECT = 0;
+	private static final int SET_BOOLEAN = 1;
+	private static final int SET_BYTE = 2;
+	private static final int SET_SHORT = 3;
+	private static final int SET_INT = 4;
+	private static final int SET_LONG = 5;
+	private static final int SET_FLOAT = 6;
+	private static final int SET_DOUBLE = 7;
+	private static final int SET_BIG_DECIMAL = 8;
+	private static final int SET_STRING = 9;
+	private static final int SET_CHARACTER = 10;
+	private static final int SET_DATE = 11;
+	private static final int SET_SQL_DATE = 12;
+	private static final int SET_TIME = 13;
+	private static final int SET_TIMESTAMP = 14;
+
+	private final DataSource dataSource;
+	private final String tableName;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int commitInterval;
+	private boolean upsert;
+	private int threads = 1;
+
+	private String[] columnNames;
+	private Class<?>[] columnTypes;
+	private String[] primaryKeyColumns;
+
+	/** Setter of each column. */
+	private int[] setters;
+
+	/** SQL type of each column, for setting nulls. */
+	private int[] sqlTypes;
+
+	private String insertSql;
+	private String updateSql;
+
+	/** Position in the update statement of each column. */
+	private int[] updateOrder;
+
+	/** Rows waiting to be written. */
+	private Object[][] pending;
+	private int pendingCount;
+
+	/** Writers not in use. */
+	private BlockingQueue<Writer> writers;
+
+	/** All writers, for committing and closing. */
+	private final List<Writer> allWriters = new ArrayList<Writer>();
+
+	private ExecutorService executor;
+
+	/** Batches being written by other threads, oldest first. */
+	private final LinkedList<Future<?>> inFlight = new LinkedList<Future<?>>();
+
+	/** Number of rows written. */
+	private int rowCount;
+
+	/** Set once every writer has committed. */
+	private boolean committed;
+
+	/**
+	 * Construct an exporter that inserts rows into a table.
+	 *
+	 * @param dataSource
+	 *            provides connections to the database
+	 * @param tableName
+	 *            table to write to
+	 */
+	public CExportJDBC(DataSource dataSource, String tableName) {
+		this.dataSource = dataSource;
+		this.tableName = tableName;
+	}
+
+	/**
+	 * Set the number of rows in a statement batch. Must be called before
+	 * {@link #open()}.
+	 *
+	 * @param batchSize
+	 *            rows per batch, defaults to {@link #DEFAULT_BATCH_SIZE}
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Set how often to commit. Must be called before {@link #open()}.
+	 *
+	 * @param commitInterval
+	 *            commit after at least this many rows have been written on a
+	 *            connection, or 0 (the default) to commit only when the
+	 *            export finishes
+	 */
+	public void setCommitInterval(int commitInterval) {
+		if (commitInterval < 0) {
+			throw new IllegalArgumentException(
+					"commitInterval cannot be negative");
+		}
+		this.commitInterval = commitInterval;
+	}
+
+	/**
+	 * Set upsert mode. Must be called before {@link #open()}.
+	 *
+	 * @param upsert
+	 *            if {@code true} update rows with a primary key already in the
+	 *            table, and insert the rest. The dataset must have a primary
+	 *            key.
+	 */
+	public void setUpsert(boolean upsert) {
+		this.upsert = upsert;
+	}
+
+	/**
+	 * Set the number of threads, and connections, to write with. Must be
+	 * called before {@link #open()}.
+	 *
+	 * @param threads
+	 *            number of threads, defaults to 1, ie: rows are written by the
+	 *            exporting thread
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	@Override
+	public void setName(String name) throws IOException {
+		// nothing to do
+	}
+
+	@Override
+	public void setColumnNames(String[] columnNames) throws IOException {
+		this.columnNames = columnNames.clone();
+	}
+
+	@Override
+	public void setColumnTypes(Class[] columnTypes) throws IOException {
+		this.columnTypes = columnTypes.clone();
+	}
+
+	@Override
+	public void setPrimaryKeyColumns(String[] primaryKeyColumns)
+			throws IOException {
+		this.primaryKeyColumns = (primaryKeyColumns == null) ? null
+				: primaryKeyColumns.clone();
+	}
+
+	@Override
+	public void open() throws IOException {
+		setters = new int[columnTypes.length];
+		sqlTypes = new int[columnTypes.length];
+		for (int i = 0; i < columnTypes.length; i++) {
+			setters[i] = getSetter(columnTypes[i]);
+			sqlTypes[i] = getSqlType(setters[i]);
+		}
+
+		insertSql = insertSql();
+		if (upsert) {
+			if (primaryKeyColumns == null || primaryKeyColumns.length == 0) {
+				throw new IOException("Cannot upsert into " + tableName
+						+ " without a primary key.");
+			}
+			updateSql = updateSql();
+		}
+
+		pending = new Object[batchSize][];
+		pendingCount = 0;
+
+		writers = new ArrayBlockingQueue<Writer>(threads);
+		try {
+			for (int i = 0; i < threads; i++) {
+				Writer writer = new Writer();
+				allWriters.add(writer);
+				writers.add(writer);
+			}
+		} catch (SQLException e) {
+			close();
+			throw new IOException("Cannot prepare statements for "
+					+ tableName + ": " + e.getMessage(), e);
+		}
+
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "casper-jdbc-export");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+	}
+
+	private String insertSql() {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(
+				tableName).append(" (");
+		StringBuilder values = new StringBuilder(") VALUES (");
+		for (int i = 0; i < columnNames.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+				values.append(", ");
+			}
+			sql.append(columnNames[i]);
+			values.append('?');
+		}
+		return sql.append(values).append(')').toString();
+	}
+
+	/**
+	 * Update statement setting the non-key columns, keyed by the primary key
+	 * columns. Also sets {@link #updateOrder}.
+	 *
+	 * @return SQL
+	 * @throws IOException
+	 *             if a primary key column does not exist
+	 */
+	private String updateSql() throws IOException {
+		int[] keyColumns = new int[primaryKeyColumns.length];
+		for (int k = 0; k < keyColumns.length; k++) {
+			keyColumns[k] = -1;
+			for (int i = 0; i < columnNames.length; i++) {
+				if (columnNames[i].equalsIgnoreCase(primaryKeyColumns[k])) {
+					keyColumns[k] = i;
+				}
+			}
+			if (keyColumns[k] == -1) {
+				throw new IOException("Primary key column "
+						+ primaryKeyColumns[k] + " does not exist.");
+			}
+		}
+
+		updateOrder = new int[columnNames.length];
+		StringBuilder sql = new StringBuilder("UPDATE ").append(tableName)
+				.append(" SET ");
+		int parameter = 0;
+		for (int i = 0; i < columnNames.length; i++) {
+			if (!contains(keyColumns, i)) {
+				if (parameter > 0) {
+					sql.append(", ");
+				}
+				sql.append(columnNames[i]).append(" = ?");
+				updateOrder[parameter++] = i;
+			}
+		}
+		if (parameter == 0) {
+			// every column is in the key, update a key column to itself
+			sql.append(columnNames[keyColumns[0]]).append(" = ?");
+			updateOrder = Arrays.copyOf(updateOrder, columnNames.length + 1);
+			updateOrder[parameter++] = keyColumns[0];
+		}
+
+		sql.append(" WHERE ");
+		for (int k = 0; k < keyColumns.length; k++) {
+			if (k > 0) {
+				sql.append(" AND ");
+			}
+			sql.append(columnNames[keyColumns[k]]).append(" = ?");
+			updateOrder[parameter++] = keyColumns[k];
+		}
+		updateOrder = Arrays.copyOf(updateOrder, parameter);
+		return sql.toString();
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for (int v : values) {
+			if (v == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void writeRow(Object[] row) throws IOException {
+		pending[pendingCount++] = row;
+		if (pendingCount == pending.length) {
+			writePending();
+		}
+	}
+
+	@Override
+	public void writeRows(Object[][] rows, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			writeRow(rows[i]);
+		}
+	}
+
+	/**
+	 * Write the pending rows, on another thread if there is more than one.
+	 *
+	 * @throws IOException
+	 *             if problem writing, or an earlier batch failed
+	 */
+	private void writePending() throws IOException {
+		if (pendingCount == 0) {
+			return;
+		}
+		final Object[][] rows = pending;
+		final int count = pendingCount;
+		rowCount += count;
+
+		if (executor == null) {
+			write(rows, count);
+			pendingCount = 0;
+			return;
+		}
+
+		// wait for the oldest batch if enough are in flight
+		while (inFlight.size() >= threads * 2) {
+			waitFor(inFlight.removeFirst());
+		}
+		inFlight.add(executor.submit(new Callable<Object>() {
+			@Override
+			public Object call() throws IOException {
+				write(rows, count);
+				return null;
+			}
+		}));
+		pending = new Object[batchSize][];
+		pendingCount = 0;
+	}
+
+	/**
+	 * Write rows with a free writer.
+	 *
+	 * @param rows
+	 *            rows
+	 * @param count
+	 *            number of rows
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void write(Object[][] rows, int count) throws IOException {
+		Writer writer;
+		try {
+			writer = writers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted", e);
+		}
+		try {
+			writer.write(rows, count);
+		} catch (SQLException e) {
+			throw new IOException("Cannot write to " + tableName + ": "
+					+ e.getMessage(), e);
+		} finally {
+			writers.add(writer);
+		}
+	}
+
+	private void waitFor(Future<?> future) throws IOException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted", e);
+		}
+	}
+
+	/**
+	 * Write the last rows, wait for all threads to finish and commit.
+	 *
+	 * @throws IOException
+	 *             if problem writing or committing
+	 */
+	@Override
+	public void flush() throws IOException {
+		writePending();
+		while (!inFlight.isEmpty()) {
+			waitFor(inFlight.removeFirst());
+		}
+		try {
+			for (Writer writer : allWriters) {
+				writer.connection.commit();
+			}
+		} catch (SQLException e) {
+			throw new IOException("Cannot commit to " + tableName + ": "
+					+ e.getMessage(), e);
+		}
+		committed = true;
+	}
+
+	/**
+	 * Close connections. Work not committed by {@link #flush()}, because the
+	 * export failed, is rolled back.
+	 *
+	 * @return number of rows written, as an Integer
+	 */
+	@Override
+	public Object close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		for (Writer writer : allWriters) {
+			writer.close(!committed);
+		}
+		allWriters.clear();
+		return rowCount;
+	}
+
+	/**
+	 * Setter used to set values of a column type in a statement.
+	 *
+	 * @param type
+	 *            column type
+	 * @return setter
+	 */
+	private static int getSetter(Class<?> type) {
+		if (type == Boolean.class) {
+			return SET_BOOLEAN;
+		} else if (type == Byte.class) {
+			return SET_BYTE;
+		} else if (type == Short.class) {
+			return SET_SHORT;
+		} else if (type == Integer.class) {
+			return SET_INT;
+		} else if (type == Long.class) {
+			return SET_LONG;
+		} else if (type == Float.class) {
+			return SET_FLOAT;
+		} else if (type == Double.class) {
+			return SET_DOUBLE;
+		} else if (type == BigDecimal.class) {
+			return SET_BIG_DECIMAL;
+		} else if (type == String.class) {
+			return SET_STRING;
+		} else if (type == Character.class) {
+			return SET_CHARACTER;
+		} else if (type == java.sql.Date.class) {
+			return SET_SQL_DATE;
+		} else if (type == Time.class) {
+			return SET_TIME;
+		} else if (type == Timestamp.class) {
+			return SET_TIMESTAMP;
+		} else if (type == Date.class) {
+			return SET_DATE;
+		}
+		return SET_OBJECT;
+	}
+
+	/**
+	 * SQL type used to set nulls.
+	 *
+	 * @param setter
+	 *            setter
+	 * @return type from {@link Types}
+	 */
+	private static int getSqlType(int setter) {
+		switch (setter) {
+		case SET_BOOLEAN:
+			return Types.BOOLEAN;
+		case SET_BYTE:
+			return Types.TINYINT;
+		case SET_SHORT:
+			return Types.SMALLINT;
+		case SET_INT:
+			return Types.INTEGER;
+		case SET_LONG:
+			return Types.BIGINT;
+		case SET_FLOAT:
+			return Types.REAL;
+		case SET_DOUBLE:
+			return Types.DOUBLE;
+		case SET_BIG_DECIMAL:
+			return Types.DECIMAL;
+		case SET_STRING:
+			return Types.VARCHAR;
+		case SET_CHARACTER:
+			return Types.CHAR;
+		case SET_SQL_DATE:
+			return Types.DATE;
+		case SET_TIME:
+			return Types.TIME;
+		case SET_DATE:
+		case SET_TIMESTAMP:
+			return Types.TIMESTAMP;
+		default:
+			return Types.OTHER;
+		}
+	}
+
+	/**
+	 * Set a statement parameter.
+	 *
+	 * @param statement
+	 *            statement
+	 * @param parameter
+	 *            parameter position
+	 * @param column
+	 *            column of the value
+	 * @param value
+	 *            value, may be {@code null}
+	 * @throws SQLException
+	 *             if problem setting the value
+	 */
+	private void setValue(PreparedStatement statement, int parameter,
+			int column, Object value) throws SQLException {
+		if (value == null) {
+			statement.setNull(parameter, sqlTypes[column]);
+			return;
+		}
+
+		switch (setters[column]) {
+		case SET_BOOLEAN:
+			statement.setBoolean(parameter, (Boolean) value);
+			break;
+		case SET_BYTE:
+			statement.setByte(parameter, (Byte) value);
+			break;
+		case SET_SHORT:
+			statement.setShort(parameter, (Short) value);
+			break;
+		case SET_INT:
+			statement.setInt(parameter, (Integer) value);
+			break;
+		case SET_LONG:
+			statement.setLong(parameter, (Long) value);
+			break;
+		case SET_FLOAT:
+			statement.setFloat(parameter, (Float) value);
+			break;
+		case SET_DOUBLE:
+			statement.setDouble(parameter, (Double) value);
+			break;
+		case SET_BIG_DECIMAL:
+			statement.setBigDecimal(parameter, (BigDecimal) value);
+			break;
+		case SET_STRING:
+			statement.setString(parameter, (String) value);
+			break;
+		case SET_CHARACTER:
+			statement.setString(parameter, value.toString());
+			break;
+		case SET_SQL_DATE:
+			statement.setDate(parameter, (java.sql.Date) value);
+			break;
+		case SET_TIME:
+			statement.setTime(parameter, (Time) value);
+			break;
+		case SET_TIMESTAMP:
+			statement.setTimestamp(parameter, (Timestamp) value);
+			break;
+		case SET_DATE:
+			statement.setTimestamp(parameter, new Timestamp(((Date) value)
+					.getTime()));
+			break;
+		default:
+			statement.setObject(parameter, value);
+		}
+	}
+
+	/**
+	 * A connection and its prepared statements.
+	 */
+	private final class Writer {
+		private final Connection connection;
+		private final PreparedStatement insert;
+		private final PreparedStatement update;
+
+		/** Rows written since the last commit. */
+		private int uncommitted;
+
+		private Writer() throws SQLException {
+			connection = dataSource.getConnection();
+			try {
+				connection.setAutoCommit(false);
+				insert = connection.prepareStatement(insertSql);
+				update = (updateSql == null) ? null : connection
+						.prepareStatement(updateSql);
+			} catch (SQLException e) {
+				connection.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Write rows, committing if the commit interval is reached.
+		 *
+		 * @param rows
+		 *            rows
+		 * @param count
+		 *            number of rows
+		 * @throws SQLException
+		 *             if problem writing
+		 */
+		private void write(Object[][] rows, int count) throws SQLException {
+			boolean[] inserts = new boolean[count];
+			Arrays.fill(inserts, true);
+
+			if (update != null) {
+				for (int r = 0; r < count; r++) {
+					for (int p = 0; p < updateOrder.length; p++) {
+						setValue(update, p + 1, updateOrder[p],
+								rows[r][updateOrder[p]]);
+					}
+					update.addBatch();
+				}
+				int[] updated = update.executeBatch();
+				for (int r = 0; r < count; r++) {
+					// SUCCESS_NO_INFO is treated as updated
+					inserts[r] = updated[r] == 0;
+				}
+			}
+
+			int insertCount = 0;
+			for (int r = 0; r < count; r++) {
+				if (inserts[r]) {
+					for (int c = 0; c < columnNames.length; c++) {
+						setValue(insert, c + 1, c, rows[r][c]);
+					}
+					insert.addBatch();
+					insertCount++;
+				}
+			}
+			if (insertCount > 0) {
+				insert.executeBatch();
+			}
+
+			uncommitted += count;
+			if (commitInterval > 0 && uncommitted >= commitInterval) {
+				connection.commit();
+				uncommitted = 0;
+			}
+		}
+
+		/**
+		 * Close the connection.
+		 *
+		 * @param rollback
+		 *            if {@code true} roll back uncommitted work first
+		 */
+		private void close(boolean rollback) {
+			try {
+				if (rollback) {
+					connection.rollback();
+				}
+			} catch (SQLException e) {
+				// swallow exception
+			} finally {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					// swallow exception
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,270 @@
+package net.casper.io.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.sql.DataSource;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataCacheDBAdapter;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CRowMetaData;
+
+/**
+ * Loads a table into a casper dataset in parallel. The table is split into
+ * ranges of a whole number key, and each range is queried on its own
+ * connection and thread, with rows read straight into the same container by
+ * {@link CDataCacheDBAdapter#loadData(ResultSet, CDataCacheContainer, boolean)}
+ * .
+ * <p>
+ * The query has two parameters, the inclusive lower and exclusive upper bound
+ * of a range, eg:
+ *
+ * <pre>
+ * SELECT * FROM trades WHERE id &gt;= ? AND id &lt; ?
+ * </pre>
+ *
+ * Columns and types are taken from the result set of the first range, as for
+ * {@link CDataCacheDBAdapter#loadData(ResultSet, String, String[], Map)}.
+ *
+ * @author agent
+ */
+public class CLoadJDBCPartitioned {
+
+	private final DataSource dataSource;
+	private final String sql;
+	private final int threads;
+
+	/**
+	 * Construct a partitioned loader.
+	 *
+	 * @param dataSource
+	 *            provides a connection for each range
+	 * @param sql
+	 *            query with parameters for the lower (inclusive) and upper
+	 *            (exclusive) bound of a key range
+	 * @param threads
+	 *            number of ranges to load at once
+	 */
+	public CLoadJDBCPartitioned(DataSource dataSource, String sql, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.dataSource = dataSource;
+		this.sql = sql;
+		this.threads = threads;
+	}
+
+	/**
+	 * Load the rows with keys from {@code minKey} to {@code maxKey}, split
+	 * into ranges of equal width.
+	 *
+	 * @param cacheName
+	 *            container name
+	 * @param primaryKeys
+	 *            primary key columns
+	 * @param minKey
+	 *            smallest key
+	 * @param maxKey
+	 *            largest key
+	 * @param partitions
+	 *            number of ranges
+	 * @return container
+	 * @throws CDataGridException
+	 *             if problem querying or loading
+	 */
+	public CDataCacheContainer load(String cacheName, String[] primaryKeys,
+			long minKey, long maxKey, int partitions)
+			throws CDataGridException {
+		return load(cacheName, primaryKeys, split(minKey, maxKey, partitions));
+	}
+
+	/**
+	 * Load rows in the given key ranges.
+	 *
+	 * @param cacheName
+	 *            container name
+	 * @param primaryKeys
+	 *            primary key columns
+	 * @param bounds
+	 *            bounds of the ranges. Range {@code i} is from
+	 *            {@code bounds[i]} inclusive to {@code bounds[i + 1]}
+	 *            exclusive, so there is one more bound than ranges.
+	 * @return container
+	 * @throws CDataGridException
+	 *             if problem querying or loading
+	 */
+	public CDataCacheContainer load(String cacheName, String[] primaryKeys,
+			long[] bounds) throws CDataGridException {
+		if (bounds.length < 2) {
+			throw new IllegalArgumentException(
+					"At least two bounds are needed for a range");
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "casper-jdbc-loader");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		Range first = null;
+		try {
+			// the first range's result set defines the columns
+			first = new Range(bounds[0], bounds[1]);
+			first.open();
+			CRowMetaData meta = CDataCacheDBAdapter.createMetaDefinition(
+					first.rs, primaryKeys);
+			final CDataCacheContainer container = new CDataCacheContainer(
+					cacheName, meta);
+
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < bounds.length - 1; i++) {
+				final Range range = (i == 0) ? first : new Range(bounds[i],
+						bounds[i + 1]);
+				futures.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws SQLException,
+							CDataGridException {
+						try {
+							range.open();
+							return CDataCacheDBAdapter.loadData(range.rs,
+									container, false);
+						} finally {
+							range.close();
+						}
+					}
+				}));
+			}
+			first = null;
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+
+			container.updateIndices();
+			return container;
+
+		} catch (SQLException e) {
+			throw new CDataGridException(e.toString(), e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CDataGridException) {
+				throw (CDataGridException) cause;
+			}
+			throw new CDataGridException(cause.toString(), cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CDataGridException("Load interrupted", e);
+		} finally {
+			if (first != null) {
+				first.close();
+			}
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Split keys into ranges of equal width.
+	 *
+	 * @param minKey
+	 *            smallest key
+	 * @param maxKey
+	 *            largest key
+	 * @param partitions
+	 *            number of ranges
+	 * @return bounds of the ranges, the last is {@code maxKey + 1}
+	 */
+	static long[] split(long minKey, long maxKey, int partitions) {
+		if (partitions < 1) {
+			throw new IllegalArgumentException(
+					"partitions must be at least 1");
+		}
+		if (maxKey < minKey || maxKey == Long.MAX_VALUE
+				|| maxKey - minKey + 1 <= 0) {
+			throw new IllegalArgumentException("Cannot split keys " + minKey
+					+ " to " + maxKey);
+		}
+
+		long width = maxKey - minKey + 1;
+		int count = (int) Math.min(partitions, width);
+		long[] bounds = new long[count + 1];
+		for (int i = 0; i <= count; i++) {
+			// spread the remainder over the first ranges
+			bounds[i] = minKey + width / count * i + Math.min(i, width % count);
+		}
+		return bounds;
+	}
+
+	/**
+	 * A key range query on its own connection.
+	 */
+	private final class Range {
+		private final long lower;
+		private final long upper;
+
+		private Connection connection;
+		private PreparedStatement statement;
+		private ResultSet rs;
+
+		private Range(long lower, long upper) {
+			this.lower = lower;
+			this.upper = upper;
+		}
+
+		/**
+		 * Run the query, if not already run.
+		 *
+		 * @throws SQLException
+		 *             if problem querying
+		 */
+		private void open() throws SQLException {
+			if (rs != null) {
+				return;
+			}
+			connection = dataSource.getConnection();
+			statement = connection.prepareStatement(sql,
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(CDataCacheDBAdapter.LOAD_FETCH_SIZE);
+			statement.setLong(1, lower);
+			statement.setLong(2, upper);
+			rs = statement.executeQuery();
+		}
+
+		private void close() {
+			try {
+				if (rs != null) {
+					rs.close();
+				}
+				if (statement != null) {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				// swallow exception
+			} finally {
+				try {
+					if (connection != null) {
+						connection.close();
+					}
+				} catch (SQLException e) {
+					// swallow exception
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,7 @@
+/**
+ * Classes for loading casper datasets from, and exporting them to, JDBC
+ * databases.
+ * 
+ * @author agent
+ */
+package net.casper.io.jdbc;
@@ -0,0 +1,132 @@
+package net.casper.io.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import net.casper.data.model.CBuilder;
+import net.casper.data.model.CDataCacheIndex;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CRowMetaData;
+
+/**
+ * Builds a read-only casper dataset that serves rows directly from a
+ * memory-mapped snapshot file. Rather than reading rows,
+ * {@link #getConcreteMap()} returns a map that already holds every row of
+ * the snapshot, so building the container does no per-row work and takes
+ * the same time regardless of the number of rows. Primary key lookups and
+ * indexed queries search the snapshot's persisted indices in place, and
+ * values are decoded as they are read.
+ * <p>
+ * The snapshot should be written uncompressed. Compressed column blocks are
+ * decompressed onto the heap when the snapshot is opened.
+ * <p>
+ * Rows cannot be added to, removed from or changed in the resulting
+ * container. Use {@link CBuildFromSnapshot} to load a snapshot that can be
+ * modified. Use {@link CSnapshot#map(File)} to also make the snapshot's
+ * indices available to the container.
+ *
+ * @author agent
+ */
+public class CBuildFromMappedSnapshot implements CBuilder {
+
+	/** Snapshot file. */
+	private final File file;
+
+	private CSnapshotReader reader;
+	private CRowMetaData metaData;
+	private CSnapshotRowMap rowMap;
+
+	/**
+	 * Build from a snapshot file.
+	 *
+	 * @param file
+	 *            snapshot file
+	 */
+	public CBuildFromMappedSnapshot(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public void open() throws IOException {
+		reader = CSnapshotReader.map(file);
+		try {
+			metaData = new CRowMetaData(reader.getColumnNames(), reader
+					.getColumnTypes(), reader.getPrimaryKeyColumns());
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		}
+		rowMap = new CSnapshotRowMap(reader, metaData);
+	}
+
+	@Override
+	public void close() {
+		// nothing to do, mapped blocks are released when garbage collected
+	}
+
+	@Override
+	public String getName() {
+		return (reader.getName() == null) ? file.getName() : reader.getName();
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return reader.getColumnNames().clone();
+	}
+
+	@Override
+	public Class[] getColumnTypes() {
+		return reader.getColumnTypes().clone();
+	}
+
+	@Override
+	public String[] getPrimaryKeyColumns() {
+		String[] primaryKeyColumns = reader.getPrimaryKeyColumns();
+		return (primaryKeyColumns == null) ? null : primaryKeyColumns.clone();
+	}
+
+	/**
+	 * Returns a read-only map holding all rows of the snapshot.
+	 *
+	 * @return map of rows
+	 */
+	@Override
+	public Map getConcreteMap() {
+		return rowMap;
+	}
+
+	/**
+	 * Returns {@code null}, because all rows are already in the map returned
+	 * by {@link #getConcreteMap()}.
+	 *
+	 * @return {@code null}
+	 */
+	@Override
+	public Object[] readRow() {
+		return null;
+	}
+
+	/**
+	 * Create an index for each column indexed in the snapshot. Must be called
+	 * after {@link #open()}.
+	 *
+	 * @return indices backed by the snapshot
+	 * @throws CDataGridException
+	 *             if an indexed column does not exist
+	 */
+	CDataCacheIndex[] createIndices() throws CDataGridException {
+		String[] indexColumnNames = reader.getIndexColumnNames();
+
+		// the primary key index, if any, comes first
+		int indexNo = (reader.getPrimaryKeyColumns() == null) ? 0 : 1;
+
+		CDataCacheIndex[] indices = new CDataCacheIndex[indexColumnNames.length];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = new CSnapshotIndex(reader, rowMap, indexNo++,
+					indexColumnNames[i], metaData
+							.getColumnIndex(indexColumnNames[i]));
+		}
+		return indices;
+	}
+
+}
@@ -0,0 +1,229 @@
+package net.casper.io.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.casper.data.model.CBuilder;
+import net.casper.data.model.CDataGridException;
+
+/**
+ * Builds a casper dataset from a binary snapshot written by
+ * {@link CExportSnapshot}. A snapshot file is memory-mapped; a stream is read
+ * fully. Only the selected columns are decoded.
+ *
+ * @author agent
+ */
+public class CBuildFromSnapshot implements CBuilder {
+
+	/** Snapshot file, or {@code null} when reading from a stream. */
+	private final File file;
+
+	/** Snapshot stream, or {@code null} when reading from a file. */
+	private final InputStream in;
+
+	/** Container name, or {@code null} for the snapshot's name. */
+	private final String containerName;
+
+	/** Columns to load, or {@code null} for all columns. */
+	private final String[] selectedColumnNames;
+
+	/** Primary key, or {@code null} for the snapshot's primary key. */
+	private final String[] primaryKeys;
+
+	private CSnapshotReader reader;
+	private int[] columns;
+	private String[] columnNames;
+	private Class<?>[] columnTypes;
+	private String[] primaryKeyColumns;
+	private int nextRow;
+
+	/**
+	 * Build all columns of a snapshot file, with the name and primary key
+	 * saved in the snapshot.
+	 *
+	 * @param file
+	 *            snapshot file
+	 */
+	public CBuildFromSnapshot(File file) {
+		this(file, null, null, null);
+	}
+
+	/**
+	 * Build from a snapshot file.
+	 *
+	 * @param file
+	 *            snapshot file
+	 * @param containerName
+	 *            if {@code null} will use the name saved in the snapshot
+	 * @param columnNames
+	 *            the columns to load (case insensitive), or {@code null} to
+	 *            load all columns
+	 * @param primaryKeys
+	 *            if {@code null} will use the primary key saved in the
+	 *            snapshot, if it was loaded
+	 */
+	public CBuildFromSnapshot(File file, String containerName,
+			String[] columnNames, String[] primaryKeys) {
+		this.file = file;
+		this.in = null;
+		this.containerName = containerName;
+		this.selectedColumnNames = columnNames;
+		this.primaryKeys = primaryKeys;
+	}
+
+	/**
+	 * Build all columns of a snapshot read from a stream. The stream is
+	 * closed once read.
+	 *
+	 * @param in
+	 *            snapshot stream
+	 */
+	public CBuildFromSnapshot(InputStream in) {
+		this.file = null;
+		this.in = in;
+		this.containerName = null;
+		this.selectedColumnNames = null;
+		this.primaryKeys = null;
+	}
+
+	@Override
+	public void open() throws IOException {
+		reader = (file == null) ? CSnapshotReader.read(in) : CSnapshotReader
+				.map(file);
+
+		String[] available = reader.getColumnNames();
+		if (selectedColumnNames == null) {
+			columns = new int[available.length];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = i;
+			}
+		} else {
+			columns = new int[selectedColumnNames.length];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = indexOf(available, selectedColumnNames[i]);
+			}
+		}
+
+		columnNames = new String[columns.length];
+		columnTypes = new Class<?>[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			columnNames[i] = available[columns[i]];
+			columnTypes[i] = reader.getColumnTypes()[columns[i]];
+		}
+
+		if (primaryKeys != null) {
+			primaryKeyColumns = primaryKeys.clone();
+		} else if (reader.getPrimaryKeyColumns() != null
+				&& Arrays.asList(columnNames).containsAll(
+						Arrays.asList(reader.getPrimaryKeyColumns()))) {
+			// only keep the saved primary key if all its columns are loaded
+			primaryKeyColumns = reader.getPrimaryKeyColumns();
+		}
+
+		nextRow = 0;
+	}
+
+	/**
+	 * Position of a column name, ignoring case.
+	 *
+	 * @param available
+	 *            column names in the snapshot
+	 * @param columnName
+	 *            column name to find
+	 * @return position of {@code columnName}
+	 * @throws IOException
+	 *             if the column does not exist
+	 */
+	private int indexOf(String[] available, String columnName)
+			throws IOException {
+		for (int i = 0; i < available.length; i++) {
+			if (available[i].equalsIgnoreCase(columnName)) {
+				return i;
+			}
+		}
+		throw new IOException("Column named " + columnName
+				+ " does not exist in snapshot.");
+	}
+
+	@Override
+	public void close() {
+		// nothing to do, mapped blocks are released when garbage collected
+	}
+
+	@Override
+	public String getName() {
+		if (containerName != null) {
+			return containerName;
+		}
+		if (reader.getName() != null) {
+			return reader.getName();
+		}
+		return (file == null) ? null : file.getName();
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	@Override
+	public Class[] getColumnTypes() {
+		return columnTypes.clone();
+	}
+
+	@Override
+	public String[] getPrimaryKeyColumns() {
+		return primaryKeyColumns;
+	}
+
+	/**
+	 * Columns with an index persisted in the snapshot.
+	 *
+	 * @return indexed column names
+	 */
+	public String[] getIndexColumnNames() {
+		return reader.getIndexColumnNames().clone();
+	}
+
+	/**
+	 * Number of rows in the snapshot.
+	 *
+	 * @return row count
+	 */
+	public int getRowCount() {
+		return reader.getRowCount();
+	}
+
+	@Override
+	public Map getConcreteMap() {
+		// presize for the number of rows in the snapshot. If no primary key
+		// return a LinkedHashMap so the container keeps the snapshot order
+		int capacity = (int) (reader.getRowCount() / 0.75f) + 1;
+		return (primaryKeyColumns == null) ? new LinkedHashMap(capacity)
+				: new HashMap(capacity);
+	}
+
+	@Override
+	public Object[] readRow() throws IOException {
+		if (nextRow >= reader.getRowCount()) {
+			return null;
+		}
+
+		Object[] row = new Object[columns.length];
+		try {
+			for (int i = 0; i < columns.length; i++) {
+				row[i] = reader.getValue(nextRow, columns[i]);
+			}
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		}
+		nextRow++;
+		return row;
+	}
+
+}
@@ -0,0 +1,457 @@
+package net.casper.io.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CExporter;
+import net.casper.data.model.CRowMetaData;
+import net.casper.data.model.offheap.CRowLayout;
+
+/**
+ * Exports a casper dataset to a binary snapshot. Values are buffered in their
+ * encoded, column-wise form as rows are written and the snapshot is written
+ * when the exporter is closed. See {@link CSnapshotFormat} for the layout.
+ * <p>
+ * Column types must be one of the types supported by {@link CRowLayout}.
+ * Besides the primary key, an index can be persisted for any columns given to
+ * {@link #setIndexColumns(String[])}. Use
+ * {@link CSnapshot#save(net.casper.data.model.CDataCacheContainer, File, boolean)}
+ * to persist the indices of a container.
+ *
+ * @author agent
+ */
+public class CExportSnapshot implements CExporter {
+
+	/** Destination file, or {@code null} when writing to a stream. */
+	private final File file;
+
+	/** Destination stream, or {@code null} when writing to a file. */
+	private final OutputStream out;
+
+	/** Whether to deflate column blocks. */
+	private final boolean compress;
+
+	private String name;
+	private String[] columnNames;
+	private Class<?>[] columnTypes;
+	private String[] primaryKeyColumns;
+	private String[] indexColumnNames = new String[0];
+
+	/** Type code of each column. */
+	private int[] typeCodes;
+
+	/** Column index of each indexed column. */
+	private int[] indexColumns;
+
+	/** Meta data used to create primary keys. */
+	private CRowMetaData metaData;
+
+	/** Encoded values of each column. */
+	private ColumnBuffer[] columns;
+
+	/** Hash of each row's key, for the primary key and each index. */
+	private IntBuffer[] indexHashes;
+
+	/** Number of rows written. */
+	private int rowCount;
+
+	/** Set if a row could not be written, so no snapshot is written. */
+	private boolean failed;
+
+	/**
+	 * Construct an exporter that writes an uncompressed snapshot to
+	 * {@code file}.
+	 *
+	 * @param file
+	 *            snapshot file to create
+	 */
+	public CExportSnapshot(File file) {
+		this(file, false);
+	}
+
+	/**
+	 * Construct an exporter that writes a snapshot to {@code file}.
+	 *
+	 * @param file
+	 *            snapshot file to create
+	 * @param compress
+	 *            if {@code true}, deflate column blocks. Compressed snapshots
+	 *            are smaller but are decompressed onto the heap when read.
+	 */
+	public CExportSnapshot(File file, boolean compress) {
+		this.file = file;
+		this.out = null;
+		this.compress = compress;
+	}
+
+	/**
+	 * Construct an exporter that writes a snapshot to a stream. The stream is
+	 * closed when the exporter is closed.
+	 *
+	 * @param out
+	 *            stream
+	 * @param compress
+	 *            if {@code true}, deflate column blocks
+	 */
+	public CExportSnapshot(OutputStream out, boolean compress) {
+		this.file = null;
+		this.out = out;
+		this.compress = compress;
+	}
+
+	/**
+	 * Persist an index for each of these columns. Must be called before
+	 * {@link #open()}.
+	 *
+	 * @param indexColumnNames
+	 *            names of the columns to index
+	 */
+	public void setIndexColumns(String[] indexColumnNames) {
+		this.indexColumnNames = indexColumnNames.clone();
+	}
+
+	@Override
+	public void setName(String name) throws IOException {
+		this.name = name;
+	}
+
+	@Override
+	public void setColumnNames(String[] columnNames) throws IOException {
+		this.columnNames = columnNames.clone();
+	}
+
+	@Override
+	public void setColumnTypes(Class[] columnTypes) throws IOException {
+		this.columnTypes = columnTypes.clone();
+	}
+
+	@Override
+	public void setPrimaryKeyColumns(String[] primaryKeyColumns)
+			throws IOException {
+		this.primaryKeyColumns = (primaryKeyColumns == null) ? null
+				: primaryKeyColumns.clone();
+	}
+
+	@Override
+	public void open() throws IOException {
+		try {
+			metaData = new CRowMetaData(columnNames, columnTypes,
+					primaryKeyColumns);
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		}
+
+		typeCodes = new int[columnTypes.length];
+		columns = new ColumnBuffer[columnTypes.length];
+		for (int i = 0; i < columnTypes.length; i++) {
+			typeCodes[i] = CRowLayout.getTypeCode(columnTypes[i]);
+			if (typeCodes[i] < 0) {
+				throw new IOException("Column " + columnNames[i] + " of type "
+						+ columnTypes[i].getName()
+						+ " cannot be written to a snapshot.");
+			}
+			columns[i] = new ColumnBuffer(typeCodes[i]);
+		}
+
+		indexColumns = new int[indexColumnNames.length];
+		try {
+			for (int i = 0; i < indexColumnNames.length; i++) {
+				indexColumns[i] = metaData.getColumnIndex(indexColumnNames[i]);
+			}
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		}
+
+		int indexCount = indexColumns.length
+				+ (primaryKeyColumns == null ? 0 : 1);
+		indexHashes = new IntBuffer[indexCount];
+		for (int i = 0; i < indexCount; i++) {
+			indexHashes[i] = new IntBuffer();
+		}
+	}
+
+	@Override
+	public void writeRow(Object[] row) throws IOException {
+		try {
+			for (int i = 0; i < row.length; i++) {
+				columns[i].add(row[i]);
+			}
+
+			int index = 0;
+			if (primaryKeyColumns != null) {
+				Object key = metaData.createPrimaryKey(new CDataRow(row));
+				indexHashes[index++].add(CSnapshotFormat.hash(key));
+			}
+			for (int col : indexColumns) {
+				indexHashes[index++].add(CSnapshotFormat.hash(row[col]));
+			}
+		} catch (CDataGridException e) {
+			failed = true;
+			throw new IOException(e);
+		} catch (RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+		rowCount++;
+	}
+
+	/**
+	 * Write the snapshot.
+	 *
+	 * @return {@code null}
+	 * @throws CDataRuntimeException
+	 *             if the snapshot cannot be written
+	 */
+	@Override
+	public Object close() {
+		if (failed || columns == null) {
+			closeQuietly();
+			return null;
+		}
+
+		try {
+			OutputStream dest = (out == null) ? new FileOutputStream(file)
+					: out;
+			DataOutputStream dos = new DataOutputStream(
+					new BufferedOutputStream(dest, 1 << 16));
+			try {
+				write(dos);
+			} finally {
+				dos.close();
+			}
+		} catch (IOException e) {
+			throw new CDataRuntimeException("Cannot write snapshot "
+					+ (file == null ? "" : file.getPath()), e);
+		}
+		return null;
+	}
+
+	/**
+	 * Close the destination stream, if any, without writing.
+	 */
+	private void closeQuietly() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// swallow exception
+			}
+		}
+	}
+
+	/**
+	 * Write header, directory, column blocks and indices.
+	 *
+	 * @param dos
+	 *            destination
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void write(DataOutputStream dos) throws IOException {
+		byte[] header = header();
+
+		// encode column blocks
+		byte[][] blocks = new byte[columns.length][];
+		int[] rawLengths = new int[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			blocks[i] = columns[i].toBlock(rowCount);
+			rawLengths[i] = blocks[i].length;
+			if (compress) {
+				blocks[i] = CSnapshotFormat.deflate(blocks[i], blocks[i].length);
+			}
+			columns[i] = null;
+		}
+
+		// directory
+		long offset = header.length + (long) columns.length
+				* CSnapshotFormat.COLUMN_DIRECTORY_ENTRY_SIZE
+				+ (long) indexHashes.length
+				* CSnapshotFormat.INDEX_DIRECTORY_ENTRY_SIZE;
+
+		dos.write(header);
+		for (int i = 0; i < blocks.length; i++) {
+			dos.writeLong(offset);
+			dos.writeInt(blocks[i].length);
+			dos.writeInt(rawLengths[i]);
+			offset += blocks[i].length;
+		}
+		for (int i = 0; i < indexHashes.length; i++) {
+			dos.writeLong(offset);
+			dos.writeInt(rowCount);
+			offset += (long) rowCount * CSnapshotFormat.INDEX_ENTRY_SIZE;
+		}
+
+		// column blocks
+		for (int i = 0; i < blocks.length; i++) {
+			dos.write(blocks[i]);
+			blocks[i] = null;
+		}
+
+		// indices, sorted by hash then row
+		for (IntBuffer hashes : indexHashes) {
+			long[] entries = new long[rowCount];
+			for (int row = 0; row < rowCount; row++) {
+				entries[row] = ((long) hashes.get(row) << 32) | row;
+			}
+			Arrays.sort(entries);
+			for (long entry : entries) {
+				dos.writeLong(entry);
+			}
+		}
+	}
+
+	/**
+	 * Encode the header.
+	 *
+	 * @return header bytes
+	 * @throws IOException
+	 *             if problem encoding
+	 */
+	private byte[] header() throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+
+		dos.writeInt(CSnapshotFormat.MAGIC);
+		dos.writeShort(CSnapshotFormat.VERSION);
+		dos.writeShort(compress ? CSnapshotFormat.FLAG_COMPRESSED : 0);
+
+		dos.writeBoolean(name != null);
+		if (name != null) {
+			dos.writeUTF(name);
+		}
+
+		dos.writeInt(rowCount);
+
+		dos.writeInt(columnNames.length);
+		for (int i = 0; i < columnNames.length; i++) {
+			dos.writeUTF(columnNames[i]);
+			dos.writeByte(typeCodes[i]);
+		}
+
+		dos.writeInt(primaryKeyColumns == null ? -1 : primaryKeyColumns.length);
+		if (primaryKeyColumns != null) {
+			for (String pk : primaryKeyColumns) {
+				dos.writeUTF(pk);
+			}
+		}
+
+		dos.writeInt(indexColumnNames.length);
+		for (String indexColumn : indexColumnNames) {
+			dos.writeUTF(indexColumn);
+		}
+
+		dos.flush();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Growable array of ints.
+	 */
+	private static final class IntBuffer {
+		private int[] data = new int[1024];
+		private int size;
+
+		void add(int value) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = value;
+		}
+
+		int get(int index) {
+			return data[index];
+		}
+	}
+
+	/**
+	 * Encoded values of a single column.
+	 */
+	private static final class ColumnBuffer {
+		private final int typeCode;
+		private final boolean variable;
+		private final int width;
+
+		/** Null bitmap. */
+		private byte[] nulls = new byte[128];
+
+		/** Fixed width values, or variable length value bytes. */
+		private byte[] data = new byte[1024];
+		private ByteBuffer dataView = ByteBuffer.wrap(data);
+		private int dataSize;
+
+		/** End offset of each variable length value. */
+		private final IntBuffer ends;
+
+		private int count;
+
+		ColumnBuffer(int typeCode) {
+			this.typeCode = typeCode;
+			this.variable = CRowLayout.isVariable(typeCode);
+			this.width = variable ? 0 : CRowLayout.getSlotWidth(typeCode);
+			this.ends = variable ? new IntBuffer() : null;
+		}
+
+		void add(Object value) throws CDataGridException {
+			if ((count >> 3) == nulls.length) {
+				nulls = Arrays.copyOf(nulls, nulls.length * 2);
+			}
+
+			if (value == null) {
+				nulls[count >> 3] |= 1 << (count & 7);
+				if (!variable) {
+					ensure(width);
+					dataSize += width;
+				}
+			} else if (variable) {
+				byte[] bytes = CRowLayout.encodeVariable(typeCode, value);
+				ensure(bytes.length);
+				System.arraycopy(bytes, 0, data, dataSize, bytes.length);
+				dataSize += bytes.length;
+			} else {
+				ensure(width);
+				CRowLayout.writeFixed(dataView, dataSize, typeCode, value);
+				dataSize += width;
+			}
+
+			if (variable) {
+				ends.add(dataSize);
+			}
+			count++;
+		}
+
+		private void ensure(int extra) {
+			if (dataSize + extra > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, dataSize
+						+ extra));
+				dataView = ByteBuffer.wrap(data);
+			}
+		}
+
+		byte[] toBlock(int rowCount) {
+			int bitmapSize = CSnapshotFormat.bitmapSize(rowCount);
+			int offsetsSize = variable ? (rowCount + 1) * 4 : 0;
+			ByteBuffer block = ByteBuffer.allocate(bitmapSize + offsetsSize
+					+ dataSize);
+			block.put(nulls, 0, bitmapSize);
+			if (variable) {
+				block.putInt(0);
+				for (int i = 0; i < rowCount; i++) {
+					block.putInt(ends.get(i));
+				}
+			}
+			block.put(data, 0, dataSize);
+			return block.array();
+		}
+	}
+
+}
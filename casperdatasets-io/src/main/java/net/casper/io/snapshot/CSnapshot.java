@@ -0,0 +1,96 @@
+package net.casper.io.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataCacheIndex;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRuntimeException;
+
+/**
+ * Saves, loads and maps containers as binary snapshots.
+ *
+ * @author agent
+ */
+public final class CSnapshot {
+
+	private CSnapshot() {
+		// static utility class
+	}
+
+	/**
+	 * Save a container, and an index for each of its indexed columns, to a
+	 * snapshot file.
+	 *
+	 * @param container
+	 *            container to save
+	 * @param file
+	 *            snapshot file to create
+	 * @param compress
+	 *            if {@code true}, deflate column blocks
+	 * @throws IOException
+	 *             if problem writing the snapshot
+	 */
+	public static void save(CDataCacheContainer container, File file,
+			boolean compress) throws IOException {
+		CExportSnapshot exporter = new CExportSnapshot(file, compress);
+		exporter.setIndexColumns(container.getIndexColumnNames());
+		try {
+			container.export(exporter);
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		} catch (CDataRuntimeException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Open a read-only container over a memory-mapped snapshot file, using
+	 * the snapshot's persisted indices. No rows are loaded, so this returns
+	 * almost immediately for any size of snapshot. See
+	 * {@link CBuildFromMappedSnapshot}.
+	 *
+	 * @param file
+	 *            snapshot file
+	 * @return read-only container
+	 * @throws IOException
+	 *             if problem reading the snapshot
+	 */
+	public static CDataCacheContainer map(File file) throws IOException {
+		CBuildFromMappedSnapshot builder = new CBuildFromMappedSnapshot(file);
+		try {
+			CDataCacheContainer container = new CDataCacheContainer(builder);
+			for (CDataCacheIndex index : builder.createIndices()) {
+				container.addIndex(index);
+			}
+			return container;
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Load a container from a snapshot file, re-creating an index for each
+	 * column indexed in the snapshot.
+	 *
+	 * @param file
+	 *            snapshot file
+	 * @return container
+	 * @throws IOException
+	 *             if problem reading the snapshot
+	 */
+	public static CDataCacheContainer load(File file) throws IOException {
+		CBuildFromSnapshot builder = new CBuildFromSnapshot(file);
+		try {
+			CDataCacheContainer container = new CDataCacheContainer(builder);
+			for (String indexColumn : builder.getIndexColumnNames()) {
+				container.addNonUniqueIndex(indexColumn);
+			}
+			return container;
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
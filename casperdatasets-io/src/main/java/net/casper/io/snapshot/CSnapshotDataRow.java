@@ -0,0 +1,170 @@
+package net.casper.io.snapshot;
+
+import java.io.ObjectStreamException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CRowMetaData;
+
+/**
+ * A read-only {@link CDataRow} view of a row in a memory-mapped snapshot.
+ * Each value is decoded from the snapshot the first time it is read and
+ * then kept by the view.
+ *
+ * @author agent
+ */
+final class CSnapshotDataRow extends CDataRow {
+
+	/** Serialization ID. */
+	private static final long serialVersionUID = 6127430457166210930L;
+
+	/** Snapshot holding the row. */
+	private final transient CSnapshotReader reader;
+
+	/** Row number in the snapshot. */
+	private final int rowNo;
+
+	/** Decoded values. */
+	private final transient Object[] values;
+
+	/** Whether each value has been decoded. */
+	private final transient boolean[] decoded;
+
+	/**
+	 * Create a view.
+	 *
+	 * @param reader
+	 *            snapshot holding the row
+	 * @param rowNo
+	 *            row number
+	 */
+	CSnapshotDataRow(CSnapshotReader reader, int rowNo) {
+		this.reader = reader;
+		this.rowNo = rowNo;
+		int columnCount = reader.getColumnNames().length;
+		this.values = new Object[columnCount];
+		this.decoded = new boolean[columnCount];
+	}
+
+	/**
+	 * Row number in the snapshot.
+	 *
+	 * @return row number
+	 */
+	int getRowNo() {
+		return rowNo;
+	}
+
+	/**
+	 * Snapshot rows have a fixed number of columns, so this does nothing.
+	 *
+	 * @param size
+	 *            ignored
+	 */
+	@Override
+	public void ensureCardinality(int size) {
+	}
+
+	@Override
+	public int getNumberColumns() {
+		return values.length;
+	}
+
+	@Override
+	public synchronized Object getValue(int columnIndex)
+			throws CDataGridException {
+		if (columnIndex < 0 || columnIndex >= values.length) {
+			throw new CDataGridException("Array out of bounds: row length = "
+					+ values.length + ", requested column index: "
+					+ columnIndex);
+		}
+		if (!decoded[columnIndex]) {
+			values[columnIndex] = reader.getValue(rowNo, columnIndex);
+			decoded[columnIndex] = true;
+		}
+		return values[columnIndex];
+	}
+
+	/**
+	 * Snapshot rows are read-only.
+	 *
+	 * @param columnIndex
+	 *            column index
+	 * @param value
+	 *            value
+	 * @throws CDataGridException
+	 *             always
+	 */
+	@Override
+	public void setValue(int columnIndex, Object value)
+			throws CDataGridException {
+		throw new CDataGridException("Snapshot rows are read-only.");
+	}
+
+	/**
+	 * Returns a materialized copy of the row values.
+	 *
+	 * @return row values
+	 */
+	@Override
+	public Object[] getRawData() {
+		Object[] row = new Object[values.length];
+		try {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = getValue(i);
+			}
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+		return row;
+	}
+
+	/**
+	 * Snapshot rows are read-only.
+	 *
+	 * @param row
+	 *            row values
+	 * @throws CDataGridException
+	 *             always
+	 */
+	@Override
+	public void setRawData(Object[] row) throws CDataGridException {
+		throw new CDataGridException("Snapshot rows are read-only.");
+	}
+
+	@Override
+	public Map toMap(CRowMetaData metaData) throws CDataGridException {
+		if (metaData == null) {
+			return new HashMap();
+		}
+		return new CDataRow(getRawData()).toMap(metaData);
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return new CDataRow(getRawData()).toString();
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Replace this view in a serialization stream with a materialized row.
+	 *
+	 * @return replacement object
+	 * @throws ObjectStreamException
+	 *             never
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		try {
+			return new CDataRow(getRawData());
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+}
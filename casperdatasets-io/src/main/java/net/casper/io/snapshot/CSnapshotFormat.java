@@ -0,0 +1,151 @@
+package net.casper.io.snapshot;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.casper.data.model.offheap.CRowLayout;
+
+/**
+ * Constants and helpers shared by the snapshot writer and readers.
+ * <p>
+ * A snapshot file is laid out as:
+ * <ol>
+ * <li>Header: magic number, format version, flags, dataset name, row count,
+ * column names and type codes (see {@link CRowLayout}), primary key columns
+ * and indexed columns.</li>
+ * <li>Directory: for each column the file offset, stored length and
+ * uncompressed length of its block, then for the primary key (if any) and
+ * each indexed column the file offset and number of entries of its index.</li>
+ * <li>Column blocks: a null bitmap followed by either one fixed width value
+ * per row, or for variable length types {@code rowCount + 1} int offsets
+ * followed by the UTF-8 bytes of each value. A block is deflated when the
+ * {@link #FLAG_COMPRESSED} flag is set.</li>
+ * <li>Index section: for each index, one (hash, row) pair of ints per row
+ * sorted by hash then row. Index entries are never compressed so they can be
+ * searched in place.</li>
+ * </ol>
+ * All numbers are big-endian.
+ *
+ * @author agent
+ */
+final class CSnapshotFormat {
+
+	/** Magic number at the start of every snapshot: "CASP". */
+	static final int MAGIC = 0x43415350;
+
+	/** Current format version. */
+	static final short VERSION = 1;
+
+	/** Flag set when column blocks are deflated. */
+	static final short FLAG_COMPRESSED = 1;
+
+	/** Size of a column directory entry: offset, stored and raw length. */
+	static final int COLUMN_DIRECTORY_ENTRY_SIZE = 16;
+
+	/** Size of an index directory entry: offset and entry count. */
+	static final int INDEX_DIRECTORY_ENTRY_SIZE = 12;
+
+	/** Size of an index entry: hash and row. */
+	static final int INDEX_ENTRY_SIZE = 8;
+
+	private CSnapshotFormat() {
+		// no instantiation
+	}
+
+	/**
+	 * Hash of a key as stored in an index. Only types with a hash code that is
+	 * stable across JVMs can be stored in a snapshot, so
+	 * {@link Object#hashCode()} is used directly.
+	 *
+	 * @param key
+	 *            key, may be {@code null}
+	 * @return hash
+	 */
+	static int hash(Object key) {
+		return (key == null) ? 0 : key.hashCode();
+	}
+
+	/**
+	 * Number of bytes in the null bitmap of a column block.
+	 *
+	 * @param rowCount
+	 *            number of rows
+	 * @return bitmap size
+	 */
+	static int bitmapSize(int rowCount) {
+		return (rowCount + 7) / 8;
+	}
+
+	/**
+	 * Deflate a block.
+	 *
+	 * @param raw
+	 *            uncompressed bytes
+	 * @param length
+	 *            number of bytes of {@code raw} to compress
+	 * @return compressed bytes
+	 */
+	static byte[] deflate(byte[] raw, int length) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw, 0, length);
+			deflater.finish();
+
+			byte[] out = new byte[Math.max(64, length / 2)];
+			int outLength = 0;
+			while (!deflater.finished()) {
+				if (outLength == out.length) {
+					byte[] grown = new byte[out.length * 2];
+					System.arraycopy(out, 0, grown, 0, outLength);
+					out = grown;
+				}
+				outLength += deflater.deflate(out, outLength, out.length
+						- outLength);
+			}
+
+			byte[] result = new byte[outLength];
+			System.arraycopy(out, 0, result, 0, outLength);
+			return result;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Inflate a block.
+	 *
+	 * @param stored
+	 *            compressed bytes
+	 * @param rawLength
+	 *            uncompressed length
+	 * @return uncompressed bytes
+	 * @throws IOException
+	 *             if the block is corrupt
+	 */
+	static byte[] inflate(byte[] stored, int rawLength) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(stored);
+			byte[] raw = new byte[rawLength];
+			int n = 0;
+			while (n < rawLength) {
+				int read = inflater.inflate(raw, n, rawLength - n);
+				if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				n += read;
+			}
+			if (n != rawLength) {
+				throw new IOException("Corrupt snapshot column block");
+			}
+			return raw;
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package net.casper.io.snapshot;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import net.casper.data.model.CDataCacheIndex;
+import net.casper.data.model.CDataCacheNonUniqueIndex;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+
+/**
+ * A non-unique index searched in place in a memory-mapped snapshot. Matches
+ * are found by binary search of the snapshot's sorted (hash, row) entries,
+ * so the index is usable as soon as the snapshot is mapped. Serializing this
+ * index writes an equivalent {@link CDataCacheNonUniqueIndex}.
+ *
+ * @author agent
+ */
+final class CSnapshotIndex extends CDataCacheIndex {
+
+	/** Serialization ID. */
+	private static final long serialVersionUID = 2945208714127613480L;
+
+	/** Mapped snapshot. */
+	private final transient CSnapshotReader reader;
+
+	/** Rows of the snapshot. */
+	private final transient CSnapshotRowMap rowMap;
+
+	/** Number of the index in the snapshot. */
+	private final int indexNo;
+
+	/**
+	 * Create an index.
+	 *
+	 * @param reader
+	 *            mapped snapshot
+	 * @param rowMap
+	 *            rows of the snapshot
+	 * @param indexNo
+	 *            number of the index in the snapshot
+	 * @param columnName
+	 *            indexed column
+	 * @param columnIndex
+	 *            position of the indexed column
+	 * @throws CDataGridException
+	 *             if the column is invalid
+	 */
+	CSnapshotIndex(CSnapshotReader reader, CSnapshotRowMap rowMap,
+			int indexNo, String columnName, int columnIndex)
+			throws CDataGridException {
+		super(columnName, columnIndex);
+		this.reader = reader;
+		this.rowMap = rowMap;
+		this.indexNo = indexNo;
+	}
+
+	@Override
+	public CDataRow[] get(Object value) throws CDataGridException {
+		List<CDataRow> matches = new ArrayList<CDataRow>();
+		addMatches(value, matches);
+		return matches.toArray(new CDataRow[matches.size()]);
+	}
+
+	@Override
+	public CDataRow[] get(Object[] values) throws CDataGridException {
+		List<CDataRow> matches = new ArrayList<CDataRow>();
+		if (values != null) {
+			for (Object value : values) {
+				addMatches(value, matches);
+			}
+		}
+		return matches.toArray(new CDataRow[matches.size()]);
+	}
+
+	@Override
+	public boolean contains(Object value) throws CDataGridException {
+		if (value == null) {
+			return false;
+		}
+		int[] candidates = reader.findRows(indexNo, CSnapshotFormat
+				.hash(value));
+		for (int rowNo : candidates) {
+			if (value.equals(reader.getValue(rowNo, columnIndex))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Add rows with {@code value} in the indexed column.
+	 *
+	 * @param value
+	 *            value to match. {@code null} matches nothing.
+	 * @param matches
+	 *            collection to add matching rows to
+	 * @throws CDataGridException
+	 *             if a value cannot be decoded
+	 */
+	private void addMatches(Object value, Collection<CDataRow> matches)
+			throws CDataGridException {
+		if (value == null) {
+			return;
+		}
+		int[] candidates = reader.findRows(indexNo, CSnapshotFormat
+				.hash(value));
+		for (int rowNo : candidates) {
+			CSnapshotDataRow row = rowMap.getRow(rowNo);
+			if (value.equals(row.getValue(columnIndex))) {
+				matches.add(row);
+			}
+		}
+	}
+
+	/**
+	 * Does nothing. The rows of a snapshot cannot change, so the index is
+	 * always up to date.
+	 *
+	 * @param rows
+	 *            ignored
+	 */
+	@Override
+	public void update(CDataRow[] rows) {
+	}
+
+	/**
+	 * Snapshot indices cannot have rows added.
+	 *
+	 * @param rows
+	 *            rows
+	 * @throws CDataGridException
+	 *             always
+	 */
+	@Override
+	public void index(CDataRow[] rows) throws CDataGridException {
+		throw new CDataGridException("Snapshot indices are read-only.");
+	}
+
+	/**
+	 * Replace this index in a serialization stream with an equivalent
+	 * {@link CDataCacheNonUniqueIndex}.
+	 *
+	 * @return replacement object
+	 * @throws ObjectStreamException
+	 *             never
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		try {
+			CDataCacheNonUniqueIndex index = new CDataCacheNonUniqueIndex(
+					columnName, columnIndex);
+			index.index((CDataRow[]) rowMap.values().toArray(
+					new CDataRow[rowMap.size()]));
+			return index;
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+}
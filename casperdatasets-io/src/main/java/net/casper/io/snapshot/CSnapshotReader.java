@@ -0,0 +1,338 @@
+package net.casper.io.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.offheap.CRowLayout;
+
+/**
+ * An open snapshot. Column blocks and indices are either memory-mapped from
+ * a file or read fully from a stream. Values are decoded on request, so a
+ * mapped snapshot is only paged in as it is read.
+ *
+ * @author agent
+ */
+final class CSnapshotReader {
+
+	private String name;
+	private int rowCount;
+	private String[] columnNames;
+	private int[] typeCodes;
+	private Class<?>[] columnTypes;
+	private String[] primaryKeyColumns;
+	private String[] indexColumnNames;
+
+	/** Uncompressed column blocks. */
+	private ByteBuffer[] blocks;
+
+	/** Index entries. The primary key index, if any, is first. */
+	private ByteBuffer[] indices;
+
+	/** Size of the null bitmap at the start of each column block. */
+	private int bitmapSize;
+
+	private CSnapshotReader() {
+	}
+
+	/**
+	 * Open a snapshot file by memory-mapping its column blocks and indices.
+	 * Compressed blocks are decompressed onto the heap.
+	 *
+	 * @param file
+	 *            snapshot file
+	 * @return open snapshot
+	 * @throws IOException
+	 *             if the file is not a snapshot or cannot be read
+	 */
+	static CSnapshotReader map(File file) throws IOException {
+		CSnapshotReader reader = new CSnapshotReader();
+
+		DataInputStream header = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		long[] blockOffsets;
+		int[] storedLengths;
+		int[] rawLengths;
+		long[] indexOffsets;
+		boolean compressed;
+		try {
+			compressed = reader.readHeader(header);
+
+			int columnCount = reader.columnNames.length;
+			blockOffsets = new long[columnCount];
+			storedLengths = new int[columnCount];
+			rawLengths = new int[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				blockOffsets[i] = header.readLong();
+				storedLengths[i] = header.readInt();
+				rawLengths[i] = header.readInt();
+			}
+
+			indexOffsets = new long[reader.indexCount()];
+			for (int i = 0; i < indexOffsets.length; i++) {
+				indexOffsets[i] = header.readLong();
+				header.readInt();
+			}
+		} finally {
+			header.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+
+			reader.blocks = new ByteBuffer[blockOffsets.length];
+			for (int i = 0; i < blockOffsets.length; i++) {
+				ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY,
+						blockOffsets[i], storedLengths[i]);
+				if (compressed) {
+					byte[] bytes = new byte[storedLengths[i]];
+					stored.get(bytes);
+					stored = ByteBuffer.wrap(CSnapshotFormat.inflate(bytes,
+							rawLengths[i]));
+				}
+				reader.blocks[i] = stored;
+			}
+
+			reader.indices = new ByteBuffer[indexOffsets.length];
+			for (int i = 0; i < indexOffsets.length; i++) {
+				reader.indices[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						indexOffsets[i], (long) reader.rowCount
+								* CSnapshotFormat.INDEX_ENTRY_SIZE);
+			}
+		} finally {
+			// mappings remain valid after the channel is closed
+			raf.close();
+		}
+
+		return reader;
+	}
+
+	/**
+	 * Read a snapshot fully from a stream. The stream is closed.
+	 *
+	 * @param in
+	 *            stream positioned at the start of a snapshot
+	 * @return open snapshot
+	 * @throws IOException
+	 *             if the stream is not a snapshot or cannot be read
+	 */
+	static CSnapshotReader read(InputStream in) throws IOException {
+		CSnapshotReader reader = new CSnapshotReader();
+
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(in,
+				1 << 16));
+		try {
+			boolean compressed = reader.readHeader(dis);
+
+			int columnCount = reader.columnNames.length;
+			int[] storedLengths = new int[columnCount];
+			int[] rawLengths = new int[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				dis.readLong();
+				storedLengths[i] = dis.readInt();
+				rawLengths[i] = dis.readInt();
+			}
+			int indexCount = reader.indexCount();
+			for (int i = 0; i < indexCount; i++) {
+				dis.readLong();
+				dis.readInt();
+			}
+
+			// blocks and indices follow in directory order
+			reader.blocks = new ByteBuffer[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				byte[] bytes = new byte[storedLengths[i]];
+				dis.readFully(bytes);
+				if (compressed) {
+					bytes = CSnapshotFormat.inflate(bytes, rawLengths[i]);
+				}
+				reader.blocks[i] = ByteBuffer.wrap(bytes);
+			}
+
+			reader.indices = new ByteBuffer[indexCount];
+			for (int i = 0; i < indexCount; i++) {
+				byte[] bytes = new byte[reader.rowCount
+						* CSnapshotFormat.INDEX_ENTRY_SIZE];
+				dis.readFully(bytes);
+				reader.indices[i] = ByteBuffer.wrap(bytes);
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated snapshot", e);
+		} finally {
+			dis.close();
+		}
+
+		return reader;
+	}
+
+	/**
+	 * Read the header.
+	 *
+	 * @param dis
+	 *            stream positioned at the start of a snapshot
+	 * @return {@code true} if column blocks are compressed
+	 * @throws IOException
+	 *             if not a snapshot or of an unsupported version
+	 */
+	private boolean readHeader(DataInputStream dis) throws IOException {
+		if (dis.readInt() != CSnapshotFormat.MAGIC) {
+			throw new IOException("Not a casper dataset snapshot");
+		}
+		short version = dis.readShort();
+		if (version != CSnapshotFormat.VERSION) {
+			throw new IOException("Unsupported snapshot version " + version);
+		}
+		short flags = dis.readShort();
+
+		name = dis.readBoolean() ? dis.readUTF() : null;
+		rowCount = dis.readInt();
+		bitmapSize = CSnapshotFormat.bitmapSize(rowCount);
+
+		int columnCount = dis.readInt();
+		columnNames = new String[columnCount];
+		typeCodes = new int[columnCount];
+		columnTypes = new Class<?>[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			columnNames[i] = dis.readUTF();
+			typeCodes[i] = dis.readByte();
+			try {
+				columnTypes[i] = CRowLayout.getTypeClass(typeCodes[i]);
+			} catch (CDataGridException e) {
+				throw new IOException(e);
+			}
+		}
+
+		int pkCount = dis.readInt();
+		if (pkCount >= 0) {
+			primaryKeyColumns = new String[pkCount];
+			for (int i = 0; i < pkCount; i++) {
+				primaryKeyColumns[i] = dis.readUTF();
+			}
+		}
+
+		indexColumnNames = new String[dis.readInt()];
+		for (int i = 0; i < indexColumnNames.length; i++) {
+			indexColumnNames[i] = dis.readUTF();
+		}
+
+		return (flags & CSnapshotFormat.FLAG_COMPRESSED) != 0;
+	}
+
+	/**
+	 * Number of persisted indices, including the primary key index.
+	 *
+	 * @return index count
+	 */
+	private int indexCount() {
+		return indexColumnNames.length + (primaryKeyColumns == null ? 0 : 1);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	int getRowCount() {
+		return rowCount;
+	}
+
+	String[] getColumnNames() {
+		return columnNames;
+	}
+
+	Class<?>[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	String[] getPrimaryKeyColumns() {
+		return primaryKeyColumns;
+	}
+
+	String[] getIndexColumnNames() {
+		return indexColumnNames;
+	}
+
+	/**
+	 * Decode a single value.
+	 *
+	 * @param row
+	 *            row number
+	 * @param column
+	 *            column index
+	 * @return value
+	 * @throws CDataGridException
+	 *             if the value cannot be decoded
+	 */
+	Object getValue(int row, int column) throws CDataGridException {
+		ByteBuffer block = blocks[column];
+
+		if ((block.get(row >> 3) & (1 << (row & 7))) != 0) {
+			return null;
+		}
+
+		int typeCode = typeCodes[column];
+		if (!CRowLayout.isVariable(typeCode)) {
+			return CRowLayout.readFixed(block, bitmapSize + row
+					* CRowLayout.getSlotWidth(typeCode), typeCode);
+		}
+
+		int offsetPos = bitmapSize + row * 4;
+		int start = block.getInt(offsetPos);
+		int end = block.getInt(offsetPos + 4);
+		byte[] bytes = new byte[end - start];
+		ByteBuffer dup = block.duplicate();
+		dup.position(bitmapSize + (rowCount + 1) * 4 + start);
+		dup.get(bytes);
+		return CRowLayout.decodeVariable(typeCode, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Rows whose key has {@code hash} in an index. Callers must check the
+	 * key of each row, as different keys may share a hash.
+	 *
+	 * @param index
+	 *            index number. The primary key index, if any, is index 0,
+	 *            followed by the indexed columns in
+	 *            {@link #getIndexColumnNames()} order.
+	 * @param hash
+	 *            key hash
+	 * @return candidate row numbers in ascending order
+	 */
+	int[] findRows(int index, int hash) {
+		ByteBuffer entries = indices[index];
+
+		// binary search for the first entry with this hash
+		int lo = 0;
+		int hi = rowCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (entries.getInt(mid * CSnapshotFormat.INDEX_ENTRY_SIZE) < hash) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+
+		int end = lo;
+		while (end < rowCount
+				&& entries.getInt(end * CSnapshotFormat.INDEX_ENTRY_SIZE) == hash) {
+			end++;
+		}
+
+		int[] rows = new int[end - lo];
+		for (int i = lo; i < end; i++) {
+			rows[i - lo] = entries.getInt(i * CSnapshotFormat.INDEX_ENTRY_SIZE
+					+ 4);
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,231 @@
+package net.casper.io.snapshot;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CRowMetaData;
+
+/**
+ * A read-only data row {@link Map} over a memory-mapped snapshot. Nothing is
+ * loaded up front: {@link #get(Object)} searches the snapshot's primary key
+ * index and iteration walks the snapshot's rows, returning
+ * {@link CSnapshotDataRow} views that decode values on access.
+ * <p>
+ * Keys are the primary keys of the rows, as created by
+ * {@link CRowMetaData#createPrimaryKey(CDataRow)}. If the snapshot has no
+ * primary key, keys are the identity keys {@code 1..size()} in row order, as
+ * assigned by a container. Serializing this map writes a {@link HashMap} of
+ * materialized rows.
+ *
+ * @author agent
+ */
+final class CSnapshotRowMap extends AbstractMap implements Serializable {
+
+	/** Serialization ID. */
+	private static final long serialVersionUID = -4817062531970340211L;
+
+	/** Mapped snapshot. */
+	private final transient CSnapshotReader reader;
+
+	/** Meta data, used to create the primary key of a row. */
+	private final transient CRowMetaData metaData;
+
+	/** Whether keys are primary keys, rather than identity keys. */
+	private final boolean hasPrimaryKey;
+
+	/**
+	 * Create a map over all rows of a snapshot.
+	 *
+	 * @param reader
+	 *            mapped snapshot
+	 * @param metaData
+	 *            meta data of the snapshot
+	 */
+	CSnapshotRowMap(CSnapshotReader reader, CRowMetaData metaData) {
+		this.reader = reader;
+		this.metaData = metaData;
+		this.hasPrimaryKey = reader.getPrimaryKeyColumns() != null;
+	}
+
+	/**
+	 * Row view.
+	 *
+	 * @param rowNo
+	 *            row number
+	 * @return view of the row
+	 */
+	CSnapshotDataRow getRow(int rowNo) {
+		return new CSnapshotDataRow(reader, rowNo);
+	}
+
+	@Override
+	public int size() {
+		return reader.getRowCount();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (!hasPrimaryKey) {
+			if (!(key instanceof Integer)) {
+				return null;
+			}
+			int rowNo = ((Integer) key).intValue() - 1;
+			return (rowNo >= 0 && rowNo < reader.getRowCount()) ? getRow(rowNo)
+					: null;
+		}
+
+		if (key == null) {
+			return null;
+		}
+
+		// rows with the same hash as the key, check each for a match
+		int[] candidates = reader.findRows(0, CSnapshotFormat.hash(key));
+		try {
+			for (int rowNo : candidates) {
+				CSnapshotDataRow row = getRow(rowNo);
+				if (key.equals(metaData.createPrimaryKey(row))) {
+					return row;
+				}
+			}
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+		return null;
+	}
+
+	@Override
+	public Set entrySet() {
+		return new EntrySet();
+	}
+
+	/**
+	 * Replace this map in a serialization stream with a {@link HashMap} of
+	 * materialized rows.
+	 *
+	 * @return replacement object
+	 * @throws ObjectStreamException
+	 *             never
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		Map rows = new HashMap((int) (size() / 0.75f) + 1);
+		try {
+			for (Iterator iter = entrySet().iterator(); iter.hasNext();) {
+				Map.Entry entry = (Map.Entry) iter.next();
+				rows.put(entry.getKey(), new CDataRow(((CDataRow) entry
+						.getValue()).getRawData()));
+			}
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+		return rows;
+	}
+
+	/**
+	 * Entries in row order.
+	 */
+	private final class EntrySet extends AbstractSet {
+
+		@Override
+		public Iterator iterator() {
+			return new Iterator() {
+
+				private int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return next < reader.getRowCount();
+				}
+
+				@Override
+				public Object next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return new Entry(getRow(next++));
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException(
+							"Snapshot rows are read-only.");
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return reader.getRowCount();
+		}
+
+	}
+
+	/**
+	 * Entry whose key is only created when asked for, so iterating over
+	 * values does not decode primary key columns.
+	 */
+	private final class Entry implements Map.Entry {
+
+		private final CSnapshotDataRow row;
+
+		Entry(CSnapshotDataRow row) {
+			this.row = row;
+		}
+
+		@Override
+		public Object getKey() {
+			if (!hasPrimaryKey) {
+				return Integer.valueOf(row.getRowNo() + 1);
+			}
+			try {
+				return metaData.createPrimaryKey(row);
+			} catch (CDataGridException e) {
+				throw new CDataRuntimeException(e);
+			}
+		}
+
+		@Override
+		public Object getValue() {
+			return row;
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			throw new UnsupportedOperationException(
+					"Snapshot rows are read-only.");
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry e = (Map.Entry) o;
+			Object key = getKey();
+			return (key == null ? e.getKey() == null : key.equals(e.getKey()))
+					&& row == e.getValue();
+		}
+
+		@Override
+		public int hashCode() {
+			Object key = getKey();
+			return (key == null ? 0 : key.hashCode()) ^ row.hashCode();
+		}
+
+	}
+
+}
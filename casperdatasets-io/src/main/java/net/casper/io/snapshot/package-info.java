@@ -0,0 +1,7 @@
+/**
+ * Compact binary snapshots of casper datasets, for fast saving and loading,
+ * and for serving queries directly from a memory-mapped snapshot.
+ * 
+ * @author agent
+ */
+package net.casper.io.snapshot;
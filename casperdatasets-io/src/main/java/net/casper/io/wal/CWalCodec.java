@@ -0,0 +1,190 @@
+package net.casper.io.wal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CRowMetaData;
+import net.casper.data.model.offheap.CRowLayout;
+
+/**
+ * Encodes and decodes write-ahead log records for containers with a given
+ * set of column types.
+ * <p>
+ * A log segment starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * records. Each record is framed by its payload length and the CRC-32 of its
+ * payload, so a record torn by a crash can be detected. A payload is a record
+ * type followed by either a row count and that many rows, or for
+ * {@link #COLUMN_VALUE_SET} a column index and a value, or for
+ * {@link #COLUMN_TYPE_CHANGED} a column index, the {@link CRowLayout} type
+ * code of the column's new type, and all rows. A value is a null
+ * flag followed by its bytes in the {@link CRowLayout} encoding for the
+ * column's type.
+ *
+ * @author agent
+ */
+final class CWalCodec {
+
+	/** Magic number at the start of every log segment: "CWAL". */
+	static final int MAGIC = 0x4357414C;
+
+	/** Current format version. */
+	static final short VERSION = 1;
+
+	/** Record type of rows added. */
+	static final byte ROWS_ADDED = 1;
+
+	/** Record type of rows removed. */
+	static final byte ROWS_REMOVED = 2;
+
+	/** Record type of rows updated. */
+	static final byte ROWS_UPDATED = 3;
+
+	/** Record type of a column set to one value in every row. */
+	static final byte COLUMN_VALUE_SET = 4;
+
+	/** Record type of a column changed to a new type in every row. */
+	static final byte COLUMN_TYPE_CHANGED = 5;
+
+	/** Size of a record's frame: payload length and CRC. */
+	static final int FRAME_SIZE = 8;
+
+	/** Type code of each column. */
+	private final int[] typeCodes;
+
+	/** Scratch buffer for fixed width values. */
+	private final ByteBuffer scratch = ByteBuffer.allocate(16);
+
+	/**
+	 * Create a codec for the columns described by {@code metaData}.
+	 *
+	 * @param metaData
+	 *            column meta data
+	 * @throws IOException
+	 *             if a column type cannot be logged
+	 */
+	CWalCodec(CRowMetaData metaData) throws IOException {
+		Class<?>[] columnTypes = metaData.getColumnTypes();
+		typeCodes = new int[columnTypes.length];
+		for (int i = 0; i < columnTypes.length; i++) {
+			typeCodes[i] = CRowLayout.getTypeCode(columnTypes[i]);
+			if (typeCodes[i] < 0) {
+				throw new IOException("Column " + metaData.getColumnNames()[i]
+						+ " of type " + columnTypes[i].getName()
+						+ " cannot be written to a write-ahead log.");
+			}
+		}
+	}
+
+	/**
+	 * Write a row count and rows.
+	 *
+	 * @param out
+	 *            destination
+	 * @param rows
+	 *            rows
+	 * @throws IOException
+	 *             if problem writing
+	 * @throws CDataGridException
+	 *             if a value cannot be read or encoded
+	 */
+	void writeRows(DataOutputStream out, CDataRow[] rows) throws IOException,
+			CDataGridException {
+		out.writeInt(rows.length);
+		for (CDataRow row : rows) {
+			for (int col = 0; col < typeCodes.length; col++) {
+				writeValue(out, col, row.getValue(col));
+			}
+		}
+	}
+
+	/**
+	 * Read a row count and rows.
+	 *
+	 * @param in
+	 *            source
+	 * @return rows
+	 * @throws IOException
+	 *             if problem reading
+	 * @throws CDataGridException
+	 *             if a value cannot be decoded
+	 */
+	CDataRow[] readRows(DataInputStream in) throws IOException,
+			CDataGridException {
+		CDataRow[] rows = new CDataRow[in.readInt()];
+		for (int i = 0; i < rows.length; i++) {
+			Object[] values = new Object[typeCodes.length];
+			for (int col = 0; col < values.length; col++) {
+				values[col] = readValue(in, col);
+			}
+			rows[i] = new CDataRow(values);
+		}
+		return rows;
+	}
+
+	/**
+	 * Write a value.
+	 *
+	 * @param out
+	 *            destination
+	 * @param col
+	 *            column index
+	 * @param value
+	 *            value, may be {@code null}
+	 * @throws IOException
+	 *             if problem writing
+	 * @throws CDataGridException
+	 *             if the value cannot be encoded as the column's type
+	 */
+	void writeValue(DataOutputStream out, int col, Object value)
+			throws IOException, CDataGridException {
+		if (value == null) {
+			out.writeBoolean(true);
+			return;
+		}
+		out.writeBoolean(false);
+
+		int typeCode = typeCodes[col];
+		if (CRowLayout.isVariable(typeCode)) {
+			byte[] bytes = CRowLayout.encodeVariable(typeCode, value);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else {
+			CRowLayout.writeFixed(scratch, 0, typeCode, value);
+			out.write(scratch.array(), 0, CRowLayout.getSlotWidth(typeCode));
+		}
+	}
+
+	/**
+	 * Read a value.
+	 *
+	 * @param in
+	 *            source
+	 * @param col
+	 *            column index
+	 * @return value, may be {@code null}
+	 * @throws IOException
+	 *             if problem reading
+	 * @throws CDataGridException
+	 *             if the value cannot be decoded
+	 */
+	Object readValue(DataInputStream in, int col) throws IOException,
+			CDataGridException {
+		if (in.readBoolean()) {
+			return null;
+		}
+
+		int typeCode = typeCodes[col];
+		if (CRowLayout.isVariable(typeCode)) {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return CRowLayout.decodeVariable(typeCode, bytes, 0, bytes.length);
+		}
+		in.readFully(scratch.array(), 0, CRowLayout.getSlotWidth(typeCode));
+		return CRowLayout.readFixed(scratch, 0, typeCode);
+	}
+
+}
@@ -0,0 +1,30 @@
+package net.casper.io.wal;
+
+/**
+ * When a {@link CWriteAheadLog} forces logged records to disk in the
+ * background. Whatever the policy, {@link CWriteAheadLog#sync()} forces all
+ * records logged so far to disk before returning.
+ *
+ * @author agent
+ */
+public enum CWalSyncPolicy {
+
+	/**
+	 * Never force to disk in the background. Records are written to the
+	 * operating system every group commit, so they survive a crash of the
+	 * process but not of the machine.
+	 */
+	NEVER,
+
+	/**
+	 * Force to disk at most once every fsync interval. A machine crash loses
+	 * at most the records of the last interval.
+	 */
+	PERIODIC,
+
+	/**
+	 * Force to disk after every group commit.
+	 */
+	EVERY_GROUP
+
+}
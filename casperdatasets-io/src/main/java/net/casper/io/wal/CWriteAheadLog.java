@@ -0,0 +1,890 @@
+package net.casper.io.wal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataChangeListener;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.offheap.CRowLayout;
+import net.casper.io.snapshot.CExportSnapshot;
+import net.casper.io.snapshot.CSnapshot;
+
+/**
+ * An append-only write-ahead log that makes the changes to a
+ * {@link CDataCacheContainer} durable, eg:
+ *
+ * <pre>
+ * CWriteAheadLog log = new CWriteAheadLog(dir, CWalSyncPolicy.PERIODIC);
+ * CDataCacheContainer container = log.recover();
+ * if (container == null) {
+ * 	container = loadFromUpstream();
+ * }
+ * log.attach(container);
+ * </pre>
+ *
+ * Once attached, every add, remove, merge, column update and column type
+ * change made to the container is encoded and appended to an in-memory buffer while the
+ * container's update lock is held. A background thread writes the buffer to
+ * the current log segment every group commit interval, so many changes share
+ * one write and one fsync. Changes wait for the log only while they are
+ * encoded, or when the buffer holds more than the maximum pending bytes (see
+ * {@link #setMaxPendingBytes(int)}) and is written before the change
+ * continues. Reads that take the update lock, such as
+ * {@link CDataCacheContainer#getAllRows()}, wait for those changes too.
+ * Call {@link #sync()} to wait until all changes made so far are on disk.
+ * <p>
+ * A checkpoint writes the container to a snapshot (see {@link CSnapshot}) and
+ * starts a new log segment, after which older segments and checkpoints are
+ * deleted. Checkpoints can be taken periodically or by calling
+ * {@link #checkpoint()}. {@link #recover()} loads the latest checkpoint and
+ * replays the log segments written since. A record torn by a crash ends the
+ * replay of its segment.
+ * <p>
+ * The container must have a primary key, so removed rows can be found again
+ * when the log is replayed. Every log record sets the whole state of the rows
+ * it names, so records logged while a checkpoint is being written can safely
+ * be replayed over it. If a change cannot be encoded or the log has failed,
+ * the listener throws a {@link CDataRuntimeException} after the container
+ * has been changed.
+ *
+ * @author agent
+ */
+public class CWriteAheadLog implements CDataChangeListener {
+
+	/** Default group commit interval, in milliseconds. */
+	public static final long DEFAULT_GROUP_COMMIT_INTERVAL = 10;
+
+	/** Default fsync interval for {@link CWalSyncPolicy#PERIODIC}, in ms. */
+	public static final long DEFAULT_FSYNC_INTERVAL = 1000;
+
+	/** Default maximum size of changes logged but not yet written. */
+	public static final int DEFAULT_MAX_PENDING_BYTES = 1 << 22;
+
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CHECKPOINT_PREFIX = "checkpoint-";
+	private static final String CHECKPOINT_SUFFIX = ".cds";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/** Directory holding log segments and checkpoints. */
+	private final File directory;
+
+	/** Background fsync policy. */
+	private final CWalSyncPolicy policy;
+
+	private long groupCommitInterval = DEFAULT_GROUP_COMMIT_INTERVAL;
+	private long fsyncInterval = DEFAULT_FSYNC_INTERVAL;
+	private long checkpointInterval = 0;
+	private int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+	/** Container returned by the last {@link #recover()}. */
+	private CDataCacheContainer recovered;
+
+	/** Attached container, or {@code null} if not attached. */
+	private CDataCacheContainer container;
+
+	private CWalCodec codec;
+
+	private ScheduledExecutorService scheduler;
+
+	// guarded by this
+
+	/** Records logged but not yet written. */
+	private Buffer pending = new Buffer();
+
+	/** Empty buffer swapped with {@link #pending} when writing. */
+	private Buffer spare = new Buffer();
+
+	/** Payload of the record being logged. */
+	private final Buffer record = new Buffer();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+
+	/** Number of records logged since the log was created. */
+	private long appended;
+
+	/** Failure writing the log. Once set, no more records can be logged. */
+	private IOException failure;
+
+	// guarded by flushLock
+
+	private final Object flushLock = new Object();
+
+	/** Current log segment. */
+	private FileChannel channel;
+	private int segment;
+
+	/** Number of records written. */
+	private long written;
+
+	/** Number of records forced to disk. */
+	private long forced;
+
+	/** Time of the last force, in ms. */
+	private long lastForce;
+
+	/** Serialises checkpoints. */
+	private final Object checkpointLock = new Object();
+
+	/**
+	 * Create a log in {@code directory}.
+	 *
+	 * @param directory
+	 *            directory for log segments and checkpoints. Created if it
+	 *            does not exist.
+	 * @param policy
+	 *            when to force the log to disk in the background
+	 */
+	public CWriteAheadLog(File directory, CWalSyncPolicy policy) {
+		this.directory = directory;
+		this.policy = policy;
+	}
+
+	/**
+	 * Set how often logged changes are written to disk. Must be set before
+	 * {@link #attach(CDataCacheContainer)}.
+	 *
+	 * @param millis
+	 *            group commit interval in milliseconds
+	 */
+	public void setGroupCommitInterval(long millis) {
+		this.groupCommitInterval = millis;
+	}
+
+	/**
+	 * Set the minimum time between forces to disk for
+	 * {@link CWalSyncPolicy#PERIODIC}.
+	 *
+	 * @param millis
+	 *            fsync interval in milliseconds
+	 */
+	public void setFsyncInterval(long millis) {
+		this.fsyncInterval = millis;
+	}
+
+	/**
+	 * Set the maximum size of changes logged but not yet written. A change
+	 * made when more than this is pending first writes the pending changes
+	 * to the log segment, waiting for a group commit in progress, so memory
+	 * use is bounded however fast the container changes. Must be set before
+	 * {@link #attach(CDataCacheContainer)}.
+	 *
+	 * @param bytes
+	 *            maximum pending bytes
+	 */
+	public void setMaxPendingBytes(int bytes) {
+		this.maxPendingBytes = bytes;
+	}
+
+	/**
+	 * Set how often a checkpoint is taken in the background. Must be set
+	 * before {@link #attach(CDataCacheContainer)}.
+	 *
+	 * @param millis
+	 *            checkpoint interval in milliseconds, or {@code 0} to only
+	 *            checkpoint when {@link #checkpoint()} is called
+	 */
+	public void setCheckpointInterval(long millis) {
+		this.checkpointInterval = millis;
+	}
+
+	/**
+	 * Recover a container from the latest checkpoint and the log segments
+	 * written since. Pass the returned container to
+	 * {@link #attach(CDataCacheContainer)} to continue logging.
+	 *
+	 * @return recovered container, or {@code null} if there is no checkpoint
+	 * @throws IOException
+	 *             if problem reading the checkpoint or log
+	 */
+	public CDataCacheContainer recover() throws IOException {
+		List<Integer> checkpoints = list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+		if (checkpoints.isEmpty()) {
+			return null;
+		}
+		int checkpoint = checkpoints.get(checkpoints.size() - 1);
+
+		CDataCacheContainer recovering = CSnapshot
+				.load(checkpointFile(checkpoint));
+		CWalCodec replayCodec = new CWalCodec(recovering
+				.getMetaDefinition());
+		try {
+			for (int seg : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+				if (seg >= checkpoint) {
+					replay(segmentFile(seg), recovering, replayCodec);
+				}
+			}
+			recovering.updateIndices();
+		} catch (CDataGridException e) {
+			throw new IOException(e);
+		}
+
+		recovered = recovering;
+		return recovering;
+	}
+
+	/**
+	 * Replay the records of a log segment.
+	 *
+	 * @param file
+	 *            log segment
+	 * @param target
+	 *            container to apply records to
+	 * @param replayCodec
+	 *            codec for the container's columns
+	 * @throws IOException
+	 *             if problem reading the segment
+	 * @throws CDataGridException
+	 *             if a record cannot be applied
+	 */
+	private static void replay(File file, CDataCacheContainer target,
+			CWalCodec replayCodec) throws IOException, CDataGridException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != CWalCodec.MAGIC
+					|| in.readShort() != CWalCodec.VERSION) {
+				throw new IOException(file + " is not a write-ahead log");
+			}
+
+			long fileLength = file.length();
+			CRC32 check = new CRC32();
+			while (true) {
+				byte[] payload;
+				try {
+					int length = in.readInt();
+					int checksum = in.readInt();
+					if (length < 0 || length > fileLength) {
+						// torn record
+						break;
+					}
+					payload = new byte[length];
+					in.readFully(payload);
+					check.reset();
+					check.update(payload);
+					if ((int) check.getValue() != checksum) {
+						// torn record
+						break;
+					}
+				} catch (EOFException e) {
+					// end of segment, or torn record
+					break;
+				}
+				replayCodec = apply(payload, target, replayCodec);
+			}
+		} catch (EOFException e) {
+			// crashed before the segment header was written
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Apply a record to a container.
+	 *
+	 * @param payload
+	 *            record payload
+	 * @param target
+	 *            container
+	 * @param replayCodec
+	 *            codec for the container's columns
+	 * @return codec for the container's columns after the record, which is
+	 *         new if the record changed a column's type
+	 * @throws IOException
+	 *             if the record is corrupt
+	 * @throws CDataGridException
+	 *             if the record cannot be applied
+	 */
+	private static CWalCodec apply(byte[] payload, CDataCacheContainer target,
+			CWalCodec replayCodec) throws IOException, CDataGridException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				payload));
+		byte type = in.readByte();
+		switch (type) {
+		case CWalCodec.ROWS_ADDED:
+		case CWalCodec.ROWS_UPDATED:
+			target.addData(replayCodec.readRows(in), false);
+			break;
+		case CWalCodec.ROWS_REMOVED:
+			target.removeData(replayCodec.readRows(in), false);
+			break;
+		case CWalCodec.COLUMN_VALUE_SET:
+			int columnIndex = in.readInt();
+			target.setColumnValue(target.getMetaDefinition()
+					.getColumnNames()[columnIndex], replayCodec.readValue(in,
+					columnIndex));
+			break;
+		case CWalCodec.COLUMN_TYPE_CHANGED:
+			int changedIndex = in.readInt();
+			Class<?> columnType = CRowLayout.getTypeClass(in.readInt());
+			// the record holds every row, so clear the column while its type
+			// changes, then replace every row
+			target.setColumnValues(target.getMetaDefinition()
+					.getColumnNames()[changedIndex], columnType,
+					new Object[target.size()]);
+			CWalCodec changedCodec = new CWalCodec(target.getMetaDefinition());
+			target.addData(changedCodec.readRows(in), false);
+			return changedCodec;
+		default:
+			throw new IOException("Unknown write-ahead log record type "
+					+ type);
+		}
+		return replayCodec;
+	}
+
+	/**
+	 * Start logging changes to a container. A checkpoint is written first
+	 * unless {@code target} was returned by {@link #recover()}.
+	 *
+	 * @param target
+	 *            container to log. Must have a primary key.
+	 * @throws IOException
+	 *             if problem starting the log
+	 */
+	public void attach(CDataCacheContainer target) throws IOException {
+		if (container != null) {
+			throw new IOException("Write-ahead log is already attached.");
+		}
+		if (target.getMetaDefinition().getPrimaryKeyColumns() == null) {
+			throw new IOException("Container " + target.getCacheName()
+					+ " must have a primary key to be logged.");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		deleteTempFiles();
+
+		codec = new CWalCodec(target.getMetaDefinition());
+
+		// start a new segment after any existing segment or checkpoint
+		int next = 1;
+		List<Integer> segments = list(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+		if (!segments.isEmpty()) {
+			next = Math.max(next, segments.get(segments.size() - 1) + 1);
+		}
+		List<Integer> checkpoints = list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+		if (!checkpoints.isEmpty()) {
+			next = Math.max(next, checkpoints.get(checkpoints.size() - 1) + 1);
+		}
+		synchronized (flushLock) {
+			openSegment(next);
+		}
+
+		container = target;
+		target.addChangeListener(this);
+
+		if (target != recovered) {
+			// the log only holds changes made from now on
+			writeCheckpoint(next);
+		}
+		recovered = null;
+
+		scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "casper-wal-"
+						+ directory.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				groupCommit();
+			}
+		}, groupCommitInterval, groupCommitInterval, TimeUnit.MILLISECONDS);
+		if (checkpointInterval > 0) {
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						checkpoint();
+					} catch (IOException e) {
+						// retried at the next interval, the log still holds
+						// every change
+					}
+				}
+			}, checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Wait until all changes logged so far have been written and forced to
+	 * disk. Concurrent callers share writes and forces.
+	 *
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void sync() throws IOException {
+		flush(true);
+	}
+
+	/**
+	 * Write the container to a new checkpoint, then delete the log segments
+	 * and checkpoints it replaces. Changes can continue to be made to the
+	 * container while the checkpoint is written.
+	 *
+	 * @throws IOException
+	 *             if problem writing the checkpoint
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (checkpointLock) {
+			int next;
+			synchronized (flushLock) {
+				if (container == null) {
+					throw new IOException("Write-ahead log is not attached.");
+				}
+				flush(true);
+				channel.close();
+				next = segment + 1;
+				openSegment(next);
+			}
+			writeCheckpoint(next);
+		}
+	}
+
+	/**
+	 * Stop logging, and write and force all logged changes to disk.
+	 *
+	 * @throws IOException
+	 *             if problem writing the log
+	 */
+	public void close() throws IOException {
+		if (container == null) {
+			return;
+		}
+		container.removeChangeListener(this);
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (checkpointLock) {
+			synchronized (flushLock) {
+				try {
+					flush(true);
+				} finally {
+					channel.close();
+					container = null;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void rowsAdded(CDataCacheContainer source, CDataRow[] rows) {
+		awaitCapacity();
+		appendRows(CWalCodec.ROWS_ADDED, rows);
+	}
+
+	@Override
+	public void rowsRemoved(CDataCacheContainer source, CDataRow[] rows) {
+		awaitCapacity();
+		appendRows(CWalCodec.ROWS_REMOVED, rows);
+	}
+
+	@Override
+	public void rowsUpdated(CDataCacheContainer source, CDataRow[] rows) {
+		awaitCapacity();
+		appendRows(CWalCodec.ROWS_UPDATED, rows);
+	}
+
+	@Override
+	public void columnValueSet(CDataCacheContainer source, int columnIndex,
+			Object value) {
+		awaitCapacity();
+		appendValue(columnIndex, value);
+	}
+
+	@Override
+	public void columnTypeChanged(CDataCacheContainer source,
+			int columnIndex, CDataRow[] rows) {
+		awaitCapacity();
+		appendTypeChange(source, columnIndex, rows);
+	}
+
+	/**
+	 * Log a record of a column set to one value.
+	 *
+	 * @param columnIndex
+	 *            index of the column
+	 * @param value
+	 *            new value
+	 */
+	private synchronized void appendValue(int columnIndex, Object value) {
+		checkFailure();
+		try {
+			record.reset();
+			recordOut.writeByte(CWalCodec.COLUMN_VALUE_SET);
+			recordOut.writeInt(columnIndex);
+			codec.writeValue(recordOut, columnIndex, value);
+			appendRecord();
+		} catch (IOException e) {
+			throw new CDataRuntimeException(e);
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Log the new type of a column, and all rows, then encode later records
+	 * for the new type. If the new type cannot be logged the log fails, as
+	 * it can no longer follow the container.
+	 *
+	 * @param source
+	 *            container, with the new column type
+	 * @param columnIndex
+	 *            index of the column
+	 * @param rows
+	 *            all rows
+	 */
+	private synchronized void appendTypeChange(CDataCacheContainer source,
+			int columnIndex, CDataRow[] rows) {
+		checkFailure();
+		try {
+			CWalCodec changed;
+			try {
+				changed = new CWalCodec(source.getMetaDefinition());
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+			record.reset();
+			recordOut.writeByte(CWalCodec.COLUMN_TYPE_CHANGED);
+			recordOut.writeInt(columnIndex);
+			recordOut.writeInt(CRowLayout.getTypeCode(source
+					.getMetaDefinition().getColumnTypeCls(columnIndex)));
+			changed.writeRows(recordOut, rows);
+			appendRecord();
+			codec = changed;
+		} catch (IOException e) {
+			throw new CDataRuntimeException(e);
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Log a record of rows.
+	 *
+	 * @param type
+	 *            record type
+	 * @param rows
+	 *            rows
+	 */
+	private synchronized void appendRows(byte type, CDataRow[] rows) {
+		if (rows.length == 0) {
+			return;
+		}
+		checkFailure();
+		try {
+			record.reset();
+			recordOut.writeByte(type);
+			codec.writeRows(recordOut, rows);
+			appendRecord();
+		} catch (IOException e) {
+			throw new CDataRuntimeException(e);
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Frame the encoded record and add it to the pending buffer.
+	 *
+	 * @throws IOException
+	 *             never, as only memory is written
+	 */
+	private void appendRecord() throws IOException {
+		recordOut.flush();
+		crc.reset();
+		crc.update(record.array(), 0, record.size());
+		pending.writeInt(record.size());
+		pending.writeInt((int) crc.getValue());
+		record.writeTo(pending);
+		appended++;
+	}
+
+	/**
+	 * If more than the maximum pending bytes have been logged, write them
+	 * before logging another change. Called while the container's update
+	 * lock is held, so this waits for a group commit in progress rather than
+	 * for the next one, which could be held up by a checkpoint waiting for
+	 * the update lock.
+	 */
+	private void awaitCapacity() {
+		boolean full;
+		synchronized (this) {
+			full = pending.size() > maxPendingBytes;
+		}
+		if (full) {
+			try {
+				flush(false);
+			} catch (IOException e) {
+				// recorded in failure, and thrown when the change is logged
+			}
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new CDataRuntimeException("Write-ahead log in "
+					+ directory + " has failed", failure);
+		}
+	}
+
+	/**
+	 * Background group commit: write pending records and force them to disk
+	 * as required by the sync policy.
+	 */
+	private void groupCommit() {
+		synchronized (flushLock) {
+			boolean force = policy == CWalSyncPolicy.EVERY_GROUP
+					|| (policy == CWalSyncPolicy.PERIODIC && System
+							.currentTimeMillis()
+							- lastForce >= fsyncInterval);
+			try {
+				flush(force);
+			} catch (IOException e) {
+				// recorded in failure, and thrown to the next change or sync
+			}
+		}
+	}
+
+	/**
+	 * Write all pending records to the current segment.
+	 *
+	 * @param force
+	 *            if {@code true}, also force them to disk
+	 * @throws IOException
+	 *             if problem writing
+	 */
+	private void flush(boolean force) throws IOException {
+		synchronized (flushLock) {
+			if (channel == null || !channel.isOpen()) {
+				return;
+			}
+
+			Buffer toWrite;
+			long upTo;
+			synchronized (this) {
+				if (failure != null) {
+					throw failure;
+				}
+				toWrite = pending;
+				pending = spare;
+				upTo = appended;
+			}
+
+			try {
+				ByteBuffer bytes = ByteBuffer.wrap(toWrite.array(), 0, toWrite
+						.size());
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+				written = upTo;
+				if (force && forced < written) {
+					channel.force(false);
+					forced = written;
+					lastForce = System.currentTimeMillis();
+				}
+			} catch (IOException e) {
+				synchronized (this) {
+					failure = e;
+				}
+				throw e;
+			} finally {
+				toWrite.reset();
+				synchronized (this) {
+					spare = toWrite;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create and start writing to a new segment. Caller must hold
+	 * {@link #flushLock}.
+	 *
+	 * @param number
+	 *            segment number
+	 * @throws IOException
+	 *             if problem creating the segment
+	 */
+	private void openSegment(int number) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(segmentFile(number), "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+
+		ByteBuffer header = ByteBuffer.allocate(6);
+		header.putInt(CWalCodec.MAGIC);
+		header.putShort(CWalCodec.VERSION);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(true);
+
+		segment = number;
+	}
+
+	/**
+	 * Write the attached container to checkpoint {@code number}, then delete
+	 * older segments and checkpoints. The checkpoint is written to a
+	 * temporary file and renamed once on disk, so a crash never leaves a
+	 * partial checkpoint.
+	 *
+	 * @param number
+	 *            checkpoint number, the first segment not included in it
+	 * @throws IOException
+	 *             if problem writing the checkpoint
+	 */
+	private void writeCheckpoint(int number) throws IOException {
+		File dest = checkpointFile(number);
+		File temp = new File(directory, dest.getName() + TEMP_SUFFIX);
+
+		final FileOutputStream fos = new FileOutputStream(temp);
+		CExportSnapshot exporter = new CExportSnapshot(
+				new FilterOutputStream(fos) {
+					@Override
+					public void write(byte[] b, int off, int len)
+							throws IOException {
+						fos.write(b, off, len);
+					}
+
+					@Override
+					public void close() throws IOException {
+						flush();
+						fos.getFD().sync();
+						super.close();
+					}
+				}, false);
+		exporter.setIndexColumns(container.getIndexColumnNames());
+		try {
+			container.export(exporter);
+		} catch (CDataGridException e) {
+			temp.delete();
+			throw new IOException(e);
+		} catch (CDataRuntimeException e) {
+			temp.delete();
+			throw new IOException(e);
+		}
+
+		if (!temp.renameTo(dest)) {
+			temp.delete();
+			throw new IOException("Cannot rename " + temp + " to " + dest);
+		}
+
+		for (int old : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			if (old < number) {
+				segmentFile(old).delete();
+			}
+		}
+		for (int old : list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+			if (old < number) {
+				checkpointFile(old).delete();
+			}
+		}
+	}
+
+	/**
+	 * Delete checkpoints left incomplete by a crash.
+	 */
+	private void deleteTempFiles() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(CHECKPOINT_PREFIX)
+						&& file.getName().endsWith(TEMP_SUFFIX)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Numbers of the files in the directory with a given prefix and suffix.
+	 *
+	 * @param prefix
+	 *            file name prefix
+	 * @param suffix
+	 *            file name suffix
+	 * @return file numbers in ascending order
+	 */
+	private List<Integer> list(String prefix, String suffix) {
+		List<Integer> numbers = new ArrayList<Integer>();
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(prefix) && name.endsWith(suffix)) {
+					try {
+						numbers.add(Integer.valueOf(name.substring(prefix
+								.length(), name.length() - suffix.length())));
+					} catch (NumberFormatException e) {
+						// not one of ours
+					}
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	private File segmentFile(int number) {
+		return new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX,
+				number, SEGMENT_SUFFIX));
+	}
+
+	private File checkpointFile(int number) {
+		return new File(directory, String.format("%s%010d%s",
+				CHECKPOINT_PREFIX, number, CHECKPOINT_SUFFIX));
+	}
+
+	/**
+	 * A byte buffer that can be written to without copying.
+	 */
+	private static final class Buffer extends ByteArrayOutputStream {
+
+		Buffer() {
+			super(1 << 16);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+
+		void writeInt(int v) {
+			write(v >>> 24);
+			write(v >>> 16);
+			write(v >>> 8);
+			write(v);
+		}
+
+	}
+
+}
@@ -0,0 +1,7 @@
+/**
+ * Write-ahead logging and checkpointing, to make changes to casper datasets
+ * durable across restarts.
+ * 
+ * @author agent
+ */
+package net.casper.io.wal;
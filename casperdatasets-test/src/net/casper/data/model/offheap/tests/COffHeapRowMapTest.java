@@ -0,0 +1,428 @@
+package net.casper.data.model.offheap.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Map;
+
+import net.casper.data.model.CBuilder;
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CRowMetaData;
+import net.casper.data.model.offheap.COffHeapRowMap;
+import net.casper.data.model.offheap.CRowLayout;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class COffHeapRowMapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final Class[] ALL_TYPES = { Integer.class, Boolean.class,
+			Byte.class, Short.class, Character.class, Long.class, Float.class,
+			Double.class, String.class, Date.class, java.sql.Date.class,
+			Time.class, Timestamp.class, BigDecimal.class };
+
+	private static CRowMetaData allTypesMeta() throws CDataGridException {
+		String[] names = new String[ALL_TYPES.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "c" + i;
+		}
+		return new CRowMetaData(names, ALL_TYPES, new String[] { "c0" });
+	}
+
+	private static Object[] allTypesRow(int id) {
+		Timestamp ts = new Timestamp(1234567890123L);
+		ts.setNanos(123456789);
+		return new Object[] { id, Boolean.TRUE, (byte) -7, (short) 300, 'x',
+				Long.MIN_VALUE, 1.5f, -0.1, "caf\u00e9 \uD83D\uDE00",
+				new Date(1000000000000L), new java.sql.Date(86400000L),
+				new Time(3600000L), ts, new BigDecimal("-12345.678901234567890") };
+	}
+
+	private static CRowMetaData textMeta() throws CDataGridException {
+		return new CRowMetaData(new String[] { "id", "text" }, new Class[] {
+				Integer.class, String.class }, new String[] { "id" });
+	}
+
+	private static CRowMetaData fixedMeta() throws CDataGridException {
+		return new CRowMetaData(new String[] { "id", "value" }, new Class[] {
+				Integer.class, Double.class }, new String[] { "id" });
+	}
+
+	private static void assertRow(Object[] expected, CDataRow actual)
+			throws CDataGridException {
+		assertEquals(expected.length, actual.getNumberColumns());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("column " + i, expected[i], actual.getValue(i));
+		}
+	}
+
+	@Test
+	public void testLayoutRoundTripEveryType() throws CDataGridException {
+		Object[] values = allTypesRow(1);
+		ByteBuffer buf = ByteBuffer.allocate(16);
+
+		for (int i = 0; i < ALL_TYPES.length; i++) {
+			int typeCode = CRowLayout.getTypeCode(ALL_TYPES[i]);
+			assertEquals(ALL_TYPES[i], CRowLayout.getTypeClass(typeCode));
+
+			Object read;
+			if (CRowLayout.isVariable(typeCode)) {
+				byte[] bytes = CRowLayout.encodeVariable(typeCode, values[i]);
+				read = CRowLayout.decodeVariable(typeCode, bytes, 0,
+						bytes.length);
+			} else {
+				// write at an offset, so reads must use the position given
+				CRowLayout.writeFixed(buf, 3, typeCode, values[i]);
+				read = CRowLayout.readFixed(buf, 3, typeCode);
+			}
+			assertEquals(ALL_TYPES[i].getName(), values[i], read);
+			assertEquals(values[i].getClass(), read.getClass());
+		}
+
+		Timestamp ts = (Timestamp) values[12];
+		CRowLayout.writeFixed(buf, 0, CRowLayout.TYPE_TIMESTAMP, ts);
+		assertEquals(123456789, ((Timestamp) CRowLayout.readFixed(buf, 0,
+				CRowLayout.TYPE_TIMESTAMP)).getNanos());
+	}
+
+	@Test
+	public void testLayoutRejectsWrongType() {
+		try {
+			CRowLayout.writeFixed(ByteBuffer.allocate(8), 0,
+					CRowLayout.TYPE_INTEGER, 1.0);
+			fail("Double written to Integer slot");
+		} catch (CDataGridException e) {
+			// expected
+		}
+		try {
+			CRowLayout.encodeVariable(CRowLayout.TYPE_STRING, 1);
+			fail("Integer encoded as String");
+		} catch (CDataGridException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRoundTripEveryTypeAndNull() throws CDataGridException {
+		CRowMetaData meta = allTypesMeta();
+		COffHeapRowMap map = new COffHeapRowMap(meta);
+
+		Object[] values = allTypesRow(1);
+		Object[] nulls = new Object[ALL_TYPES.length];
+		nulls[0] = 2;
+		map.put(1, new CDataRow(values.clone()));
+		map.put(2, new CDataRow(nulls.clone()));
+
+		assertEquals(2, map.size());
+		assertRow(values, (CDataRow) map.get(1));
+		assertRow(nulls, (CDataRow) map.get(2));
+		assertEquals(123456789, ((Timestamp) ((CDataRow) map.get(1))
+				.getValue(12)).getNanos());
+
+		// set every value of one row to null and back through a view
+		CDataRow view = (CDataRow) map.get(1);
+		for (int i = 1; i < values.length; i++) {
+			view.setValue(i, null);
+		}
+		assertRow(new Object[] { 1, null, null, null, null, null, null, null,
+				null, null, null, null, null, null }, (CDataRow) map.get(1));
+		view.setRawData(values);
+		assertRow(values, (CDataRow) map.get(1));
+		map.close();
+	}
+
+	@Test
+	public void testContainer() throws CDataGridException {
+		CRowMetaData meta = allTypesMeta();
+		CDataCacheContainer container = new CDataCacheContainer("offheap",
+				meta, new COffHeapRowMap(meta));
+		container.addData(new CDataRow[] { new CDataRow(allTypesRow(1)),
+				new CDataRow(allTypesRow(2)) });
+
+		assertEquals(2, container.size());
+		assertRow(allTypesRow(2), container
+				.getPrimaryKeyMatches(new Object[] { 2 })[0]);
+	}
+
+	@Test
+	public void testContainerTypesNotWidened() {
+		// a builder that widens id from Integer to Long after reading rows
+		CBuilder builder = new CBuilder() {
+			private int read = 0;
+
+			public String getName() {
+				return "widened";
+			}
+
+			public String[] getColumnNames() {
+				return new String[] { "id", "value" };
+			}
+
+			public Class[] getColumnTypes() {
+				return new Class[] { (read > 2) ? Long.class : Integer.class,
+						Double.class };
+			}
+
+			public String[] getPrimaryKeyColumns() {
+				return new String[] { "id" };
+			}
+
+			public Map getConcreteMap() {
+				try {
+					return new COffHeapRowMap(fixedMeta());
+				} catch (CDataGridException e) {
+					throw new CDataRuntimeException(e);
+				}
+			}
+
+			public void open() {
+				read = 0;
+			}
+
+			public Object[] readRow() {
+				read++;
+				return (read > 2) ? null : new Object[] { read, read * 1.5 };
+			}
+
+			public void close() {
+				// nothing to close
+			}
+		};
+
+		try {
+			new CDataCacheContainer(builder);
+			fail("Changed the column types of rows stored off-heap");
+		} catch (CDataGridException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRemoveReusesSlot() throws CDataGridException {
+		COffHeapRowMap map = new COffHeapRowMap(fixedMeta());
+		for (int i = 1; i <= 3; i++) {
+			map.put(i, new CDataRow(new Object[] { i, i * 1.5 }));
+		}
+		long allocated = map.getAllocatedBytes();
+
+		CDataRow removed = (CDataRow) map.remove(2);
+		assertRow(new Object[] { 2, 3.0 }, removed);
+		assertNull(map.get(2));
+		assertNull(map.remove(2));
+		assertEquals(2, map.size());
+
+		map.put(4, new CDataRow(new Object[] { 4, 6.0 }));
+		assertEquals(allocated, map.getAllocatedBytes());
+		assertRow(new Object[] { 1, 1.5 }, (CDataRow) map.get(1));
+		assertRow(new Object[] { 3, 4.5 }, (CDataRow) map.get(3));
+		assertRow(new Object[] { 4, 6.0 }, (CDataRow) map.get(4));
+
+		// slots are exhausted, so the next row is appended
+		map.put(5, new CDataRow(new Object[] { 5, 7.5 }));
+		assertTrue(map.getAllocatedBytes() > allocated);
+		map.close();
+	}
+
+	@Test
+	public void testGrowVariableValue() throws CDataGridException {
+		COffHeapRowMap map = new COffHeapRowMap(textMeta());
+		map.put(1, new CDataRow(new Object[] { 1, "a" }));
+		map.put(2, new CDataRow(new Object[] { 2, "b" }));
+		long allocated = map.getAllocatedBytes();
+
+		StringBuffer longer = new StringBuffer();
+		for (int i = 0; i < 1000; i++) {
+			longer.append((char) ('a' + i % 26));
+		}
+
+		// through a view
+		CDataRow view = (CDataRow) map.get(1);
+		view.setValue(1, longer.toString());
+		assertEquals(longer.toString(), view.getValue(1));
+		assertEquals(longer.toString(), ((CDataRow) map.get(1)).getValue(1));
+		assertTrue(map.getAllocatedBytes() > allocated + 1000);
+
+		// by replacing the row
+		CDataRow previous = (CDataRow) map.put(2, new CDataRow(new Object[] {
+				2, longer.toString() + "!" }));
+		assertRow(new Object[] { 2, "b" }, previous);
+		assertEquals(longer.toString() + "!", ((CDataRow) map.get(2))
+				.getValue(1));
+
+		// shrinking again, and other rows unchanged
+		view.setValue(1, "c");
+		assertRow(new Object[] { 1, "c" }, (CDataRow) map.get(1));
+		assertRow(new Object[] { 2, longer.toString() + "!" }, (CDataRow) map
+				.get(2));
+		map.close();
+	}
+
+	@Test
+	public void testChurnReusesValueSpace() throws CDataGridException {
+		COffHeapRowMap map = new COffHeapRowMap(textMeta());
+		for (int i = 0; i < 100; i++) {
+			map.put(i, new CDataRow(new Object[] { i, "value " + i }));
+		}
+		long allocated = 0;
+
+		// replace, update, null and remove values many times over. A new
+		// value is written before the one it replaces is released, so the
+		// first round may grow storage by a block
+		for (int round = 0; round < 50; round++) {
+			if (round == 1) {
+				allocated = map.getAllocatedBytes();
+			}
+			for (int i = 0; i < 100; i++) {
+				map.put(i, new CDataRow(new Object[] { i,
+						"round " + round + " " + i }));
+			}
+			for (int i = 0; i < 100; i += 2) {
+				((CDataRow) map.get(i)).setValue(1, "set " + round);
+			}
+			for (int i = 0; i < 100; i += 3) {
+				((CDataRow) map.get(i)).setValue(1, null);
+			}
+			for (int i = 0; i < 100; i += 5) {
+				map.remove(i);
+				map.put(i, new CDataRow(new Object[] { i, "back " + i }));
+			}
+		}
+		assertEquals(allocated, map.getAllocatedBytes());
+
+		assertRow(new Object[] { 5, "back 5" }, (CDataRow) map.get(5));
+		assertRow(new Object[] { 3, null }, (CDataRow) map.get(3));
+		assertRow(new Object[] { 2, "set 49" }, (CDataRow) map.get(2));
+		assertRow(new Object[] { 7, "round 49 7" }, (CDataRow) map.get(7));
+		assertEquals(100, map.size());
+		map.close();
+	}
+
+	@Test
+	public void testViewOfRemovedRow() throws CDataGridException {
+		COffHeapRowMap map = new COffHeapRowMap(textMeta());
+		map.put(1, new CDataRow(new Object[] { 1, "one" }));
+		CDataRow view = (CDataRow) map.get(1);
+		map.remove(1);
+
+		try {
+			view.getValue(1);
+			fail("Read a removed row");
+		} catch (CDataGridException e) {
+			// expected
+		}
+
+		// a new row in the same slot is not visible through the old view
+		map.put(2, new CDataRow(new Object[] { 2, "two" }));
+		try {
+			view.getValue(0);
+			fail("Read a removed row after its slot was reused");
+		} catch (CDataGridException e) {
+			// expected
+		}
+		try {
+			view.setValue(1, "changed");
+			fail("Wrote a removed row after its slot was reused");
+		} catch (CDataGridException e) {
+			// expected
+		}
+		assertRow(new Object[] { 2, "two" }, (CDataRow) map.get(2));
+
+		// a view of a replaced row sees the new values
+		CDataRow view2 = (CDataRow) map.get(2);
+		map.put(2, new CDataRow(new Object[] { 2, "deux" }));
+		assertEquals("deux", view2.getValue(1));
+		map.close();
+	}
+
+	@Test
+	public void testReadWhileGrowing() throws Exception {
+		final COffHeapRowMap map = new COffHeapRowMap(fixedMeta());
+		map.put(0, new CDataRow(new Object[] { 0, 0.0 }));
+
+		// adding rows resizes the key map while another thread reads it
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					for (int i = 1; i <= 100000; i++) {
+						map.put(i, new CDataRow(new Object[] { i, i * 1.5 }));
+					}
+				} catch (CDataGridException e) {
+					throw new CDataRuntimeException(e);
+				}
+			}
+		};
+		writer.start();
+		while (writer.isAlive()) {
+			assertTrue(map.containsKey(0));
+			assertRow(new Object[] { 0, 0.0 }, (CDataRow) map.get(0));
+		}
+		writer.join();
+		assertEquals(100001, map.size());
+		map.close();
+	}
+
+	@Test
+	public void testRowsAtMappedSegmentBoundaries() throws Exception {
+		CRowMetaData meta = textMeta();
+		int rowSize = new CRowLayout(meta).getRowSize();
+		// room for a few rows per segment, with space left over at the end,
+		// so rows and values that would cross a boundary start the next
+		// segment
+		int segmentSize = rowSize * 3 + rowSize / 2 + 1;
+		COffHeapRowMap map = new COffHeapRowMap(meta, folder
+				.newFile("rows.bin"), segmentSize);
+
+		int rows = 200;
+		for (int i = 0; i < rows; i++) {
+			map.put(i, new CDataRow(new Object[] { i, text(i, segmentSize) }));
+		}
+
+		assertTrue(map.getAllocatedBytes() > (long) segmentSize * 10);
+		for (int i = 0; i < rows; i++) {
+			assertRow(new Object[] { i, text(i, segmentSize) },
+					(CDataRow) map.get(i));
+		}
+
+		// a value larger than a segment cannot be stored
+		StringBuffer tooLong = new StringBuffer();
+		for (int i = 0; i < segmentSize; i++) {
+			tooLong.append('z');
+		}
+		try {
+			((CDataRow) map.get(0)).setValue(1, tooLong.toString());
+			fail("Stored a value larger than a segment");
+		} catch (CDataGridException e) {
+			// expected
+		}
+		assertRow(new Object[] { 0, text(0, segmentSize) }, (CDataRow) map
+				.get(0));
+		map.close();
+	}
+
+	/**
+	 * Text of varying length, up to the largest that fits in a segment.
+	 */
+	private static String text(int i, int segmentSize) {
+		int length = (i * 7) % (segmentSize - 4);
+		StringBuffer text = new StringBuffer();
+		for (int j = 0; j < length; j++) {
+			text.append((char) ('a' + (i + j) % 26));
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,192 @@
+package net.casper.data.model.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CRowMetaData;
+
+import org.junit.Test;
+
+public class CDataCacheContainerForkTest {
+
+	private static final int ROWS = 1000;
+
+	private static CDataCacheContainer createContainer()
+			throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "group",
+				"value" }, new Class[] { Integer.class, String.class,
+				Double.class }, new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("values",
+				meta, new HashMap<Object, Object>());
+		CDataRow[] rows = new CDataRow[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			rows[i] = new CDataRow(new Object[] { i, "g" + (i % 10),
+					(double) i });
+		}
+		container.addData(rows);
+		container.addNonUniqueIndex("group");
+		return container;
+	}
+
+	private static Object value(CDataCacheContainer container, int id)
+			throws CDataGridException {
+		return container.getPrimaryKeyMatches(new Object[] { id })[0]
+				.getValue(2);
+	}
+
+	@Test
+	public void testForkSharesRows() throws CDataGridException {
+		CDataCacheContainer source = createContainer();
+		CDataCacheContainer fork1 = source.fork();
+		CDataCacheContainer fork2 = source.fork();
+
+		assertEquals(ROWS, fork1.size());
+		assertSame(source.getPrimaryKeyMatches(new Object[] { 5 })[0], fork1
+				.getPrimaryKeyMatches(new Object[] { 5 })[0]);
+		assertSame(fork1.getPrimaryKeyMatches(new Object[] { 5 })[0], fork2
+				.getPrimaryKeyMatches(new Object[] { 5 })[0]);
+		assertSame(source.getCacheIndexByColumnName("group"), fork1
+				.getCacheIndexByColumnName("group"));
+	}
+
+	@Test
+	public void testMergeCopiesOnlyChangedRows() throws CDataGridException {
+		CDataCacheContainer source = createContainer();
+		CDataCacheContainer fork = source.fork();
+
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "value" },
+				new Class[] { Integer.class, Double.class },
+				new String[] { "id" });
+		CDataRowSet changes = new CDataRowSet(meta);
+		changes.addData(new CDataRow[] { new CDataRow(new Object[] { 5,
+				-1.0 }) });
+		assertEquals(1, fork.merge(changes, new String[] { "id" }));
+
+		assertEquals(-1.0, value(fork, 5));
+		assertEquals(5.0, value(source, 5));
+		assertNotSame(source.getPrimaryKeyMatches(new Object[] { 5 })[0],
+				fork.getPrimaryKeyMatches(new Object[] { 5 })[0]);
+		assertSame(source.getPrimaryKeyMatches(new Object[] { 6 })[0], fork
+				.getPrimaryKeyMatches(new Object[] { 6 })[0]);
+	}
+
+	@Test
+	public void testSetColumnValues() throws CDataGridException {
+		CDataCacheContainer source = createContainer();
+		CDataCacheContainer fork = source.fork();
+
+		CDataRow[] rows = fork.getAllRows();
+		Object[] values = new Object[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			values[i] = "h" + rows[i].getValue(0);
+		}
+		fork.setColumnValues("group", values);
+
+		// indices are rebuilt for the fork, and unchanged for the source
+		assertEquals(1, fork.get("group", new Object[] { "h7" })
+				.getNumberRows());
+		assertEquals(0, fork.get("group", new Object[] { "g7" })
+				.getNumberRows());
+		assertEquals(ROWS / 10, source.get("group", new Object[] { "g7" })
+				.getNumberRows());
+		assertEquals("g7", source.getPrimaryKeyMatches(new Object[] { 7 })[0]
+				.getValue(1));
+	}
+
+	@Test
+	public void testAddAndRemove() throws CDataGridException {
+		CDataCacheContainer source = createContainer();
+		CDataCacheContainer fork = source.fork();
+
+		fork.addSingleRow(new Object[] { ROWS, "g0", 0.0 });
+		fork.addSingleRow(new Object[] { 0, "g0", -1.0 });
+		source.removeData("id", new Object[] { 1, 2 }, true);
+
+		assertEquals(ROWS + 1, fork.size());
+		assertEquals(ROWS - 2, source.size());
+		assertEquals(-1.0, value(fork, 0));
+		assertEquals(0.0, value(source, 0));
+		assertEquals(ROWS + 1, fork.getAllRows().length);
+
+		fork.updateIndices();
+		assertEquals(ROWS / 10 + 1, fork.get("group", new Object[] { "g0" })
+				.getNumberRows());
+		assertEquals(ROWS / 10, source.get("group", new Object[] { "g0" })
+				.getNumberRows());
+		assertEquals(ROWS / 10 - 1, source.get("group",
+				new Object[] { "g1" }).getNumberRows());
+	}
+
+	@Test
+	public void testForkOfChangedFork() throws CDataGridException {
+		CDataCacheContainer source = createContainer();
+		CDataCacheContainer fork = source.fork();
+		fork.removeData("id", new Object[] { 3 }, true);
+
+		CDataCacheContainer forkOfFork = fork.fork();
+		forkOfFork.addSingleRow(new Object[] { 3, "g3", 3.0 });
+		fork.addSingleRow(new Object[] { 4, "g4", -4.0 });
+
+		assertEquals(ROWS, source.size());
+		assertEquals(ROWS - 1, fork.size());
+		assertEquals(ROWS, forkOfFork.size());
+		assertEquals(-4.0, value(fork, 4));
+		assertEquals(4.0, value(forkOfFork, 4));
+		assertEquals(4.0, value(source, 4));
+	}
+
+	@Test
+	public void testForkWithoutPrimaryKey() throws CDataGridException {
+		CDataCacheContainer source = CDataCacheContainer.newInsertionOrdered(
+				"letters", "letter,count", new Class[] { String.class,
+						Integer.class });
+		for (int i = 0; i < 26; i++) {
+			source.addSingleRow(new Object[] {
+					String.valueOf((char) ('A' + i)), i });
+		}
+		CDataCacheContainer fork = source.fork();
+
+		Object[] counts = new Object[26];
+		for (int i = 0; i < 26; i++) {
+			counts[i] = i * 100;
+		}
+		fork.setColumnValues("count", counts);
+		fork.addSingleRow(new Object[] { "!", 26 });
+
+		// rows stay in insertion order, with added rows last
+		CDataRow[] forkRows = fork.getAllRows();
+		CDataRow[] sourceRows = source.getAllRows();
+		assertEquals(27, forkRows.length);
+		assertEquals(200, forkRows[2].getValue(1));
+		assertEquals(2, sourceRows[2].getValue(1));
+		assertEquals("!", forkRows[26].getValue(0));
+	}
+
+	@Test
+	public void testSerializeFork() throws Exception {
+		CDataCacheContainer fork = createContainer().fork();
+		fork.removeData("id", new Object[] { 0 }, true);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(fork);
+		out.close();
+		CDataCacheContainer read = (CDataCacheContainer) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+		assertEquals(ROWS - 1, read.size());
+		assertEquals(9.0, value(read, 9));
+	}
+
+}
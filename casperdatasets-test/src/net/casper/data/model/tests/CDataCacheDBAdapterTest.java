@@ -0,0 +1,118 @@
+package net.casper.data.model.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataCacheDBAdapter;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CRowMetaData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CDataCacheDBAdapterTest {
+
+	private static final int ROWS = 25000;
+
+	private Connection connection;
+
+	@Before
+	public void createTable() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:hsqldb:mem:adapter",
+				"SA", "");
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE people (id INTEGER PRIMARY KEY, "
+				+ "name VARCHAR(20), weight DOUBLE, born DATE)");
+		statement.close();
+
+		PreparedStatement insert = connection
+				.prepareStatement("INSERT INTO people VALUES (?, ?, ?, ?)");
+		for (int i = 0; i < ROWS; i++) {
+			insert.setInt(1, i);
+			insert.setString(2, (i % 10 == 0) ? null : "person " + i);
+			insert.setDouble(3, i * 1.5);
+			insert.setDate(4, new java.sql.Date(86400000L * (i % 1000)));
+			insert.addBatch();
+		}
+		insert.executeBatch();
+		insert.close();
+	}
+
+	@After
+	public void dropTable() throws SQLException {
+		Statement statement = connection.createStatement();
+		statement.execute("DROP TABLE people");
+		statement.close();
+		connection.close();
+	}
+
+	private ResultSet query(String sql) throws SQLException {
+		return connection.createStatement().executeQuery(sql);
+	}
+
+	@Test
+	public void testLoadData() throws SQLException, CDataGridException {
+		CDataCacheContainer people = CDataCacheDBAdapter.loadData(
+				query("SELECT * FROM people"), "people", new String[] { "ID" },
+				new HashMap<Object, Object>());
+
+		assertEquals(ROWS, people.size());
+		assertArrayEquals(new Class[] { Integer.class, String.class,
+				Double.class, java.util.Date.class }, people
+				.getMetaDefinition().getColumnTypes());
+
+		CDataRow row = people.getPrimaryKeyMatches(new Object[] { 12345 })[0];
+		assertEquals("person 12345", row.getValue(1));
+		assertEquals(12345 * 1.5, row.getValue(2));
+		assertNull(people.getPrimaryKeyMatches(new Object[] { 20 })[0]
+				.getValue(1));
+	}
+
+	@Test
+	public void testLoadSelectedColumns() throws SQLException,
+			CDataGridException {
+		CDataCacheContainer people = CDataCacheDBAdapter.loadData(
+				query("SELECT id, name FROM people"), "people", new String[] {
+						"NAME", "ID" }, new String[] { "ID" },
+				new HashMap<Object, Object>());
+
+		assertEquals(ROWS, people.size());
+		CDataRow row = people.getPrimaryKeyMatches(new Object[] { 7 })[0];
+		assertArrayEquals(new Object[] { "person 7", 7 }, row
+				.getRawData());
+	}
+
+	@Test
+	public void testLoadIntoContainer() throws SQLException,
+			CDataGridException {
+		CDataCacheContainer people = new CDataCacheContainer("people",
+				new CRowMetaData(new String[] { "ID", "WEIGHT" }, new Class[] {
+						Long.class, Double.class }, new String[] { "ID" }));
+		people.addNonUniqueIndex("WEIGHT");
+
+		assertEquals(100, CDataCacheDBAdapter.loadData(
+				query("SELECT id, weight FROM people WHERE id < 100"), people,
+				true));
+		assertEquals(ROWS - 100, CDataCacheDBAdapter.loadData(
+				query("SELECT id, weight FROM people WHERE id >= 100"),
+				people, true));
+
+		assertEquals(ROWS, people.size());
+		assertEquals(Long.valueOf(ROWS - 1), people.getPrimaryKeyMatches(
+				new Object[] { Long.valueOf(ROWS - 1) })[0].getValue(0));
+		assertEquals(1, people.get("WEIGHT", new Object[] { 150.0 }).size());
+	}
+
+}
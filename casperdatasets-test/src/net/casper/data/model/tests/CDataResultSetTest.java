@@ -0,0 +1,115 @@
+package net.casper.data.model.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataResultSet;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CRowMetaData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CDataResultSetTest {
+
+	private static final Date WHEN = new Date(1300000000000L);
+
+	private CDataResultSet rs;
+
+	@Before
+	public void setUp() throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "name",
+				"amount", "price", "created", "data" }, new Class[] {
+				Integer.class, String.class, Double.class, BigDecimal.class,
+				Date.class, byte[].class }, new String[] { "id" });
+		CDataRowSet rowset = new CDataRowSet(meta);
+		rowset.addData(new CDataRow[] {
+				new CDataRow(new Object[] { 1, "one", 1.5,
+						new BigDecimal("10.25"), WHEN, new byte[] { 1, 2 } }),
+				new CDataRow(new Object[] { 2, "2", null, null, null, null }) });
+		rs = new CDataResultSet(rowset);
+	}
+
+	@Test
+	public void testTypedAccessors() throws SQLException {
+		assertTrue(rs.next());
+		assertEquals(1, rs.getInt(1));
+		assertEquals(1L, rs.getLong("id"));
+		assertEquals("one", rs.getString("name"));
+		assertEquals(1.5, rs.getDouble(3), 0);
+		assertEquals(1, rs.getInt("amount"));
+		assertEquals("1", rs.getString(1));
+		assertEquals(WHEN.getTime(), rs.getDate(5).getTime());
+		assertEquals(new Timestamp(WHEN.getTime()), rs.getTimestamp("created"));
+
+		assertTrue(rs.next());
+		assertEquals(2, rs.getInt("name"));
+	}
+
+	@Test
+	public void testWasNull() throws SQLException {
+		rs.next();
+		rs.getDouble(3);
+		assertFalse(rs.wasNull());
+
+		rs.next();
+		assertEquals(0, rs.getDouble(3), 0);
+		assertTrue(rs.wasNull());
+		assertNull(rs.getDate(5));
+		assertTrue(rs.wasNull());
+		assertNull(rs.getBigDecimal(4));
+		assertEquals(2, rs.getInt(1));
+		assertFalse(rs.wasNull());
+	}
+
+	@Test
+	public void testBigDecimal() throws SQLException {
+		rs.next();
+		assertEquals(new BigDecimal("10.25"), rs.getBigDecimal(4));
+		assertEquals(new BigDecimal("10.3"), rs.getBigDecimal("price", 1));
+		assertEquals(new BigDecimal("1.5"), rs.getBigDecimal(3));
+		assertEquals(BigDecimal.valueOf(1), rs.getBigDecimal("id"));
+	}
+
+	@Test
+	public void testBytes() throws SQLException, IOException {
+		rs.next();
+		byte[] bytes = rs.getBytes("data");
+		assertArrayEquals(new byte[] { 1, 2 }, bytes);
+
+		// changing the returned bytes does not change the stored value
+		bytes[0] = 9;
+		assertArrayEquals(new byte[] { 1, 2 }, rs.getBytes(6));
+		assertEquals(1, rs.getBinaryStream(6).read());
+	}
+
+	@Test
+	public void testFindColumn() throws SQLException {
+		assertEquals(2, rs.findColumn("name"));
+		assertEquals(2, rs.findColumn("NAME"));
+		assertEquals(2, rs.findColumn("name"));
+	}
+
+	@Test(expected = SQLException.class)
+	public void testFindMissingColumn() throws SQLException {
+		rs.findColumn("missing");
+	}
+
+	@Test(expected = SQLException.class)
+	public void testInvalidColumnIndex() throws SQLException {
+		rs.next();
+		rs.getInt(7);
+	}
+
+}
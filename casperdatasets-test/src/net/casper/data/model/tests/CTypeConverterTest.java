@@ -0,0 +1,90 @@
+package net.casper.data.model.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CMarkedUpRow;
+import net.casper.data.model.CRowMetaData;
+import net.casper.data.model.CTypeConverter;
+import net.casper.data.model.CTypes;
+
+import org.junit.Test;
+
+public class CTypeConverterTest {
+
+	@Test
+	public void testIdentity() throws CDataGridException {
+		Integer value = new Integer(12345);
+		assertSame(value, CTypeConverter.getConverter(Integer.class,
+				CTypes.INTEGER).convert(value));
+
+		Date date = new Date();
+		assertSame(date, CTypeConverter.getConverter(Date.class, CTypes.DATE)
+				.convert(date));
+	}
+
+	@Test
+	public void testNumbers() throws CDataGridException {
+		CTypeConverter converter = CTypeConverter.getConverter(Double.class,
+				CTypes.INTEGER);
+		assertEquals(Integer.valueOf(2), converter.convert(2.7));
+		assertEquals(2, converter.getIntValue(2.7));
+		assertEquals(2.7, converter.getDoubleValue(2.7), 0);
+		assertEquals("2.5", CTypeConverter.getConverter(Double.class,
+				CTypes.STRING).convert(2.5));
+	}
+
+	@Test
+	public void testFallback() throws CDataGridException {
+		// values not of the column type are converted as before
+		CTypeConverter converter = CTypeConverter.getConverter(Integer.class,
+				CTypes.INTEGER);
+		assertEquals(Integer.valueOf(42), converter.convert("42"));
+		assertEquals(42, converter.getIntValue("42"));
+		assertEquals(1, converter.getIntValue(Boolean.TRUE));
+		assertTrue(converter.getBooleanValue(1));
+		assertNull(converter.convert(null));
+		assertEquals(0, converter.getLongValue(null));
+		assertFalse(converter.getBooleanValue(null));
+	}
+
+	@Test
+	public void testCached() throws CDataGridException {
+		assertSame(CTypeConverter.getConverter(Long.class, CTypes.DOUBLE),
+				CTypeConverter.getConverter(Long.class, CTypes.DOUBLE));
+
+		CRowMetaData meta = new CRowMetaData(new String[] { "a", "b" },
+				new Class[] { Long.class, String.class }, null);
+		assertSame(meta.getConverter(0, CTypes.DOUBLE), meta.getConverter(0,
+				CTypes.DOUBLE));
+		assertEquals(String.class, meta.getConverter(1, CTypes.INTEGER)
+				.getSourceType());
+
+		meta.addColumns(new String[] { "c" }, new Class[] { Integer.class });
+		assertEquals(Integer.class, meta.getConverter(2, CTypes.INTEGER)
+				.getSourceType());
+	}
+
+	@Test
+	public void testMarkedUpRow() throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "amount" },
+				new Class[] { Integer.class, Double.class }, null);
+		Integer id = new Integer(7);
+		CMarkedUpRow row = new CMarkedUpRow(new CDataRow(new Object[] { id,
+				null }), meta);
+
+		assertSame(id, row.getInt("id"));
+		assertEquals(7.0, row.getDouble(0), 0);
+		assertEquals(7L, row.getLongValue("id"));
+		assertNull(row.getDouble("amount"));
+		assertEquals(0, row.getDoubleValue("amount"), 0);
+	}
+
+}
@@ -0,0 +1,97 @@
+package net.casper.ext.map.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import net.casper.ext.map.CIntDoubleMap;
+import net.casper.ext.map.CLongLongMap;
+import net.casper.ext.map.CObjectIntMap;
+
+import org.junit.Test;
+
+public class CPrimitiveMapsTest {
+
+	// enough to grow the default sized tables many times
+	private static final int ENTRIES = 100000;
+
+	@Test
+	public void testIntDoubleMapGrows() {
+		CIntDoubleMap map = new CIntDoubleMap();
+		// multiples of a large power of two, which share their low bits
+		for (int i = 0; i < ENTRIES; i++) {
+			map.put(i << 12, i * 0.5);
+		}
+
+		assertEquals(ENTRIES, map.size());
+		for (int i = 0; i < ENTRIES; i++) {
+			assertEquals(i * 0.5, map.get(i << 12), 0);
+		}
+		assertFalse(map.containsKey(1));
+		assertEquals(-1, map.get(1, -1), 0);
+
+		int[] keys = map.keys();
+		Arrays.sort(keys);
+		assertEquals(ENTRIES, keys.length);
+		assertEquals((ENTRIES - 1) << 12, keys[ENTRIES - 1]);
+	}
+
+	@Test
+	public void testIntDoubleMapReplace() {
+		CIntDoubleMap map = new CIntDoubleMap(2);
+		map.put(0, 1);
+		map.put(0, 2);
+		map.put(-1, 3);
+
+		assertEquals(2, map.size());
+		assertEquals(2, map.get(0), 0);
+		assertEquals(3, map.get(-1), 0);
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testIntDoubleMapMissing() {
+		new CIntDoubleMap().get(0);
+	}
+
+	@Test
+	public void testLongLongMap() {
+		CLongLongMap map = new CLongLongMap(ENTRIES);
+		for (long i = 0; i < ENTRIES; i++) {
+			map.put(i << 32, -i);
+		}
+
+		assertEquals(ENTRIES, map.size());
+		for (long i = 0; i < ENTRIES; i++) {
+			assertEquals(-i, map.get(i << 32));
+		}
+		assertTrue(map.containsKey(0));
+		assertFalse(map.containsKey(1));
+		assertEquals(ENTRIES, map.keys().length);
+	}
+
+	@Test
+	public void testObjectIntMap() {
+		CObjectIntMap<String> map = new CObjectIntMap<String>();
+		for (int i = 0; i < ENTRIES; i++) {
+			map.put("key" + i, i);
+		}
+		map.put("key0", -1);
+
+		assertEquals(ENTRIES, map.size());
+		assertEquals(-1, map.get("key0"));
+		for (int i = 1; i < ENTRIES; i++) {
+			assertEquals(i, map.get("key" + i));
+		}
+		assertFalse(map.containsKey(null));
+		assertEquals(7, map.get("missing", 7));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testObjectIntMapNullKey() {
+		new CObjectIntMap<String>().put(null, 0);
+	}
+
+}
@@ -0,0 +1,256 @@
+package net.casper.ext.swing.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CRowMetaData;
+import net.casper.ext.swing.CDatasetTableModel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CDatasetTableModelTest {
+
+	private static final int ROWS = 1000;
+
+	private CDataCacheContainer container;
+
+	private CDatasetTableModel model;
+
+	private final List<TableModelEvent> events =
+			new ArrayList<TableModelEvent>();
+
+	@Before
+	public void setUp() throws Exception {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "value" },
+				new Class[] { String.class, Integer.class },
+				new String[] { "id" });
+		container = new CDataCacheContainer("values", meta);
+		CDataRow[] rows = new CDataRow[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			rows[i] = new CDataRow(new Object[] { id(i), i });
+		}
+		container.addData(rows);
+
+		model = new CDatasetTableModel(container, true, true, true);
+		waitForSort();
+		model.addTableModelListener(new TableModelListener() {
+			@Override
+			public void tableChanged(TableModelEvent e) {
+				events.add(e);
+			}
+		});
+	}
+
+	private static String id(int i) {
+		return String.format("k%04d", i);
+	}
+
+	/**
+	 * Run queued events, until the model has finished sorting.
+	 */
+	private void waitForSort() throws Exception {
+		final boolean[] sorted = new boolean[1];
+		while (!sorted[0]) {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					sorted[0] = model.isSorted();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Run queued events, so container changes reach the model.
+	 */
+	private static void flush() throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+	}
+
+	private static void assertEvent(TableModelEvent e, int type, int first,
+			int last) {
+		assertEquals(type, e.getType());
+		assertEquals(first, e.getFirstRow());
+		assertEquals(last, e.getLastRow());
+	}
+
+	@Test
+	public void testSortedView() throws Exception {
+		assertEquals(ROWS, model.getRowCount());
+		assertEquals(id(0), model.getValueAt(0, 0));
+		assertEquals(id(ROWS - 1), model.getValueAt(ROWS - 1, 0));
+
+		model.sortByColumns(new String[] { "value" }, false);
+		waitForSort();
+		assertEquals(ROWS - 1, model.getValueAt(0, 1));
+		assertEquals(0, model.getValueAt(ROWS - 1, 1));
+
+		model.sortByColumns(null, true);
+		assertTrue(model.isSorted());
+		assertEquals(ROWS, model.getRowCount());
+	}
+
+	@Test
+	public void testUpdatesFireRowRanges() throws Exception {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "value" },
+				new Class[] { String.class, Integer.class },
+				new String[] { "id" });
+		CDataRowSet changes = new CDataRowSet(meta);
+		changes.addData(new CDataRow[] {
+				new CDataRow(new Object[] { id(10), -10 }),
+				new CDataRow(new Object[] { id(11), -11 }),
+				new CDataRow(new Object[] { id(500), -500 }) });
+		container.merge(changes, new String[] { "id" });
+		flush();
+
+		assertEquals(2, events.size());
+		assertEvent(events.get(0), TableModelEvent.UPDATE, 500, 500);
+		assertEvent(events.get(1), TableModelEvent.UPDATE, 10, 11);
+		assertEquals(-11, model.getValueAt(11, 1));
+		assertEquals(-500, model.getValueAt(500, 1));
+		assertTrue(model.isSorted());
+	}
+
+	@Test
+	public void testAddAndRemove() throws Exception {
+		container.addSingleRow(new Object[] { "a", -1 });
+		container.addSingleRow(new Object[] { id(5), -5 });
+		flush();
+
+		assertEvent(events.get(0), TableModelEvent.INSERT, ROWS, ROWS);
+		assertEvent(events.get(1), TableModelEvent.UPDATE, 5, 5);
+		assertEquals(ROWS + 1, model.getRowCount());
+		assertEquals("a", model.getValueAt(ROWS, 0));
+		assertFalse(model.isSorted());
+
+		events.clear();
+		container.removeData("id", new Object[] { id(1), id(2), id(7) }, true);
+		flush();
+
+		assertEquals(2, events.size());
+		assertEvent(events.get(0), TableModelEvent.DELETE, 7, 7);
+		assertEvent(events.get(1), TableModelEvent.DELETE, 1, 2);
+		assertEquals(ROWS - 2, model.getRowCount());
+		assertEquals(id(3), model.getValueAt(1, 0));
+		assertEquals(-5, model.getValueAt(3, 1));
+	}
+
+	@Test
+	public void testEditKeptInModel() throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				assertTrue(model.isCellEditable(3, 0));
+				assertTrue(model.isCellEditable(3, 1));
+				model.setValueAt(33, 3, 1);
+			}
+		});
+
+		assertEquals(1, events.size());
+		assertEvent(events.get(0), TableModelEvent.UPDATE, 3, 3);
+		assertEquals(33, model.getValueAt(3, 1));
+		assertEquals(3, container.getPrimaryKeyMatches(
+				new Object[] { id(3) })[0].getValue(1));
+
+		// the edit is kept when rows are sorted again
+		model.sortByColumns(new String[] { "id" }, false);
+		waitForSort();
+		assertEquals(33, model.getValueAt(ROWS - 4, 1));
+
+		CDataCacheContainer copy = model.getContainer();
+		assertEquals(ROWS, copy.size());
+		assertEquals(33, copy.getPrimaryKeyMatches(new Object[] { id(3) })[0]
+				.getValue(1));
+		assertEquals(4, copy.getPrimaryKeyMatches(new Object[] { id(4) })[0]
+				.getValue(1));
+	}
+
+	@Test
+	public void testEditWithoutPrimaryKey() throws Exception {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "value" },
+				new Class[] { String.class, Integer.class }, null);
+		CDataCacheContainer keyless = new CDataCacheContainer("keyless", meta);
+		keyless.addSingleRow(new Object[] { "a", 1 });
+		keyless.addSingleRow(new Object[] { "b", 2 });
+		final CDatasetTableModel keylessModel =
+				new CDatasetTableModel(keyless, true, true, true);
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				assertTrue(keylessModel.isCellEditable(1, 1));
+				keylessModel.setValueAt(20, 1, 1);
+			}
+		});
+
+		assertEquals(20, keylessModel.getValueAt(1, 1));
+		assertEquals(2, keyless.getAllRows()[1].getValue(1));
+		assertEquals(20, keylessModel.getContainer().getAllRows()[1]
+				.getValue(1));
+
+		// removed rows take their edits with them
+		keyless.removeAll();
+		flush();
+		assertEquals(0, keylessModel.getRowCount());
+		assertEquals(0, keylessModel.getContainer().size());
+
+		try {
+			keylessModel.setWriteThrough(true);
+			fail("Merged edits into a dataset without a primary key");
+		} catch (CDataGridException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testEditMergesIntoContainer() throws Exception {
+		model.setWriteThrough(true);
+		final CDataCacheContainer copy = model.getContainer();
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				assertFalse(model.isCellEditable(3, 0));
+				assertTrue(model.isCellEditable(3, 1));
+				model.setValueAt(33, 3, 1);
+			}
+		});
+
+		assertEquals(1, events.size());
+		assertEvent(events.get(0), TableModelEvent.UPDATE, 3, 3);
+		assertEquals(33, model.getValueAt(3, 1));
+		assertEquals(33, container.getPrimaryKeyMatches(
+				new Object[] { id(3) })[0].getValue(1));
+		assertEquals(3, copy.getPrimaryKeyMatches(new Object[] { id(3) })[0]
+				.getValue(1));
+	}
+
+	@Test
+	public void testDispose() throws Exception {
+		model.dispose();
+		container.addSingleRow(new Object[] { "a", -1 });
+		flush();
+
+		assertEquals(0, events.size());
+		assertEquals(ROWS, model.getRowCount());
+	}
+
+}
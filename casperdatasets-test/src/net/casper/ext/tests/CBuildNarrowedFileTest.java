@@ -1,5 +1,8 @@
 package net.casper.ext.tests;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
 import java.io.File;
 import java.io.IOException;
 
@@ -65,4 +68,19 @@ public class CBuildNarrowedFileTest {
 
 	}
 
+	@Test
+	public void testCBuildNarrowedFromCSVParallel() throws IOException,
+			CDataGridException {
+		CDataCacheContainer sequential = new CDataCacheContainer(
+				new CBuildNarrowedFile(patientsCSV, "refnum,crefnum"));
+		CDataCacheContainer parallel = new CDataCacheContainer(
+				new CBuildNarrowedFile(patientsCSV, "refnum,crefnum")
+						.setThreads(4));
+
+		assertArrayEquals(sequential.getMetaDefinition().getColumnTypes(),
+				parallel.getMetaDefinition().getColumnTypes());
+		assertEquals(sequential.getAll().toString(), parallel.getAll()
+				.toString());
+	}
+
 }
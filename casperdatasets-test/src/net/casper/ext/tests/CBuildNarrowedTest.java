@@ -0,0 +1,85 @@
+package net.casper.ext.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CRowMetaData;
+import net.casper.ext.narrow.CBuildNarrowed;
+
+import org.junit.Test;
+
+public class CBuildNarrowedTest {
+
+	private static final int ROWS = 20000;
+
+	private static CDataCacheContainer createStrings()
+			throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "amount",
+				"name" }, new Class[] { String.class, String.class,
+				String.class }, new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("strings",
+				meta, new HashMap<Object, Object>());
+		for (int i = 0; i < ROWS; i++) {
+			container.addSingleRow(new Object[] { Integer.toString(i),
+					Double.toString(i + 0.5), "n" + i });
+		}
+		return container;
+	}
+
+	private static void assertNarrowed(CDataCacheContainer narrowed)
+			throws CDataGridException {
+		assertEquals(ROWS, narrowed.size());
+		assertArrayEquals(new Class[] { Integer.class, Double.class,
+				String.class }, narrowed.getMetaDefinition().getColumnTypes());
+
+		CDataRowSet rowset = narrowed.getAll();
+		int i = 0;
+		while (rowset.next()) {
+			assertEquals(Integer.valueOf(i), rowset.getInt("id"));
+			assertEquals(i + 0.5, rowset.getDouble("amount"), 0);
+			assertEquals("n" + i, rowset.getString("name"));
+			i++;
+		}
+		assertEquals(ROWS, i);
+	}
+
+	@Test
+	public void testNarrowContainer() throws CDataGridException {
+		CDataCacheContainer source = createStrings();
+		assertNarrowed(new CDataCacheContainer(new CBuildNarrowed(source)));
+
+		// the source is unchanged
+		assertEquals(String.class, source.getMetaDefinition().getColumnType(
+				"id"));
+	}
+
+	@Test
+	public void testNarrowContainerParallel() throws CDataGridException {
+		assertNarrowed(new CDataCacheContainer(new CBuildNarrowed(
+				createStrings()).setThreads(4)));
+	}
+
+	@Test
+	public void testNarrowRowSet() throws CDataGridException {
+		assertNarrowed(new CDataCacheContainer(new CBuildNarrowed("strings",
+				createStrings().getAll()).setThreads(2)));
+	}
+
+	@Test
+	public void testNarrowBuilder() throws CDataGridException, IOException {
+		CDataCacheContainer source = createStrings();
+		CDataCacheContainer narrowed = new CDataCacheContainer(
+				new CBuildNarrowed(new CBuildNarrowed(source)).setThreads(3));
+		assertEquals("strings", narrowed.getCacheName());
+		assertArrayEquals(new String[] { "id" }, narrowed.getMetaDefinition()
+				.getPrimaryKeyColumns());
+		assertNarrowed(narrowed);
+	}
+
+}
@@ -0,0 +1,309 @@
+package net.casper.ext.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CRowMetaData;
+import net.casper.data.model.offheap.COffHeapRowMap;
+import net.casper.ext.CasperUtil;
+import net.casper.ext.file.def.CDataFileDoubleArray;
+import net.casper.ext.file.def.CDataFileIntArray;
+import net.casper.ext.file.def.CDataFileMap;
+import net.casper.ext.map.CIntDoubleMap;
+import net.casper.ext.map.CLongLongMap;
+import net.casper.ext.map.CObjectIntMap;
+import net.casper.io.file.in.CBuildFromCSV;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.rmt.cellreader.CellReaders;
+import org.omancode.rmt.cellreader.narrow.TypeCheckedValue;
+
+public class CasperUtilTest {
+
+	// large enough to be read in parallel
+	private static final int ROWS = 100000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static CDataCacheContainer createContainer()
+			throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "value",
+				"count" }, new Class[] { Integer.class, Double.class,
+				Long.class }, new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("values",
+				meta, new HashMap<Object, Object>());
+		// added in reverse primary key order
+		for (int i = ROWS - 1; i >= 0; i--) {
+			container.addSingleRow(new Object[] { i, i / 2.0, (long) i * 3 });
+		}
+		return container;
+	}
+
+	@Test
+	public void testLoadArraysInPrimaryKeyOrder() throws CDataGridException {
+		CDataCacheContainer container = createContainer();
+
+		double[] values = CasperUtil.loadDoubleArray(container, "value");
+		int[] counts = CasperUtil.loadIntArray(container, "count");
+		assertEquals(ROWS, values.length);
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(i / 2.0, values[i], 0);
+			assertEquals(i * 3, counts[i]);
+		}
+	}
+
+	@Test
+	public void testLoadArrayUnsorted() throws CDataGridException {
+		int[] ids = CasperUtil.loadIntArray(createContainer(), "id", null);
+		assertEquals(ROWS, ids.length);
+
+		Arrays.sort(ids);
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(i, ids[i]);
+		}
+	}
+
+	@Test(expected = CDataGridException.class)
+	public void testLoadArrayNull() throws CDataGridException {
+		CDataCacheContainer container = createContainer();
+		container.addSingleRow(new Object[] { ROWS, null, 0L });
+		CasperUtil.loadDoubleArray(container, "value");
+	}
+
+	@Test
+	public void testLoadMaps() throws CDataGridException {
+		CDataCacheContainer container = createContainer();
+
+		CIntDoubleMap values = CasperUtil.loadIntDoubleMap(container, "id",
+				"value");
+		CLongLongMap counts = CasperUtil.loadLongLongMap(container, "id",
+				"count");
+		assertEquals(ROWS, values.size());
+		assertEquals(ROWS, counts.size());
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(i / 2.0, values.get(i), 0);
+			assertEquals(i * 3L, counts.get(i));
+		}
+	}
+
+	@Test(expected = CDataGridException.class)
+	public void testLoadMapNull() throws CDataGridException {
+		CDataCacheContainer container = createContainer();
+		container.addSingleRow(new Object[] { ROWS, null, 0L });
+		CasperUtil.loadIntDoubleMap(container, "id", "value");
+	}
+
+	@Test
+	public void testLoadMapFromBuilder() throws IOException {
+		// ids read as strings, converted to ints
+		CObjectIntMap<String> map = CasperUtil.loadStringIntMap(
+				new CBuildFromCSV(writeFile(), null, new String[] { "value",
+						"id" }, new CellReader<?>[] { CellReaders.STRING,
+						CellReaders.STRING }, null), "value", "id");
+		assertEquals(5000, map.size());
+		assertEquals(4999, map.get(Double.toString(4999 * 1.5)));
+	}
+
+	@Test
+	public void testDataFileMapWithoutContainer() throws IOException {
+		File file = writeFile();
+
+		CDataFileMap<Integer, Double> fileMap = new CDataFileMap<Integer, Double>(
+				"map", "id", CellReaders.INTEGER, "value", CellReaders.DOUBLE)
+				.setRetainContainer(false);
+		assertNull(fileMap.loadDataset(file));
+		assertNull(fileMap.getContainer());
+
+		Map<Integer, Double> map = fileMap.getMap();
+		assertEquals(5000, map.size());
+		assertEquals(4999 * 1.5, map.get(4999), 0);
+	}
+
+	@Test
+	public void testScaleColumnsInPlace() throws CDataGridException {
+		CDataCacheContainer container = createContainer();
+		CasperUtil.scaleColumns(container, new String[] { "value", "count" },
+				2);
+
+		assertSame(Long.class, container.getMetaDefinition().getColumnType(
+				"count"));
+		double[] values = CasperUtil.loadDoubleArray(container, "value");
+		int[] counts = CasperUtil.loadIntArray(container, "count");
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(i, values[i], 0);
+			assertEquals(i * 6, counts[i]);
+		}
+	}
+
+	@Test
+	public void testScaleCopy() throws CDataGridException {
+		CDataCacheContainer container = createContainer();
+		CDataCacheContainer scaled = CasperUtil.scale(container, 0.5);
+
+		// integral columns become Double, except the primary key
+		CRowMetaData meta = scaled.getMetaDefinition();
+		assertSame(Integer.class, meta.getColumnType("id"));
+		assertSame(Double.class, meta.getColumnType("count"));
+
+		double[] counts = CasperUtil.loadDoubleArray(scaled, "count");
+		int[] ids = CasperUtil.loadIntArray(scaled, "id");
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(i * 1.5, counts[i], 0);
+			assertEquals(i, ids[i]);
+		}
+		assertEquals(ROWS - 1,
+				CasperUtil.loadIntArray(container, "id")[ROWS - 1]);
+		assertEquals((ROWS - 1) / 2.0, CasperUtil.loadDoubleArray(container,
+				"value")[ROWS - 1], 0);
+	}
+
+	@Test
+	public void testTransformColumnsMissingValues() throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "n" },
+				new Class[] { Integer.class, Integer.class },
+				new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("missing",
+				meta, new HashMap<Object, Object>());
+		container.addSingleRow(new Object[] { 0, 10 });
+		container.addSingleRow(new Object[] { 1,
+				TypeCheckedValue.MISSING_VALUE_INTEGER });
+		container.addSingleRow(new Object[] { 2, null });
+
+		CasperUtil.addToColumns(container, new String[] { "n" }, 1);
+		assertEquals(11, container.getPrimaryKeyMatches(new Object[] { 0 })[0]
+				.getValue(1));
+		assertEquals(TypeCheckedValue.MISSING_VALUE_INTEGER, container
+				.getPrimaryKeyMatches(new Object[] { 1 })[0].getValue(1));
+
+		CasperUtil.castColumns(container, new String[] { "n" }, Double.class);
+		assertSame(Double.class, container.getMetaDefinition().getColumnType(
+				"n"));
+		assertEquals(11.0, container.getPrimaryKeyMatches(new Object[] { 0 })[0]
+				.getValue(1));
+		assertEquals(TypeCheckedValue.MISSING_VALUE_DOUBLE, container
+				.getPrimaryKeyMatches(new Object[] { 1 })[0].getValue(1));
+		assertNull(container.getPrimaryKeyMatches(new Object[] { 2 })[0]
+				.getValue(1));
+	}
+
+	@Test
+	public void testCastOffHeap() throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "n" },
+				new Class[] { Integer.class, Integer.class },
+				new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("offheap",
+				meta, new COffHeapRowMap(meta));
+		container.addSingleRow(new Object[] { 0, 10 });
+		container.addSingleRow(new Object[] { 1, 20 });
+
+		// values of the same type can be set, but not the type changed
+		CasperUtil.addToColumns(container, new String[] { "n" }, 1);
+		try {
+			CasperUtil.castColumns(container, new String[] { "n" },
+					Double.class);
+			fail("Changed the type of a column stored off-heap");
+		} catch (CDataGridException e) {
+			// expected
+		}
+		assertSame(Integer.class, container.getMetaDefinition().getColumnType(
+				"n"));
+		assertEquals(21, container.getPrimaryKeyMatches(new Object[] { 1 })[0]
+				.getValue(1));
+	}
+
+	@Test
+	public void testSetColumnValuesOfChangedRows() throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "n" },
+				new Class[] { Integer.class, Integer.class },
+				new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("changed",
+				meta, new HashMap<Object, Object>());
+		container.addSingleRow(new Object[] { 0, 10 });
+		container.addSingleRow(new Object[] { 1, 20 });
+		CDataRow[] rows = container.getAllRows();
+
+		// one row replaced by another, so the number of rows is the same
+		container.removeData(new CDataRow[] { rows[1] }, true);
+		container.addSingleRow(new Object[] { 2, 30 });
+		try {
+			container.setColumnValues("n", null, rows, new Object[] { 11, 21 });
+			fail("Set values computed from rows no longer in the container");
+		} catch (CDataGridException e) {
+			// expected
+		}
+		assertEquals(30, container.getPrimaryKeyMatches(new Object[] { 2 })[0]
+				.getValue(1));
+
+		container.setColumnValues("n", null, container.getAllRows(),
+				new Object[] { 11, 31 });
+		assertEquals(31, container.getPrimaryKeyMatches(new Object[] { 2 })[0]
+				.getValue(1));
+	}
+
+	@Test(expected = CDataGridException.class)
+	public void testTransformPrimaryKey() throws CDataGridException {
+		CasperUtil.scaleColumns(createContainer(), new String[] { "id" }, 2);
+	}
+
+	private File writeFile() throws IOException {
+		File file = new File(folder.getRoot(), "values.csv");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		writer.write("id,value\n");
+		for (int i = 0; i < 5000; i++) {
+			writer.write(i + "," + (i * 1.5) + "\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void testLoadArrayFromBuilder() throws IOException {
+		double[] values = CasperUtil.loadDoubleArray(new CBuildFromCSV(
+				writeFile(), null, new String[] { "id", "value" },
+				new CellReader<?>[] { CellReaders.INTEGER, CellReaders.DOUBLE },
+				null), "value");
+		assertEquals(5000, values.length);
+		assertEquals(4999 * 1.5, values[4999], 0);
+	}
+
+	@Test
+	public void testDataFileArraysWithoutContainer() throws IOException,
+			CDataGridException {
+		File file = writeFile();
+
+		CDataFileIntArray ids = new CDataFileIntArray("ids", "id")
+				.setRetainContainer(false);
+		assertNull(ids.loadDataset(file));
+		assertNull(ids.getContainer());
+		assertEquals(5000, ids.getIntArray().length);
+		assertEquals(4999, ids.getIntArray()[4999]);
+
+		CDataFileDoubleArray values = new CDataFileDoubleArray("values",
+				"value");
+		CDataCacheContainer container = values.loadDataset(file);
+		assertEquals(5000, container.size());
+		assertArrayEquals(values.getDoubleArray(), CasperUtil
+				.loadDoubleArray(container, "value"), 0);
+	}
+
+}
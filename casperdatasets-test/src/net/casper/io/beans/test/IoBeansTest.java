@@ -1,21 +1,30 @@
 package net.casper.io.beans.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 
 import net.casper.data.model.CBuilder;
 import net.casper.data.model.CDataCacheContainer;
 import net.casper.data.model.CDataGridException;
 import net.casper.data.model.CExporter;
+import net.casper.data.model.CRowMetaData;
 import net.casper.ext.out.CExportCSVString;
 import net.casper.io.beans.CBuildFromCollection;
 import net.casper.io.beans.CExportBeans;
 import net.casper.io.beans.CExportBeansCached;
 
 import org.junit.BeforeClass;
+import org.junit.Test;
 import org.junit.experimental.theories.DataPoint;
 import org.junit.experimental.theories.Theories;
 import org.junit.experimental.theories.Theory;
@@ -118,6 +127,74 @@ public class IoBeansTest {
 
 	}
 
+	@Test
+	public void testExportBeansCachedConversion() throws CDataGridException {
+		// column types differ from the property types
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "name",
+				"gender", "age", "updated" }, new Class[] { Long.class,
+				Integer.class, String.class, String.class, Integer.class },
+				null);
+		CDataCacheContainer container = new CDataCacheContainer("people",
+				meta, new HashMap<Object, Object>());
+		container.addSingleRow(new Object[] { 7L, 42, "f", "30.5", 1 });
+		container.addSingleRow(new Object[] { 8L, null, null, null, null });
+
+		CExportBeansCached<Person> cexportBeans = new CExportBeansCached<Person>(
+				Person.class, container.size());
+		container.export(cexportBeans, null, true);
+
+		Person[] people = cexportBeans.getBeans().toArray(new Person[0]);
+		assertEquals(2, people.length);
+		assertEquals(7, people[0].getId());
+		assertEquals("42", people[0].getName());
+		assertEquals('f', people[0].getGender());
+		assertEquals(30.5, people[0].getAge(), 0);
+		assertTrue(people[0].isUpdated());
+
+		// nulls leave primitive properties at their defaults
+		assertEquals(8, people[1].getId());
+		assertNull(people[1].getName());
+		assertEquals(0, people[1].getAge(), 0);
+		assertFalse(people[1].isUpdated());
+	}
+
+	@Test
+	public void testBuildFromEmptyCollection() throws CDataGridException {
+		CDataCacheContainer container = new CDataCacheContainer(
+				new CBuildFromCollection("people", new LinkedList<Person>(),
+						Person.class, Object.class, "id"));
+
+		assertEquals(0, container.size());
+		assertArrayEquals(new String[] { "age", "gender", "id", "name",
+				"updated" }, container.getMetaDefinition().getColumnNames());
+		assertEquals(Integer.class, container.getMetaDefinition()
+				.getColumnType("id"));
+	}
+
+	@Test
+	public void testBuildFromListParallel() throws IOException,
+			CDataGridException {
+		List<Person> people = new ArrayList<Person>();
+		for (int i = 0; i < 50000; i++) {
+			people.add(new Person(i, "p" + i, (i % 2 == 0) ? 'm' : 'f',
+					i / 4.0, i % 3 == 0));
+		}
+
+		CBuildFromCollection builder = new CBuildFromCollection("people",
+				people, Object.class, null).setThreads(4);
+		assertEquals(50000, builder.getRowCount());
+
+		CDataCacheContainer container = new CDataCacheContainer(builder);
+		assertEquals(50000, container.size());
+
+		CExportBeansCached<Person> cexportBeans = new CExportBeansCached<Person>(
+				Person.class, container.size());
+		container.export(cexportBeans);
+
+		assertEquals(Person.collToString(people),
+				Person.collToString(cexportBeans.getBeans()));
+	}
+
 	public static class Person {
 
 		private int id;
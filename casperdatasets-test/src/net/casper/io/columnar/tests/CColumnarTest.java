@@ -0,0 +1,140 @@
+package net.casper.io.columnar.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CRowMetaData;
+import net.casper.io.columnar.CBuildFromColumnar;
+import net.casper.io.columnar.CExportColumnar;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CColumnarTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final int ROWS = 2500;
+
+	private static final int ROW_GROUP_SIZE = 1000;
+
+	private CDataCacheContainer createTrades() throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "desk",
+				"book", "price", "settled", "traded", "notional", "stamp",
+				"side", "quantity" }, new Class[] { Integer.class,
+				String.class, Integer.class, Double.class, Boolean.class,
+				Date.class, BigDecimal.class, Timestamp.class,
+				Character.class, Long.class }, new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("trades",
+				meta);
+		for (int i = 0; i < ROWS; i++) {
+			Timestamp stamp = new Timestamp(1354000000000L + i * 1000L);
+			stamp.setNanos(i * 1000);
+			container.addSingleRow(new Object[] { i, "desk " + (i % 7),
+					i / 100, i * 0.25, (i % 3 == 0), new Date(i * 86400000L),
+					new BigDecimal(i + ".50"), stamp, (i % 2 == 0) ? 'B' : 'S',
+					(i % 11 == 0) ? null : Long.valueOf(i * 1000000L) });
+		}
+		return container;
+	}
+
+	private File export(CDataCacheContainer container) throws IOException,
+			CDataGridException {
+		File file = folder.newFile("trades.ccol");
+		container.export(new CExportColumnar(file, ROW_GROUP_SIZE));
+		return file;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException, CDataGridException {
+		CDataCacheContainer trades = createTrades();
+		CBuildFromColumnar builder = new CBuildFromColumnar(export(trades));
+		CDataCacheContainer loaded = new CDataCacheContainer(builder);
+
+		assertEquals(3, builder.getRowGroupCount());
+		assertEquals("trades", loaded.getCacheName());
+		assertArrayEquals(trades.getMetaDefinition().getColumnNames(), loaded
+				.getMetaDefinition().getColumnNames());
+		assertArrayEquals(new String[] { "id" }, loaded.getMetaDefinition()
+				.getPrimaryKeyColumns());
+		assertEquals(ROWS, loaded.size());
+		for (int i = 0; i < ROWS; i++) {
+			Object[] key = new Object[] { i };
+			assertArrayEquals(trades.getPrimaryKeyMatches(key)[0].getRawData(),
+					loaded.getPrimaryKeyMatches(key)[0].getRawData());
+		}
+	}
+
+	@Test
+	public void testSelectedColumns() throws IOException, CDataGridException {
+		CDataCacheContainer loaded = new CDataCacheContainer(
+				new CBuildFromColumnar(export(createTrades()), "selected",
+						new String[] { "QUANTITY", "id" }, null));
+
+		assertEquals("selected", loaded.getCacheName());
+		assertArrayEquals(new String[] { "quantity", "id" }, loaded
+				.getMetaDefinition().getColumnNames());
+		assertArrayEquals(new Class[] { Long.class, Integer.class }, loaded
+				.getMetaDefinition().getColumnTypes());
+		assertEquals(ROWS, loaded.size());
+
+		CDataRow[] rows = loaded.getAllRows();
+		for (CDataRow row : rows) {
+			int id = (Integer) row.getValue(1);
+			Object quantity = (id % 11 == 0) ? null : Long
+					.valueOf(id * 1000000L);
+			assertEquals(quantity, row.getValue(0));
+		}
+	}
+
+	@Test
+	public void testRangeSkipsRowGroups() throws IOException,
+			CDataGridException {
+		CBuildFromColumnar builder = new CBuildFromColumnar(
+				export(createTrades()), null, new String[] { "id", "desk" },
+				null);
+		builder.addRange("id", 1200, 1300);
+		builder.addRange("desk", "desk 3", null);
+		CDataCacheContainer loaded = new CDataCacheContainer(builder);
+
+		assertEquals(1, builder.getRowGroupsRead());
+		int expected = 0;
+		for (int i = 1200; i <= 1300; i++) {
+			if (i % 7 >= 3) {
+				expected++;
+				assertEquals(1, loaded.getPrimaryKeyMatches(new Object[] { i })
+						.length);
+			}
+		}
+		assertEquals(expected, loaded.size());
+	}
+
+	@Test
+	public void testRangeOnUnselectedColumn() throws IOException,
+			CDataGridException {
+		CBuildFromColumnar builder = new CBuildFromColumnar(
+				export(createTrades()), null, new String[] { "id" }, null);
+		builder.addRange("book", 24, 24);
+		CDataCacheContainer loaded = new CDataCacheContainer(builder);
+
+		assertEquals(1, builder.getRowGroupsRead());
+		assertEquals(100, loaded.size());
+		for (CDataRow row : loaded.getAllRows()) {
+			int id = (Integer) row.getValue(0);
+			assertTrue(id >= 2400 && id < 2500);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package net.casper.io.file.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.io.file.in.CBuildFromCSVParallel;
+import net.casper.io.file.in.CBuildFromFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.rmt.cellreader.CellReaders;
+
+public class CBuildFromCSVParallelTest {
+
+	public static final String TEST_DIR = "resources/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File patientsCSV = new File(TEST_DIR + "patients.csv");
+
+	private String[] columnNames = new String[] { "crefnum", "sex", "refnum",
+			"question", "age", "weight" };
+	private String[] PKs = new String[] { "refnum", "crefnum" };
+
+	private CellReader<?>[] columnOptionalReaders = new CellReader<?>[] {
+			CellReaders.OPTIONAL_INTEGER, CellReaders.CHARACTER,
+			CellReaders.OPTIONAL_INTEGER, CellReaders.OPTIONAL_INTEGER,
+			CellReaders.OPTIONAL_INTEGER, CellReaders.OPTIONAL_DOUBLE };
+
+	private File writeFile(String name, String contents) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		writer.write(contents);
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void testSmallChunks() throws IOException, CDataGridException {
+		CDataCacheContainer cdcc = new CDataCacheContainer(
+				new CBuildFromCSVParallel(new File[] { patientsCSV },
+						"patients", columnNames, columnOptionalReaders, PKs, 3,
+						10));
+		assertEquals(4, cdcc.size());
+
+		CDataRow row = null;
+		for (CDataRow candidate : cdcc.getAllRows()) {
+			if (Integer.valueOf(2).equals(candidate.getValue(2))) {
+				row = candidate;
+			}
+		}
+		assertEquals(new Character('F'), row.getValue(1));
+		assertEquals(Integer.valueOf(33), row.getValue(4));
+		assertEquals(Double.valueOf(7.587573231), row.getValue(5));
+	}
+
+	@Test
+	public void testMultipleFilesOrdered() throws IOException,
+			CDataGridException {
+		writeFile("part-1.csv", "id,name\r\n1,a\r\n2,\"b, \"\"quoted\"\"\"\r\n\r\n3,c\r\n");
+		writeFile("part-2.csv", "name,id\n\"d\",4\ne,5");
+		writeFile("other.csv", "id,name\n6,f\n");
+
+		File[] files = CBuildFromCSVParallel.listFiles(folder.getRoot(),
+				"part-*.csv");
+		assertEquals(2, files.length);
+
+		CDataCacheContainer cdcc = new CDataCacheContainer(new CBuildFromFile(
+				files, "parts", new String[] { "id", "name" },
+				new CellReader<?>[] { CellReaders.INTEGER, CellReaders.STRING },
+				null, 4));
+
+		Object[] ids = new Object[cdcc.size()];
+		Object[] names = new Object[cdcc.size()];
+		int i = 0;
+		for (CDataRow row : cdcc.getAllRows()) {
+			ids[i] = row.getValue(0);
+			names[i++] = row.getValue(1);
+		}
+		assertArrayEquals(new Object[] { 1, 2, 3, 4, 5 }, ids);
+		assertArrayEquals(
+				new Object[] { "a", "b, \"quoted\"", "c", "d", "e" }, names);
+	}
+
+	@Test
+	public void testQuotedLineBreakSingleChunk() throws IOException,
+			CDataGridException {
+		File file = writeFile("multiline.csv",
+				"id,note\n1,\"first\nline\"\n2,plain\n");
+
+		CDataCacheContainer cdcc = new CDataCacheContainer(
+				new CBuildFromCSVParallel(new File[] { file }, null, null,
+						null, new String[] { "id" }, 2, 0));
+		assertEquals(2, cdcc.size());
+		assertEquals("first\nline", cdcc.getPrimaryKeyMatches(
+				new Object[] { "1" })[0].getValue(1));
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingColumn() throws IOException {
+		new CBuildFromCSVParallel(patientsCSV, null,
+				new String[] { "refnum", "height" }, null, null);
+	}
+
+}
@@ -0,0 +1,148 @@
+package net.casper.io.file.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.io.file.in.CBuildFromCSV;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.rmt.cellreader.CellReaders;
+
+public class CBuildFromCSVTest {
+
+	public static final String TEST_DIR = "resources/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File writeFile(String name, String contents) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		writer.write(contents);
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void testPatients() throws IOException, CDataGridException {
+		CDataCacheContainer cdcc = new CDataCacheContainer(new CBuildFromCSV(
+				new File(TEST_DIR + "patients.csv"), null, new String[] {
+						"refnum", "age", "weight", "sex" },
+				new CellReader<?>[] { CellReaders.OPTIONAL_INTEGER,
+						CellReaders.INTEGER, CellReaders.DOUBLE,
+						CellReaders.CHARACTER }, null));
+		assertEquals(4, cdcc.size());
+
+		CDataRow[] rows = cdcc.getAllRows();
+		assertArrayEquals(new Object[] { 1, 45, 841.9098462, 'M' }, rows[0]
+				.getRawData());
+		// empty cells are read by their cell reader, eg: as a missing value
+		assertArrayEquals(new Object[] {
+				CellReaders.OPTIONAL_INTEGER.read(""), 5, 0.123456789012345,
+				'M' }, rows[3].getRawData());
+	}
+
+	@Test
+	public void testEmptyAndMissingCells() throws IOException,
+			CDataGridException {
+		File file = writeFile("missing.csv", "id,weight,count\n1,,\n2\n");
+		CDataCacheContainer cdcc = new CDataCacheContainer(new CBuildFromCSV(
+				file, null, null, new CellReader<?>[] { CellReaders.INTEGER,
+						CellReaders.OPTIONAL_DOUBLE,
+						CellReaders.OPTIONAL_INTEGER }, new String[] { "id" }));
+
+		Object[] missing = { CellReaders.OPTIONAL_DOUBLE.read(""),
+				CellReaders.OPTIONAL_INTEGER.read("") };
+		for (int id = 1; id <= 2; id++) {
+			CDataRow row = cdcc.getPrimaryKeyMatches(new Object[] { id })[0];
+			assertEquals(missing[0], row.getValue(1));
+			assertEquals(missing[1], row.getValue(2));
+		}
+	}
+
+	@Test
+	public void testNumbersMatchCellReaders() throws IOException,
+			CDataGridException {
+		Random random = new Random(1);
+		StringBuffer csv = new StringBuffer("i,d\n");
+		int rows = 2000;
+		for (int i = 0; i < rows; i++) {
+			csv.append(random.nextInt()).append(',');
+			switch (i % 4) {
+			case 0:
+				csv.append(random.nextDouble() * 1000);
+				break;
+			case 1:
+				csv.append(-random.nextInt(100000) / 1000.0);
+				break;
+			case 2:
+				csv.append(random.nextGaussian() * 1e-30);
+				break;
+			default:
+				csv.append(random.nextInt(10)).append("e3");
+				break;
+			}
+			csv.append('\n');
+		}
+		File file = writeFile("numbers.csv", csv.toString());
+
+		CDataCacheContainer cdcc = new CDataCacheContainer(new CBuildFromCSV(
+				file, null, null, new CellReader<?>[] { CellReaders.INTEGER,
+						CellReaders.DOUBLE }, null));
+		assertEquals(rows, cdcc.size());
+
+		String[] lines = csv.toString().split("\n");
+		CDataRow[] loaded = cdcc.getAllRows();
+		for (int i = 0; i < rows; i++) {
+			String[] cells = lines[i + 1].split(",");
+			assertEquals(CellReaders.INTEGER.read(cells[0]), loaded[i]
+					.getValue(0));
+			assertEquals(CellReaders.DOUBLE.read(cells[1]), loaded[i]
+					.getValue(1));
+		}
+	}
+
+	@Test
+	public void testStringsFromBuffer() throws IOException, CDataGridException {
+		byte[] bytes = "\uFEFFcode,name\r\nAU,\"Australia, \"\"Oz\"\"\"\r\nNZ,\r\nAU,Aus\r\n"
+				.getBytes("UTF-8");
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+
+		CDataCacheContainer cdcc = new CDataCacheContainer(new CBuildFromCSV(
+				buffer, "countries", null, null, null));
+		assertEquals(3, cdcc.size());
+
+		CDataRow[] rows = cdcc.getAllRows();
+		assertEquals("Australia, \"Oz\"", rows[0].getValue(1));
+		assertNull(rows[1].getValue(1));
+		// repeated values are the same instance
+		assertSame(rows[0].getValue(0), rows[2].getValue(0));
+	}
+
+	@Test(expected = CDataGridException.class)
+	public void testBadCell() throws IOException, CDataGridException {
+		File file = writeFile("bad.csv", "id\n1\ntwo\n");
+		new CDataCacheContainer(new CBuildFromCSV(file, null, null,
+				new CellReader<?>[] { CellReaders.INTEGER }, null));
+	}
+
+}
@@ -80,6 +80,28 @@ public class CBuildFromFileTest {
 		assertEquals(4, cdcc.size());
 	}
 
+	@Test
+	public void testCBuildFileSpecifiedCSVMapped() throws IOException,
+			CDataGridException {
+		CBuilder builder = new CBuildFromFile(patientsCSV, "patientsCSV",
+				columnNames, columnOptionalReaders, PKs, true);
+		CDataCacheContainer cdcc = new CDataCacheContainer(builder);
+		assertEquals(4, cdcc.size());
+		assertEquals(Double.class, cdcc.getMetaDefinition().getColumnType(
+				"weight"));
+	}
+
+	@Test
+	public void testCBuildFileUnspecifiedCSVMapped() throws IOException,
+			CDataGridException {
+		CBuilder builder = new CBuildFromFile(patientsCSV, null, null, null,
+				null, true);
+		CDataCacheContainer cdcc = new CDataCacheContainer(builder);
+		assertEquals(4, cdcc.size());
+		assertEquals(String.class, cdcc.getMetaDefinition().getColumnType(
+				"weight"));
+	}
+
 	@Test
 	public void testCBuildFileSpecifiedXLS() throws IOException,
 			CDataGridException {
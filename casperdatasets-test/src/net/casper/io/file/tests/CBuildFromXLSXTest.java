@@ -0,0 +1,185 @@
+package net.casper.io.file.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.io.file.in.CBuildFromFile;
+import net.casper.io.file.in.CBuildFromXLSX;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.rmt.cellreader.CellReaders;
+
+public class CBuildFromXLSXTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final int ROWS = 1000;
+
+	private final Date date = new GregorianCalendar(2012, Calendar.NOVEMBER,
+			26).getTime();
+
+	/**
+	 * Write a workbook with columns id, name, weight, member and joined. Every
+	 * tenth row has no weight.
+	 */
+	private File writePeople() throws IOException {
+		XSSFWorkbook workbook = new XSSFWorkbook();
+		CellStyle dateStyle = workbook.createCellStyle();
+		dateStyle.setDataFormat(workbook.getCreationHelper()
+				.createDataFormat().getFormat("yyyy-mm-dd"));
+
+		Sheet sheet = workbook.createSheet("people");
+		Row header = sheet.createRow(0);
+		String[] names = { "id", "name", "weight", "member", "joined" };
+		for (int i = 0; i < names.length; i++) {
+			header.createCell(i).setCellValue(names[i]);
+		}
+
+		for (int i = 1; i <= ROWS; i++) {
+			Row row = sheet.createRow(i);
+			row.createCell(0).setCellValue(i);
+			row.createCell(1).setCellValue("person " + (i % 10));
+			if (i % 10 != 0) {
+				row.createCell(2).setCellValue(i * 1.5);
+			}
+			row.createCell(3).setCellValue(i % 2 == 0);
+			row.createCell(4).setCellValue(date);
+			row.getCell(4).setCellStyle(dateStyle);
+		}
+
+		File file = folder.newFile("people.xlsx");
+		FileOutputStream out = new FileOutputStream(file);
+		workbook.write(out);
+		out.close();
+		return file;
+	}
+
+	@Test
+	public void testCellReaders() throws IOException, CDataGridException {
+		CDataCacheContainer cdcc = new CDataCacheContainer(new CBuildFromXLSX(
+				writePeople(), null, new String[] { "name", "ID", "weight",
+						"member" }, new CellReader<?>[] { CellReaders.STRING,
+						CellReaders.INTEGER, CellReaders.OPTIONAL_DOUBLE,
+						CellReaders.BOOLEAN }, new String[] { "ID" }));
+		assertEquals(ROWS, cdcc.size());
+
+		CDataRow row = cdcc.getPrimaryKeyMatches(new Object[] { 7 })[0];
+		assertArrayEquals(new Object[] { "person 7", 7, 10.5, false }, row
+				.getRawData());
+		assertNull(cdcc.getPrimaryKeyMatches(new Object[] { 10 })[0]
+				.getValue(2));
+	}
+
+	@Test
+	public void testUnspecifiedTypes() throws IOException, CDataGridException {
+		CDataCacheContainer cdcc = new CDataCacheContainer(new CBuildFromXLSX(
+				writePeople(), "people", null, null, null));
+		assertEquals(ROWS, cdcc.size());
+		assertArrayEquals(new String[] { "id", "name", "weight", "member",
+				"joined" }, cdcc.getMetaDefinition().getColumnNames());
+
+		CDataRow row = cdcc.getAllRows()[1];
+		assertArrayEquals(new Object[] { 2.0, "person 2", 3.0, true, date },
+				row.getRawData());
+	}
+
+	@Test
+	public void testStreamedFromFileBuilder() throws IOException,
+			CDataGridException {
+		CDataCacheContainer cdcc = new CDataCacheContainer(new CBuildFromFile(
+				writePeople(), null, new String[] { "id", "name" },
+				new CellReader<?>[] { CellReaders.INTEGER, CellReaders.STRING },
+				new String[] { "id" }, false, true));
+		assertEquals(ROWS, cdcc.size());
+		assertArrayEquals(new Object[] { 7, "person 7" }, cdcc
+				.getPrimaryKeyMatches(new Object[] { 7 })[0].getRawData());
+	}
+
+	@Test
+	public void testExternalEntitiesNotRead() throws IOException,
+			CDataGridException {
+		File secret = folder.newFile("secret.txt");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(secret),
+				"UTF-8");
+		writer.write("top secret");
+		writer.close();
+
+		// a sheet that declares an external entity and uses it in a cell
+		File people = writePeople();
+		File file = folder.newFile("xxe.xlsx");
+		ZipFile zip = new ZipFile(people);
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		for (ZipEntry entry : Collections.list(zip.entries())) {
+			byte[] bytes = readAll(zip.getInputStream(entry));
+			if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+				String xml = new String(bytes, "UTF-8");
+				xml = xml.replaceFirst("<worksheet", "<!DOCTYPE worksheet "
+						+ "[<!ENTITY xxe SYSTEM \"" + secret.toURI()
+						+ "\">]><worksheet");
+				xml = xml.replaceFirst("<c r=\"B2\"[^>]*>.*?</c>",
+						"<c r=\"B2\" t=\"inlineStr\"><is><t>&xxe;</t></is></c>");
+				bytes = xml.getBytes("UTF-8");
+			}
+			out.putNextEntry(new ZipEntry(entry.getName()));
+			out.write(bytes);
+			out.closeEntry();
+		}
+		out.close();
+		zip.close();
+
+		CDataCacheContainer cdcc;
+		try {
+			cdcc = new CDataCacheContainer(new CBuildFromXLSX(file, null,
+					new String[] { "id", "name" }, new CellReader<?>[] {
+							CellReaders.INTEGER, CellReaders.STRING },
+					new String[] { "id" }));
+		} catch (CDataGridException e) {
+			// refusing the sheet is fine, reading the file is not
+			assertFalse(String.valueOf(e.getCause()).contains("secret"));
+			return;
+		}
+		for (CDataRow row : cdcc.getAllRows()) {
+			assertFalse(String.valueOf(row.getValue(1)).contains("secret"));
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		while ((read = in.read(buf)) != -1) {
+			bytes.write(buf, 0, read);
+		}
+		in.close();
+		return bytes.toByteArray();
+	}
+
+}
@@ -0,0 +1,105 @@
+package net.casper.io.file.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import net.casper.data.model.CBuilder;
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRowSet;
+import net.casper.io.file.in.CBuildFromCSV;
+import net.casper.io.file.in.CBuildInferred;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.rmt.cellreader.CellReaders;
+
+public class CBuildInferredTest {
+
+	private static final int ROWS = 20000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		// id and amount only stop fitting Integer in the last row
+		StringBuffer csv = new StringBuffer("id,amount,name\n");
+		for (int i = 0; i < ROWS - 1; i++) {
+			csv.append(i).append(',').append(i * 2).append(",n").append(i)
+					.append('\n');
+		}
+		csv.append("x,0.5,last\n");
+
+		file = new File(folder.getRoot(), "inferred.csv");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		writer.write(csv.toString());
+		writer.close();
+	}
+
+	private CBuilder readStrings() throws IOException {
+		return new CBuildFromCSV(file, null, null, new CellReader<?>[] {
+				CellReaders.STRING, CellReaders.STRING, CellReaders.STRING },
+				new String[] { "id" });
+	}
+
+	private void assertInferred(CDataCacheContainer container)
+			throws CDataGridException {
+		assertEquals(ROWS, container.size());
+		assertArrayEquals(new Class[] { String.class, Double.class,
+				String.class }, container.getMetaDefinition().getColumnTypes());
+
+		// rows are keyed by the widened primary key
+		CDataRowSet rowset = container.get("id", new Object[] { "7", "x" });
+		assertEquals(2, rowset.size());
+		rowset.next();
+		assertEquals(Double.valueOf(14), rowset.getDouble("amount"));
+		assertEquals("n7", rowset.getString("name"));
+		rowset.next();
+		assertEquals(Double.valueOf(0.5), rowset.getDouble("amount"));
+	}
+
+	@Test
+	public void testSampleWidened() throws IOException, CDataGridException {
+		assertInferred(new CDataCacheContainer(new CBuildInferred(
+				readStrings(), 100)));
+	}
+
+	@Test
+	public void testScanAll() throws IOException, CDataGridException {
+		CBuildInferred builder = new CBuildInferred(readStrings(),
+				readStrings());
+		assertInferred(new CDataCacheContainer(builder));
+	}
+
+	@Test
+	public void testSampleWidenedNoPrimaryKey() throws IOException, CDataGridException {
+		CDataCacheContainer container = new CDataCacheContainer(
+				new CBuildInferred(new CBuildFromCSV(file, null, new String[] {
+						"amount", "name" }, new CellReader<?>[] {
+						CellReaders.STRING, CellReaders.STRING }, null), 10));
+		assertEquals(ROWS, container.size());
+		assertArrayEquals(new Class[] { Double.class, String.class },
+				container.getMetaDefinition().getColumnTypes());
+
+		// rows keep the identity keys they were added with
+		CDataRow row = container.getPrimaryKeyMatches(new Object[] { 1 })[0];
+		assertEquals(Double.valueOf(0), row.getValue(0));
+		assertEquals("n0", row.getValue(1));
+		assertEquals(0, container.getPrimaryKeyMatches(new Object[] { ROWS + 1 }).length);
+	}
+
+}
@@ -2,22 +2,32 @@ package net.casper.io.file.tests;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
 
 import net.casper.data.model.CBuilder;
 import net.casper.data.model.CDataCacheContainer;
 import net.casper.data.model.CDataGridException;
 import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CRowMetaData;
 import net.casper.io.file.in.CBuildFromFile;
 import net.casper.io.file.out.CExportCSV;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.omancode.rmt.cellreader.CellReader;
 import org.omancode.rmt.cellreader.CellReaders;
 
 public class CExportCSVTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	public static final String TEST_DIR = "resources/";
 
 	File patientsCSV = new File(TEST_DIR + "patients.csv");
@@ -63,4 +73,79 @@ public class CExportCSVTest {
 		container.export(csv);
 	}
 
+	private CDataCacheContainer createValues() throws CDataGridException {
+		CDataCacheContainer container = new CDataCacheContainer("values",
+				new CRowMetaData(new String[] { "id", "count", "amount",
+						"text" }, new Class[] { Integer.class, Long.class,
+						Double.class, String.class }, new String[] { "id" }));
+		container.addSingleRow(new Object[] { -7, Long.MAX_VALUE, 45.0,
+				"plain" });
+		container.addSingleRow(new Object[] { 0, 0L, -0.05, "a,b" });
+		container.addSingleRow(new Object[] { 1, null, 841.9098462,
+				"say \"hi\"" });
+		container.addSingleRow(new Object[] { 2, -12L, 1.0 / 3, "two\nlines" });
+		container.addSingleRow(new Object[] { 3, 1L, 1.5e-7, "caf\u00e9" });
+		container.addSingleRow(new Object[] { 4, 2L, null, null });
+		return container;
+	}
+
+	private static final String VALUES_CSV = "id,count,amount,text\r\n"
+			+ "-7,9223372036854775807,45.0,plain\r\n"
+			+ "0,0,-0.05,\"a,b\"\r\n"
+			+ "1,,841.9098462,\"say \"\"hi\"\"\"\r\n"
+			+ "2,-12,0.3333333333333333,\"two\nlines\"\r\n"
+			+ "3,1,1.5E-7,caf\u00e9\r\n" + "4,2,,\r\n";
+
+	@Test
+	public void testExportFormatting() throws IOException, CDataGridException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		createValues().export(new CExportCSV(out, null));
+		assertEquals(VALUES_CSV, out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testExportGzip() throws IOException, CDataGridException {
+		File file = folder.newFile("values.csv.gz");
+		createValues().export(new CExportCSV(file, "id,text", true));
+
+		InputStream in = new GZIPInputStream(new FileInputStream(file));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int read;
+		while ((read = in.read(buf)) != -1) {
+			out.write(buf, 0, read);
+		}
+		in.close();
+
+		assertEquals("id,text\r\n-7,plain\r\n0,\"a,b\"\r\n"
+				+ "1,\"say \"\"hi\"\"\"\r\n2,\"two\nlines\"\r\n"
+				+ "3,caf\u00e9\r\n4,\r\n", out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testExportSupplementaryCharacters() throws IOException,
+			CDataGridException {
+		CDataCacheContainer container = new CDataCacheContainer("text",
+				new CRowMetaData(new String[] { "id", "text" }, new Class[] {
+						Integer.class, String.class }, new String[] { "id" }));
+		// U+1F600, stored as a surrogate pair
+		container.addSingleRow(new Object[] { 1, "a\uD83D\uDE00b" });
+		// unpaired surrogates
+		container.addSingleRow(new Object[] { 2, "\uD83Dx\uDE00" });
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		container.export(new CExportCSV(out, null));
+		byte[] bytes = out.toByteArray();
+
+		assertEquals("id,text\r\n1,a\uD83D\uDE00b\r\n2,?x?\r\n", out
+				.toString("UTF-8"));
+		// 4 byte UTF-8 sequence, not two 3 byte surrogate sequences
+		int start = "id,text\r\n1,a".length();
+		assertEquals((byte) 0xF0, bytes[start]);
+		assertEquals((byte) 0x9F, bytes[start + 1]);
+		assertEquals((byte) 0x98, bytes[start + 2]);
+		assertEquals((byte) 0x80, bytes[start + 3]);
+		assertEquals('b', bytes[start + 4]);
+	}
+
 }
@@ -0,0 +1,189 @@
+package net.casper.io.file.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CExporter;
+import net.casper.data.model.CRowMetaData;
+import net.casper.io.file.in.CBuildFromCSV;
+import net.casper.io.file.out.CExportCSV;
+import net.casper.io.file.out.CExportPartitioned;
+import net.casper.io.file.out.CExportPartitioned.Manifest;
+import net.casper.io.file.out.CExportPartitioned.PartitionFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.omancode.rmt.cellreader.CellReader;
+import org.omancode.rmt.cellreader.CellReaders;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class CExportPartitionedTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final int ROWS = 1000;
+
+	private static final String[] DATES = { "2012-11-26", "2012-11-27",
+			"2012-11-28" };
+
+	private static final CExportPartitioned.ExporterFactory CSV = new CExportPartitioned.ExporterFactory() {
+		@Override
+		public CExporter createExporter(File file) throws IOException {
+			return new CExportCSV(file);
+		}
+	};
+
+	private CDataCacheContainer createTrades() throws CDataGridException {
+		CDataCacheContainer container = new CDataCacheContainer("trades",
+				new CRowMetaData(new String[] { "id", "date", "amount" },
+						new Class[] { Integer.class, String.class,
+								Double.class }, new String[] { "id" }));
+		for (int i = ROWS - 1; i >= 0; i--) {
+			container.addSingleRow(new Object[] { i,
+					(i % 10 == 9) ? null : DATES[i % 3], i * 0.5 });
+		}
+		return container;
+	}
+
+	private CDataCacheContainer readPartition(File file)
+			throws IOException, CDataGridException {
+		return new CDataCacheContainer(new CBuildFromCSV(file, null,
+				new String[] { "id", "date", "amount" }, new CellReader<?>[] {
+						CellReaders.INTEGER, CellReaders.STRING,
+						CellReaders.DOUBLE }, new String[] { "id" }));
+	}
+
+	@Test
+	public void testExportByRows() throws IOException, CDataGridException {
+		File dir = new File(folder.getRoot(), "byrows");
+		Manifest manifest = new CExportPartitioned(dir, ".csv", CSV, 3)
+				.exportByRows(createTrades(), 300);
+
+		assertEquals(ROWS, manifest.getRowCount());
+		assertNull(manifest.getPartitionColumn());
+		assertEquals(4, manifest.getFiles().size());
+
+		int expectedId = 0;
+		for (int i = 0; i < 4; i++) {
+			PartitionFile file = manifest.getFiles().get(i);
+			assertEquals(String.format("trades-part-%05d.csv", i), file
+					.getPath());
+			assertEquals(i < 3 ? 300 : 100, file.getRowCount());
+
+			CDataCacheContainer part = readPartition(new File(dir, file
+					.getPath()));
+			assertEquals(file.getRowCount(), part.size());
+			for (int j = 0; j < file.getRowCount(); j++, expectedId++) {
+				assertEquals(1, part.getPrimaryKeyMatches(
+						new Object[] { expectedId }).length);
+			}
+		}
+	}
+
+	@Test
+	public void testExportByColumn() throws IOException, CDataGridException {
+		File dir = new File(folder.getRoot(), "bydate");
+		Manifest manifest = new CExportPartitioned(dir, ".csv", CSV, 2)
+				.exportByColumn(createTrades(), "date");
+
+		assertEquals(ROWS, manifest.getRowCount());
+		assertEquals("date", manifest.getPartitionColumn());
+		assertEquals(4, manifest.getFiles().size());
+
+		PartitionFile nulls = manifest.getFiles().get(0);
+		assertEquals("date=" + CExportPartitioned.NULL_PARTITION
+				+ "/trades.csv", nulls.getPath());
+		assertNull(nulls.getPartitionValue());
+		assertEquals(ROWS / 10, nulls.getRowCount());
+
+		int total = nulls.getRowCount();
+		for (int i = 0; i < DATES.length; i++) {
+			PartitionFile file = manifest.getFiles().get(i + 1);
+			assertEquals("date=" + DATES[i] + "/trades.csv", file.getPath());
+			assertEquals(DATES[i], file.getPartitionValue());
+
+			CDataCacheContainer part = readPartition(new File(dir, file
+					.getPath()));
+			assertEquals(file.getRowCount(), part.size());
+			assertEquals(file.getRowCount(), part.get("date",
+					new Object[] { DATES[i] }).size());
+			total += file.getRowCount();
+		}
+		assertEquals(ROWS, total);
+
+		FileReader reader = new FileReader(new File(dir,
+				CExportPartitioned.MANIFEST_FILE_NAME));
+		JsonObject json = new JsonParser().parse(reader).getAsJsonObject();
+		reader.close();
+		assertEquals("trades", json.get("name").getAsString());
+		assertEquals(ROWS, json.get("row_count").getAsInt());
+		assertEquals(4, json.get("files").getAsJsonArray().size());
+		assertTrue(new File(dir, "date=2012-11-27/trades.csv").isFile());
+	}
+
+	@Test
+	public void testEscape() throws IOException, CDataGridException {
+		CDataCacheContainer container = new CDataCacheContainer("a b",
+				new CRowMetaData(new String[] { "id", "city" }, new Class[] {
+						Integer.class, String.class }, new String[] { "id" }));
+		container.addSingleRow(new Object[] { 1, "New York/NY" });
+
+		Manifest manifest = new CExportPartitioned(folder.getRoot(), ".csv",
+				CSV, 1).exportByColumn(container, "city");
+		assertEquals("city=New%20York%2FNY/a%20b.csv", manifest.getFiles()
+				.get(0).getPath());
+	}
+
+	@Test
+	public void testValuesWithSamePath() throws CDataGridException {
+		CDataCacheContainer cases = new CDataCacheContainer("cases",
+				new CRowMetaData(new String[] { "id", "code" }, new Class[] {
+						Integer.class, String.class }, new String[] { "id" }));
+		cases.addSingleRow(new Object[] { 1, "A" });
+		cases.addSingleRow(new Object[] { 2, "a" });
+		assertNotExported(cases, "code", new File(folder.getRoot(), "cases"));
+
+		// values that are not equal but have the same string form
+		CDataCacheContainer numbers = new CDataCacheContainer("numbers",
+				new CRowMetaData(new String[] { "id", "n" }, new Class[] {
+						Integer.class, Object.class }, new String[] { "id" }));
+		numbers.addSingleRow(new Object[] { 1, Integer.valueOf(1) });
+		numbers.addSingleRow(new Object[] { 2, Long.valueOf(1) });
+		assertNotExported(numbers, "n", new File(folder.getRoot(), "numbers"));
+	}
+
+	@Test
+	public void testMissingColumn() throws CDataGridException {
+		File dir = new File(folder.getRoot(), "missing");
+		assertNotExported(createTrades(), "nosuchcolumn", dir);
+	}
+
+	/**
+	 * Assert exporting by a column fails before anything is written.
+	 */
+	private void assertNotExported(CDataCacheContainer container,
+			String columnName, File dir) {
+		try {
+			new CExportPartitioned(dir, ".csv", CSV, 2).exportByColumn(
+					container, columnName);
+			fail("Exported by " + columnName);
+		} catch (IOException e) {
+			// expected
+		}
+		assertFalse(dir.exists());
+	}
+
+}
@@ -0,0 +1,159 @@
+package net.casper.io.jdbc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CRowMetaData;
+import net.casper.io.jdbc.CExportJDBC;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CExportJDBCTest {
+
+	private static final int ROWS = 5000;
+
+	private JDBCDataSource dataSource;
+
+	@Before
+	public void createTable() throws SQLException {
+		dataSource = new JDBCDataSource();
+		dataSource.setUrl("jdbc:hsqldb:mem:export");
+		dataSource.setUser("SA");
+		dataSource.setPassword("");
+
+		// row locks, so parallel writers do not block each other
+		execute("SET DATABASE TRANSACTION CONTROL MVCC");
+		execute("CREATE TABLE trades (id INTEGER PRIMARY KEY, "
+				+ "desk VARCHAR(20), amount DOUBLE)");
+	}
+
+	@After
+	public void dropTable() throws SQLException {
+		execute("DROP TABLE trades");
+	}
+
+	private void execute(String sql) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		Statement statement = connection.createStatement();
+		statement.execute(sql);
+		statement.close();
+		connection.close();
+	}
+
+	private static CDataCacheContainer trades(int from, int to,
+			String deskPrefix) throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "ID", "DESK",
+				"AMOUNT" }, new Class[] { Integer.class, String.class,
+				Double.class }, new String[] { "ID" });
+		CDataCacheContainer container = new CDataCacheContainer("trades",
+				meta, new HashMap<Object, Object>());
+		for (int i = from; i <= to; i++) {
+			container.addSingleRow(new Object[] { i,
+					(i % 10 == 0) ? null : deskPrefix + (i % 5), i * 0.5 });
+		}
+		return container;
+	}
+
+	private int count() throws SQLException {
+		Connection connection = dataSource.getConnection();
+		Statement statement = connection.createStatement();
+		ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM trades");
+		rs.next();
+		int count = rs.getInt(1);
+		connection.close();
+		return count;
+	}
+
+	private void assertRow(int id, String desk, double amount)
+			throws SQLException {
+		Connection connection = dataSource.getConnection();
+		Statement statement = connection.createStatement();
+		ResultSet rs = statement
+				.executeQuery("SELECT desk, amount FROM trades WHERE id = "
+						+ id);
+		rs.next();
+		assertEquals(desk, rs.getString(1));
+		assertEquals(amount, rs.getDouble(2), 0);
+		connection.close();
+	}
+
+	@Test
+	public void testInsert() throws Exception {
+		CExportJDBC exporter = new CExportJDBC(dataSource, "trades");
+		exporter.setBatchSize(300);
+		exporter.setCommitInterval(1000);
+
+		assertEquals(ROWS, trades(1, ROWS, "desk ").export(exporter));
+		assertEquals(ROWS, count());
+		assertRow(7, "desk 2", 3.5);
+		assertRow(20, null, 10);
+	}
+
+	@Test
+	public void testParallelInsert() throws Exception {
+		CExportJDBC exporter = new CExportJDBC(dataSource, "trades");
+		exporter.setBatchSize(128);
+		exporter.setThreads(4);
+
+		assertEquals(ROWS, trades(1, ROWS, "desk ").export(exporter));
+		assertEquals(ROWS, count());
+		assertRow(ROWS, null, ROWS * 0.5);
+	}
+
+	@Test
+	public void testUpsert() throws Exception {
+		trades(1, 100, "desk ").export(new CExportJDBC(dataSource, "trades"));
+
+		CExportJDBC exporter = new CExportJDBC(dataSource, "trades");
+		exporter.setBatchSize(30);
+		exporter.setUpsert(true);
+		exporter.setThreads(2);
+		trades(51, 150, "new ").export(exporter);
+
+		assertEquals(150, count());
+		assertRow(1, "desk 1", 0.5);
+		assertRow(51, "new 1", 25.5);
+		assertRow(150, null, 75);
+	}
+
+	@Test
+	public void testFailureRollsBack() throws Exception {
+		trades(16, 20, "desk ").export(new CExportJDBC(dataSource, "trades"));
+
+		CExportJDBC exporter = new CExportJDBC(dataSource, "trades");
+		exporter.setBatchSize(5);
+		try {
+			// the last batch has keys already in the table
+			trades(1, 20, "desk ").export(exporter);
+			fail();
+		} catch (CDataGridException e) {
+			// expected
+		}
+		assertEquals(5, count());
+	}
+
+	@Test(expected = CDataGridException.class)
+	public void testUpsertWithoutKey() throws Exception {
+		CRowMetaData meta = new CRowMetaData(new String[] { "ID" },
+				new Class[] { Integer.class }, null);
+		CDataCacheContainer container = new CDataCacheContainer("trades",
+				meta, new HashMap<Object, Object>());
+		container.addSingleRow(new Object[] { 1 });
+
+		CExportJDBC exporter = new CExportJDBC(dataSource, "trades");
+		exporter.setUpsert(true);
+		container.export(exporter);
+	}
+
+}
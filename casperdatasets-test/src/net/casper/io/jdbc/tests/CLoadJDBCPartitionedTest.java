@@ -0,0 +1,92 @@
+package net.casper.io.jdbc.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.io.jdbc.CLoadJDBCPartitioned;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CLoadJDBCPartitionedTest {
+
+	private static final int ROWS = 10000;
+
+	private static final String SQL = "SELECT * FROM trades WHERE id >= ? AND id < ?";
+
+	private JDBCDataSource dataSource;
+
+	@Before
+	public void createTable() throws SQLException {
+		dataSource = new JDBCDataSource();
+		dataSource.setUrl("jdbc:hsqldb:mem:partitioned");
+		dataSource.setUser("SA");
+		dataSource.setPassword("");
+
+		Connection connection = dataSource.getConnection();
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE trades (id INTEGER PRIMARY KEY, "
+				+ "desk VARCHAR(20), amount DOUBLE)");
+		statement.close();
+
+		PreparedStatement insert = connection
+				.prepareStatement("INSERT INTO trades VALUES (?, ?, ?)");
+		for (int i = 1; i <= ROWS; i++) {
+			insert.setInt(1, i);
+			insert.setString(2, "desk " + (i % 5));
+			insert.setDouble(3, i * 0.5);
+			insert.addBatch();
+		}
+		insert.executeBatch();
+		insert.close();
+		connection.close();
+	}
+
+	@After
+	public void dropTable() throws SQLException {
+		Connection connection = dataSource.getConnection();
+		Statement statement = connection.createStatement();
+		statement.execute("DROP TABLE trades");
+		statement.close();
+		connection.close();
+	}
+
+	@Test
+	public void testLoadPartitions() throws CDataGridException {
+		CDataCacheContainer trades = new CLoadJDBCPartitioned(dataSource, SQL,
+				3).load("trades", new String[] { "ID" }, 1, ROWS, 7);
+
+		assertEquals("trades", trades.getCacheName());
+		assertEquals(ROWS, trades.size());
+		for (int i = 1; i <= ROWS; i++) {
+			CDataRow row = trades.getPrimaryKeyMatches(new Object[] { i })[0];
+			assertEquals("desk " + (i % 5), row.getValue(1));
+			assertEquals(i * 0.5, row.getValue(2));
+		}
+	}
+
+	@Test
+	public void testLoadBounds() throws CDataGridException {
+		CDataCacheContainer trades = new CLoadJDBCPartitioned(dataSource, SQL,
+				2).load("trades", new String[] { "ID" }, new long[] { 101,
+				201, 1001 });
+		assertEquals(900, trades.size());
+	}
+
+	@Test(expected = CDataGridException.class)
+	public void testQueryError() throws CDataGridException {
+		new CLoadJDBCPartitioned(dataSource,
+				"SELECT * FROM missing WHERE id >= ? AND id < ?", 2).load(
+				"missing", new String[] { "ID" }, 1, 10, 2);
+	}
+
+}
@@ -0,0 +1,133 @@
+package net.casper.io.snapshot.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRowSet;
+import net.casper.data.model.CRowMetaData;
+import net.casper.io.snapshot.CBuildFromSnapshot;
+import net.casper.io.snapshot.CSnapshot;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File snapshot;
+
+	@Before
+	public void setUp() {
+		snapshot = new File(folder.getRoot(), "people.cds");
+	}
+
+	private CDataCacheContainer createPeople() throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "name",
+				"weight", "born" }, new Class[] { Integer.class, String.class,
+				Double.class, Date.class }, new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("people",
+				meta);
+		for (int i = 0; i < 100; i++) {
+			container.addSingleRow(new Object[] { i,
+					(i % 10 == 0) ? null : "person " + i, i * 1.5,
+					new Date(i * 86400000L) });
+		}
+		return container;
+	}
+
+	private void assertSameRows(CDataCacheContainer expected,
+			CDataCacheContainer actual) throws CDataGridException {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Object[] key = new Object[] { i };
+			CDataRow expectedRow = expected.getPrimaryKeyMatches(key)[0];
+			CDataRow actualRow = actual.getPrimaryKeyMatches(key)[0];
+			assertArrayEquals(expectedRow.getRawData(), actualRow.getRawData());
+		}
+	}
+
+	@Test
+	public void testSaveLoad() throws IOException, CDataGridException {
+		CDataCacheContainer people = createPeople();
+		people.addNonUniqueIndex("name");
+
+		CSnapshot.save(people, snapshot, false);
+		CDataCacheContainer loaded = CSnapshot.load(snapshot);
+
+		assertEquals("people", loaded.getCacheName());
+		assertArrayEquals(new String[] { "id" }, loaded.getMetaDefinition()
+				.getPrimaryKeyColumns());
+		assertArrayEquals(new String[] { "name" }, loaded
+				.getIndexColumnNames());
+		assertSameRows(people, loaded);
+	}
+
+	@Test
+	public void testSaveLoadCompressed() throws IOException,
+			CDataGridException {
+		CDataCacheContainer people = createPeople();
+
+		CSnapshot.save(people, snapshot, true);
+		CDataCacheContainer loaded = new CDataCacheContainer(
+				new CBuildFromSnapshot(new FileInputStream(snapshot)));
+
+		assertSameRows(people, loaded);
+	}
+
+	@Test
+	public void testSelectedColumns() throws IOException, CDataGridException {
+		CSnapshot.save(createPeople(), snapshot, false);
+
+		CDataCacheContainer loaded = new CDataCacheContainer(
+				new CBuildFromSnapshot(snapshot, "names", new String[] {
+						"NAME", "weight" }, null));
+
+		assertEquals(100, loaded.size());
+		assertArrayEquals(new String[] { "name", "weight" }, loaded
+				.getMetaDefinition().getColumnNames());
+		assertNull(loaded.getMetaDefinition().getPrimaryKeyColumns());
+	}
+
+	@Test
+	public void testMap() throws IOException, CDataGridException {
+		CDataCacheContainer people = createPeople();
+		people.addNonUniqueIndex("name");
+		CSnapshot.save(people, snapshot, false);
+
+		CDataCacheContainer mapped = CSnapshot.map(snapshot);
+
+		assertArrayEquals(new String[] { "name" }, mapped
+				.getIndexColumnNames());
+		assertSameRows(people, mapped);
+
+		CDataRowSet byName = mapped.get("name", new Object[] { "person 7",
+				"person 8", "nobody" });
+		assertEquals(2, byName.getNumberRows());
+
+		CDataRowSet byWeight = mapped.get("weight", new Object[] { 3.0 });
+		assertEquals(1, byWeight.getNumberRows());
+		assertEquals(2, byWeight.getAllRows()[0].getValue(0));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testMapReadOnly() throws IOException, CDataGridException {
+		CSnapshot.save(createPeople(), snapshot, false);
+
+		CDataCacheContainer mapped = CSnapshot.map(snapshot);
+		mapped.addSingleRow(new Object[] { 100, "new", 0.0, new Date() });
+	}
+
+}
@@ -0,0 +1,191 @@
+package net.casper.io.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CExporter;
+import net.casper.data.model.CRowMetaData;
+import net.casper.data.model.offheap.COffHeapRowMap;
+import net.casper.io.CExportAsync;
+
+import org.junit.Test;
+
+public class CExportAsyncTest {
+
+	private static final int ROWS = 5000;
+
+	/**
+	 * Collects the ids of exported rows, recording the thread that wrote
+	 * them.
+	 */
+	private static class CollectIds implements CExporter {
+		private final List<Object> ids = new ArrayList<Object>();
+		private final int failAt;
+		private Thread writingThread;
+		private boolean closed;
+
+		CollectIds(int failAt) {
+			this.failAt = failAt;
+		}
+
+		@Override
+		public void setName(String name) {
+		}
+
+		@Override
+		public void setColumnNames(String[] columnNames) {
+		}
+
+		@Override
+		public void setColumnTypes(Class[] columnTypes) {
+		}
+
+		@Override
+		public void setPrimaryKeyColumns(String[] primaryKeyColumns) {
+		}
+
+		@Override
+		public void open() {
+		}
+
+		@Override
+		public void writeRow(Object[] row) throws IOException {
+			writingThread = Thread.currentThread();
+			if (ids.size() == failAt) {
+				throw new IOException("disk full");
+			}
+			ids.add(row[0]);
+		}
+
+		@Override
+		public Object close() {
+			closed = true;
+			return ids;
+		}
+	}
+
+	private static CRowMetaData numbersMeta() throws CDataGridException {
+		return new CRowMetaData(new String[] { "id", "name" }, new Class[] {
+				Integer.class, String.class }, new String[] { "id" });
+	}
+
+	private CDataCacheContainer createContainer() throws CDataGridException {
+		CDataCacheContainer container = new CDataCacheContainer("numbers",
+				numbersMeta());
+		for (int i = ROWS - 1; i >= 0; i--) {
+			container.addSingleRow(new Object[] { i, "number " + i });
+		}
+		return container;
+	}
+
+	@Test
+	public void testSortedExport() throws CDataGridException {
+		CDataCacheContainer container = createContainer();
+		CollectIds collector = new CollectIds(-1);
+
+		Object ids = container.export(new CExportAsync(collector, 100, 2));
+		assertSame(collector.ids, ids);
+		assertEquals(ROWS, collector.ids.size());
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(i, collector.ids.get(i));
+		}
+		assertEquals("casper-export", collector.writingThread.getName());
+	}
+
+	@Test
+	public void testDescendingExport() throws CDataGridException {
+		CollectIds collector = new CollectIds(-1);
+		createContainer().export(new CExportAsync(collector),
+				new String[] { "id" }, false);
+		assertEquals(ROWS - 1, collector.ids.get(0));
+		assertEquals(0, collector.ids.get(ROWS - 1));
+	}
+
+	@Test
+	public void testUnsortedExport() throws CDataGridException {
+		CDataCacheContainer container = CDataCacheContainer
+				.newInsertionOrdered("letters", "letter",
+						new Class[] { String.class });
+		String[] letters = { "c", "a", "b" };
+		for (String letter : letters) {
+			container.addSingleRow(new Object[] { letter });
+		}
+
+		CollectIds collector = new CollectIds(-1);
+		container.export(new CExportAsync(collector), null, true);
+		assertArrayEquals(letters, collector.ids.toArray());
+	}
+
+	@Test(expected = CDataGridException.class)
+	public void testExporterError() throws CDataGridException {
+		createContainer().export(
+				new CExportAsync(new CollectIds(ROWS / 2), 10, 1));
+	}
+
+	@Test
+	public void testExporterErrorClosesExporter() {
+		CollectIds collector = new CollectIds(ROWS / 2);
+		try {
+			createContainer().export(new CExportAsync(collector, 10, 1));
+			fail("Export did not fail");
+		} catch (CDataGridException e) {
+			// expected
+		}
+		assertTrue(collector.closed);
+		assertEquals(ROWS / 2, collector.ids.size());
+		assertFalse(collector.writingThread.isAlive());
+	}
+
+	@Test
+	public void testRowErrorClosesExporter() throws CDataGridException {
+		// a row removed from off-heap storage cannot be read, so the export
+		// fails on the exporting thread part way through
+		CRowMetaData meta = numbersMeta();
+		CDataCacheContainer container = new CDataCacheContainer("numbers",
+				meta, new COffHeapRowMap(meta));
+		for (int i = 0; i < ROWS; i++) {
+			container.addSingleRow(new Object[] { i, "number " + i });
+		}
+		CDataRow[] rows = container.getAllRows(new String[] { "id" }, true);
+		container.removeData("id", new Object[] { ROWS / 2 }, false);
+
+		CollectIds collector = new CollectIds(-1);
+		try {
+			container.export(new CExportAsync(collector, 10, 1), rows);
+			fail("Export did not fail");
+		} catch (CDataRuntimeException e) {
+			// expected
+		}
+		assertTrue(collector.closed);
+		assertTrue(collector.ids.size() <= ROWS / 2);
+		if (collector.writingThread != null) {
+			assertFalse(collector.writingThread.isAlive());
+		}
+	}
+
+	@Test
+	public void testRowsCopied() throws IOException {
+		CollectIds collector = new CollectIds(-1);
+		CExportAsync async = new CExportAsync(collector);
+		async.open();
+		Object[] row = { 1, "one" };
+		async.writeRow(row);
+		row[0] = 2;
+		async.flush();
+		async.close();
+		assertEquals(1, collector.ids.get(0));
+	}
+
+}
@@ -0,0 +1,193 @@
+package net.casper.io.wal.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import net.casper.data.model.CDataCacheContainer;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CRowMetaData;
+import net.casper.io.wal.CWalSyncPolicy;
+import net.casper.io.wal.CWriteAheadLog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CWriteAheadLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CDataCacheContainer createPeople() throws CDataGridException {
+		CRowMetaData meta = new CRowMetaData(new String[] { "id", "name",
+				"weight" }, new Class[] { Integer.class, String.class,
+				Double.class }, new String[] { "id" });
+		CDataCacheContainer container = new CDataCacheContainer("people",
+				meta);
+		for (int i = 0; i < 10; i++) {
+			container.addSingleRow(new Object[] { i, "person " + i, i * 1.5 });
+		}
+		return container;
+	}
+
+	private void assertSameRows(CDataCacheContainer expected,
+			CDataCacheContainer actual) throws CDataGridException {
+		assertEquals(expected.size(), actual.size());
+		for (CDataRow expectedRow : expected.getAllRows()) {
+			Object[] key = new Object[] { expectedRow.getValue(0) };
+			CDataRow actualRow = actual.getPrimaryKeyMatches(key)[0];
+			assertArrayEquals(expectedRow.getRawData(), actualRow.getRawData());
+		}
+	}
+
+	private void changePeople(CDataCacheContainer people)
+			throws CDataGridException {
+		people.addSingleRow(new Object[] { 10, "added", null });
+		people.removeData("id", new Object[] { 3, 4 }, true);
+		people.setColumnValue("weight", 2.0);
+		people.addSingleRow(new Object[] { 5, "replaced", 5.0 });
+	}
+
+	@Test
+	public void testRecover() throws IOException, CDataGridException {
+		File dir = folder.newFolder("wal");
+		CWriteAheadLog log = new CWriteAheadLog(dir,
+				CWalSyncPolicy.EVERY_GROUP);
+		assertNull(log.recover());
+
+		CDataCacheContainer people = createPeople();
+		log.attach(people);
+		changePeople(people);
+		log.sync();
+
+		// recover without closing, as after a crash
+		CDataCacheContainer recovered = new CWriteAheadLog(dir,
+				CWalSyncPolicy.NEVER).recover();
+		assertSameRows(people, recovered);
+		log.close();
+	}
+
+	@Test
+	public void testCheckpoint() throws IOException, CDataGridException {
+		File dir = folder.newFolder("wal");
+		CWriteAheadLog log = new CWriteAheadLog(dir, CWalSyncPolicy.PERIODIC);
+
+		CDataCacheContainer people = createPeople();
+		people.addNonUniqueIndex("name");
+		log.attach(people);
+		changePeople(people);
+		log.checkpoint();
+		people.addSingleRow(new Object[] { 11, "after checkpoint", 1.0 });
+		log.close();
+
+		CDataCacheContainer recovered = new CWriteAheadLog(dir,
+				CWalSyncPolicy.NEVER).recover();
+		assertSameRows(people, recovered);
+		assertEquals(1, recovered.get("name",
+				new Object[] { "after checkpoint" }).getNumberRows());
+	}
+
+	@Test
+	public void testTornRecord() throws IOException, CDataGridException {
+		File dir = folder.newFolder("wal");
+		CWriteAheadLog log = new CWriteAheadLog(dir, CWalSyncPolicy.NEVER);
+
+		CDataCacheContainer people = createPeople();
+		log.attach(people);
+		changePeople(people);
+		log.close();
+
+		// append the start of a record, as if the process died writing it
+		File[] segments = dir.listFiles();
+		for (File segment : segments) {
+			if (segment.getName().endsWith(".log")) {
+				RandomAccessFile file = new RandomAccessFile(segment, "rw");
+				file.seek(file.length());
+				file.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+				file.close();
+			}
+		}
+
+		CDataCacheContainer recovered = new CWriteAheadLog(dir,
+				CWalSyncPolicy.NEVER).recover();
+		assertSameRows(people, recovered);
+	}
+
+	@Test
+	public void testColumnTypeChanged() throws IOException,
+			CDataGridException {
+		File dir = folder.newFolder("wal");
+		CWriteAheadLog log = new CWriteAheadLog(dir,
+				CWalSyncPolicy.EVERY_GROUP);
+
+		CDataCacheContainer people = createPeople();
+		log.attach(people);
+		CDataRow[] rows = people.getAllRows();
+		Object[] weights = new Object[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			weights[i] = rows[i].getValue(2) + " kg";
+		}
+		people.setColumnValues("weight", String.class, weights);
+		people.addSingleRow(new Object[] { 10, "added", "heavy" });
+		log.sync();
+
+		// recover without closing, as after a crash
+		CDataCacheContainer recovered = new CWriteAheadLog(dir,
+				CWalSyncPolicy.NEVER).recover();
+		assertEquals(String.class, recovered.getMetaDefinition()
+				.getColumnTypeCls(2));
+		assertSameRows(people, recovered);
+
+		// and from a checkpoint of the new type
+		log.checkpoint();
+		people.addSingleRow(new Object[] { 11, "after checkpoint", "light" });
+		log.close();
+		recovered = new CWriteAheadLog(dir, CWalSyncPolicy.NEVER).recover();
+		assertSameRows(people, recovered);
+	}
+
+	@Test
+	public void testMaxPendingBytes() throws IOException, CDataGridException {
+		File dir = folder.newFolder("wal");
+		CWriteAheadLog log = new CWriteAheadLog(dir, CWalSyncPolicy.NEVER);
+		// no group commit during the test, so only a full buffer is written
+		log.setGroupCommitInterval(60 * 60 * 1000);
+		log.setMaxPendingBytes(100);
+
+		CDataCacheContainer people = createPeople();
+		log.attach(people);
+		for (int i = 10; i < 60; i++) {
+			people.addSingleRow(new Object[] { i, "person " + i, 1.0 });
+		}
+
+		long logged = 0;
+		for (File file : dir.listFiles()) {
+			if (file.getName().endsWith(".log")) {
+				logged += file.length();
+			}
+		}
+		assertTrue("Only " + logged + " bytes written", logged > 1000);
+
+		log.sync();
+		CDataCacheContainer recovered = new CWriteAheadLog(dir,
+				CWalSyncPolicy.NEVER).recover();
+		assertSameRows(people, recovered);
+		log.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoPrimaryKey() throws IOException, CDataGridException {
+		CDataCacheContainer noKey = CDataCacheContainer.newInsertionOrdered(
+				"noKey", "name", new Class[] { String.class });
+		new CWriteAheadLog(folder.newFolder("wal"), CWalSyncPolicy.NEVER)
+				.attach(noKey);
+	}
+
+}
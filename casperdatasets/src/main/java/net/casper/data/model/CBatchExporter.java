@@ -0,0 +1,43 @@
+package net.casper.data.model;
+
+import java.io.IOException;
+
+/**
+ * An exporter that accepts rows in batches. When exporting to a batch
+ * exporter, {@link CDataCacheContainer#export(CExporter)} calls
+ * {@link #writeRows(Object[][], int)} instead of {@link #writeRow(Object[])},
+ * and {@link #flush()} after the last batch.
+ *
+ * The batch array is reused for the next batch once
+ * {@link #writeRows(Object[][], int)} returns, and the rows in it are the
+ * container's own row data, so neither should be modified or kept after
+ * returning. Copy rows that are needed later, eg: to write on another
+ * thread.
+ *
+ * @author agent
+ */
+public interface CBatchExporter extends CExporter {
+
+	/**
+	 * Export a batch of rows.
+	 *
+	 * @param rows
+	 *            rows, of which the first {@code count} are exported
+	 * @param count
+	 *            number of rows in the batch
+	 * @throws IOException
+	 *             if problem writing rows.
+	 */
+	void writeRows(Object[][] rows, int count) throws IOException;
+
+	/**
+	 * Finish writing after the last row, eg: write out any buffered rows.
+	 * Called once after all rows are written and before {@link #close()}.
+	 * Not called if the export fails.
+	 *
+	 * @throws IOException
+	 *             if problem writing rows.
+	 */
+	void flush() throws IOException;
+
+}
@@ -0,0 +1,359 @@
+//	CCopyOnWriteRowMap.java
+//	- Casper Datasets (R) -
+//
+
+package net.casper.data.model;
+
+
+//	Java imports
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ *	A data row map that shares the rows of another map, and keeps its own
+ *	changes separately. Used by {@link CDataCacheContainer#fork()}, so a
+ *	container and its forks share their rows until they change them.
+ *	<br/><br/>
+ *	The shared map is never changed. Rows added or replaced are kept in this
+ *	map, and keys removed from the shared map are remembered. Rows of the
+ *	shared map must not be changed in place: {@link #own(Object)} copies a
+ *	row into this map before it is changed. Iteration returns the shared
+ *	map's rows in its order, with replaced rows in place, then added rows
+ *	in the order they were added.
+ *	<br/><br/>
+ *	Not synchronized; the container's update lock guards changes.
+ *
+ *	@author agent
+ */
+final class CCopyOnWriteRowMap
+	extends AbstractMap
+	implements Serializable
+{
+
+	//	--- Static Variables ---
+
+	/**	Required for serializable */
+	private static final long serialVersionUID = 1L;
+
+
+	//	--- Instance Variables ---
+
+	/** Shared rows, never changed. */
+	private Map shared;
+
+	/** Rows added, or replacing shared rows. */
+	private Map own = new LinkedHashMap();
+
+	/** Keys of shared rows that have been removed. */
+	private Set removed = new HashSet();
+
+	/** Number of rows. */
+	private int size;
+
+	/** Entry view, created on first use. */
+	private transient Set entrySet;
+
+
+	//	--- Constructor(s) ---
+
+	/**
+	 *	Creates a map with the rows of a shared map.
+	 *
+	 *	@param shared - rows to share, which must no longer be changed
+	 */
+	CCopyOnWriteRowMap(Map shared)
+	{
+		this.shared = shared;
+		this.size = shared.size();
+	}
+
+
+	//	--- Instance Methods ---
+
+	/**
+	 *	Returns the shared map.
+	 *	@return shared rows
+	 */
+	Map getShared()
+	{
+		return shared;
+	}
+
+	/**
+	 *	Returns whether this map has the same rows as the shared map.
+	 *	@return true if no rows have been added, replaced or removed
+	 */
+	boolean isUnchanged()
+	{
+		return own.isEmpty() && removed.isEmpty();
+	}
+
+	/**
+	 *	Returns a row that can be changed in place, copying it from the
+	 *	shared map if needed.
+	 *
+	 *	@param key - primary key of row
+	 *	@return row owned by this map, or null if there is no row with the key
+	 */
+	CDataRow own(Object key)
+		throws CDataGridException
+	{
+		CDataRow row = (CDataRow) own.get(key);
+		if (row != null || removed.contains(key))
+			return row;
+
+		CDataRow sharedRow = (CDataRow) shared.get(key);
+		if (sharedRow == null)
+			return null;
+
+		row = new CDataRow((Object[]) sharedRow.getRawData().clone());
+		own.put(key, row);
+		return row;
+	}
+
+	/**
+	 *	Returns rows that can be changed in place, copying rows from the
+	 *	shared map if needed. Rows are found by identity, for containers
+	 *	whose primary key is not stored in the row.
+	 *
+	 *	@param rows - rows of this map, as returned by iteration or get
+	 *	@return rows owned by this map, in the same order
+	 */
+	CDataRow[] own(CDataRow[] rows)
+		throws CDataGridException
+	{
+		//	Find the key of each row, from the shared rows or rows already copied
+		Map keys = new IdentityHashMap(rows.length);
+		for (int i = 0; i < rows.length; i++)
+			keys.put(rows[i], null);
+		findKeys(shared, keys);
+		findKeys(own, keys);
+
+		CDataRow[] owned = new CDataRow[rows.length];
+		for (int i = 0; i < rows.length; i++)
+			owned[i] = own(keys.get(rows[i]));
+		return owned;
+	}
+
+	/**
+	 *	Sets the key of each row found in a map.
+	 *
+	 *	@param map - map to search
+	 *	@param keys - rows, mapped to their keys when found
+	 */
+	private static void findKeys(Map map, Map keys)
+	{
+		for (Iterator iter = map.entrySet().iterator(); iter.hasNext(); ) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			if (keys.containsKey(entry.getValue()))
+				keys.put(entry.getValue(), entry.getKey());
+		}
+	}
+
+	/**
+	 *	Returns all rows, copying rows from the shared map so they can be
+	 *	changed in place.
+	 *
+	 *	@return rows owned by this map, in iteration order
+	 */
+	CDataRow[] ownAll()
+		throws CDataGridException
+	{
+		Object[] keys = keySet().toArray();
+		CDataRow[] rows = new CDataRow[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			rows[i] = own(keys[i]);
+		return rows;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean containsKey(Object key)
+	{
+		return own.containsKey(key)
+				|| (!removed.contains(key) && shared.containsKey(key));
+	}
+
+	public Object get(Object key)
+	{
+		Object row = own.get(key);
+		if (row != null || removed.contains(key))
+			return row;
+		return shared.get(key);
+	}
+
+	public Object put(Object key, Object value)
+	{
+		Object previous = get(key);
+		own.put(key, value);
+		removed.remove(key);
+		if (previous == null)
+			size++;
+		return previous;
+	}
+
+	public Object remove(Object key)
+	{
+		Object previous = get(key);
+		if (previous == null)
+			return null;
+
+		own.remove(key);
+		if (shared.containsKey(key))
+			removed.add(key);
+		size--;
+		return previous;
+	}
+
+	public void clear()
+	{
+		shared = Collections.EMPTY_MAP;
+		own = new LinkedHashMap();
+		removed = new HashSet();
+		size = 0;
+	}
+
+	public Set entrySet()
+	{
+		if (entrySet == null) {
+			entrySet = new AbstractSet() {
+				public Iterator iterator() {
+					return new EntryIterator();
+				}
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+
+	//	--- Inner Classes ---
+
+	/**
+	 *	Iterates over shared rows that have not been removed, replaced by
+	 *	own rows with the same key, then over own rows not in the shared map.
+	 *	Entries are read-only.
+	 */
+	private final class EntryIterator
+		implements Iterator
+	{
+		private Iterator sharedIter = shared.entrySet().iterator();
+
+		private Iterator ownIter = null;
+
+		private Map.Entry next = null;
+
+		EntryIterator()
+		{
+			advance();
+		}
+
+		private void advance()
+		{
+			next = null;
+			while (sharedIter != null && sharedIter.hasNext()) {
+				Map.Entry entry = (Map.Entry) sharedIter.next();
+				Object key = entry.getKey();
+				if (removed.contains(key))
+					continue;
+				Object row = own.get(key);
+				next = new Entry(key, (row == null) ? entry.getValue() : row);
+				return;
+			}
+
+			if (ownIter == null) {
+				sharedIter = null;
+				ownIter = own.entrySet().iterator();
+			}
+			while (ownIter.hasNext()) {
+				Map.Entry entry = (Map.Entry) ownIter.next();
+				if (!shared.containsKey(entry.getKey())) {
+					next = new Entry(entry.getKey(), entry.getValue());
+					return;
+				}
+			}
+		}
+
+		public boolean hasNext()
+		{
+			return next != null;
+		}
+
+		public Object next()
+		{
+			if (next == null)
+				throw new NoSuchElementException();
+			Map.Entry current = next;
+			advance();
+			return current;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException("Remove rows through the map.");
+		}
+	}
+
+	/**
+	 *	Read-only map entry.
+	 */
+	private static final class Entry
+		implements Map.Entry
+	{
+		private final Object key;
+
+		private final Object value;
+
+		Entry(Object key, Object value)
+		{
+			this.key = key;
+			this.value = value;
+		}
+
+		public Object getKey()
+		{
+			return key;
+		}
+
+		public Object getValue()
+		{
+			return value;
+		}
+
+		public Object setValue(Object value)
+		{
+			throw new UnsupportedOperationException("Entries are read-only.");
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry e = (Map.Entry) o;
+			return (key == null ? e.getKey() == null : key.equals(e.getKey()))
+					&& (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		public int hashCode()
+		{
+			return (key == null ? 0 : key.hashCode())
+					^ (value == null ? 0 : value.hashCode());
+		}
+	}
+
+}
@@ -8,6 +8,8 @@ package net.casper.data.model;
 //	Java imports
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,6 +22,8 @@ import java.util.Set;
 
 import net.casper.data.model.filters.CDataFilterClause;
 import net.casper.data.model.filters.EqualsFilter;
+import net.casper.data.model.offheap.COffHeapDataRow;
+import net.casper.data.model.offheap.COffHeapRowMap;
 
 
 /**
@@ -59,6 +63,12 @@ public class CDataCacheContainer
 	/**	Required for serializable */
 	private static final long serialVersionUID = 1L;
 	
+	/** Number of rows read from a builder before they are added to the container. */
+	private static final int BUILD_BATCH_SIZE = 10000;
+	
+	/** Number of rows passed to a {@link CBatchExporter} at a time. */
+	private static final int EXPORT_BATCH_SIZE = 1000;
+	
 	
 	//
 	//	--- Instance Variables ---
@@ -82,6 +92,15 @@ public class CDataCacheContainer
 	/** Identity primary key. Used by containers that have a null primary key */
 	private int identityPK = 0;
 
+	/** Listeners notified of changes, copied on write so firing needs no copy. */
+	private transient CDataChangeListener[] listeners = new CDataChangeListener[0];
+
+	/** Indices are shared with a fork, so must not be updated in place. */
+	private transient boolean indicesShared = false;
+
+	/** Indices no longer match the rows, and are rebuilt when next used. */
+	private boolean indicesStale = false;
+
 	//
 	//	--- Constructor(s) ---
 	//
@@ -107,28 +126,48 @@ public class CDataCacheContainer
 			
 			builder.open();
 
+			// Copy the column types, so they can be compared with 
+			// the types reported once all rows are read
+			Class[] columnTypes = builder.getColumnTypes();
 			init(builder.getName(), new CRowMetaData(
-					builder.getColumnNames(), builder.getColumnTypes(),
+					builder.getColumnNames(), 
+					(columnTypes == null) ? null : (Class[]) columnTypes.clone(),
 					builder.getPrimaryKeyColumns()), builder.getConcreteMap());
 
 			Object[] nextRow = null;
 				
-			List cRows = new LinkedList();
+			// Add rows in batches (more efficient than one by one)
+			// without holding every row read in a separate list.
+			// This lets storage that keeps rows off-heap
+			// receive them as they are read.
+			CDataRow[] batch = new CDataRow[BUILD_BATCH_SIZE];
+			int batchCount = 0;
 			
 			while ((nextRow = builder.readRow()) != null) {
 				// Create a new CDataRow from the read in row
 				// and add it to the container
-				CDataRow cRow = new CDataRow(nextRow);
-				cRows.add(cRow);
+				batch[batchCount++] = new CDataRow(nextRow);
+				
+				if (batchCount == batch.length) {
+					addData(batch, false);
+					batchCount = 0;
+				}
 			}
 			
-			// Convert list to array of CDataRow objects
-			CDataRow[] cRowsArray = new CDataRow[cRows.size()];
-			cRows.toArray(cRowsArray);
+			CDataRow[] lastBatch = new CDataRow[batchCount];
+			System.arraycopy(batch, 0, lastBatch, 0, batchCount);
+			addData(lastBatch, false);
 			
-			// Add all rows at once (more efficient than 
-			// one by one) and update indices.
-			addData(cRowsArray);
+			// A builder may widen column types while reading rows, 
+			// eg: when types were inferred from a sample of rows. 
+			columnTypes = builder.getColumnTypes();
+			if (columnTypes != null 
+					&& !Arrays.equals(columnTypes, metaData.getColumnTypes())) {
+				widenColumns(columnTypes);
+			}
+			
+			// Update indices once all rows are added.
+			updateIndices();
 
 			builder.close();
 			
@@ -281,6 +320,18 @@ public class CDataCacheContainer
 	public int getNumberRows() {
 		return size(); 
 	}
+	
+	/**
+	 * Returns whether the types of columns are fixed by the map that stores 
+	 * the rows, eg: a {@link COffHeapRowMap}, which writes each row in a 
+	 * binary layout made from the column types. The types of such columns 
+	 * cannot be changed. 
+	 * 
+	 * @return true if column types cannot be changed
+	 */
+	public boolean hasFixedColumnTypes() {
+		return dataRowMap instanceof COffHeapRowMap;
+	}
 
 	/**
 	 * Returns name of cache 
@@ -300,13 +351,52 @@ public class CDataCacheContainer
 	
 	
 	/**
-	 * Export this CDataCacheContainer via an exporter.
+	 * Export this CDataCacheContainer via an exporter. Rows are exported
+	 * sorted by primary key.
 	 * 
 	 * @param exporter exporter
 	 * @throws CDataGridException if problem exporting container
 	 */
 	public Object export(
 			CExporter exporter) throws CDataGridException  {
+		return export(exporter, metaData.getPrimaryKeyColumns(), true);
+	}
+	
+	
+	/**
+	 * Export this CDataCacheContainer via an exporter, in the order of the 
+	 * specified columns. If no sort columns are specified, rows are exported 
+	 * in the order they are stored without sorting, which for a container 
+	 * without a primary key is insertion order. 
+	 * 
+	 * Rows are exported directly from a copy of the container's row 
+	 * references, taken under the update lock. A {@link CBatchExporter} 
+	 * is passed rows in batches. 
+	 * 
+	 * @param exporter exporter
+	 * @param sortColumnNames columns to sort by, or {@code null} to export 
+	 * 			unsorted
+	 * @param ascending true, if sort order should be ascending
+	 * @throws CDataGridException if problem exporting container
+	 */
+	public Object export(CExporter exporter, String[] sortColumnNames,
+			boolean ascending) throws CDataGridException {
+		return export(exporter, getAllRows(sortColumnNames, ascending));
+	}
+	
+	
+	/**
+	 * Export the specified rows of this CDataCacheContainer via an exporter, 
+	 * in the order given. Used to export part of a container, eg: rows 
+	 * taken from {@link #getAllRows(String[], boolean)}. 
+	 * A {@link CBatchExporter} is passed rows in batches. 
+	 * 
+	 * @param exporter exporter
+	 * @param rows rows of this container to export
+	 * @throws CDataGridException if problem exporting container
+	 */
+	public Object export(CExporter exporter, CDataRow[] rows) 
+			throws CDataGridException {
 		
 		try {
 			CRowMetaData meta = getMetaDefinition();
@@ -317,21 +407,98 @@ public class CDataCacheContainer
 			exporter.setPrimaryKeyColumns(meta.getPrimaryKeyColumns());
 			exporter.open();
 			
-			CDataRowSet rowset = getAll();
-			
-			while (rowset.next()) {
-				CDataRow cRow = rowset.getCurrentRow();
-				exporter.writeRow(cRow.getRawData());
+			if (exporter instanceof CBatchExporter) {
+				CBatchExporter batchExporter = (CBatchExporter) exporter;
+				
+				// The batch array is reused for every batch
+				Object[][] batch = new Object[Math.min(EXPORT_BATCH_SIZE, 
+						Math.max(rows.length, 1))][];
+				int batchCount = 0;
+				
+				for (int i = 0; i < rows.length; i++) {
+					batch[batchCount++] = rows[i].getRawData();
+					
+					if (batchCount == batch.length) {
+						batchExporter.writeRows(batch, batchCount);
+						batchCount = 0;
+					}
+				}
+				
+				if (batchCount > 0) {
+					batchExporter.writeRows(batch, batchCount);
+				}
+				batchExporter.flush();
+			} else {
+				for (int i = 0; i < rows.length; i++) {
+					exporter.writeRow(rows[i].getRawData());
+				}
 			}
 	
 		} catch (IOException e) {
 			exporter.close();
 			throw new CDataGridException("Error exporting container: " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			//	Release the exporter's resources, eg: open files 
+			exporter.close();
+			throw e;
 		}
 
 		return exporter.close();
 	
 	}
+	
+	
+	/**
+	 * Returns all data rows in raw format, sorted by the specified columns. 
+	 * The rows are copied under the update lock, so this is safe to call 
+	 * while another thread updates the container. 
+	 * 
+	 * @param sortColumnNames columns to sort by, or {@code null} to leave 
+	 * 			the rows in the order they are stored
+	 * @param ascending true, if sort order should be ascending
+	 * @return rows
+	 * @throws CDataGridException if a sort column does not exist or values 
+	 * 			cannot be compared
+	 */
+	public CDataRow[] getAllRows(String[] sortColumnNames, boolean ascending) 
+			throws CDataGridException {
+		CDataRow[] rows = getAllRows();
+		if (sortColumnNames != null && sortColumnNames.length > 0) {
+			sortRows(rows, sortColumnNames, ascending);
+		}
+		return rows;
+	}
+	
+	
+	/**
+	 * Sort rows in place by the specified columns. 
+	 * 
+	 * @param rows rows to sort
+	 * @param sortColumnNames columns to sort by
+	 * @param ascending true, if sort order should be ascending
+	 * @throws CDataGridException if a column does not exist or values cannot 
+	 * 			be compared
+	 */
+	private void sortRows(CDataRow[] rows, String[] sortColumnNames, 
+			boolean ascending) throws CDataGridException {
+		int[] columnIndices  = metaData.getColumnIndices(sortColumnNames);
+		Class[] columnTypes = metaData.getColumnTypes(columnIndices);
+		CDataComparator rowComparator = new CDataComparator(columnIndices, columnTypes);
+		
+		try {
+			Arrays.sort(rows, rowComparator);
+		} catch (RuntimeException e) {
+			throw new CDataGridException(e.getMessage(), e);
+		}
+		
+		if (!ascending) {
+			for (int i = 0, j = rows.length - 1; i < j; i++, j--) {
+				CDataRow swap = rows[i];
+				rows[i] = rows[j];
+				rows[j] = swap;
+			}
+		}
+	}
 
 	
 	/**
@@ -412,10 +579,6 @@ public class CDataCacheContainer
 		//	Perform match search
 		//	long startTime = System.currentTimeMillis();
 		
-		//	Matching rows 
-		CDataRow[] rows = new CDataRow[dataRowMap.size()];
-		dataRowMap.values().toArray(rows);
-
 		//	Set meta definition - this will be used during the query 
 		//	by all filters to find the column indices given the column names
 		filterClause.setMetaDefinition(metaData);
@@ -426,6 +589,11 @@ public class CDataCacheContainer
 		//	that there exists a search on the primary key or index on this. 
 		filterClause.setCacheContainerCallbackOptimization(this);
 
+		//	Matching rows 
+		//	Only needed for a full table scan. Skipping them for a primary key or
+		//	index lookup avoids touching every row of a lazily loaded container.
+		CDataRow[] rows = filterClause.isLookup() ? null : getAllRows();
+
 		//	Search, w/ PK & Index Optimizations 
 		//	Perform search on all filters.  The filter clause will manage optimizations. 
 		//	Will perform PK and index searches.  And will perform a full table scan in 
@@ -475,9 +643,7 @@ public class CDataCacheContainer
 		throws CDataGridException
 	{
 		//	Convert to array format 
-		Collection values = dataRowMap.values();
-		CDataRow[] rows = new CDataRow[values.size()];
-		values.toArray(rows);
+		CDataRow[] rows = getAllRows();
 
 		//	Create rowset, sort, return 
 		CDataRowSet rowset = new CDataRowSet(metaData);
@@ -492,14 +658,20 @@ public class CDataCacheContainer
 
 	/**
 	 * Returns all data rows in unsorted raw format. 
+	 * The rows are copied under the update lock, so this is safe to call 
+	 * while another thread updates the container. 
 	 * @return
 	 */
 	public CDataRow[] getAllRows()
 	{
-		Collection values = dataRowMap.values();
-		CDataRow[] rows = new CDataRow[values.size()];
-		values.toArray(rows);
-		return rows; 
+		checkLock();
+		synchronized (lock)
+		{
+			Collection values = dataRowMap.values();
+			CDataRow[] rows = new CDataRow[values.size()];
+			values.toArray(rows);
+			return rows; 
+		}
 	}
 	
 	
@@ -627,6 +799,8 @@ public class CDataCacheContainer
 				// 	Re-build all indices 			
 				updateIndices();
 			}
+			
+			fireRowsAdded(dataRows);
 		}	
 		
 		return additionCount;
@@ -676,36 +850,58 @@ public class CDataCacheContainer
 		if (filterClause == null || filterClause.size() < 1)
 			return 0;
 
-		//	Number of rows to remove 
-		int removalCount = 0;
-
 		//	Retrieve all rows matching the filter, and remove from data cache. 
 		CDataRowSet removalCandidates = get(filterClause, null, true);
 		CDataRow[] rows = removalCandidates.getAllRows();
 
-		if (rows != null && 
-			rows.length > 0)
-		{
-			checkLock();
-			synchronized (lock)
-			{	
-				//	Re-create primary keys for matching rows, remove from underlying cache store... 
-				for (int i = 0; i < rows.length; i++) {
-					Object primaryKey = metaData.createPrimaryKey(rows[i]);
-					dataRowMap.remove(primaryKey);
-				}
-				
-				//	Update configured indices, if underlying cache was modified. 
-				removalCount = rows.length;
-				if (updateIndices && removalCount > 0)
-					updateIndices();
-			}
-		}
+		int removalCount = removeData(rows, updateIndices);
 	
 		// System.out.println("CDataCacheContainer :: Removed " + removalCount + " rows from table via match.");		
 		return removalCount;
 	}
 	
+	
+	/**
+	 *	Removes the rows with the same primary keys as the rows provided. 
+	 *
+	 * @param rows - rows to remove, only the primary key columns are used  
+	 * @param updateIndices - true, to automatically update any configured indices
+	 * @throws CDataGridException
+	 * @return number of rows removed
+	 */
+	public int removeData(CDataRow[] rows, boolean updateIndices)
+		throws CDataGridException
+	{
+		if (rows == null || rows.length < 1)
+			return 0;
+		
+		checkLock();
+		synchronized (lock)
+		{	
+			//	Re-create primary keys for matching rows, remove from underlying cache store... 
+			List removed = new ArrayList(rows.length);
+			for (int i = 0; i < rows.length; i++) {
+				Object primaryKey = metaData.createPrimaryKey(rows[i]);
+				Object row = dataRowMap.remove(primaryKey);
+				if (row != null)
+					removed.add(row);
+			}
+			
+			//	Update configured indices, if underlying cache was modified. 
+			if (removed.size() > 0)
+			{
+				if (updateIndices)
+					updateIndices();
+				
+				CDataRow[] removedRows = new CDataRow[removed.size()];
+				removed.toArray(removedRows);
+				fireRowsRemoved(removedRows);
+			}
+			
+			return removed.size();
+		}
+	}
+	
 
 	/**
 	 *	"Remove-all" effectively wipes out the data underlying the cache. 
@@ -724,6 +920,8 @@ public class CDataCacheContainer
 			checkLock();
 			synchronized (lock)
 			{
+				CDataRow[] removedRows = (getListeners().length > 0) ? getAllRows() : null;
+				
 				Set keyset = dataRowMap.keySet();
 				Object[] keylist = new Object[keyset.size()];
 				keyset.toArray(keylist);
@@ -733,6 +931,9 @@ public class CDataCacheContainer
 				}
 				
 				updateIndices();
+				
+				if (removedRows != null)
+					fireRowsRemoved(removedRows);
 			}
 			
 		}	
@@ -807,6 +1008,9 @@ public class CDataCacheContainer
 		checkLock();
 		synchronized (lock)
 		{			
+			//	Rows changed, for listeners 
+			List updated = (getListeners().length > 0) ? new ArrayList() : null;
+			
 			//	Iterate through all source rows, merge into destination container, based on join columns.
 			//	This will overwrite existing data in the destination container. 
 			mergeFrom.reset();
@@ -826,6 +1030,14 @@ public class CDataCacheContainer
 				//	Get all matching rows. 
 				CDataRowSet results = get(filterClause, null, false);
 				
+				//	Copy rows shared with a fork before changing them 
+				if (dataRowMap instanceof CCopyOnWriteRowMap && results.getNumberRows() > 0)
+				{
+					CDataRow[] owned = ownRows(results.getAllRows());
+					results = new CDataRowSet(metaData);
+					results.addData(owned);
+				}
+				
 				//	If there exist any matches, merge all available rows in from 
 				//	the source rowset into the destination data container 
 				if (results != null && results.getNumberRows() > 0)
@@ -862,6 +1074,20 @@ public class CDataCacheContainer
 				
 				//	Count, number of rows updated 
 				rowsUpdated += (results == null ? 0 : results.getNumberRows());
+				
+				if (updated != null && results != null)
+					updated.addAll(Arrays.asList(results.getAllRows()));
+			}
+			
+			//	Indices refer to the rows that were copied 
+			if (dataRowMap instanceof CCopyOnWriteRowMap && rowsUpdated > 0)
+				indicesStale = true;
+			
+			if (updated != null && updated.size() > 0)
+			{
+				CDataRow[] updatedRows = new CDataRow[updated.size()];
+				updated.toArray(updatedRows);
+				fireRowsUpdated(updatedRows);
 			}
 		}
 		
@@ -900,14 +1126,332 @@ public class CDataCacheContainer
 		//	Retrieve index of column
 		int columnIndex = metaData.getColumnIndex(columnName);
 
+		checkLock();
 		synchronized (lock)
 		{
-			CDataRow[] rows = new CDataRow[dataRowMap.size()];
-			dataRowMap.values().toArray(rows);
+			CDataRow[] rows = ownAllRows();
 			
 			//	Set all values within column
 			for (int i = 0; i < rows.length; i++)
 				rows[i].setValue(columnIndex, columnValue);		
+			
+			//	Indices refer to the rows that were copied 
+			if (dataRowMap instanceof CCopyOnWriteRowMap)
+				indicesStale = true;
+			
+			fireColumnValueSet(columnIndex, columnValue);
+		}
+	}
+	
+	
+	/**
+	 * Sets the values of a column, one value for each row. Values are in 
+	 * the order of the rows returned by {@link #getAllRows()}, so the 
+	 * container must not have had rows added or removed since they were 
+	 * read. An index on the column is rebuilt, and listeners are notified 
+	 * that all rows have been updated. 
+	 * 
+	 * @param columnName - name of column to set
+	 * @param values - new values, one for each row
+	 * @throws CDataGridException if the column does not exist or is part of 
+	 * the primary key, or there is not one value for each row
+	 */
+	public void setColumnValues(String columnName, Object[] values)
+		throws CDataGridException
+	{
+		setColumnValues(columnName, null, values);
+	}
+	
+	/**
+	 * Sets the values of a column, one value for each row, and changes the 
+	 * type of the column. Values are in the order of the rows returned by 
+	 * {@link #getAllRows()}, as for {@link #setColumnValues(String, Object[])}, 
+	 * and must be of the new type. If the type changes, listeners are 
+	 * notified through {@link CDataChangeListener#columnTypeChanged}, 
+	 * otherwise that all rows have been updated. 
+	 * 
+	 * @param columnName - name of column to set
+	 * @param columnType - new type of column, or {@code null} to keep its type
+	 * @param values - new values, one for each row
+	 * @throws CDataGridException if the column does not exist or is part of 
+	 * the primary key, there is not one value for each row, or the type 
+	 * changes and column types are fixed (see {@link #hasFixedColumnTypes()})
+	 */
+	public void setColumnValues(String columnName, Class columnType, Object[] values)
+		throws CDataGridException
+	{
+		setColumnValues(columnName, columnType, null, values);
+	}
+	
+	/**
+	 * Sets the values of a column, one value for each row, as for 
+	 * {@link #setColumnValues(String, Class, Object[])}, checking that the 
+	 * container still holds the rows the values were computed from. Pass 
+	 * the rows returned by {@link #getAllRows()} that the values were 
+	 * computed from. If rows have since been added, removed or replaced, 
+	 * nothing is changed and an exception is thrown, rather than values 
+	 * being set on the wrong rows. 
+	 * 
+	 * @param columnName - name of column to set
+	 * @param columnType - new type of column, or {@code null} to keep its type
+	 * @param sourceRows - rows the values were computed from, in the order 
+	 * of {@link #getAllRows()}, or {@code null} to not check the rows
+	 * @param values - new values, one for each row
+	 * @throws CDataGridException if the column does not exist or is part of 
+	 * the primary key, there is not one value for each row, the container's 
+	 * rows are not {@code sourceRows}, or the type changes and column types are 
+	 * fixed (see {@link #hasFixedColumnTypes()})
+	 */
+	public void setColumnValues(String columnName, Class columnType, CDataRow[] sourceRows, Object[] values)
+		throws CDataGridException
+	{
+		if (columnName == null || !metaData.containsColumn(columnName))
+			throw new CDataGridException("Column name: " + columnName + " does not exist in this data container.");
+
+		String[] pkColumns = metaData.getPrimaryKeyColumns();
+		if (pkColumns != null && Arrays.asList(pkColumns).contains(columnName))
+			throw new CDataGridException("Cannot set values of primary key column " + columnName + ".");
+		
+		int columnIndex = metaData.getColumnIndex(columnName);
+		
+		checkLock();
+		synchronized (lock)
+		{
+			if (values == null || values.length != dataRowMap.size())
+				throw new CDataGridException("Expected " + dataRowMap.size() + " values for column " + columnName + ".");
+			
+			if (sourceRows != null && !isAllRows(sourceRows))
+				throw new CDataGridException("Rows of " + cacheName + " have changed since the values of column " 
+						+ columnName + " were computed.");
+			
+			boolean typeChanged = columnType != null 
+					&& !columnType.equals(metaData.getColumnTypeCls(columnIndex));
+			if (typeChanged && hasFixedColumnTypes())
+				throw new CDataGridException("Cannot change the type of column " + columnName 
+						+ ", its rows are stored in a layout fixed by the column types.");
+			
+			CDataRow[] rows = ownAllRows();
+			for (int i = 0; i < rows.length; i++)
+				rows[i].setValue(columnIndex, values[i]);
+			
+			//	Indices refer to the rows that were copied 
+			if (dataRowMap instanceof CCopyOnWriteRowMap)
+				indicesStale = true;
+			
+			if (typeChanged)
+			{
+				Class[] columnTypes = (Class[]) metaData.getColumnTypes().clone();
+				columnTypes[columnIndex] = columnType;
+				metaData = new CRowMetaData(metaData.getColumnNames(), 
+						columnTypes, pkColumns);
+			}
+			
+			CDataCacheIndex index = (CDataCacheIndex) indexMap.get(columnName);
+			if (index != null && !indicesStale)
+				index.update(rows);
+			
+			if (typeChanged)
+				fireColumnTypeChanged(columnIndex, rows);
+			else
+				fireRowsUpdated(rows);
+		}
+	}
+	
+	
+	/**
+	 * Returns whether the container's rows are {@code rows}, in the order 
+	 * of {@link #getAllRows()}. Call while holding the lock. 
+	 * 
+	 * @param rows - rows
+	 * @return true if the container holds exactly these rows
+	 */
+	private boolean isAllRows(CDataRow[] rows)
+	{
+		CDataRow[] current = getAllRows();
+		if (current.length != rows.length)
+			return false;
+		
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] != rows[i] 
+					&& !(current[i] instanceof COffHeapDataRow 
+							&& ((COffHeapDataRow) current[i]).isSameRow(rows[i])))
+				return false;
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Changes the types of columns, converting the values already stored 
+	 * in changed columns to the new type. Rows are re-keyed, as primary 
+	 * key values may change. Rows of a container without a primary key 
+	 * keep their identity keys. Used when a builder widens column types 
+	 * after rows have been read. 
+	 * 
+	 * @param columnTypes new type of each column
+	 * @throws CDataGridException if a value cannot be converted, or 
+	 * column types are fixed by the map storing the rows
+	 */
+	private void widenColumns(Class[] columnTypes)
+		throws CDataGridException
+	{
+		if (hasFixedColumnTypes())
+			throw new CDataGridException("Cannot change column types of " + cacheName 
+					+ ", its rows are stored in a layout fixed by the original types. " 
+					+ "Specify the column types before loading.");
+		
+		Class[] oldTypes = metaData.getColumnTypes();
+		CRowMetaData widened = new CRowMetaData(metaData.getColumnNames(), 
+				(Class[]) columnTypes.clone(), metaData.getPrimaryKeyColumns());
+		
+		checkLock();
+		synchronized (lock)
+		{
+			Object[] keys = dataRowMap.keySet().toArray();
+			CDataRow[] rows = new CDataRow[keys.length];
+			for (int i = 0; i < keys.length; i++)
+				rows[i] = (CDataRow) dataRowMap.get(keys[i]);
+			
+			for (int col = 0; col < columnTypes.length; col++) {
+				int type = CTypes.getType(columnTypes[col]);
+				if (type < 0 || columnTypes[col].equals(oldTypes[col]))
+					continue;
+				
+				for (int i = 0; i < rows.length; i++)
+					rows[i].setValue(col, 
+							CDataConverter.convertTo(rows[i].getValue(col), type));
+			}
+			
+			metaData = widened;
+			dataRowMap.clear();
+			for (int i = 0; i < rows.length; i++) {
+				Object key = (metaData.getPrimaryKeyColumns() == null) ? keys[i] 
+						: metaData.createPrimaryKey(rows[i]);
+				dataRowMap.put(key, rows[i]);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns a copy of this container that shares its rows and indices. 
+	 * Neither container copies a row until it changes it, through methods 
+	 * such as {@link #addData(CDataRow[])}, {@link #merge(CDataRowSet, String[])} 
+	 * or {@link #setColumnValues(String, Object[])}, and then only that row 
+	 * is copied. So forking is cheap, however large the container, and each 
+	 * fork holds only the rows it has changed. 
+	 * <br/><br/>
+	 * Rows returned by either container are shared, so must not be changed 
+	 * in place, eg: through {@link CDataRowSet#setValue(int, Object)}. 
+	 * Indices are rebuilt when first used after a change. Changes to either 
+	 * container are kept in memory, not in the map this container was 
+	 * created with. Listeners are not copied. 
+	 * 
+	 * @return fork of this container
+	 * @throws CDataGridException if the fork cannot be created
+	 */
+	public CDataCacheContainer fork()
+		throws CDataGridException
+	{
+		checkLock();
+		synchronized (lock)
+		{
+			//	Share the rows, and keep further changes to this container 
+			//	separately. An unchanged fork can share the same rows again.
+			Map shared;
+			if (dataRowMap instanceof CCopyOnWriteRowMap 
+					&& ((CCopyOnWriteRowMap) dataRowMap).isUnchanged()) {
+				shared = ((CCopyOnWriteRowMap) dataRowMap).getShared();
+			} else {
+				shared = dataRowMap;
+				dataRowMap = new CCopyOnWriteRowMap(shared);
+			}
+			indicesShared = true;
+			
+			CDataCacheContainer fork = new CDataCacheContainer();
+			fork.init(cacheName, metaData, new CCopyOnWriteRowMap(shared));
+			fork.identityPK = identityPK;
+			fork.indexMap = new HashMap(indexMap);
+			fork.indicesShared = true;
+			fork.indicesStale = indicesStale;
+			return fork;
+		}
+	}
+	
+	
+	/**
+	 * Returns rows of this container that can be changed in place, copying 
+	 * rows shared with a fork. 
+	 * 
+	 * @param rows rows of this container
+	 * @return rows to change, in the same order
+	 * @throws CDataGridException if a primary key cannot be created
+	 */
+	private CDataRow[] ownRows(CDataRow[] rows)
+		throws CDataGridException
+	{
+		if (!(dataRowMap instanceof CCopyOnWriteRowMap))
+			return rows;
+		
+		CCopyOnWriteRowMap cowMap = (CCopyOnWriteRowMap) dataRowMap;
+		
+		//	Identity keys are not stored in the row 
+		if (metaData.getPrimaryKeyColumns() == null)
+			return cowMap.own(rows);
+		
+		CDataRow[] owned = new CDataRow[rows.length];
+		for (int i = 0; i < rows.length; i++)
+			owned[i] = cowMap.own(metaData.createPrimaryKey(rows[i]));
+		return owned;
+	}
+	
+	
+	/**
+	 * Returns all rows of this container, in the order of 
+	 * {@link #getAllRows()}, copying rows shared with a fork so they can 
+	 * be changed in place. 
+	 * 
+	 * @return all rows
+	 * @throws CDataGridException if a row cannot be copied
+	 */
+	private CDataRow[] ownAllRows()
+		throws CDataGridException
+	{
+		if (dataRowMap instanceof CCopyOnWriteRowMap)
+			return ((CCopyOnWriteRowMap) dataRowMap).ownAll();
+		return getAllRows();
+	}
+	
+	
+	/**
+	 * Replaces stale indices with new indices built from the current rows, 
+	 * so indices shared with a fork are not changed. 
+	 */
+	private void rebuildIndices()
+	{
+		checkLock();
+		synchronized (lock)
+		{
+			if (!indicesStale)
+				return;
+			
+			try {
+				CDataRow[] allRows = getAllRows();
+				Map rebuilt = new HashMap();
+				for (Iterator iter = indexMap.keySet().iterator(); iter.hasNext(); ) {
+					String columnName = (String) iter.next();
+					CDataCacheIndex index = new CDataCacheNonUniqueIndex(columnName, 
+							metaData.getColumnIndex(columnName));
+					index.index(allRows);
+					rebuilt.put(columnName, index);
+				}
+				
+				indexMap = rebuilt;
+				indicesShared = false;
+				indicesStale = false;
+			} catch (CDataGridException e) {
+				throw new CDataRuntimeException("Cannot rebuild indices of " + cacheName, e);
+			}
 		}
 	}
 	
@@ -963,6 +1507,34 @@ public class CDataCacheContainer
 	}
 	
 	
+	/**
+	 *	Adds an index that has already been built, eg: one read from persistent
+	 *	storage along with the container's data.  Replaces any existing index 
+	 *	on the same column.
+	 *
+	 *	@param index - the index to add
+	 *	@throws CDataGridException - if the index is not on a column of this container
+	 */
+	public void addIndex(CDataCacheIndex index)
+		throws CDataGridException 
+	{
+		if (index == null)
+			throw new CDataGridException("Index cannot be null.");
+
+		//	Column DNE, or index built against a different column position 
+		String columnName = index.getColumnName();
+		if (!metaData.containsColumn(columnName) || 
+			metaData.getColumnIndex(columnName) != index.getColumnIndex())
+			throw new CDataGridException("Invalid column for index: " + columnName + ".  Cannot add index.");
+
+		checkLock();
+		synchronized (lock)
+		{
+			indexMap.put(columnName, index);
+		}
+	}
+	
+	
 	/**
 	 * Performs a match based on equality with the primary key field; 
 	 * All matches will be returned. 
@@ -999,6 +1571,8 @@ public class CDataCacheContainer
 	{
 		if (indexMap == null)
 			return null;
+		if (indicesStale)
+			rebuildIndices();
 		return (CDataCacheIndex) indexMap.get(columnName);
 	}
 	
@@ -1029,10 +1603,16 @@ public class CDataCacheContainer
 		//	No need to re-build indices 
 		if (indexMap == null || indexMap.size() < 1)
 			return;
+		
+		//	Indices shared with a fork are replaced when next used 
+		if (indicesShared || indicesStale) {
+			indicesStale = true;
+			return;
+		}
 	
 		//	Iterate through all indices, perform full re-build. 
 		CDataRow[] allRows = getAllRows();
-		for (Iterator iter = indexMap.keySet().iterator(); iter.hasNext(); ) {
+		for (Iterator iter = indexMap.values().iterator(); iter.hasNext(); ) {
 			CDataCacheIndex index = (CDataCacheIndex) iter.next();
 			index.update(allRows);
 		}
@@ -1040,6 +1620,91 @@ public class CDataCacheContainer
 		// 	System.out.println("CDataCacheContainer :: Indices not implemented for now...");
 	}
 
+	/**
+	 *	Registers a listener to be notified of changes to the rows in this container.
+	 *	Listeners are not serialized with the container. 
+	 *
+	 *	@param listener - listener to add
+	 */
+	public void addChangeListener(CDataChangeListener listener)
+	{
+		checkLock();
+		synchronized (lock)
+		{
+			CDataChangeListener[] current = getListeners();
+			CDataChangeListener[] added = new CDataChangeListener[current.length + 1];
+			System.arraycopy(current, 0, added, 0, current.length);
+			added[current.length] = listener;
+			listeners = added;
+		}
+	}
+	
+	/**
+	 *	Unregisters a listener added with {@link #addChangeListener(CDataChangeListener)}.
+	 *
+	 *	@param listener - listener to remove
+	 */
+	public void removeChangeListener(CDataChangeListener listener)
+	{
+		checkLock();
+		synchronized (lock)
+		{
+			List list = new ArrayList(Arrays.asList(getListeners()));
+			if (list.remove(listener))
+			{
+				CDataChangeListener[] remaining = new CDataChangeListener[list.size()];
+				list.toArray(remaining);
+				listeners = remaining;
+			}
+		}
+	}
+	
+	/**
+	 * Returns registered listeners, initializing the transient array if this 
+	 * container has been deserialized. 
+	 */
+	private CDataChangeListener[] getListeners()
+	{
+		if (listeners == null)
+			listeners = new CDataChangeListener[0];
+		return listeners;
+	}
+	
+	private void fireRowsAdded(CDataRow[] rows)
+	{
+		CDataChangeListener[] current = getListeners();
+		for (int i = 0; i < current.length; i++)
+			current[i].rowsAdded(this, rows);
+	}
+	
+	private void fireRowsRemoved(CDataRow[] rows)
+	{
+		CDataChangeListener[] current = getListeners();
+		for (int i = 0; i < current.length; i++)
+			current[i].rowsRemoved(this, rows);
+	}
+	
+	private void fireRowsUpdated(CDataRow[] rows)
+	{
+		CDataChangeListener[] current = getListeners();
+		for (int i = 0; i < current.length; i++)
+			current[i].rowsUpdated(this, rows);
+	}
+	
+	private void fireColumnValueSet(int columnIndex, Object value)
+	{
+		CDataChangeListener[] current = getListeners();
+		for (int i = 0; i < current.length; i++)
+			current[i].columnValueSet(this, columnIndex, value);
+	}
+	
+	private void fireColumnTypeChanged(int columnIndex, CDataRow[] rows)
+	{
+		CDataChangeListener[] current = getListeners();
+		for (int i = 0; i < current.length; i++)
+			current[i].columnTypeChanged(this, columnIndex, rows);
+	}
+	
 	/**
 	 * Initialize transient lock object, as deserialization will not 
 	 * re-create the lock object.  
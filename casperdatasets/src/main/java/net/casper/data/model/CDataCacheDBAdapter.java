@@ -37,6 +37,27 @@ import java.sql.*;
 public final class CDataCacheDBAdapter 
 {
 
+	//	--- Static Variables ---
+	
+	/** Number of rows read from a resultset before they are added to the container. */
+	public static final int LOAD_BATCH_SIZE = 10000;
+	
+	/** Fetch size requested from resultsets with a smaller fetch size. */
+	public static final int LOAD_FETCH_SIZE = 1000;
+	
+	//	Getters for column types 
+	private static final int GET_NULL = 0;
+	private static final int GET_BOOLEAN = 1;
+	private static final int GET_BYTE = 2;
+	private static final int GET_SHORT = 3;
+	private static final int GET_INT = 4;
+	private static final int GET_FLOAT = 5;
+	private static final int GET_LONG = 6;
+	private static final int GET_DOUBLE = 7;
+	private static final int GET_STRING = 8;
+	private static final int GET_DATE = 9;
+
+	
 	//	--- Constructor(s) ---
 	
 	/**
@@ -126,8 +147,26 @@ public final class CDataCacheDBAdapter
 			throw new CDataGridException("Resultset to load / transform cannot be null. ");
 
 		//	Meta-data definition for this cache
-		CRowMetaData metaDefinition = null;
-		
+		CRowMetaData metaDefinition = createMetaDefinition(rs, primaryKeys);
+	
+		//	
+		return loadData(rs, cacheName, metaDefinition, concreteMap);
+
+	}
+	
+
+	/**
+	 * 	Creates a meta-definition from the columns of a JDBC resultset, 
+	 * 	without reading any rows. 
+	 * 
+	 * 	@param rs - the resultset 
+	 * 	@param primaryKeys - primary key columns 
+	 * 	@return meta-definition with all the resultset's columns 
+	 * 	@throws CDataGridException if the resultset meta data cannot be read
+	 */
+	public static CRowMetaData createMetaDefinition(ResultSet rs, String[] primaryKeys)
+		throws CDataGridException
+	{
 		try
 		{
 
@@ -149,7 +188,7 @@ public final class CDataCacheDBAdapter
 				trsColumnTypes[i] = getTransfClassType(rawColumnTypes[i]);
 			}
 			
-			metaDefinition = new CRowMetaData(columnNames, trsColumnTypes, primaryKeys);
+			return new CRowMetaData(columnNames, trsColumnTypes, primaryKeys);
 
 		}
 		catch (Exception ex)
@@ -157,10 +196,6 @@ public final class CDataCacheDBAdapter
 			//	Re-throw as a local exception 
 			throw new CDataGridException(ex.toString(), ex);
 		}
-	
-		//	
-		return loadData(rs, cacheName, metaDefinition, concreteMap);
-
 	}
 	
 
@@ -184,92 +219,199 @@ public final class CDataCacheDBAdapter
 		if (metaDefinition == null)
 			throw new CDataGridException("Meta definition cannot be null.");
 		
-		//	Cache container 
-		CDataCacheContainer container = null;
+		//	-- CONSTRUCT CONTAINER --
+		CDataCacheContainer container = new CDataCacheContainer(cacheName, metaDefinition, concreteMap);
+		
+		//	-- LOAD DB-RESULTSET DATA --
+		loadData(rs, container, true);
+		
+		//	Return resulting container 
+		return container; 
+
+	}
+	
+	
+	/**
+	 * 	Reads all rows of a JDBC resultset into an existing container. 
+	 * 	Resultset columns are matched to the container's columns by name once, 
+	 * 	and the getter for each column's type is chosen once, before the rows 
+	 * 	are read. Container columns not in the resultset are left null. 
+	 * 	Rows are added to the container in batches of {@link #LOAD_BATCH_SIZE} 
+	 * 	as they are read. 
+	 * 	<br/><br/>
+	 * 	Rows can be read from several resultsets into the same container at 
+	 * 	once, eg: one per partition of a table, each from its own thread. 
+	 * 
+	 * 	@param rs - the resultset to read 
+	 * 	@param container - the container to add rows to 
+	 * 	@param updateIndices - if true, rebuild the container's indices once 
+	 * 			all rows are added 
+	 * 	@return number of rows read
+	 * 	@throws CDataGridException if a column type is not supported, or 
+	 * 			problem reading the resultset
+	 */
+	public static int loadData(ResultSet rs, CDataCacheContainer container, boolean updateIndices)
+		throws CDataGridException
+	{
+		if (rs == null)
+			throw new CDataGridException("Resultset to load / transform cannot be null. ");
+
+		CRowMetaData metaDefinition = container.getMetaDefinition();
+		String[] columnNames = metaDefinition.getColumnNames();
+		Class[]  columnTypes = metaDefinition.getColumnTypes();
+		int numColumns = columnNames.length;
+		
+		int rowCount = 0;
 		
 		try
 		{
-
-			//	Column names / types 
-			String[] columnNames = metaDefinition.getColumnNames();
-			Class[]  columnTypes = metaDefinition.getColumnTypes();
-			int numColumns = columnNames.length;
+			//	Resultset position and getter of each column, 
+			//	resolved once for all rows 
+			int[] jdbcColumns = new int[numColumns];
+			int[] getters = new int[numColumns];
 			
-
-			//
-			//	--- LOAD DB-RESULTSET DATA ---
-			//
+			for (int i = 0; i < numColumns; i++)
+			{
+				getters[i] = getGetter(columnTypes[i]);
+				
+				//	If the column doesn't exist in the resultset, 
+				//	do not import it into the memory rowset 
+				try
+				{
+					jdbcColumns[i] = rs.findColumn(columnNames[i]);
+				}
+				catch (SQLException sqlex)
+				{
+					jdbcColumns[i] = -1;
+				}
+			}
+			
+			//	Ask for rows in larger blocks, if the driver's default is smaller 
+			try
+			{
+				if (rs.getFetchSize() < LOAD_FETCH_SIZE)
+					rs.setFetchSize(LOAD_FETCH_SIZE);
+			}
+			catch (SQLException sqlex)
+			{
+				//	fetch size is only a hint, ignore drivers that reject it 
+			}
+			
+			CDataRow[] batch = new CDataRow[LOAD_BATCH_SIZE];
+			int batchCount = 0;
 			
-			//	List of all data objects 
-			LinkedList list = new LinkedList(); 
-
-			//	Iterate through entire set, appending to list. 
 			while (rs.next())
 			{
-				//	Create new data row. 
-				CDataRow row = new CDataRow(numColumns);
+				Object[] data = new Object[numColumns];
 				
-				//	Iterate through all existing columns 
-				for (int cDataColIdx = 0; cDataColIdx < columnNames.length; cDataColIdx++)
+				for (int i = 0; i < numColumns; i++)
 				{
-					String columnName = columnNames[cDataColIdx];
-					Class columnClass = columnTypes[cDataColIdx];
-					Object columnData = null;
-					
-					try
+					if (jdbcColumns[i] >= 0)
 					{
-						//	Try to find the column in the resultset.  If the column doesn't exist, 
-						//	do not import the object into the memory rowset 
-						int jdbcColIdx = -1;
-						if ((jdbcColIdx = rs.findColumn(columnName)) >= 0)
+						try
 						{
-							// Get column data, TYPE -SAFE- 
-							if (columnClass == Boolean.class) 		  { columnData = CDataConverter.getBoolean(rs, jdbcColIdx); }
-							else if (columnClass == Byte.class) 	  { columnData = CDataConverter.getByte(rs, jdbcColIdx); }
-							else if (columnClass == Short.class) 	  { columnData = CDataConverter.getShort(rs, jdbcColIdx); }
-							else if (columnClass == Integer.class) 	  { columnData = CDataConverter.getInt(rs, jdbcColIdx); }
-							else if (columnClass == Float.class) 	  { columnData = CDataConverter.getFloat(rs, jdbcColIdx); }
-							else if (columnClass == Long.class) 	  { columnData = CDataConverter.getLong(rs, jdbcColIdx); }
-							else if (columnClass == Double.class) 	  { columnData = CDataConverter.getDouble(rs, jdbcColIdx); }
-							else if (columnClass == String.class) 	  { columnData = CDataConverter.getString(rs, jdbcColIdx); }
-							else if (columnClass == Timestamp.class)  { columnData = CDataConverter.getDate(rs, jdbcColIdx); }
-							else if (columnClass == java.sql.Date.class) { columnData = CDataConverter.getDate(rs, jdbcColIdx); }
-							else if (columnClass == java.util.Date.class) { columnData = CDataConverter.getDate(rs, jdbcColIdx); }
-							else if (columnClass == null) 			  { columnData = null; }
-							else { throw new CDataGridException("Unable to handle column types of class: " + columnClass.getName()); }
-						
-							//	Set particular value within row 
-							row.setValue(cDataColIdx, columnData);
+							data[i] = getValue(rs, jdbcColumns[i], getters[i]);
+						}
+						catch (SQLException sqlex)
+						{
+							//	value cannot be read as the column type, leave null 
 						}
-					}
-					catch (SQLException sqlex)
-					{
 					}
 				}
 				
-				list.add(row);
+				batch[batchCount++] = new CDataRow(data);
+				rowCount++;
+				
+				if (batchCount == batch.length)
+				{
+					container.addData(batch, false);
+					batchCount = 0;
+				}
 			}
 			
-			//	Convert list to array of CDataRow objects
-			CDataRow[] rows = new CDataRow[list.size()];
-			list.toArray(rows);
-
+			CDataRow[] lastBatch = new CDataRow[batchCount];
+			System.arraycopy(batch, 0, lastBatch, 0, batchCount);
+			container.addData(lastBatch, false);
 			
-			//	-- CONSTRUCT CONTAINER --
-			container = new CDataCacheContainer(cacheName, metaDefinition, concreteMap);
-			container.addData(rows);
+			if (updateIndices)
+				container.updateIndices();
 			
 		}
+		catch (CDataGridException ex)
+		{
+			throw ex;
+		}
 		catch (Exception ex)
 		{
 			//	Re-throw as a local exception 
 			throw new CDataGridException(ex.toString(), ex);
 		}
 		
-		
-		//	Return resulting container 
-		return container; 
-
+		return rowCount;
+	}
+	
+	
+	/**
+	 * 	Getter used to read values of a column type from a resultset. 
+	 * 
+	 * 	@param columnClass - column type
+	 * 	@return getter 
+	 * 	@throws CDataGridException if the type is not supported 
+	 */
+	private static int getGetter(Class columnClass)
+		throws CDataGridException
+	{
+		if (columnClass == Boolean.class) 		  { return GET_BOOLEAN; }
+		else if (columnClass == Byte.class) 	  { return GET_BYTE; }
+		else if (columnClass == Short.class) 	  { return GET_SHORT; }
+		else if (columnClass == Integer.class) 	  { return GET_INT; }
+		else if (columnClass == Float.class) 	  { return GET_FLOAT; }
+		else if (columnClass == Long.class) 	  { return GET_LONG; }
+		else if (columnClass == Double.class) 	  { return GET_DOUBLE; }
+		else if (columnClass == String.class) 	  { return GET_STRING; }
+		else if (columnClass == Timestamp.class)  { return GET_DATE; }
+		else if (columnClass == java.sql.Date.class) { return GET_DATE; }
+		else if (columnClass == java.util.Date.class) { return GET_DATE; }
+		else if (columnClass == null) 			  { return GET_NULL; }
+		else { throw new CDataGridException("Unable to handle column types of class: " + columnClass.getName()); }
+	}
+	
+	
+	/**
+	 * 	Read a value from the current row of a resultset, TYPE -SAFE- 
+	 * 
+	 * 	@param rs - resultset
+	 * 	@param jdbcColIdx - resultset column
+	 * 	@param getter - getter from {@link #getGetter(Class)} 
+	 * 	@return value 
+	 * 	@throws SQLException if problem reading the value 
+	 */
+	private static Object getValue(ResultSet rs, int jdbcColIdx, int getter)
+		throws SQLException
+	{
+		switch (getter)
+		{
+			case GET_BOOLEAN:
+				return CDataConverter.getBoolean(rs, jdbcColIdx);
+			case GET_BYTE:
+				return CDataConverter.getByte(rs, jdbcColIdx);
+			case GET_SHORT:
+				return CDataConverter.getShort(rs, jdbcColIdx);
+			case GET_INT:
+				return CDataConverter.getInt(rs, jdbcColIdx);
+			case GET_FLOAT:
+				return CDataConverter.getFloat(rs, jdbcColIdx);
+			case GET_LONG:
+				return CDataConverter.getLong(rs, jdbcColIdx);
+			case GET_DOUBLE:
+				return CDataConverter.getDouble(rs, jdbcColIdx);
+			case GET_STRING:
+				return CDataConverter.getString(rs, jdbcColIdx);
+			case GET_DATE:
+				return CDataConverter.getDate(rs, jdbcColIdx);
+			default:
+				return null;
+		}
 	}
 	
 	
@@ -0,0 +1,78 @@
+package net.casper.data.model;
+
+/**
+ * Receives notification of changes to the rows of a
+ * {@link CDataCacheContainer}. Register with
+ * {@link CDataCacheContainer#addChangeListener(CDataChangeListener)}.
+ *
+ * Notifications are sent after the change has been made, while the
+ * container's update lock is still held, so they arrive in the order the
+ * changes were made. Implementations should return quickly and must not
+ * modify the container. The rows passed are the container's own rows, so
+ * copy any values that are needed after returning.
+ *
+ * @author agent
+ */
+public interface CDataChangeListener {
+
+	/**
+	 * Rows have been added to the container. A row replaces any existing row
+	 * with the same primary key.
+	 *
+	 * @param container
+	 *            container that changed
+	 * @param rows
+	 *            rows added
+	 */
+	void rowsAdded(CDataCacheContainer container, CDataRow[] rows);
+
+	/**
+	 * Rows have been removed from the container.
+	 *
+	 * @param container
+	 *            container that changed
+	 * @param rows
+	 *            rows removed
+	 */
+	void rowsRemoved(CDataCacheContainer container, CDataRow[] rows);
+
+	/**
+	 * Values of existing rows have been changed, eg: by a merge.
+	 *
+	 * @param container
+	 *            container that changed
+	 * @param rows
+	 *            rows changed, with their new values
+	 */
+	void rowsUpdated(CDataCacheContainer container, CDataRow[] rows);
+
+	/**
+	 * A column has been set to the same value in every row.
+	 *
+	 * @param container
+	 *            container that changed
+	 * @param columnIndex
+	 *            index of the column
+	 * @param value
+	 *            new value
+	 */
+	void columnValueSet(CDataCacheContainer container, int columnIndex,
+			Object value);
+
+	/**
+	 * The type of a column has changed, and every row has a new value of the
+	 * new type in that column. Sent instead of
+	 * {@link #rowsUpdated(CDataCacheContainer, CDataRow[])}, after the
+	 * container's meta data has been changed.
+	 *
+	 * @param container
+	 *            container that changed
+	 * @param columnIndex
+	 *            index of the column
+	 * @param rows
+	 *            all rows, with their new values
+	 */
+	void columnTypeChanged(CDataCacheContainer container, int columnIndex,
+			CDataRow[] rows);
+
+}
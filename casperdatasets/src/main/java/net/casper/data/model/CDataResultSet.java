@@ -5,10 +5,13 @@
 package net.casper.data.model;
 
 //	Java imports 
+import java.io.ByteArrayInputStream;
 import java.io.Serializable;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.net.URL;
 import java.sql.Array;
 import java.sql.Blob;
@@ -23,6 +26,7 @@ import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Map;
 
 
@@ -33,6 +37,9 @@ import java.util.Map;
  * 	<br/><br/>
  * 	Note: there are a number of methods that have been left as no-op or return "null" values. 
  * 	Please feel free to flesh out the implementation.
+ * 	<br/><br/>
+ * 	Values already stored as the requested type are returned directly from the 
+ * 	current row; other values are converted with {@link CDataConverter}. 
  *
  *  Requires Java 1.4 (or later).
  * 
@@ -55,6 +62,12 @@ public class CDataResultSet
 	/** The underlying CDataRowSet object. */
 	private CDataRowSet rowset = null;
 	
+	/** True if the last column read was null. */
+	private boolean lastWasNull = false;
+	
+	/** Column indices (1..n) found by name, keyed by column name. */
+	private transient Map columnIndexCache = null;
+	
 	
 	//	--- Constructor(s) ---
 	
@@ -82,15 +95,56 @@ public class CDataResultSet
 	//
 	
 	/**
-	 * 	This is necessary because the column index numbers that are expected begin with 1..n, whereas
-	 * 	the columns that is actually stored in this meta data implementation are stored within arrays,
-	 * 	beginning at index 0.
+	 * 	Returns the value in the current row for a column, and records whether it 
+	 * 	was null for {@link #wasNull()}. The column index numbers that are expected 
+	 * 	begin with 1..n, whereas the values are stored within arrays, beginning at 
+	 * 	index 0.
 	 * 
-	 * 	@param column
-	 * 	@return transformed column index 
+	 * 	@param column column index, beginning at 1
+	 * 	@return value, may be null
+	 * 	@throws SQLException if the column index or cursor position is invalid
+	 */
+	private Object getValue(int column) throws SQLException {
+		Object[] row;
+		try {
+			row = rowset.getCurrentRow().getRawData();
+		}
+		catch (CDataGridException ex) { throw failed(ex); }
+		
+		if (column < 1 || column > row.length) {
+			throw new SQLException("Invalid column index: " + column);
+		}
+		
+		Object value = row[column - 1];
+		lastWasNull = (value == null);
+		return value;
+	}
+	
+	/**
+	 * 	Converts a value using {@link CDataConverter}, for values not already stored 
+	 * 	as the requested type. 
+	 * 
+	 * 	@param value non-null value
+	 * 	@param type type from {@link CTypes}
+	 * 	@return converted value
+	 * 	@throws SQLException if the value cannot be converted
+	 */
+	private static Object convert(Object value, int type) throws SQLException {
+		try {
+			return CDataConverter.convertTo(value, type);
+		}
+		catch (Exception ex) { throw failed(ex); }
+	}
+	
+	/**
+	 * 	Wraps an exception in a SQLException. 
+	 * 	@param ex cause
+	 * 	@return exception to throw
 	 */
-	private int transformColumnToArrayIndex(int column) {
-		return (column - 1);
+	private static SQLException failed(Exception ex) {
+		SQLException sqlex = new SQLException("Operation failed: " + ex.toString());
+		sqlex.initCause(ex);
+		return sqlex;
 	}
 	
 	
@@ -98,7 +152,7 @@ public class CDataResultSet
 		try { 
 			return rowset.next(); 
 		} 
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }
+		catch (Exception ex) { throw failed(ex); }
 	}
 
 	public void close() throws SQLException {
@@ -106,100 +160,146 @@ public class CDataResultSet
 	}
 
 	public boolean wasNull() throws SQLException {
-		return false;
+		return lastWasNull;
 	}
 
 	public String getString(int column) throws SQLException {
-		try { return rowset.getString(transformColumnToArrayIndex(column)); } 
-		catch (Exception ex){ throw new SQLException("Operation failed: " + ex.toString()); }
+		Object value = getValue(column);
+		if (value == null || value instanceof String) {
+			return (String) value;
+		}
+		return (String) convert(value, CTypes.STRING);
 	}
 
 	public boolean getBoolean(int column) throws SQLException {
-		try {
-			Boolean val = rowset.getBoolean(transformColumnToArrayIndex(column)); 
-			return val.booleanValue();
+		Object value = getValue(column);
+		if (value == null) {
+			return false;
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }
+		if (value instanceof Boolean) {
+			return ((Boolean) value).booleanValue();
+		}
+		return ((Boolean) convert(value, CTypes.BOOLEAN)).booleanValue();
 	}
 
 	public byte getByte(int column) throws SQLException {
-		try {
-			Byte val = rowset.getByte(transformColumnToArrayIndex(column));
-			return val.byteValue();
+		Object value = getValue(column);
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).byteValue();
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); } 
+		return ((Byte) convert(value, CTypes.BYTE)).byteValue();
 	}
 
 	public short getShort(int column) throws SQLException {
-		try {
-			Short val = rowset.getShort(transformColumnToArrayIndex(column));
-			return val.shortValue();
+		Object value = getValue(column);
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).shortValue();
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }
+		return ((Short) convert(value, CTypes.SHORT)).shortValue();
 	}
 
 	public int getInt(int column) throws SQLException {
-		try {
-			Integer val = rowset.getInt(transformColumnToArrayIndex(column));
-			return val.intValue();
+		Object value = getValue(column);
+		if (value == null) {
+			return 0;
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }		
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		return ((Integer) convert(value, CTypes.INTEGER)).intValue();
 	}
 
 	public long getLong(int column) throws SQLException {
-		try {
-			Long val = rowset.getLong(transformColumnToArrayIndex(column));
-			return val.longValue();
+		Object value = getValue(column);
+		if (value == null) {
+			return 0;
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }		
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return ((Long) convert(value, CTypes.LONG)).longValue();
 	}
 
 	public float getFloat(int column) throws SQLException {
-		try {
-			Float val = rowset.getFloat(transformColumnToArrayIndex(column));
-			return val.floatValue();
+		Object value = getValue(column);
+		if (value == null) {
+			return 0;
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		if (value instanceof Number) {
+			return ((Number) value).floatValue();
+		}
+		return ((Float) convert(value, CTypes.FLOAT)).floatValue();
 	}
 
 	public double getDouble(int column) throws SQLException {
-		try {
-			Double val = rowset.getDouble(transformColumnToArrayIndex(column));
-			return val.doubleValue();
+		Object value = getValue(column);
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return ((Double) convert(value, CTypes.DOUBLE)).doubleValue();
 	}
 
 	public BigDecimal getBigDecimal(int column, int scale) throws SQLException {
-		return null;
+		BigDecimal value = getBigDecimal(column);
+		if (value == null) {
+			return null;
+		}
+		return value.setScale(scale, BigDecimal.ROUND_HALF_UP);
 	}
 
 	public byte[] getBytes(int column) throws SQLException {
-		return null;
+		Object value = getValue(column);
+		if (value == null) {
+			return null;
+		}
+		if (value instanceof byte[]) {
+			//	copy, so the caller cannot change the stored value
+			return (byte[]) ((byte[]) value).clone();
+		}
+		throw new SQLException("Operation failed: column " + column + " of type " 
+				+ value.getClass().getName() + " cannot be read as bytes");
 	}
 
 	public Date getDate(int column) throws SQLException {
-		try {
-			java.util.Date val = rowset.getDate(transformColumnToArrayIndex(column));
-			return new java.sql.Date(val.getTime());
+		Object value = getValue(column);
+		if (value == null || value instanceof Date) {
+			return (Date) value;
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		if (!(value instanceof java.util.Date)) {
+			value = convert(value, CTypes.DATE);
+		}
+		return new Date(((java.util.Date) value).getTime());
 	}
 
 	public Time getTime(int column) throws SQLException {
-		try {
-			java.util.Date val = rowset.getDate(transformColumnToArrayIndex(column));
-			return new java.sql.Time(val.getTime());
+		Object value = getValue(column);
+		if (value == null || value instanceof Time) {
+			return (Time) value;
+		}
+		if (!(value instanceof java.util.Date)) {
+			value = convert(value, CTypes.DATE);
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return new Time(((java.util.Date) value).getTime());
 	}
 
 	public Timestamp getTimestamp(int column) throws SQLException {
-		try {
-			java.util.Date val = rowset.getDate(transformColumnToArrayIndex(column));
-			return new java.sql.Timestamp(val.getTime());
+		Object value = getValue(column);
+		if (value == null || value instanceof Timestamp) {
+			return (Timestamp) value;
+		}
+		if (!(value instanceof java.util.Date)) {
+			value = convert(value, CTypes.DATE);
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return new Timestamp(((java.util.Date) value).getTime());
 	}
 
 	public InputStream getAsciiStream(int column) throws SQLException {
@@ -211,102 +311,63 @@ public class CDataResultSet
 	}
 
 	public InputStream getBinaryStream(int column) throws SQLException {
-		return null;
+		byte[] value = getBytes(column);
+		if (value == null) {
+			return null;
+		}
+		return new ByteArrayInputStream(value);
 	}
 
 	public String getString(String columnName) throws SQLException {
-		try {
-			return rowset.getString(columnName);
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getString(findColumn(columnName));
 	}
 
 	public boolean getBoolean(String columnName) throws SQLException {
-		try {
-			Boolean val = rowset.getBoolean(columnName);
-			return val.booleanValue();
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getBoolean(findColumn(columnName));
 	}
 
 	public byte getByte(String columnName) throws SQLException {
-		try {
-			Byte val = rowset.getByte(columnName);
-			return val.byteValue();
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getByte(findColumn(columnName));
 	}
 
 	public short getShort(String columnName) throws SQLException {
-		try {
-			Short val = rowset.getShort(columnName);
-			return val.shortValue();
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getShort(findColumn(columnName));
 	}
 
 	public int getInt(String columnName) throws SQLException {
-		try {
-			Integer val = rowset.getInt(columnName);
-			return val.intValue();
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getInt(findColumn(columnName));
 	}
 
 	public long getLong(String columnName) throws SQLException {
-		try {
-			Long val = rowset.getLong(columnName);
-			return val.longValue();
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getLong(findColumn(columnName));
 	}
 
 	public float getFloat(String columnName) throws SQLException {
-		try {
-			Float val = rowset.getFloat(columnName);
-			return val.floatValue();
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getFloat(findColumn(columnName));
 	}
 
 	public double getDouble(String columnName) throws SQLException {
-		try {
-			Double val = rowset.getDouble(columnName);
-			return val.doubleValue();
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getDouble(findColumn(columnName));
 	}
 
-	public BigDecimal getBigDecimal(String columnName, int arg1) throws SQLException {
-		return null;
+	public BigDecimal getBigDecimal(String columnName, int scale) throws SQLException {
+		return getBigDecimal(findColumn(columnName), scale);
 	}
 
 	public byte[] getBytes(String columnName) throws SQLException {
-		return null;
+		return getBytes(findColumn(columnName));
 	}
 
 	public Date getDate(String columnName) throws SQLException {
-		try {
-			java.util.Date val = rowset.getDate(columnName);
-			return new Date(val.getTime());
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getDate(findColumn(columnName));
 	}
 
 	public Time getTime(String columnName) throws SQLException {
-		try {
-			java.util.Date val = rowset.getDate(columnName);
-			return new Time(val.getTime());
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getTime(findColumn(columnName));
 	}
 
 	public Timestamp getTimestamp(String columnName) throws SQLException {
-		try {
-			java.util.Date val = rowset.getDate(columnName);
-			return new Timestamp(val.getTime());
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getTimestamp(findColumn(columnName));
 	}
 
 	public InputStream getAsciiStream(String arg0) throws SQLException {
@@ -317,8 +378,8 @@ public class CDataResultSet
 		return null;
 	}
 
-	public InputStream getBinaryStream(String arg0) throws SQLException {
-		return null;
+	public InputStream getBinaryStream(String columnName) throws SQLException {
+		return getBinaryStream(findColumn(columnName));
 	}
 
 	public SQLWarning getWarnings() throws SQLException {
@@ -339,41 +400,97 @@ public class CDataResultSet
 	}
 
 	public Object getObject(int column) throws SQLException {
-		try { 
-			return rowset.getObject(transformColumnToArrayIndex(column)); 
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }				
+		return getValue(column);
 	}
 
 	public Object getObject(String columnName) throws SQLException {
-		try {
-			return rowset.getObject(columnName);
-		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }						
+		return getValue(findColumn(columnName));
 	}
 
+	/**
+	 * 	Returns the column index (1..n) of a column. Names are matched exactly 
+	 * 	first, then ignoring case. Indices are cached, so repeated lookups of 
+	 * 	the same name do not search the meta data. 
+	 * 
+	 * 	@param columnName column name
+	 * 	@return column index, beginning at 1
+	 * 	@throws SQLException if there is no such column
+	 */
 	public int findColumn(String columnName) throws SQLException {
+		if (columnIndexCache == null) {
+			columnIndexCache = new HashMap();
+		}
+		
+		Integer index = (Integer) columnIndexCache.get(columnName);
+		if (index != null) {
+			return index.intValue();
+		}
+		
+		CRowMetaData meta = rowset.getMetaDefinition();
+		int idx = -1;
 		try {
-			CRowMetaData meta = (CRowMetaData) getMetaData();
-			return (meta.getColumnIndex(columnName) + 1);
+			if (meta.containsColumn(columnName)) {
+				idx = meta.getColumnIndex(columnName);
+			}
 		}
-		catch (Exception ex) { throw new SQLException("Operation failed: " + ex.toString()); }						
+		catch (CDataGridException ex) { throw failed(ex); }
+		
+		if (idx == -1 && columnName != null) {
+			String[] columnNames = meta.getColumnNames();
+			for (int i = 0; i < columnNames.length; i++) {
+				if (columnName.equalsIgnoreCase(columnNames[i])) {
+					idx = i;
+					break;
+				}
+			}
+		}
+		
+		if (idx == -1) {
+			throw new SQLException("Operation failed: no column named " + columnName);
+		}
+		
+		columnIndexCache.put(columnName, new Integer(idx + 1));
+		return (idx + 1);
 	}
 	
 	public Reader getCharacterStream(int column) throws SQLException {
-		return null;
+		String value = getString(column);
+		if (value == null) {
+			return null;
+		}
+		return new StringReader(value);
 	}
 
 	public Reader getCharacterStream(String columnName) throws SQLException {
-		return null;
+		return getCharacterStream(findColumn(columnName));
 	}
 
 	public BigDecimal getBigDecimal(int column) throws SQLException {
-		return null;
+		Object value = getValue(column);
+		if (value == null || value instanceof BigDecimal) {
+			return (BigDecimal) value;
+		}
+		if (value instanceof Long || value instanceof Integer 
+				|| value instanceof Short || value instanceof Byte) {
+			return BigDecimal.valueOf(((Number) value).longValue());
+		}
+		if (value instanceof BigInteger) {
+			return new BigDecimal((BigInteger) value);
+		}
+		if (value instanceof Boolean) {
+			return BigDecimal.valueOf(((Boolean) value).booleanValue() ? 1 : 0);
+		}
+		
+		//	Double, Float and String values are parsed from their decimal string, 
+		//	so 0.1 becomes 0.1 rather than the exact binary value
+		try {
+			return new BigDecimal(value.toString().trim());
+		}
+		catch (NumberFormatException ex) { throw failed(ex); }
 	}
 
 	public BigDecimal getBigDecimal(String columnName) throws SQLException {
-		return null;
+		return getBigDecimal(findColumn(columnName));
 	}
 
 	public boolean isBeforeFirst() throws SQLException {
@@ -650,8 +767,8 @@ public class CDataResultSet
 		return null;
 	}
 
-	public Object getObject(int arg0, Map arg1) throws SQLException {
-		return null;
+	public Object getObject(int column, Map map) throws SQLException {
+		return getObject(column);
 	}
 
 	public Ref getRef(int column) throws SQLException {
@@ -670,8 +787,8 @@ public class CDataResultSet
 		return null;
 	}
 
-	public Object getObject(String arg0, Map arg1) throws SQLException {
-		return null;
+	public Object getObject(String columnName, Map map) throws SQLException {
+		return getObject(columnName);
 	}
 
 	public Ref getRef(String columnName) throws SQLException {
@@ -690,28 +807,34 @@ public class CDataResultSet
 		return null;
 	}
 
-	public Date getDate(int arg0, Calendar arg1) throws SQLException {
-		return null;
+	public Date getDate(int column, Calendar cal) throws SQLException {
+		//	values are stored as instants, so the calendar is not needed
+		return getDate(column);
 	}
 
-	public Date getDate(String arg0, Calendar arg1) throws SQLException {
-		return null;
+	public Date getDate(String columnName, Calendar cal) throws SQLException {
+		//	values are stored as instants, so the calendar is not needed
+		return getDate(columnName);
 	}
 
-	public Time getTime(int arg0, Calendar arg1) throws SQLException {
-		return null;
+	public Time getTime(int column, Calendar cal) throws SQLException {
+		//	values are stored as instants, so the calendar is not needed
+		return getTime(column);
 	}
 
-	public Time getTime(String arg0, Calendar arg1) throws SQLException {
-		return null;
+	public Time getTime(String columnName, Calendar cal) throws SQLException {
+		//	values are stored as instants, so the calendar is not needed
+		return getTime(columnName);
 	}
 
-	public Timestamp getTimestamp(int arg0, Calendar arg1) throws SQLException {
-		return null;
+	public Timestamp getTimestamp(int column, Calendar cal) throws SQLException {
+		//	values are stored as instants, so the calendar is not needed
+		return getTimestamp(column);
 	}
 
-	public Timestamp getTimestamp(String arg0, Calendar arg1) throws SQLException {
-		return null;
+	public Timestamp getTimestamp(String columnName, Calendar cal) throws SQLException {
+		//	values are stored as instants, so the calendar is not needed
+		return getTimestamp(columnName);
 	}
 
 	public URL getURL(int column) throws SQLException {
@@ -583,7 +583,7 @@ public class CDataRowSet
 	 */
 	public String getString(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (String) CDataConverter.convertTo(value, CTypes.STRING);
+		return (String) metaData.getConverter(columnIndex, CTypes.STRING).convert(value);
 	}
 
 	/**
@@ -594,7 +594,7 @@ public class CDataRowSet
 	 */
 	public Character getChar(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (Character) CDataConverter.convertTo(value, CTypes.CHARACTER);
+		return (Character) metaData.getConverter(columnIndex, CTypes.CHARACTER).convert(value);
 	}
 
 	/**
@@ -605,7 +605,7 @@ public class CDataRowSet
 	 */
 	public Boolean getBoolean(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (Boolean) CDataConverter.convertTo(value, CTypes.BOOLEAN); 
+		return (Boolean) metaData.getConverter(columnIndex, CTypes.BOOLEAN).convert(value); 
 	}
 	
 	/**
@@ -616,7 +616,7 @@ public class CDataRowSet
 	 */
 	public Byte getByte(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (Byte) CDataConverter.convertTo(value, CTypes.BYTE);
+		return (Byte) metaData.getConverter(columnIndex, CTypes.BYTE).convert(value);
 	}
 	
 	/**
@@ -627,7 +627,7 @@ public class CDataRowSet
 	 */
 	public Short getShort(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (Short) CDataConverter.convertTo(value, CTypes.SHORT);
+		return (Short) metaData.getConverter(columnIndex, CTypes.SHORT).convert(value);
 	}
 	
 	/**
@@ -638,7 +638,7 @@ public class CDataRowSet
 	 */
 	public Integer getInt(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (Integer) CDataConverter.convertTo(value, CTypes.INTEGER);
+		return (Integer) metaData.getConverter(columnIndex, CTypes.INTEGER).convert(value);
 	}
 	
 	/**
@@ -649,7 +649,7 @@ public class CDataRowSet
 	 */
 	public Long getLong(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (Long) CDataConverter.convertTo(value, CTypes.LONG);
+		return (Long) metaData.getConverter(columnIndex, CTypes.LONG).convert(value);
 	}
 	
 	/**
@@ -660,7 +660,7 @@ public class CDataRowSet
 	 */
 	public Float getFloat(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (Float) CDataConverter.convertTo(value, CTypes.FLOAT);
+		return (Float) metaData.getConverter(columnIndex, CTypes.FLOAT).convert(value);
 	}
 	
 	/**
@@ -671,7 +671,7 @@ public class CDataRowSet
 	 */
 	public Double getDouble(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (Double) CDataConverter.convertTo(value, CTypes.DOUBLE);
+		return (Double) metaData.getConverter(columnIndex, CTypes.DOUBLE).convert(value);
 	}
 	
 	/**
@@ -682,7 +682,7 @@ public class CDataRowSet
 	 */
 	public java.util.Date getDate(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (java.util.Date) CDataConverter.convertTo(value, CTypes.DATE);
+		return (java.util.Date) metaData.getConverter(columnIndex, CTypes.DATE).convert(value);
 	}
 	
 	/**
@@ -693,7 +693,7 @@ public class CDataRowSet
 	 */
 	public java.sql.Time getTime(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (java.sql.Time) CDataConverter.convertTo(value, CTypes.TIME);
+		return (java.sql.Time) metaData.getConverter(columnIndex, CTypes.TIME).convert(value);
 	}
 	
 	/**
@@ -704,7 +704,7 @@ public class CDataRowSet
 	 */
 	public java.sql.Timestamp getTimestamp(int columnIndex) throws CDataGridException { 
 		Object value = getRowAtCursor(cursor).getValue(columnIndex);
-		return (java.sql.Timestamp) CDataConverter.convertTo(value, CTypes.TIMESTAMP);
+		return (java.sql.Timestamp) metaData.getConverter(columnIndex, CTypes.TIMESTAMP).convert(value);
 	}
 	
 	/**
@@ -718,6 +718,69 @@ public class CDataRowSet
 		return getRowAtCursor(cursor).getValue(columnIndex);
 	}
 
+	/**
+	 * 	Returns the value of current row at given column as a int, without boxing. 
+	 * 	@param columnName column name
+	 * 	@return data, or 0 if the value is null
+	 * 	@throws CDataGridException if column cannot be accessed as type
+	 */
+	public int getIntValue(String columnName) throws CDataGridException { 
+		return getIntValue(metaData.getColumnIndex(columnName)); 
+	}
+
+	/**
+	 * 	Returns the value of current row at given column as a int, without boxing. 
+	 * 	@param columnIndex column Index
+	 * 	@return data, or 0 if the value is null
+	 * 	@throws CDataGridException if column cannot be accessed as type
+	 */
+	public int getIntValue(int columnIndex) throws CDataGridException { 
+		Object value = getRowAtCursor(cursor).getValue(columnIndex);
+		return metaData.getConverter(columnIndex, CTypes.INTEGER).getIntValue(value);
+	}
+
+	/**
+	 * 	Returns the value of current row at given column as a long, without boxing. 
+	 * 	@param columnName column name
+	 * 	@return data, or 0 if the value is null
+	 * 	@throws CDataGridException if column cannot be accessed as type
+	 */
+	public long getLongValue(String columnName) throws CDataGridException { 
+		return getLongValue(metaData.getColumnIndex(columnName)); 
+	}
+
+	/**
+	 * 	Returns the value of current row at given column as a long, without boxing. 
+	 * 	@param columnIndex column Index
+	 * 	@return data, or 0 if the value is null
+	 * 	@throws CDataGridException if column cannot be accessed as type
+	 */
+	public long getLongValue(int columnIndex) throws CDataGridException { 
+		Object value = getRowAtCursor(cursor).getValue(columnIndex);
+		return metaData.getConverter(columnIndex, CTypes.LONG).getLongValue(value);
+	}
+
+	/**
+	 * 	Returns the value of current row at given column as a double, without boxing. 
+	 * 	@param columnName column name
+	 * 	@return data, or 0 if the value is null
+	 * 	@throws CDataGridException if column cannot be accessed as type
+	 */
+	public double getDoubleValue(String columnName) throws CDataGridException { 
+		return getDoubleValue(metaData.getColumnIndex(columnName)); 
+	}
+
+	/**
+	 * 	Returns the value of current row at given column as a double, without boxing. 
+	 * 	@param columnIndex column Index
+	 * 	@return data, or 0 if the value is null
+	 * 	@throws CDataGridException if column cannot be accessed as type
+	 */
+	public double getDoubleValue(int columnIndex) throws CDataGridException { 
+		Object value = getRowAtCursor(cursor).getValue(columnIndex);
+		return metaData.getConverter(columnIndex, CTypes.DOUBLE).getDoubleValue(value);
+	}
+
 
 	//
 	//	--------------------------------
@@ -226,7 +226,8 @@ public class CMarkedUpRow {
 	 */
 	public String getString(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (String) CDataConverter.convertTo(value, CTypes.STRING);
+		return (String) metaData.getConverter(columnIndex, CTypes.STRING)
+				.convert(value);
 	}
 
 	/**
@@ -240,7 +241,8 @@ public class CMarkedUpRow {
 	 */
 	public Character getChar(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (Character) CDataConverter.convertTo(value, CTypes.CHARACTER);
+		return (Character) metaData.getConverter(columnIndex, CTypes.CHARACTER)
+				.convert(value);
 	}
 
 	/**
@@ -254,7 +256,8 @@ public class CMarkedUpRow {
 	 */
 	public Boolean getBoolean(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (Boolean) CDataConverter.convertTo(value, CTypes.BOOLEAN);
+		return (Boolean) metaData.getConverter(columnIndex, CTypes.BOOLEAN)
+				.convert(value);
 	}
 
 	/**
@@ -268,7 +271,8 @@ public class CMarkedUpRow {
 	 */
 	public Byte getByte(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (Byte) CDataConverter.convertTo(value, CTypes.BYTE);
+		return (Byte) metaData.getConverter(columnIndex, CTypes.BYTE)
+				.convert(value);
 	}
 
 	/**
@@ -282,7 +286,8 @@ public class CMarkedUpRow {
 	 */
 	public Short getShort(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (Short) CDataConverter.convertTo(value, CTypes.SHORT);
+		return (Short) metaData.getConverter(columnIndex, CTypes.SHORT)
+				.convert(value);
 	}
 
 	/**
@@ -296,7 +301,8 @@ public class CMarkedUpRow {
 	 */
 	public Integer getInt(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (Integer) CDataConverter.convertTo(value, CTypes.INTEGER);
+		return (Integer) metaData.getConverter(columnIndex, CTypes.INTEGER)
+				.convert(value);
 	}
 
 	/**
@@ -310,7 +316,8 @@ public class CMarkedUpRow {
 	 */
 	public Long getLong(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (Long) CDataConverter.convertTo(value, CTypes.LONG);
+		return (Long) metaData.getConverter(columnIndex, CTypes.LONG)
+				.convert(value);
 	}
 
 	/**
@@ -324,7 +331,8 @@ public class CMarkedUpRow {
 	 */
 	public Float getFloat(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (Float) CDataConverter.convertTo(value, CTypes.FLOAT);
+		return (Float) metaData.getConverter(columnIndex, CTypes.FLOAT)
+				.convert(value);
 	}
 
 	/**
@@ -338,7 +346,8 @@ public class CMarkedUpRow {
 	 */
 	public Double getDouble(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (Double) CDataConverter.convertTo(value, CTypes.DOUBLE);
+		return (Double) metaData.getConverter(columnIndex, CTypes.DOUBLE)
+				.convert(value);
 	}
 
 	/**
@@ -352,7 +361,8 @@ public class CMarkedUpRow {
 	 */
 	public java.util.Date getDate(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (java.util.Date) CDataConverter.convertTo(value, CTypes.DATE);
+		return (java.util.Date) metaData.getConverter(columnIndex, CTypes.DATE)
+				.convert(value);
 	}
 
 	/**
@@ -366,7 +376,8 @@ public class CMarkedUpRow {
 	 */
 	public java.sql.Time getTime(int columnIndex) throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (java.sql.Time) CDataConverter.convertTo(value, CTypes.TIME);
+		return (java.sql.Time) metaData.getConverter(columnIndex, CTypes.TIME)
+				.convert(value);
 	}
 
 	/**
@@ -381,8 +392,8 @@ public class CMarkedUpRow {
 	public java.sql.Timestamp getTimestamp(int columnIndex)
 			throws CDataGridException {
 		Object value = row.getValue(columnIndex);
-		return (java.sql.Timestamp) CDataConverter.convertTo(value,
-				CTypes.TIMESTAMP);
+		return (java.sql.Timestamp) metaData.getConverter(columnIndex, CTypes.TIMESTAMP)
+				.convert(value);
 	}
 
 	/**
@@ -399,4 +410,88 @@ public class CMarkedUpRow {
 		return row.getValue(columnIndex);
 	}
 
+	/**
+	 * Returns the value at the given column as a int, without boxing.
+	 * 
+	 * @param columnName
+	 *            column Name
+	 * @return data, or 0 if the value is null
+	 * @throws CDataGridException
+	 *             if column cannot be accessed as type
+	 */
+	public int getIntValue(String columnName) throws CDataGridException {
+		return getIntValue(metaData.getColumnIndex(columnName));
+	}
+
+	/**
+	 * Returns the value at the given column as a int, without boxing.
+	 * 
+	 * @param columnIndex
+	 *            column Index
+	 * @return data, or 0 if the value is null
+	 * @throws CDataGridException
+	 *             if column cannot be accessed as type
+	 */
+	public int getIntValue(int columnIndex) throws CDataGridException {
+		Object value = row.getValue(columnIndex);
+		return metaData.getConverter(columnIndex, CTypes.INTEGER).getIntValue(
+				value);
+	}
+
+	/**
+	 * Returns the value at the given column as a long, without boxing.
+	 * 
+	 * @param columnName
+	 *            column Name
+	 * @return data, or 0 if the value is null
+	 * @throws CDataGridException
+	 *             if column cannot be accessed as type
+	 */
+	public long getLongValue(String columnName) throws CDataGridException {
+		return getLongValue(metaData.getColumnIndex(columnName));
+	}
+
+	/**
+	 * Returns the value at the given column as a long, without boxing.
+	 * 
+	 * @param columnIndex
+	 *            column Index
+	 * @return data, or 0 if the value is null
+	 * @throws CDataGridException
+	 *             if column cannot be accessed as type
+	 */
+	public long getLongValue(int columnIndex) throws CDataGridException {
+		Object value = row.getValue(columnIndex);
+		return metaData.getConverter(columnIndex, CTypes.LONG).getLongValue(
+				value);
+	}
+
+	/**
+	 * Returns the value at the given column as a double, without boxing.
+	 * 
+	 * @param columnName
+	 *            column Name
+	 * @return data, or 0 if the value is null
+	 * @throws CDataGridException
+	 *             if column cannot be accessed as type
+	 */
+	public double getDoubleValue(String columnName) throws CDataGridException {
+		return getDoubleValue(metaData.getColumnIndex(columnName));
+	}
+
+	/**
+	 * Returns the value at the given column as a double, without boxing.
+	 * 
+	 * @param columnIndex
+	 *            column Index
+	 * @return data, or 0 if the value is null
+	 * @throws CDataGridException
+	 *             if column cannot be accessed as type
+	 */
+	public double getDoubleValue(int columnIndex) throws CDataGridException {
+		Object value = row.getValue(columnIndex);
+		return metaData.getConverter(columnIndex, CTypes.DOUBLE).getDoubleValue(
+				value);
+	}
+
 }
@@ -53,6 +53,9 @@ public class CRowMetaData
 	/** Column Names -> Index */
 	private HashMap labelMap = null;
 
+	/** Converters by column index and requested type, created as needed */
+	private transient CTypeConverter[][] converters = null;
+
 	
 	//
 	//	--- Constructor(s) --- 
@@ -235,6 +238,40 @@ public class CRowMetaData
 	{
 		return columnTypes[columnIndex];
 	}
+
+	
+	/**
+	 *	Returns the converter from the type of a column to a requested type. 
+	 *	Converters are cached, so this is cheap to call for every value. 
+	 *	@param columnIndex column index
+	 *	@param type requested type, from {@link CTypes}
+	 *	@return converter 
+	 */
+	public CTypeConverter getConverter(int columnIndex, int type)
+	{
+		if (type < 0 || type >= CTypeConverter.TYPE_COUNT)
+			return CTypeConverter.getConverter(columnTypes[columnIndex], type);
+		
+		//	A race creates the same converters twice, which is harmless
+		CTypeConverter[][] table = converters;
+		if (table == null || table.length != columnTypes.length) {
+			table = new CTypeConverter[columnTypes.length][];
+			converters = table;
+		}
+		
+		CTypeConverter[] columnConverters = table[columnIndex];
+		if (columnConverters == null) {
+			columnConverters = new CTypeConverter[CTypeConverter.TYPE_COUNT];
+			table[columnIndex] = columnConverters;
+		}
+		
+		CTypeConverter converter = columnConverters[type];
+		if (converter == null) {
+			converter = CTypeConverter.getConverter(columnTypes[columnIndex], type);
+			columnConverters[type] = converter;
+		}
+		return converter;
+	}
 	
 	
 	/**
@@ -426,6 +463,7 @@ public class CRowMetaData
 		columnNames = newColumnNames;
 		columnTypes = newColumnTypes; 
 		labelMap = newLabelMap;
+		converters = null;
 
 	}
 		
@@ -475,6 +513,7 @@ public class CRowMetaData
 		metaClone.columnTypes = (Class[])this.columnTypes.clone();
 		metaClone.primaryKeyColumns = (String[])this.primaryKeyColumns.clone();
 		metaClone.labelMap = (HashMap)this.labelMap.clone();
+		metaClone.converters = null;
 		
 		return metaClone;
 	}
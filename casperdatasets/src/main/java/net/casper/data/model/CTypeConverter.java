@@ -0,0 +1,314 @@
+//	CTypeConverter.java
+//	- Casper Datasets (R) -
+//
+
+package net.casper.data.model;
+
+
+//	Java imports
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ *	Converts values of a column type to one of the types in {@link CTypes}.
+ *	A converter is chosen once for each pair of column type and requested type,
+ *	so converting a value does not need to search through the possible types
+ *	as {@link CDataConverter#convertTo(Object, int)} does:
+ *	<ul>
+ *	<li>values already of the requested type are returned unchanged, without
+ *	allocating a new wrapper,</li>
+ *	<li>numbers are converted to other numeric types or strings directly,</li>
+ *	<li>anything else, including values that are not of the column type, is
+ *	converted by {@link CDataConverter#convertTo(Object, int)}.</li>
+ *	</ul>
+ *	The primitive accessors, eg: {@link #getIntValue(Object)}, return numbers and
+ *	booleans without boxing.
+ *	<br/><br/>
+ *	Converters are immutable and shared. Get the converter for a column from
+ *	{@link CRowMetaData#getConverter(int, int)}, which caches them.
+ *
+ *	@author agent
+ */
+public final class CTypeConverter
+{
+
+	//	--- Static Variables ---
+
+	/** Values of the column type are already of the requested type. */
+	private static final int IDENTITY = 0;
+
+	/** Values of the column type are numbers, converted directly. */
+	private static final int NUMBER = 1;
+
+	/** Values are converted by CDataConverter. */
+	private static final int GENERIC = 2;
+
+	/** Size of the converter table for a column type, indexed by CTypes value. */
+	static final int TYPE_COUNT = CTypes.TIMESTAMP + 1;
+
+	/** Converters by column type, each an array indexed by requested type. */
+	private static final Map CONVERTERS = new HashMap();
+
+
+	//	--- Instance Variables ---
+
+	/** Column type. */
+	private final Class sourceType;
+
+	/** Requested type, from {@link CTypes}. */
+	private final int targetType;
+
+	/** How values are converted. */
+	private final int kind;
+
+
+	//	--- Constructor(s) ---
+
+	/**
+	 *	Instantiation via {@link #getConverter(Class, int)} only.
+	 *
+	 *	@param sourceType column type
+	 *	@param targetType requested type
+	 */
+	private CTypeConverter(Class sourceType, int targetType)
+	{
+		this.sourceType = sourceType;
+		this.targetType = targetType;
+
+		if (sourceType != null && isType(sourceType, targetType))
+			this.kind = IDENTITY;
+		else if (sourceType != null && Number.class.isAssignableFrom(sourceType)
+				&& isNumberTarget(targetType))
+			this.kind = NUMBER;
+		else
+			this.kind = GENERIC;
+	}
+
+
+	//	--- Static Methods ---
+
+	/**
+	 *	Returns the shared converter for a column type and requested type.
+	 *
+	 *	@param sourceType column type, or {@code null} if not known
+	 *	@param targetType requested type, from {@link CTypes}
+	 *	@return converter
+	 */
+	public static synchronized CTypeConverter getConverter(Class sourceType, int targetType)
+	{
+		if (targetType < 0 || targetType >= TYPE_COUNT)
+			return new CTypeConverter(sourceType, targetType);
+
+		CTypeConverter[] converters = (CTypeConverter[]) CONVERTERS.get(sourceType);
+		if (converters == null) {
+			converters = new CTypeConverter[TYPE_COUNT];
+			CONVERTERS.put(sourceType, converters);
+		}
+
+		if (converters[targetType] == null)
+			converters[targetType] = new CTypeConverter(sourceType, targetType);
+		return converters[targetType];
+	}
+
+	/**
+	 *	Returns true if values of a class are returned unchanged by
+	 *	{@link CDataConverter#convertTo(Object, int)} for a type.
+	 *
+	 *	@param cls class of values
+	 *	@param type type, from {@link CTypes}
+	 *	@return true if values need no conversion
+	 */
+	private static boolean isType(Class cls, int type)
+	{
+		switch (type) {
+			case CTypes.BOOLEAN:	return cls == Boolean.class;
+			case CTypes.BYTE:		return cls == Byte.class;
+			case CTypes.DATE:		return cls == java.util.Date.class || cls == java.sql.Date.class;
+			case CTypes.DOUBLE:		return cls == Double.class;
+			case CTypes.FLOAT:		return cls == Float.class;
+			case CTypes.INTEGER:	return cls == Integer.class;
+			case CTypes.LONG:		return cls == Long.class;
+			case CTypes.SHORT:		return cls == Short.class;
+			case CTypes.STRING:		return cls == String.class;
+			case CTypes.TIME:		return cls == Time.class;
+			//	CHARACTER shares its value with TIMESTAMP
+			case CTypes.TIMESTAMP:	return cls == Timestamp.class || cls == Character.class;
+			default:				return false;
+		}
+	}
+
+	/**
+	 *	Returns true if numbers are converted to a type directly.
+	 *
+	 *	@param type type, from {@link CTypes}
+	 *	@return true for numeric and string types
+	 */
+	private static boolean isNumberTarget(int type)
+	{
+		switch (type) {
+			case CTypes.BYTE:
+			case CTypes.DOUBLE:
+			case CTypes.FLOAT:
+			case CTypes.INTEGER:
+			case CTypes.LONG:
+			case CTypes.SHORT:
+			case CTypes.STRING:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+
+	//	--- Instance Methods ---
+
+	/**
+	 *	Returns the column type.
+	 *	@return column type, or {@code null} if not known
+	 */
+	public Class getSourceType()
+	{
+		return sourceType;
+	}
+
+	/**
+	 *	Returns the requested type.
+	 *	@return type, from {@link CTypes}
+	 */
+	public int getTargetType()
+	{
+		return targetType;
+	}
+
+	/**
+	 *	Converts a value to the requested type.
+	 *
+	 *	@param value value, may be null
+	 *	@return converted value, or null if value is null
+	 *	@throws CDataGridException if the value cannot be converted
+	 */
+	public Object convert(Object value)
+		throws CDataGridException
+	{
+		if (value == null)
+			return null;
+
+		if (value.getClass() == sourceType) {
+			if (kind == IDENTITY)
+				return value;
+			if (kind == NUMBER)
+				return convertNumber((Number) value);
+		}
+
+		return CDataConverter.convertTo(value, targetType);
+	}
+
+	/**
+	 *	Converts a number to the requested numeric or string type, as
+	 *	{@link CDataConverter#convertTo(Object, int)} does.
+	 *
+	 *	@param value number
+	 *	@return converted value
+	 */
+	private Object convertNumber(Number value)
+	{
+		switch (targetType) {
+			case CTypes.BYTE:		return new Byte(value.byteValue());
+			case CTypes.DOUBLE:		return new Double(value.doubleValue());
+			case CTypes.FLOAT:		return new Float(value.floatValue());
+			case CTypes.INTEGER:	return new Integer(value.intValue());
+			case CTypes.LONG:		return new Long(value.longValue());
+			case CTypes.SHORT:		return new Short(value.shortValue());
+			default:				return value.toString();
+		}
+	}
+
+	/**
+	 *	Returns a value as an int, converting it as for {@link CTypes#INTEGER}.
+	 *
+	 *	@param value value, may be null
+	 *	@return int value, or 0 if value is null
+	 *	@throws CDataGridException if the value cannot be converted
+	 */
+	public int getIntValue(Object value)
+		throws CDataGridException
+	{
+		if (value instanceof Number)
+			return ((Number) value).intValue();
+		if (value == null)
+			return 0;
+		return ((Integer) CDataConverter.convertTo(value, CTypes.INTEGER)).intValue();
+	}
+
+	/**
+	 *	Returns a value as a long, converting it as for {@link CTypes#LONG}.
+	 *
+	 *	@param value value, may be null
+	 *	@return long value, or 0 if value is null
+	 *	@throws CDataGridException if the value cannot be converted
+	 */
+	public long getLongValue(Object value)
+		throws CDataGridException
+	{
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		if (value == null)
+			return 0;
+		return ((Long) CDataConverter.convertTo(value, CTypes.LONG)).longValue();
+	}
+
+	/**
+	 *	Returns a value as a double, converting it as for {@link CTypes#DOUBLE}.
+	 *
+	 *	@param value value, may be null
+	 *	@return double value, or 0 if value is null
+	 *	@throws CDataGridException if the value cannot be converted
+	 */
+	public double getDoubleValue(Object value)
+		throws CDataGridException
+	{
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		if (value == null)
+			return 0;
+		return ((Double) CDataConverter.convertTo(value, CTypes.DOUBLE)).doubleValue();
+	}
+
+	/**
+	 *	Returns a value as a float, converting it as for {@link CTypes#FLOAT}.
+	 *
+	 *	@param value value, may be null
+	 *	@return float value, or 0 if value is null
+	 *	@throws CDataGridException if the value cannot be converted
+	 */
+	public float getFloatValue(Object value)
+		throws CDataGridException
+	{
+		if (value instanceof Number)
+			return ((Number) value).floatValue();
+		if (value == null)
+			return 0;
+		return ((Float) CDataConverter.convertTo(value, CTypes.FLOAT)).floatValue();
+	}
+
+	/**
+	 *	Returns a value as a boolean, converting it as for {@link CTypes#BOOLEAN}.
+	 *
+	 *	@param value value, may be null
+	 *	@return boolean value, or false if value is null
+	 *	@throws CDataGridException if the value cannot be converted
+	 */
+	public boolean getBooleanValue(Object value)
+		throws CDataGridException
+	{
+		if (value instanceof Boolean)
+			return ((Boolean) value).booleanValue();
+		if (value == null)
+			return false;
+		return ((Boolean) CDataConverter.convertTo(value, CTypes.BOOLEAN)).booleanValue();
+	}
+
+}
@@ -134,6 +134,34 @@ public class CTypes
 			
 	}
 	
+	/**
+	 *	Given a class, return the corresponding type constant of this class, 
+	 *	eg: for converting values with {@link CDataConverter#convertTo(Object, int)}. 
+	 *	Character is not mapped, as CHARACTER shares its value with TIMESTAMP. 
+	 *
+	 * @param cls class
+	 * @return type constant, or -1 if the class has none
+	 */
+	public static int getType(Class cls)
+	{
+		if (cls == null)
+			return -1;
+		
+		if (cls.equals(Boolean.class))				return BOOLEAN;
+		else if (cls.equals(Byte.class))			return BYTE;
+		else if (cls.equals(java.sql.Date.class))	return DATE;
+		else if (cls.equals(java.util.Date.class))	return DATE;
+		else if (cls.equals(Double.class))			return DOUBLE;
+		else if (cls.equals(Float.class))			return FLOAT;
+		else if (cls.equals(Integer.class))			return INTEGER;
+		else if (cls.equals(Long.class))			return LONG;
+		else if (cls.equals(Short.class))			return SHORT;
+		else if (cls.equals(String.class))			return STRING;
+		else if (cls.equals(Time.class))			return TIME;
+		else if (cls.equals(Timestamp.class))		return TIMESTAMP;
+		else	return -1;
+	}
+	
 	
 	
 }
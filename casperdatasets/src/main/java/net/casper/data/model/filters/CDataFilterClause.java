@@ -335,6 +335,16 @@ public class CDataFilterClause
 		return primaryKeyFilter;
 	}
 	
+	/**
+	 * Returns true, if matching will look up candidate rows by primary key
+	 * or index, rather than scanning the rows passed to {@link #match(CDataRow[])}.
+	 * Only valid once the container callback optimization has been set.
+	 * @return true, if a primary key or index lookup will be used
+	 */
+	public boolean isLookup() {
+		return primaryKeyFilter != null || indexFilters.size() > 0;
+	}
+	
 	
 	/**
 	 *	Returns string representation of this object 
@@ -0,0 +1,96 @@
+package net.casper.data.model.offheap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import net.casper.data.model.CBuilder;
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CRowMetaData;
+
+/**
+ * Decorates a {@link CBuilder} so that the container it builds stores its
+ * rows off-heap in a {@link COffHeapRowMap}, eg:
+ *
+ * <pre>
+ * CDataCacheContainer container = new CDataCacheContainer(
+ * 		new COffHeapBuilder(new CBuildFromFile(file)));
+ * </pre>
+ *
+ * @author agent
+ */
+public class COffHeapBuilder implements CBuilder {
+
+	/** Decorated builder. */
+	private final CBuilder builder;
+
+	/** Backing file, or {@code null} to use direct buffers. */
+	private final File file;
+
+	/**
+	 * Store rows in direct buffers.
+	 *
+	 * @param builder
+	 *            builder supplying the rows
+	 */
+	public COffHeapBuilder(CBuilder builder) {
+		this(builder, null);
+	}
+
+	/**
+	 * Store rows in a memory-mapped file.
+	 *
+	 * @param builder
+	 *            builder supplying the rows
+	 * @param file
+	 *            backing file, or {@code null} to use direct buffers
+	 */
+	public COffHeapBuilder(CBuilder builder, File file) {
+		this.builder = builder;
+		this.file = file;
+	}
+
+	public String getName() {
+		return builder.getName();
+	}
+
+	public String[] getColumnNames() {
+		return builder.getColumnNames();
+	}
+
+	public Class[] getColumnTypes() {
+		return builder.getColumnTypes();
+	}
+
+	public String[] getPrimaryKeyColumns() {
+		return builder.getPrimaryKeyColumns();
+	}
+
+	/**
+	 * An off-heap map laid out for the columns of the decorated builder.
+	 *
+	 * @return off-heap map
+	 */
+	public Map getConcreteMap() {
+		try {
+			return new COffHeapRowMap(new CRowMetaData(getColumnNames(),
+					getColumnTypes(), getPrimaryKeyColumns()), file);
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	public void open() throws IOException {
+		builder.open();
+	}
+
+	public Object[] readRow() throws IOException {
+		return builder.readRow();
+	}
+
+	public void close() {
+		builder.close();
+	}
+
+}
@@ -0,0 +1,179 @@
+package net.casper.data.model.offheap;
+
+import java.io.ObjectStreamException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CRowMetaData;
+
+/**
+ * A {@link CDataRow} view of a row stored in a {@link COffHeapRowMap}. Values
+ * are decoded from off-heap storage each time they are read and written back
+ * each time they are set. {@link #getRawData()} returns a materialized copy,
+ * so changes to the returned array are not written back; use
+ * {@link #setRawData(Object[])} instead.
+ *
+ * @author agent
+ */
+public class COffHeapDataRow extends CDataRow {
+
+	/** Serialization ID. */
+	private static final long serialVersionUID = -3203612851520387064L;
+
+	/** Map holding the row. */
+	private final transient COffHeapRowMap map;
+
+	/** Address of the row. */
+	private final long address;
+
+	/** Stamp of the row when this view was created. */
+	private final int stamp;
+
+	/**
+	 * Create a view.
+	 *
+	 * @param map
+	 *            map holding the row
+	 * @param address
+	 *            address of the row
+	 * @param stamp
+	 *            stamp of the row
+	 */
+	COffHeapDataRow(COffHeapRowMap map, long address, int stamp) {
+		this.map = map;
+		this.address = address;
+		this.stamp = stamp;
+	}
+
+	/**
+	 * Whether this is a view of the row at {@code address} in {@code map}.
+	 *
+	 * @param map
+	 *            map
+	 * @param address
+	 *            row address
+	 * @return {@code true} if this view refers to the same row
+	 */
+	boolean isViewOf(COffHeapRowMap map, long address) {
+		return this.map == map && this.address == address;
+	}
+
+	/**
+	 * Whether {@code row} is a view of the same stored row as this view. Each
+	 * read of a row from the map creates a new view, so views are not
+	 * compared by reference. A row removed and added again is a different
+	 * row.
+	 *
+	 * @param row
+	 *            row
+	 * @return {@code true} if {@code row} is a view of the same row
+	 */
+	public boolean isSameRow(CDataRow row) {
+		if (!(row instanceof COffHeapDataRow)) {
+			return false;
+		}
+		COffHeapDataRow view = (COffHeapDataRow) row;
+		return isViewOf(view.map, view.address) && stamp == view.stamp;
+	}
+
+	/**
+	 * Off-heap rows have a fixed number of columns, so this does nothing.
+	 *
+	 * @param size
+	 *            ignored
+	 */
+	public void ensureCardinality(int size) {
+	}
+
+	public int getNumberColumns() {
+		return map.getLayout().getNumberColumns();
+	}
+
+	public Object getValue(int columnIndex) throws CDataGridException {
+		checkArrayBounds(columnIndex);
+		return map.readValue(address, stamp, columnIndex);
+	}
+
+	public void setValue(int columnIndex, Object value)
+			throws CDataGridException {
+		checkArrayBounds(columnIndex);
+		map.writeValue(address, stamp, columnIndex, value);
+	}
+
+	/**
+	 * Returns a materialized copy of the row values.
+	 *
+	 * @return row values
+	 */
+	public Object[] getRawData() {
+		try {
+			return map.readRow(address, stamp);
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	public void setRawData(Object[] row) throws CDataGridException {
+		if (row == null) {
+			throw new CDataGridException(
+					"Row values are null - cannot be set into data row object.");
+		}
+		if (row.length != getNumberColumns()) {
+			throw new CDataGridException("Row has " + row.length
+					+ " columns, expected " + getNumberColumns());
+		}
+		for (int i = 0; i < row.length; i++) {
+			map.writeValue(address, stamp, i, row[i]);
+		}
+	}
+
+	public Map toMap(CRowMetaData metaData) throws CDataGridException {
+		if (metaData == null) {
+			return new HashMap();
+		}
+		return new CDataRow(getRawData()).toMap(metaData);
+	}
+
+	public String toString() {
+		try {
+			return new CDataRow(getRawData()).toString();
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Replace this view in a serialization stream with a materialized row.
+	 *
+	 * @return replacement object
+	 * @throws ObjectStreamException
+	 *             never
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		try {
+			return new CDataRow(getRawData());
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Throws an exception if the specified column index is out of bounds.
+	 *
+	 * @param columnIndex
+	 *            column index
+	 * @throws CDataGridException
+	 *             if out of bounds
+	 */
+	private void checkArrayBounds(int columnIndex) throws CDataGridException {
+		if (columnIndex < 0 || columnIndex >= getNumberColumns()) {
+			throw new CDataGridException("Array out of bounds: row length = "
+					+ getNumberColumns() + ", requested column index: "
+					+ columnIndex);
+		}
+	}
+
+}
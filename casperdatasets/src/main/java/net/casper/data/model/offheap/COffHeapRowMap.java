@@ -0,0 +1,707 @@
+package net.casper.data.model.offheap;
+
+import java.io.File;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CDataRow;
+import net.casper.data.model.CDataRuntimeException;
+import net.casper.data.model.CRowMetaData;
+
+/**
+ * A data row {@link Map} that stores rows off the Java heap, either in direct
+ * {@link ByteBuffer}s or in a memory-mapped file. Use it wherever a concrete
+ * map is accepted, eg:
+ *
+ * <pre>
+ * CDataCacheContainer container = new CDataCacheContainer(name, meta,
+ * 		new COffHeapRowMap(meta));
+ * </pre>
+ *
+ * or wrap a {@link net.casper.data.model.CBuilder} in a
+ * {@link COffHeapBuilder}.
+ * <p>
+ * Each row is written in the fixed binary layout given by {@link CRowLayout}.
+ * Only the keys, and one address per key, remain on the heap. {@link #get}
+ * and iteration return {@link COffHeapDataRow} views which decode values on
+ * access, so reading a single column of a row does not decode the rest of it.
+ * Setting a value through a view writes it back off-heap.
+ * <p>
+ * Fixed width values are overwritten in place. {@link String} and
+ * {@link java.math.BigDecimal} values are stored in blocks rounded up to a
+ * power of two bytes. The block of a replaced or removed value is reused by a
+ * later value of the same size class, and the space of a removed row by a
+ * later row, so updating and replacing rows does not grow storage without
+ * bound. Storage is never returned to the system until the map is cleared or
+ * closed. A view of a removed row throws a {@link CDataGridException} when
+ * read.
+ * <p>
+ * A memory-mapped file is used as backing storage only and is not a
+ * persistence format: its content is discarded when the map is created.
+ * Serializing this map writes a {@link HashMap} of materialized rows.
+ * <p>
+ * Reads and writes of single rows and values are synchronized on the map.
+ * Like {@link HashMap}, iteration is not safe against concurrent
+ * modification. The container serialises writes under its own lock.
+ *
+ * @author agent
+ */
+public class COffHeapRowMap extends AbstractMap implements Serializable {
+
+	/** Serialization ID. */
+	private static final long serialVersionUID = 2836164873013187472L;
+
+	/** Default segment size: 64MB. */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/** Stamp written to removed rows. Never allocated to a live row. */
+	private static final int FREE_STAMP = 0;
+
+	/** Binary row layout. */
+	private final transient CRowLayout layout;
+
+	/** Off-heap storage for rows and variable length values. */
+	private final transient COffHeapSegments storage;
+
+	/** Map of key to row address (a {@link Long}). */
+	private final transient Map addresses = new HashMap();
+
+	/** Addresses of removed rows available for reuse. */
+	private transient long[] freeRows = new long[16];
+
+	/** Number of entries in {@link #freeRows}. */
+	private transient int freeCount = 0;
+
+	/** Smallest size class of a variable length value block: 16 bytes. */
+	private static final int MIN_VALUE_CLASS = 4;
+
+	/**
+	 * Addresses of released variable length value blocks available for reuse,
+	 * by size class. A block of class {@code c} is {@code 1 << c} bytes, or
+	 * the segment size if that is smaller.
+	 */
+	private transient long[][] freeValues = new long[32][];
+
+	/** Number of entries in each {@link #freeValues} list. */
+	private transient int[] freeValueCounts = new int[32];
+
+	/** Stamp of the most recently written row. */
+	private transient int lastStamp = FREE_STAMP;
+
+	/** Entry set view, created on demand. */
+	private transient Set entrySet = null;
+
+	/**
+	 * Store rows in direct buffers.
+	 *
+	 * @param metaData
+	 *            meta data of the rows that will be stored
+	 * @throws CDataGridException
+	 *             if a column type cannot be stored off-heap
+	 */
+	public COffHeapRowMap(CRowMetaData metaData) throws CDataGridException {
+		this(metaData, null, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Store rows in a memory-mapped file.
+	 *
+	 * @param metaData
+	 *            meta data of the rows that will be stored
+	 * @param file
+	 *            backing file. Any existing content is discarded.
+	 * @throws CDataGridException
+	 *             if a column type cannot be stored off-heap, or the file
+	 *             cannot be opened
+	 */
+	public COffHeapRowMap(CRowMetaData metaData, File file)
+			throws CDataGridException {
+		this(metaData, file, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Store rows in a memory-mapped file, or direct buffers if {@code file} is
+	 * {@code null}.
+	 *
+	 * @param metaData
+	 *            meta data of the rows that will be stored
+	 * @param file
+	 *            backing file, or {@code null}
+	 * @param segmentSize
+	 *            size in bytes of each direct buffer or mapped region. No
+	 *            single row or variable length value can exceed this size.
+	 * @throws CDataGridException
+	 *             if a column type cannot be stored off-heap, or the file
+	 *             cannot be opened
+	 */
+	public COffHeapRowMap(CRowMetaData metaData, File file, int segmentSize)
+			throws CDataGridException {
+		this.layout = new CRowLayout(metaData);
+		if (segmentSize < layout.getRowSize()) {
+			throw new CDataGridException("Segment size " + segmentSize
+					+ " is smaller than the row size " + layout.getRowSize());
+		}
+		this.storage = (file == null) ? new COffHeapSegments(segmentSize)
+				: new COffHeapSegments(file, segmentSize);
+	}
+
+	/**
+	 * Binary layout used to store rows.
+	 *
+	 * @return row layout
+	 */
+	public CRowLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Number of off-heap bytes allocated, including space of removed rows and
+	 * values held for reuse.
+	 *
+	 * @return bytes allocated
+	 */
+	public long getAllocatedBytes() {
+		return storage.getAllocated();
+	}
+
+	public synchronized int size() {
+		return addresses.size();
+	}
+
+	public synchronized boolean containsKey(Object key) {
+		return addresses.containsKey(key);
+	}
+
+	public synchronized Object get(Object key) {
+		Long address = (Long) addresses.get(key);
+		return (address == null) ? null : view(address.longValue());
+	}
+
+	/**
+	 * Write a row off-heap. The previous row for {@code key}, if any, is
+	 * overwritten in place.
+	 *
+	 * @param key
+	 *            primary key
+	 * @param value
+	 *            a {@link CDataRow}
+	 * @return a materialized copy of the previous row, or {@code null}
+	 */
+	public synchronized Object put(Object key, Object value) {
+		CDataRow row = (CDataRow) value;
+		try {
+			Long address = (Long) addresses.get(key);
+			if (address == null) {
+				long newAddress = allocateRow();
+				try {
+					writeRow(newAddress, nextStamp(), row.getRawData(), true);
+				} catch (CDataGridException e) {
+					freeRow(newAddress);
+					throw e;
+				}
+				addresses.put(key, new Long(newAddress));
+				return null;
+			}
+
+			if (row instanceof COffHeapDataRow
+					&& ((COffHeapDataRow) row).isViewOf(this,
+							address.longValue())) {
+				// writing a row over itself
+				return new CDataRow(row.getRawData());
+			}
+
+			// keep the stamp so existing views see the new values
+			int stamp = readStamp(address.longValue());
+			CDataRow previous = new CDataRow(readRow(address.longValue(),
+					stamp));
+			writeRow(address.longValue(), stamp, row.getRawData(), false);
+			return previous;
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Remove a row. Its storage is reused by a later row.
+	 *
+	 * @param key
+	 *            primary key
+	 * @return a materialized copy of the removed row, or {@code null}
+	 */
+	public synchronized Object remove(Object key) {
+		Long address = (Long) addresses.remove(key);
+		if (address == null) {
+			return null;
+		}
+
+		try {
+			CDataRow removed = new CDataRow(readRow(address.longValue(),
+					readStamp(address.longValue())));
+			freeRow(address.longValue());
+			return removed;
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+	}
+
+	public synchronized void clear() {
+		addresses.clear();
+		freeCount = 0;
+		clearFreeValues();
+		storage.clear();
+	}
+
+	/**
+	 * Release off-heap storage and close the backing file, if any. The map
+	 * cannot be used afterwards.
+	 *
+	 * @throws CDataGridException
+	 *             if problem closing the backing file
+	 */
+	public synchronized void close() throws CDataGridException {
+		addresses.clear();
+		freeCount = 0;
+		clearFreeValues();
+		storage.close();
+	}
+
+	public Set entrySet() {
+		if (entrySet == null) {
+			entrySet = new EntrySet();
+		}
+		return entrySet;
+	}
+
+	/**
+	 * Replace this map in a serialization stream with a {@link HashMap} of
+	 * materialized rows.
+	 *
+	 * @return replacement object
+	 * @throws ObjectStreamException
+	 *             never
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		Map copy = new HashMap();
+		try {
+			for (Iterator iter = entrySet().iterator(); iter.hasNext();) {
+				Map.Entry entry = (Map.Entry) iter.next();
+				CDataRow row = (CDataRow) entry.getValue();
+				copy.put(entry.getKey(), new CDataRow(row.getRawData()));
+			}
+		} catch (CDataGridException e) {
+			throw new CDataRuntimeException(e);
+		}
+		return copy;
+	}
+
+	/**
+	 * Create a view of the row at {@code address}.
+	 *
+	 * @param address
+	 *            row address
+	 * @return row view
+	 */
+	private synchronized COffHeapDataRow view(long address) {
+		return new COffHeapDataRow(this, address, readStamp(address));
+	}
+
+	/**
+	 * Stamp of the row at {@code address}.
+	 *
+	 * @param address
+	 *            row address
+	 * @return stamp
+	 */
+	private int readStamp(long address) {
+		return storage.segment(address).getInt(storage.offset(address));
+	}
+
+	/**
+	 * Throw if the row at {@code address} no longer has {@code stamp}, ie: it
+	 * has been removed since the view was created.
+	 *
+	 * @param address
+	 *            row address
+	 * @param stamp
+	 *            expected stamp
+	 * @throws CDataGridException
+	 *             if the row has been removed
+	 */
+	private void checkStamp(long address, int stamp)
+			throws CDataGridException {
+		if (readStamp(address) != stamp) {
+			throw new CDataGridException(
+					"Row has been removed from off-heap storage.");
+		}
+	}
+
+	/**
+	 * Read a single value.
+	 *
+	 * @param address
+	 *            row address
+	 * @param stamp
+	 *            expected row stamp
+	 * @param columnIndex
+	 *            column index
+	 * @return value
+	 * @throws CDataGridException
+	 *             if the row has been removed
+	 */
+	synchronized Object readValue(long address, int stamp, int columnIndex)
+			throws CDataGridException {
+		checkStamp(address, stamp);
+		ByteBuffer buf = storage.segment(address);
+		int rowPos = storage.offset(address);
+
+		if (layout.isNull(buf, rowPos, columnIndex)) {
+			return null;
+		}
+
+		int typeCode = layout.getTypeCode(columnIndex);
+		int pos = rowPos + layout.getOffset(columnIndex);
+		if (!CRowLayout.isVariable(typeCode)) {
+			return CRowLayout.readFixed(buf, pos, typeCode);
+		}
+
+		long valueAddress = buf.getLong(pos);
+		ByteBuffer valueBuf = storage.segment(valueAddress).duplicate();
+		int valuePos = storage.offset(valueAddress);
+		byte[] bytes = new byte[valueBuf.getInt(valuePos)];
+		valueBuf.position(valuePos + 4);
+		valueBuf.get(bytes);
+		return CRowLayout.decodeVariable(typeCode, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Read all values of a row.
+	 *
+	 * @param address
+	 *            row address
+	 * @param stamp
+	 *            expected row stamp
+	 * @return row values
+	 * @throws CDataGridException
+	 *             if the row has been removed
+	 */
+	synchronized Object[] readRow(long address, int stamp)
+			throws CDataGridException {
+		Object[] values = new Object[layout.getNumberColumns()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = readValue(address, stamp, i);
+		}
+		return values;
+	}
+
+	/**
+	 * Write a single value.
+	 *
+	 * @param address
+	 *            row address
+	 * @param stamp
+	 *            expected row stamp
+	 * @param columnIndex
+	 *            column index
+	 * @param value
+	 *            value
+	 * @throws CDataGridException
+	 *             if the row has been removed, or the value does not match
+	 *             the column type
+	 */
+	synchronized void writeValue(long address, int stamp, int columnIndex,
+			Object value) throws CDataGridException {
+		checkStamp(address, stamp);
+		ByteBuffer buf = storage.segment(address);
+		int rowPos = storage.offset(address);
+		write(buf, rowPos, columnIndex, value);
+	}
+
+	/**
+	 * Write all values of a row.
+	 *
+	 * @param address
+	 *            row address
+	 * @param stamp
+	 *            row stamp
+	 * @param values
+	 *            row values
+	 * @param fresh
+	 *            {@code true} if the space at {@code address} does not hold a
+	 *            live row, so its content is ignored. Otherwise the blocks of
+	 *            the row's variable length values are released as they are
+	 *            replaced.
+	 * @throws CDataGridException
+	 *             if the row does not match the layout
+	 */
+	private void writeRow(long address, int stamp, Object[] values,
+			boolean fresh) throws CDataGridException {
+		if (values.length != layout.getNumberColumns()) {
+			throw new CDataGridException("Row has " + values.length
+					+ " columns, expected " + layout.getNumberColumns());
+		}
+
+		ByteBuffer buf = storage.segment(address);
+		int rowPos = storage.offset(address);
+		buf.putInt(rowPos, stamp);
+		if (fresh) {
+			// mark every value null, so nothing is released that was not
+			// written by this row
+			for (int i = 0; i < values.length; i++) {
+				layout.setNull(buf, rowPos, i, true);
+			}
+		}
+		for (int i = 0; i < values.length; i++) {
+			write(buf, rowPos, i, values[i]);
+		}
+	}
+
+	/**
+	 * Stamp for a newly written row.
+	 *
+	 * @return stamp, never {@link #FREE_STAMP}
+	 */
+	private int nextStamp() {
+		lastStamp++;
+		if (lastStamp == FREE_STAMP) {
+			lastStamp++;
+		}
+		return lastStamp;
+	}
+
+	/**
+	 * Write a value into its column slot. A variable length value replaced by
+	 * this write has its block released, once the new value is written.
+	 *
+	 * @param buf
+	 *            segment holding the row
+	 * @param rowPos
+	 *            position of the row in {@code buf}
+	 * @param columnIndex
+	 *            column index
+	 * @param value
+	 *            value
+	 * @throws CDataGridException
+	 *             if the value does not match the column type
+	 */
+	private void write(ByteBuffer buf, int rowPos, int columnIndex,
+			Object value) throws CDataGridException {
+		int typeCode = layout.getTypeCode(columnIndex);
+		int pos = rowPos + layout.getOffset(columnIndex);
+		boolean variable = CRowLayout.isVariable(typeCode);
+		long oldValue = (variable && !layout.isNull(buf, rowPos, columnIndex))
+				? buf.getLong(pos) : -1;
+
+		if (value == null) {
+			layout.setNull(buf, rowPos, columnIndex, true);
+		} else if (variable) {
+			byte[] bytes = CRowLayout.encodeVariable(typeCode, value);
+			long valueAddress = allocateValue(bytes.length + 4);
+			ByteBuffer valueBuf = storage.segment(valueAddress).duplicate();
+			int valuePos = storage.offset(valueAddress);
+			valueBuf.putInt(valuePos, bytes.length);
+			valueBuf.position(valuePos + 4);
+			valueBuf.put(bytes);
+			buf.putLong(pos, valueAddress);
+			layout.setNull(buf, rowPos, columnIndex, false);
+		} else {
+			CRowLayout.writeFixed(buf, pos, typeCode, value);
+			layout.setNull(buf, rowPos, columnIndex, false);
+		}
+
+		if (oldValue >= 0) {
+			freeValue(oldValue);
+		}
+	}
+
+	/**
+	 * Size class of a variable length value block.
+	 *
+	 * @param length
+	 *            bytes needed, including the length header
+	 * @return smallest class {@code c} with {@code 1 << c >= length}
+	 */
+	private static int valueClass(int length) {
+		int c = MIN_VALUE_CLASS;
+		while ((1 << c) < length && c < 31) {
+			c++;
+		}
+		return c;
+	}
+
+	/**
+	 * Allocate a block for a variable length value, reusing a released block
+	 * of the same size class if there is one.
+	 *
+	 * @param length
+	 *            bytes needed, including the length header
+	 * @return block address
+	 * @throws CDataGridException
+	 *             if {@code length} exceeds the segment size or storage
+	 *             cannot be grown
+	 */
+	private long allocateValue(int length) throws CDataGridException {
+		int segmentSize = storage.getSegmentSize();
+		if (length > segmentSize) {
+			// fails with the size of the value
+			return storage.allocate(length);
+		}
+
+		int c = valueClass(length);
+		if (freeValueCounts[c] > 0) {
+			return freeValues[c][--freeValueCounts[c]];
+		}
+		return storage.allocate((int) Math.min(1L << c, segmentSize));
+	}
+
+	/**
+	 * Make the block of a variable length value available for reuse. Its
+	 * size class is found from the length header of the value it holds.
+	 *
+	 * @param valueAddress
+	 *            block address
+	 */
+	private void freeValue(long valueAddress) {
+		int c = valueClass(storage.segment(valueAddress).getInt(
+				storage.offset(valueAddress)) + 4);
+		long[] list = freeValues[c];
+		if (list == null) {
+			list = new long[16];
+			freeValues[c] = list;
+		} else if (freeValueCounts[c] == list.length) {
+			list = new long[list.length * 2];
+			System.arraycopy(freeValues[c], 0, list, 0, freeValueCounts[c]);
+			freeValues[c] = list;
+		}
+		list[freeValueCounts[c]++] = valueAddress;
+	}
+
+	/**
+	 * Forget all released value blocks.
+	 */
+	private void clearFreeValues() {
+		for (int c = 0; c < freeValueCounts.length; c++) {
+			freeValueCounts[c] = 0;
+		}
+	}
+
+	/**
+	 * Allocate space for a row, reusing the space of a removed row if there
+	 * is one.
+	 *
+	 * @return row address
+	 * @throws CDataGridException
+	 *             if storage cannot be grown
+	 */
+	private long allocateRow() throws CDataGridException {
+		if (freeCount > 0) {
+			return freeRows[--freeCount];
+		}
+		return storage.allocate(layout.getRowSize());
+	}
+
+	/**
+	 * Mark a row as removed and make its space, and the blocks of its variable
+	 * length values, available for reuse.
+	 *
+	 * @param address
+	 *            row address
+	 */
+	private void freeRow(long address) {
+		ByteBuffer buf = storage.segment(address);
+		int rowPos = storage.offset(address);
+		for (int i = 0; i < layout.getNumberColumns(); i++) {
+			if (CRowLayout.isVariable(layout.getTypeCode(i))
+					&& !layout.isNull(buf, rowPos, i)) {
+				freeValue(buf.getLong(rowPos + layout.getOffset(i)));
+				layout.setNull(buf, rowPos, i, true);
+			}
+		}
+		buf.putInt(rowPos, FREE_STAMP);
+		if (freeCount == freeRows.length) {
+			long[] grown = new long[freeRows.length * 2];
+			System.arraycopy(freeRows, 0, grown, 0, freeCount);
+			freeRows = grown;
+		}
+		freeRows[freeCount++] = address;
+	}
+
+	/**
+	 * Entry set backed by the key to address map.
+	 */
+	private final class EntrySet extends AbstractSet {
+
+		public Iterator iterator() {
+			final Iterator iter = addresses.entrySet().iterator();
+
+			return new Iterator() {
+
+				private Map.Entry last = null;
+
+				public boolean hasNext() {
+					return iter.hasNext();
+				}
+
+				public Object next() {
+					last = (Map.Entry) iter.next();
+					return new Entry(last.getKey(), ((Long) last.getValue())
+							.longValue());
+				}
+
+				public void remove() {
+					if (last == null) {
+						throw new IllegalStateException();
+					}
+					synchronized (COffHeapRowMap.this) {
+						iter.remove();
+						freeRow(((Long) last.getValue()).longValue());
+					}
+					last = null;
+				}
+			};
+		}
+
+		public int size() {
+			return COffHeapRowMap.this.size();
+		}
+
+		public void clear() {
+			COffHeapRowMap.this.clear();
+		}
+	}
+
+	/**
+	 * Map entry whose value is a row view.
+	 */
+	private final class Entry implements Map.Entry {
+
+		private final Object key;
+
+		private final long address;
+
+		Entry(Object key, long address) {
+			this.key = key;
+			this.address = address;
+		}
+
+		public Object getKey() {
+			return key;
+		}
+
+		public Object getValue() {
+			return view(address);
+		}
+
+		public Object setValue(Object value) {
+			return put(key, value);
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+package net.casper.data.model.offheap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.casper.data.model.CDataGridException;
+
+/**
+ * Append only storage made of fixed size off-heap segments. Segments are
+ * either direct {@link ByteBuffer}s or regions of a memory-mapped file.
+ * Storage is addressed by a {@code long} so that the total size is not limited
+ * to the 2GB a single {@link ByteBuffer} can address. An allocation never
+ * spans two segments.
+ *
+ * @author agent
+ */
+final class COffHeapSegments {
+
+	/** Size of each segment in bytes. */
+	private final int segmentSize;
+
+	/** Backing file, or {@code null} when using direct buffers. */
+	private final RandomAccessFile file;
+
+	/** Segments allocated so far. Replaced, not modified, when growing. */
+	private volatile ByteBuffer[] segments = new ByteBuffer[0];
+
+	/** Address of the next free byte. */
+	private long next = 0;
+
+	/**
+	 * Storage in direct buffers.
+	 *
+	 * @param segmentSize
+	 *            size of each segment in bytes
+	 */
+	COffHeapSegments(int segmentSize) {
+		this.segmentSize = segmentSize;
+		this.file = null;
+	}
+
+	/**
+	 * Storage in a memory-mapped file. Any existing content of the file is
+	 * discarded.
+	 *
+	 * @param file
+	 *            backing file
+	 * @param segmentSize
+	 *            size of each segment in bytes
+	 * @throws CDataGridException
+	 *             if the file cannot be opened
+	 */
+	COffHeapSegments(File file, int segmentSize) throws CDataGridException {
+		this.segmentSize = segmentSize;
+		try {
+			this.file = new RandomAccessFile(file, "rw");
+			this.file.setLength(0);
+		} catch (IOException e) {
+			throw new CDataGridException("Cannot open off-heap storage file "
+					+ file, e);
+		}
+	}
+
+	/**
+	 * Allocate {@code length} bytes.
+	 *
+	 * @param length
+	 *            number of bytes
+	 * @return address of the allocated bytes
+	 * @throws CDataGridException
+	 *             if {@code length} exceeds the segment size or storage
+	 *             cannot be grown
+	 */
+	synchronized long allocate(int length) throws CDataGridException {
+		if (length > segmentSize) {
+			throw new CDataGridException("Cannot allocate " + length
+					+ " bytes in off-heap segments of " + segmentSize
+					+ " bytes");
+		}
+
+		int offset = (int) (next % segmentSize);
+		if (offset + length > segmentSize) {
+			// skip to the start of the next segment
+			next += segmentSize - offset;
+		}
+		while (next + length > (long) segments.length * segmentSize) {
+			grow();
+		}
+
+		long address = next;
+		next += length;
+		return address;
+	}
+
+	/**
+	 * Size of each segment in bytes.
+	 *
+	 * @return segment size
+	 */
+	int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * Segment containing an address.
+	 *
+	 * @param address
+	 *            address
+	 * @return segment buffer. Use absolute get and put methods only.
+	 */
+	ByteBuffer segment(long address) {
+		return segments[(int) (address / segmentSize)];
+	}
+
+	/**
+	 * Position of an address within its segment.
+	 *
+	 * @param address
+	 *            address
+	 * @return offset within segment
+	 */
+	int offset(long address) {
+		return (int) (address % segmentSize);
+	}
+
+	/**
+	 * Number of bytes allocated.
+	 *
+	 * @return bytes allocated
+	 */
+	synchronized long getAllocated() {
+		return next;
+	}
+
+	/**
+	 * Discard all allocations. Segments already allocated are kept and reused
+	 * by later allocations, so a mapped file is never truncated underneath a
+	 * live buffer.
+	 */
+	synchronized void clear() {
+		next = 0;
+	}
+
+	/**
+	 * Close the backing file, if any.
+	 *
+	 * @throws CDataGridException
+	 *             if problem closing the file
+	 */
+	synchronized void close() throws CDataGridException {
+		segments = new ByteBuffer[0];
+		next = 0;
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				throw new CDataGridException(e);
+			}
+		}
+	}
+
+	/**
+	 * Add a segment.
+	 *
+	 * @throws CDataGridException
+	 *             if the segment cannot be allocated or mapped
+	 */
+	private void grow() throws CDataGridException {
+		ByteBuffer segment;
+		if (file == null) {
+			segment = ByteBuffer.allocateDirect(segmentSize);
+		} else {
+			try {
+				segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+						(long) segments.length * segmentSize, segmentSize);
+			} catch (IOException e) {
+				throw new CDataGridException("Cannot map off-heap segment", e);
+			}
+		}
+
+		ByteBuffer[] grown = new ByteBuffer[segments.length + 1];
+		System.arraycopy(segments, 0, grown, 0, segments.length);
+		grown[segments.length] = segment;
+		segments = grown;
+	}
+
+}
@@ -0,0 +1,513 @@
+package net.casper.data.model.offheap;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import net.casper.data.model.CDataGridException;
+import net.casper.data.model.CRowMetaData;
+
+/**
+ * Fixed width binary layout of a row, derived from a {@link CRowMetaData}.
+ * <p>
+ * A row occupies {@link #getRowSize()} bytes: a 4 byte stamp, a null bitmap
+ * with one bit per column, and then one fixed width slot per column. Numeric,
+ * boolean, character and date values are stored directly in their slot.
+ * Variable length values ({@link String} and {@link BigDecimal}) store an 8
+ * byte address in their slot which points to a length prefixed byte sequence
+ * held elsewhere.
+ * <p>
+ * The type codes and value encodings are also used by other binary formats
+ * that need to agree on how a column type is stored.
+ *
+ * @author agent
+ */
+public final class CRowLayout {
+
+	/** Type code for {@link Boolean} columns. */
+	public static final int TYPE_BOOLEAN = 1;
+
+	/** Type code for {@link Byte} columns. */
+	public static final int TYPE_BYTE = 2;
+
+	/** Type code for {@link Short} columns. */
+	public static final int TYPE_SHORT = 3;
+
+	/** Type code for {@link Character} columns. */
+	public static final int TYPE_CHARACTER = 4;
+
+	/** Type code for {@link Integer} columns. */
+	public static final int TYPE_INTEGER = 5;
+
+	/** Type code for {@link Long} columns. */
+	public static final int TYPE_LONG = 6;
+
+	/** Type code for {@link Float} columns. */
+	public static final int TYPE_FLOAT = 7;
+
+	/** Type code for {@link Double} columns. */
+	public static final int TYPE_DOUBLE = 8;
+
+	/** Type code for {@link String} columns. */
+	public static final int TYPE_STRING = 9;
+
+	/** Type code for {@link java.util.Date} columns. */
+	public static final int TYPE_DATE = 10;
+
+	/** Type code for {@link java.sql.Date} columns. */
+	public static final int TYPE_SQL_DATE = 11;
+
+	/** Type code for {@link Time} columns. */
+	public static final int TYPE_TIME = 12;
+
+	/** Type code for {@link Timestamp} columns. */
+	public static final int TYPE_TIMESTAMP = 13;
+
+	/** Type code for {@link BigDecimal} columns. */
+	public static final int TYPE_BIG_DECIMAL = 14;
+
+	/** Size of the stamp at the start of each row. */
+	public static final int STAMP_SIZE = 4;
+
+	/** Character set used to encode variable length values. */
+	private static final String ENCODING = "UTF-8";
+
+	/** Type code of each column. */
+	private final int[] typeCodes;
+
+	/** Byte offset of each column slot from the start of the row. */
+	private final int[] offsets;
+
+	/** Number of bytes in the null bitmap. */
+	private final int bitmapSize;
+
+	/** Total number of bytes occupied by a row. */
+	private final int rowSize;
+
+	/**
+	 * Derive a layout from meta data.
+	 *
+	 * @param metaData
+	 *            row meta data
+	 * @throws CDataGridException
+	 *             if a column type has no binary representation
+	 */
+	public CRowLayout(CRowMetaData metaData) throws CDataGridException {
+		Class[] columnTypes = metaData.getColumnTypes();
+		String[] columnNames = metaData.getColumnNames();
+
+		typeCodes = new int[columnTypes.length];
+		offsets = new int[columnTypes.length];
+		bitmapSize = (columnTypes.length + 7) / 8;
+
+		int offset = STAMP_SIZE + bitmapSize;
+		for (int i = 0; i < columnTypes.length; i++) {
+			typeCodes[i] = getTypeCode(columnTypes[i]);
+			if (typeCodes[i] < 0) {
+				throw new CDataGridException("Column " + columnNames[i]
+						+ " of type " + columnTypes[i].getName()
+						+ " cannot be stored in a binary row layout.");
+			}
+			offsets[i] = offset;
+			offset += getSlotWidth(typeCodes[i]);
+		}
+		rowSize = offset;
+	}
+
+	/**
+	 * Number of columns in the layout.
+	 *
+	 * @return number of columns
+	 */
+	public int getNumberColumns() {
+		return typeCodes.length;
+	}
+
+	/**
+	 * Number of bytes occupied by a row.
+	 *
+	 * @return row size in bytes
+	 */
+	public int getRowSize() {
+		return rowSize;
+	}
+
+	/**
+	 * Type code of a column.
+	 *
+	 * @param columnIndex
+	 *            column index
+	 * @return type code
+	 */
+	public int getTypeCode(int columnIndex) {
+		return typeCodes[columnIndex];
+	}
+
+	/**
+	 * Byte offset of a column slot from the start of the row.
+	 *
+	 * @param columnIndex
+	 *            column index
+	 * @return offset in bytes
+	 */
+	public int getOffset(int columnIndex) {
+		return offsets[columnIndex];
+	}
+
+	/**
+	 * Whether the null bit for a column is set in the row at {@code rowPos}.
+	 *
+	 * @param buf
+	 *            buffer holding the row
+	 * @param rowPos
+	 *            position of the row in {@code buf}
+	 * @param columnIndex
+	 *            column index
+	 * @return {@code true} if the column value is {@code null}
+	 */
+	public boolean isNull(ByteBuffer buf, int rowPos, int columnIndex) {
+		byte bits = buf.get(rowPos + STAMP_SIZE + (columnIndex >> 3));
+		return (bits & (1 << (columnIndex & 7))) != 0;
+	}
+
+	/**
+	 * Set or clear the null bit for a column in the row at {@code rowPos}.
+	 *
+	 * @param buf
+	 *            buffer holding the row
+	 * @param rowPos
+	 *            position of the row in {@code buf}
+	 * @param columnIndex
+	 *            column index
+	 * @param isNull
+	 *            {@code true} to mark the value as {@code null}
+	 */
+	public void setNull(ByteBuffer buf, int rowPos, int columnIndex,
+			boolean isNull) {
+		int pos = rowPos + STAMP_SIZE + (columnIndex >> 3);
+		int mask = 1 << (columnIndex & 7);
+		byte bits = buf.get(pos);
+		buf.put(pos, (byte) (isNull ? (bits | mask) : (bits & ~mask)));
+	}
+
+	/**
+	 * Clear the null bitmap of the row at {@code rowPos}.
+	 *
+	 * @param buf
+	 *            buffer holding the row
+	 * @param rowPos
+	 *            position of the row in {@code buf}
+	 */
+	public void clearNulls(ByteBuffer buf, int rowPos) {
+		for (int i = 0; i < bitmapSize; i++) {
+			buf.put(rowPos + STAMP_SIZE + i, (byte) 0);
+		}
+	}
+
+	/**
+	 * Returns the type code for a column type, or {@code -1} if the type has no
+	 * binary representation.
+	 *
+	 * @param type
+	 *            column type
+	 * @return type code, or {@code -1}
+	 */
+	public static int getTypeCode(Class type) {
+		if (type == Boolean.class || type == boolean.class) {
+			return TYPE_BOOLEAN;
+		} else if (type == Byte.class || type == byte.class) {
+			return TYPE_BYTE;
+		} else if (type == Short.class || type == short.class) {
+			return TYPE_SHORT;
+		} else if (type == Character.class || type == char.class) {
+			return TYPE_CHARACTER;
+		} else if (type == Integer.class || type == int.class) {
+			return TYPE_INTEGER;
+		} else if (type == Long.class || type == long.class) {
+			return TYPE_LONG;
+		} else if (type == Float.class || type == float.class) {
+			return TYPE_FLOAT;
+		} else if (type == Double.class || type == double.class) {
+			return TYPE_DOUBLE;
+		} else if (type == String.class) {
+			return TYPE_STRING;
+		} else if (type == Date.class) {
+			return TYPE_DATE;
+		} else if (type == java.sql.Date.class) {
+			return TYPE_SQL_DATE;
+		} else if (type == Time.class) {
+			return TYPE_TIME;
+		} else if (type == Timestamp.class) {
+			return TYPE_TIMESTAMP;
+		} else if (type == BigDecimal.class) {
+			return TYPE_BIG_DECIMAL;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the column type for a type code.
+	 *
+	 * @param typeCode
+	 *            type code
+	 * @return column type
+	 * @throws CDataGridException
+	 *             if the type code is unknown
+	 */
+	public static Class getTypeClass(int typeCode) throws CDataGridException {
+		switch (typeCode) {
+		case TYPE_BOOLEAN:
+			return Boolean.class;
+		case TYPE_BYTE:
+			return Byte.class;
+		case TYPE_SHORT:
+			return Short.class;
+		case TYPE_CHARACTER:
+			return Character.class;
+		case TYPE_INTEGER:
+			return Integer.class;
+		case TYPE_LONG:
+			return Long.class;
+		case TYPE_FLOAT:
+			return Float.class;
+		case TYPE_DOUBLE:
+			return Double.class;
+		case TYPE_STRING:
+			return String.class;
+		case TYPE_DATE:
+			return Date.class;
+		case TYPE_SQL_DATE:
+			return java.sql.Date.class;
+		case TYPE_TIME:
+			return Time.class;
+		case TYPE_TIMESTAMP:
+			return Timestamp.class;
+		case TYPE_BIG_DECIMAL:
+			return BigDecimal.class;
+		default:
+			throw new CDataGridException("Unknown type code " + typeCode);
+		}
+	}
+
+	/**
+	 * Whether values of a type are variable length. Variable length values are
+	 * written with {@link #encodeVariable(int, Object)} rather than into their
+	 * slot.
+	 *
+	 * @param typeCode
+	 *            type code
+	 * @return {@code true} if values are variable length
+	 */
+	public static boolean isVariable(int typeCode) {
+		return typeCode == TYPE_STRING || typeCode == TYPE_BIG_DECIMAL;
+	}
+
+	/**
+	 * Number of bytes occupied by a value of a given type in a row slot.
+	 * Variable length types occupy 8 bytes, the size of their address.
+	 *
+	 * @param typeCode
+	 *            type code
+	 * @return slot width in bytes
+	 */
+	public static int getSlotWidth(int typeCode) {
+		switch (typeCode) {
+		case TYPE_BOOLEAN:
+		case TYPE_BYTE:
+			return 1;
+		case TYPE_SHORT:
+		case TYPE_CHARACTER:
+			return 2;
+		case TYPE_INTEGER:
+		case TYPE_FLOAT:
+			return 4;
+		case TYPE_TIMESTAMP:
+			return 12;
+		default:
+			return 8;
+		}
+	}
+
+	/**
+	 * Write a fixed width value at an absolute position in a buffer.
+	 *
+	 * @param buf
+	 *            buffer
+	 * @param pos
+	 *            absolute position
+	 * @param typeCode
+	 *            type code of the value
+	 * @param value
+	 *            non-null value
+	 * @throws CDataGridException
+	 *             if the value is not of the expected type
+	 */
+	public static void writeFixed(ByteBuffer buf, int pos, int typeCode,
+			Object value) throws CDataGridException {
+		try {
+			switch (typeCode) {
+			case TYPE_BOOLEAN:
+				buf.put(pos, (byte) (((Boolean) value).booleanValue() ? 1 : 0));
+				break;
+			case TYPE_BYTE:
+				buf.put(pos, ((Byte) value).byteValue());
+				break;
+			case TYPE_SHORT:
+				buf.putShort(pos, ((Short) value).shortValue());
+				break;
+			case TYPE_CHARACTER:
+				buf.putChar(pos, ((Character) value).charValue());
+				break;
+			case TYPE_INTEGER:
+				buf.putInt(pos, ((Integer) value).intValue());
+				break;
+			case TYPE_LONG:
+				buf.putLong(pos, ((Long) value).longValue());
+				break;
+			case TYPE_FLOAT:
+				buf.putFloat(pos, ((Float) value).floatValue());
+				break;
+			case TYPE_DOUBLE:
+				buf.putDouble(pos, ((Double) value).doubleValue());
+				break;
+			case TYPE_DATE:
+			case TYPE_SQL_DATE:
+			case TYPE_TIME:
+				buf.putLong(pos, ((Date) value).getTime());
+				break;
+			case TYPE_TIMESTAMP:
+				Timestamp ts = (Timestamp) value;
+				buf.putLong(pos, ts.getTime());
+				buf.putInt(pos + 8, ts.getNanos());
+				break;
+			default:
+				throw new CDataGridException("Type code " + typeCode
+						+ " is not a fixed width type");
+			}
+		} catch (ClassCastException e) {
+			throw new CDataGridException("Value " + value + " of type "
+					+ value.getClass().getName()
+					+ " does not match column type "
+					+ getTypeClass(typeCode).getName());
+		}
+	}
+
+	/**
+	 * Read a fixed width value from an absolute position in a buffer.
+	 *
+	 * @param buf
+	 *            buffer
+	 * @param pos
+	 *            absolute position
+	 * @param typeCode
+	 *            type code of the value
+	 * @return value
+	 * @throws CDataGridException
+	 *             if the type is not fixed width
+	 */
+	public static Object readFixed(ByteBuffer buf, int pos, int typeCode)
+			throws CDataGridException {
+		switch (typeCode) {
+		case TYPE_BOOLEAN:
+			return buf.get(pos) == 0 ? Boolean.FALSE : Boolean.TRUE;
+		case TYPE_BYTE:
+			return new Byte(buf.get(pos));
+		case TYPE_SHORT:
+			return new Short(buf.getShort(pos));
+		case TYPE_CHARACTER:
+			return new Character(buf.getChar(pos));
+		case TYPE_INTEGER:
+			return new Integer(buf.getInt(pos));
+		case TYPE_LONG:
+			return new Long(buf.getLong(pos));
+		case TYPE_FLOAT:
+			return new Float(buf.getFloat(pos));
+		case TYPE_DOUBLE:
+			return new Double(buf.getDouble(pos));
+		case TYPE_DATE:
+			return new Date(buf.getLong(pos));
+		case TYPE_SQL_DATE:
+			return new java.sql.Date(buf.getLong(pos));
+		case TYPE_TIME:
+			return new Time(buf.getLong(pos));
+		case TYPE_TIMESTAMP:
+			Timestamp ts = new Timestamp(buf.getLong(pos));
+			ts.setNanos(buf.getInt(pos + 8));
+			return ts;
+		default:
+			throw new CDataGridException("Type code " + typeCode
+					+ " is not a fixed width type");
+		}
+	}
+
+	/**
+	 * Encode a variable length value to bytes.
+	 *
+	 * @param typeCode
+	 *            type code of the value
+	 * @param value
+	 *            non-null value
+	 * @return encoded bytes
+	 * @throws CDataGridException
+	 *             if the value is not of the expected type
+	 */
+	public static byte[] encodeVariable(int typeCode, Object value)
+			throws CDataGridException {
+		String str;
+		if (typeCode == TYPE_STRING && value instanceof String) {
+			str = (String) value;
+		} else if (typeCode == TYPE_BIG_DECIMAL && value instanceof BigDecimal) {
+			str = value.toString();
+		} else {
+			throw new CDataGridException("Value " + value + " of type "
+					+ value.getClass().getName()
+					+ " does not match column type "
+					+ getTypeClass(typeCode).getName());
+		}
+
+		try {
+			return str.getBytes(ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new CDataGridException(e);
+		}
+	}
+
+	/**
+	 * Decode a variable length value from bytes.
+	 *
+	 * @param typeCode
+	 *            type code of the value
+	 * @param bytes
+	 *            byte array
+	 * @param offset
+	 *            offset of the value in {@code bytes}
+	 * @param length
+	 *            number of bytes in the value
+	 * @return value
+	 * @throws CDataGridException
+	 *             if the type is not variable length
+	 */
+	public static Object decodeVariable(int typeCode, byte[] bytes,
+			int offset, int length) throws CDataGridException {
+		String str;
+		try {
+			str = new String(bytes, offset, length, ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new CDataGridException(e);
+		}
+
+		switch (typeCode) {
+		case TYPE_STRING:
+			return str;
+		case TYPE_BIG_DECIMAL:
+			return new BigDecimal(str);
+		default:
+			throw new CDataGridException("Type code " + typeCode
+					+ " is not a variable length type");
+		}
+	}
+
+}